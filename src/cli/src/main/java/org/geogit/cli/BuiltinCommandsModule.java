@@ -9,7 +9,9 @@ import org.geogit.cli.plumbing.DiffTree;
 import org.geogit.cli.plumbing.Insert;
 import org.geogit.cli.plumbing.LsTree;
 import org.geogit.cli.plumbing.MergeBase;
+import org.geogit.cli.plumbing.PackRefs;
 import org.geogit.cli.plumbing.RebuildGraph;
+import org.geogit.cli.plumbing.RebuildPathFilters;
 import org.geogit.cli.plumbing.RevList;
 import org.geogit.cli.plumbing.RevParse;
 import org.geogit.cli.plumbing.ShowRef;
@@ -79,6 +81,8 @@ import com.google.inject.AbstractModule;
  * @see Fetch
  * @see Version
  * @see RebuildGraph
+ * @see RebuildPathFilters
+ * @see PackRefs
  */
 public class BuiltinCommandsModule extends AbstractModule implements CLIModule {
 
@@ -126,6 +130,8 @@ public class BuiltinCommandsModule extends AbstractModule implements CLIModule {
         bind(WalkGraph.class);
         bind(Version.class);
         bind(RebuildGraph.class);
+        bind(RebuildPathFilters.class);
+        bind(PackRefs.class);
     }
 
 }
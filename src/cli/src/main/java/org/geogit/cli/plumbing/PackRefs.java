@@ -0,0 +1,31 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.cli.plumbing;
+
+import java.io.IOException;
+
+import org.geogit.api.plumbing.PackRefsOp;
+import org.geogit.cli.AbstractCommand;
+import org.geogit.cli.CLICommand;
+import org.geogit.cli.GeogitCLI;
+import org.geogit.cli.annotation.StagingDatabaseReadOnly;
+
+import com.beust.jcommander.Parameters;
+
+/**
+ * Packs the refs of the repository for faster reads.
+ * 
+ * @see PackRefsOp
+ */
+@StagingDatabaseReadOnly
+@Parameters(commandNames = "pack-refs", commandDescription = "Packs the refs for faster reads")
+public class PackRefs extends AbstractCommand implements CLICommand {
+
+    @Override
+    public void runInternal(GeogitCLI cli) throws IOException {
+        cli.getGeogit().command(PackRefsOp.class).call();
+        cli.getConsole().println("Refs packed.");
+    }
+}
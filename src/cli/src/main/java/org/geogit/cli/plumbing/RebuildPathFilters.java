@@ -0,0 +1,55 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+
+package org.geogit.cli.plumbing;
+
+import java.io.IOException;
+
+import jline.console.ConsoleReader;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.plumbing.RebuildChangedPathFiltersOp;
+import org.geogit.cli.AbstractCommand;
+import org.geogit.cli.CLICommand;
+import org.geogit.cli.GeogitCLI;
+import org.geogit.cli.annotation.StagingDatabaseReadOnly;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Builds the changed path filters of the commits that lack them and prints the list of commits a
+ * filter was built for.
+ * 
+ * @see RebuildChangedPathFiltersOp
+ */
+@StagingDatabaseReadOnly
+@Parameters(commandNames = "rebuild-path-filters", commandDescription = "Builds the changed path filters used to speed up path filtered logs.")
+public class RebuildPathFilters extends AbstractCommand implements CLICommand {
+
+    @Parameter(names = "--quiet", description = "Print only the number of filters built.")
+    private boolean quiet = false;
+
+    @Override
+    public void runInternal(GeogitCLI cli) throws IOException {
+        ImmutableList<ObjectId> updatedCommits = cli.getGeogit()
+                .command(RebuildChangedPathFiltersOp.class).call();
+
+        final ConsoleReader console = cli.getConsole();
+        if (updatedCommits.size() > 0) {
+            if (quiet) {
+                console.println(updatedCommits.size() + " changed path filters were built.");
+            } else {
+                console.println("Changed path filters were built for the following commits:");
+                for (ObjectId commit : updatedCommits) {
+                    console.println(commit.toString());
+                }
+            }
+        } else {
+            console.println("No missing changed path filters were found.");
+        }
+    }
+}
@@ -7,6 +7,7 @@ package org.geogit.api;
 
 import org.geogit.api.porcelain.InitOp;
 import org.geogit.di.PluginDefaults;
+import org.geogit.repository.ExecutionService;
 import org.geogit.repository.Repository;
 import org.geogit.repository.StagingArea;
 import org.geogit.repository.WorkingTree;
@@ -62,6 +63,11 @@ public interface Context {
 
     public DeduplicationService deduplicationService();
 
+    /**
+     * @return the repository wide scheduler parallel work shall be submitted to
+     */
+    public ExecutionService executionService();
+
     /**
      * @TODO find a better way of accessing plugins and defaults. This method is currently here for
      *       the sake of {@link InitOp} and to get rid of the {@code getInstance(Class anyClass)}
@@ -11,6 +11,7 @@ import javax.annotation.Nullable;
 import org.geogit.api.plumbing.TransactionEnd;
 import org.geogit.api.porcelain.ConflictsException;
 import org.geogit.di.PluginDefaults;
+import org.geogit.repository.ExecutionService;
 import org.geogit.repository.Index;
 import org.geogit.repository.Repository;
 import org.geogit.repository.StagingArea;
@@ -23,6 +24,7 @@ import org.geogit.storage.RefDatabase;
 import org.geogit.storage.StagingDatabase;
 import org.geogit.storage.TransactionRefDatabase;
 import org.geogit.storage.TransactionStagingArea;
+import org.geogit.storage.TransactionStagingDatabase;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
@@ -49,6 +51,8 @@ public class GeogitTransaction implements Context {
 
     private final TransactionRefDatabase transactionRefDatabase;
 
+    private final TransactionStagingDatabase transactionStagingDatabase;
+
     private Optional<String> authorName = Optional.absent();
 
     private Optional<String> authorEmail = Optional.absent();
@@ -64,7 +68,9 @@ public class GeogitTransaction implements Context {
         this.injector = locator;
         this.transactionId = transactionId;
 
-        transactionIndex = new TransactionStagingArea(new Index(this), transactionId);
+        transactionStagingDatabase = new TransactionStagingDatabase(locator.stagingDatabase(),
+                transactionId);
+        transactionIndex = new TransactionStagingArea(new Index(this), transactionStagingDatabase);
         transactionWorkTree = new WorkingTree(this);
         transactionRefDatabase = new TransactionRefDatabase(locator.refDatabase(), transactionId);
     }
@@ -75,6 +81,15 @@ public class GeogitTransaction implements Context {
 
     public void close() {
         transactionRefDatabase.close();
+        transactionStagingDatabase.clearOverlay();
+    }
+
+    /**
+     * Writes the objects created by this transaction that are still held in memory by its staging
+     * database to the repository object database, so that they outlive the transaction.
+     */
+    public void writeStagedObjects() {
+        transactionStagingDatabase.writeOverlay(injector.objectDatabase());
     }
 
     /**
@@ -180,6 +195,11 @@ public class GeogitTransaction implements Context {
         return injector.deduplicationService();
     }
 
+    @Override
+    public ExecutionService executionService() {
+        return injector.executionService();
+    }
+
     @Override
     public PluginDefaults pluginDefaults() {
         return injector.pluginDefaults();
@@ -31,7 +31,7 @@ import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
@@ -50,6 +50,12 @@ public class RevTreeBuilder {
      */
     public static final int DEFAULT_NORMALIZATION_THRESHOLD = 1000 * 1000;
 
+    /**
+     * How many children nodes a {@link #bounded(ObjectDatabase, RevTree) memory bounded} builder
+     * holds before flushing them into tree buckets on the database
+     */
+    public static final int DEFAULT_BOUNDED_NORMALIZATION_THRESHOLD = 100 * 1000;
+
     private final ObjectDatabase db;
 
     private final Set<String> deletes;
@@ -70,6 +76,23 @@ public class RevTreeBuilder {
 
     private Map<ObjectId, RevTree> pendingWritesCache;
 
+    /**
+     * Whether this builder created its {@link #pendingWritesCache} and hence is responsible for
+     * writing it, as opposed to sharing the one of the builder of a higher level tree
+     */
+    private final boolean ownsPendingWrites;
+
+    /**
+     * Number of pending changes that trigger the normalization of this tree into buckets
+     */
+    private final int normalizationThreshold;
+
+    /**
+     * Whether bucket trees are saved as soon as they're built instead of being held on the
+     * {@link #pendingWritesCache} until the top level tree is built
+     */
+    private final boolean streamingWrites;
+
     /**
      * Empty tree constructor, used to create trees from scratch
      * 
@@ -90,20 +113,73 @@ public class RevTreeBuilder {
         deletes = Sets.newTreeSet();
         bucketTreesByBucket = Maps.newTreeMap();
         pendingWritesCache = Maps.newTreeMap();
+        ownsPendingWrites = true;
+        normalizationThreshold = DEFAULT_NORMALIZATION_THRESHOLD;
+        streamingWrites = false;
     }
 
     /**
      * Copy constructor with tree depth
      */
     public RevTreeBuilder(ObjectDatabase db, @Nullable final RevTree copy) {
-        this(db, copy, 0, new TreeMap<ObjectId, RevTree>());
+        this(db, copy, 0, new TreeMap<ObjectId, RevTree>(), true,
+                DEFAULT_NORMALIZATION_THRESHOLD, false);
+    }
+
+    /**
+     * Shorthand for {@link #bounded(ObjectDatabase, RevTree, int)} with
+     * {@link #DEFAULT_BOUNDED_NORMALIZATION_THRESHOLD}
+     */
+    public static RevTreeBuilder bounded(ObjectDatabase db, @Nullable final RevTree copy) {
+        return bounded(db, copy, DEFAULT_BOUNDED_NORMALIZATION_THRESHOLD);
+    }
+
+    /**
+     * Creates a builder that holds a bounded number of changes in memory, suitable to edit large
+     * trees with an arbitrary number of changes.
+     * <p>
+     * Whenever {@code maxPendingChanges} changes are pending, they're spilled to the database as a
+     * run sorted by bucket: each bucket tree is rebuilt with its share of the changes and saved
+     * right away, instead of being held in memory until {@link #build()}. The price is that bucket
+     * trees that get modified again by a later run are saved more than once.
+     * 
+     * @param copy the tree to copy, or {@code null}
+     * @param maxPendingChanges the number of pending changes (puts or removes) that trigger a
+     *        flush, must be greater than {@link RevTree#NORMALIZED_SIZE_LIMIT}
+     */
+    public static RevTreeBuilder bounded(ObjectDatabase db, @Nullable final RevTree copy,
+            final int maxPendingChanges) {
+        checkArgument(maxPendingChanges > NORMALIZED_SIZE_LIMIT,
+                "maxPendingChanges must be > %s: %s", NORMALIZED_SIZE_LIMIT, maxPendingChanges);
+        return new RevTreeBuilder(db, copy, 0, new TreeMap<ObjectId, RevTree>(), true,
+                maxPendingChanges, true);
+    }
+
+    /**
+     * Creates a builder for one of the bucket trees at the given depth of a larger tree, to build
+     * bucket trees independently (e.g. concurrently) and assemble them afterwards.
+     * <p>
+     * The builder is {@link #bounded(ObjectDatabase, RevTree) memory bounded}, the nested bucket
+     * trees of the resulting tree are saved as they're built, but not the resulting bucket tree
+     * itself.
+     * 
+     * @param bucketTree the current bucket tree to copy, or {@code null}
+     * @param depth the depth of the bucket tree, where {@code 1} means a bucket of the top level
+     *        tree
+     */
+    public static RevTreeBuilder bucketTreeBuilder(ObjectDatabase db,
+            @Nullable final RevTree bucketTree, final int depth) {
+        checkArgument(depth > 0, "depth must be > 0: %s", depth);
+        return new RevTreeBuilder(db, bucketTree, depth, new TreeMap<ObjectId, RevTree>(), true,
+                DEFAULT_BOUNDED_NORMALIZATION_THRESHOLD, true);
     }
 
     /**
      * Copy constructor
      */
     private RevTreeBuilder(final ObjectDatabase db, @Nullable final RevTree copy, final int depth,
-            final Map<ObjectId, RevTree> pendingWritesCache) {
+            final Map<ObjectId, RevTree> pendingWritesCache, final boolean ownsPendingWrites,
+            final int normalizationThreshold, final boolean streamingWrites) {
 
         checkNotNull(db);
         checkNotNull(pendingWritesCache);
@@ -111,6 +187,9 @@ public class RevTreeBuilder {
         this.db = db;
         this.depth = depth;
         this.pendingWritesCache = pendingWritesCache;
+        this.ownsPendingWrites = ownsPendingWrites;
+        this.normalizationThreshold = normalizationThreshold;
+        this.streamingWrites = streamingWrites;
 
         this.deletes = Sets.newHashSet();
         this.treeChanges = Maps.newHashMap();
@@ -236,15 +315,15 @@ public class RevTreeBuilder {
                 if (unnamedTree.buckets().isPresent()) {
                     unnamedTree = moveBucketsToChildren(unnamedTree);
                 }
-                if (this.depth == 0) {
+                if (ownsPendingWrites) {
                     pendingWritesCache.clear();
                 }
             }
         }
 
         final int pendingWritesThreshold = 10 * 1000;
-        final boolean topLevelTree = this.depth == 0;// am I an actual (addressable) tree or bucket
-                                                     // tree of a higher level one?
+        // am I an actual (addressable) tree or bucket tree of a higher level one?
+        final boolean topLevelTree = ownsPendingWrites;
         final boolean forceWrite = pendingWritesCache.size() >= pendingWritesThreshold;
         if (!pendingWritesCache.isEmpty() && (topLevelTree || forceWrite)) {
             LOGGER.debug("calling db.putAll for {} buckets because {}...", pendingWritesCache
@@ -318,7 +397,7 @@ public class RevTreeBuilder {
      */
     private RevTree normalizeToBuckets() {
         // update all inner trees
-        final ImmutableSet<Integer> changedBucketIndexes;
+        final ImmutableSortedSet<Integer> changedBucketIndexes;
 
         // aggregate size delta for all changed buckets
         long sizeDelta = 0L;
@@ -331,7 +410,8 @@ public class RevTreeBuilder {
             Preconditions.checkState(treeChanges.isEmpty());
             Preconditions.checkState(deletes.isEmpty());
 
-            changedBucketIndexes = ImmutableSet.copyOf(changesByBucket.keySet());
+            // process buckets in storage order, so are the resulting bucket trees saved
+            changedBucketIndexes = ImmutableSortedSet.copyOf(changesByBucket.keySet());
 
             List<RevTree> newLeafTreesToSave = Lists.newArrayList();
 
@@ -339,7 +419,8 @@ public class RevTreeBuilder {
                 final RevTree currentBucketTree = getBucketTree(bucketIndex);
                 final int bucketDepth = this.depth + 1;
                 final RevTreeBuilder bucketTreeBuilder = new RevTreeBuilder(this.db,
-                        currentBucketTree, bucketDepth, this.pendingWritesCache);
+                        currentBucketTree, bucketDepth, this.pendingWritesCache, false,
+                        this.normalizationThreshold, this.streamingWrites);
                 {
                     final Collection<Node> bucketEntries = changesByBucket.removeAll(bucketIndex);
                     for (Node node : bucketEntries) {
@@ -365,12 +446,13 @@ public class RevTreeBuilder {
                         // db.delete(currBucket.id());
                         // }
                         // have it on the pending writes set only if its not a leaf tree. Non bucket
-                        // trees may be too large and cause OOM
+                        // trees may be too large and cause OOM. Streaming builders save all of them
+                        // right away
                         if (null != pendingWritesCache.remove(currentBucketTree.getId())) {
                             // System.err.printf(" ---> removed bucket %s from list\n",
                             // currentBucketTree.getId());
                         }
-                        if (modifiedBucketTree.buckets().isPresent()) {
+                        if (modifiedBucketTree.buckets().isPresent() && !streamingWrites) {
                             pendingWritesCache.put(modifiedBucketTree.getId(), modifiedBucketTree);
                         } else {
                             // db.put(modifiedBucketTree);
@@ -466,8 +548,8 @@ public class RevTreeBuilder {
      * Adds or replaces an element in the tree with the given key.
      * <p>
      * <!-- Implementation detail: If the number of cached entries (entries held directly by this
-     * tree) reaches {@link #DEFAULT_NORMALIZATION_THRESHOLD}, this tree will {@link #normalize()}
-     * itself.
+     * tree) reaches {@link #DEFAULT_NORMALIZATION_THRESHOLD}, or the threshold given to
+     * {@link #bounded(ObjectDatabase, RevTree, int)}, this tree will {@link #normalize()} itself.
      * 
      * -->
      * 
@@ -478,11 +560,15 @@ public class RevTreeBuilder {
         Preconditions.checkNotNull(node, "node can't be null");
 
         putInternal(node);
-        if (numPendingChanges() >= DEFAULT_NORMALIZATION_THRESHOLD) {
+        normalizeIfNeeded();
+        return this;
+    }
+
+    private void normalizeIfNeeded() {
+        if (numPendingChanges() >= normalizationThreshold) {
             // hit the split factor modification tolerance, lets normalize
             normalize();
         }
-        return this;
     }
 
     /**
@@ -499,6 +585,7 @@ public class RevTreeBuilder {
         }
 
         deletes.add(childName);
+        normalizeIfNeeded();
         return this;
     }
 
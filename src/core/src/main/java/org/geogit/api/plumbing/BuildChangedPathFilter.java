@@ -0,0 +1,143 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.api.plumbing;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.AbstractGeoGitOp;
+import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevCommit;
+import org.geogit.api.plumbing.diff.DiffEntry;
+import org.geogit.repository.Repository;
+import org.geogit.storage.ChangedPathFilter;
+import org.geogit.storage.ChangedPathFilterDatabase;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import com.google.inject.Inject;
+
+/**
+ * Computes the {@link ChangedPathFilter} of a commit, with the paths of all the trees and features
+ * that changed with respect to any of its parents, and stores it in the
+ * {@link ChangedPathFilterDatabase}.
+ * <p>
+ * It's called by the commands that create commits, right after storing them, and by
+ * {@link RebuildChangedPathFiltersOp} for the commits lacking a filter, such as fetched ones.
+ * When the changes with respect to the first parent are already known, as when
+ * {@link WriteTree2} wrote the commit's tree, they can be {@link #setFirstParentChanges(Set) given}
+ * so that only the other parents, if any, are diffed against.
+ * <p>
+ * No filter is built if any of the parents or their trees are missing (e.g. at the bottom of a
+ * shallow clone) or the commit changed more than {@link #MAX_PATHS} paths, in which case the
+ * filter wouldn't pay off. Returns the commit's filter, or {@link Optional#absent() absent} if it
+ * was not built.
+ */
+public class BuildChangedPathFilter extends AbstractGeoGitOp<Optional<ChangedPathFilter>> {
+
+    /**
+     * The maximum number of changed paths a filter is built for
+     */
+    static final int MAX_PATHS = 100 * 1000;
+
+    private final ChangedPathFilterDatabase filters;
+
+    private RevCommit commit;
+
+    private Set<String> firstParentChanges;
+
+    @Inject
+    public BuildChangedPathFilter(ChangedPathFilterDatabase filters) {
+        this.filters = filters;
+    }
+
+    /**
+     * @param commit the commit to build the changed path filter for
+     * @return {@code this}
+     */
+    public BuildChangedPathFilter setCommit(RevCommit commit) {
+        this.commit = commit;
+        return this;
+    }
+
+    /**
+     * @param changedPaths the paths of the trees and features changed with respect to the first
+     *        parent, if already known, or {@code null} to compute them
+     * @return {@code this}
+     */
+    public BuildChangedPathFilter setFirstParentChanges(@Nullable Set<String> changedPaths) {
+        this.firstParentChanges = changedPaths;
+        return this;
+    }
+
+    @Override
+    protected Optional<ChangedPathFilter> _call() {
+        checkState(commit != null, "commit not provided");
+
+        final ObjectId commitId = commit.getId();
+        Optional<ChangedPathFilter> existing = filters.get(commitId);
+        if (existing.isPresent()) {
+            return existing;
+        }
+
+        final Repository repository = repository();
+        if (!repository.objectDatabase().exists(commit.getTreeId())) {
+            return Optional.absent();
+        }
+        final Set<String> changedPaths = Sets.newHashSet();
+        List<ObjectId> parentIds = commit.getParentIds();
+        if (parentIds.isEmpty()) {
+            // an initial commit changed all of its paths
+            parentIds = ImmutableList.of(ObjectId.NULL);
+        }
+        if (firstParentChanges != null) {
+            if (firstParentChanges.size() > MAX_PATHS) {
+                return Optional.absent();
+            }
+            changedPaths.addAll(firstParentChanges);
+            parentIds = parentIds.subList(1, parentIds.size());
+        }
+        for (ObjectId parentId : parentIds) {
+            final ObjectId parentTreeId;
+            if (parentId.isNull()) {
+                parentTreeId = ObjectId.NULL;
+            } else if (repository.commitExists(parentId)) {
+                parentTreeId = repository.getCommit(parentId).getTreeId();
+                if (!repository.objectDatabase().exists(parentTreeId)) {
+                    return Optional.absent();
+                }
+            } else {
+                return Optional.absent();
+            }
+            Iterator<DiffEntry> diffs = command(DiffTree.class).setOldTree(parentTreeId)
+                    .setNewTree(commit.getTreeId()).setReportTrees(true).call();
+            while (diffs.hasNext()) {
+                DiffEntry diff = diffs.next();
+                addPath(changedPaths, diff.getOldObject());
+                addPath(changedPaths, diff.getNewObject());
+                if (changedPaths.size() > MAX_PATHS) {
+                    return Optional.absent();
+                }
+            }
+        }
+
+        ChangedPathFilter filter = ChangedPathFilter.create(changedPaths);
+        filters.put(commitId, filter);
+        return Optional.of(filter);
+    }
+
+    private static void addPath(Set<String> changedPaths, NodeRef ref) {
+        if (ref != null) {
+            changedPaths.add(ref.path());
+        }
+    }
+}
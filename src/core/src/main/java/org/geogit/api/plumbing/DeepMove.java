@@ -7,10 +7,12 @@ package org.geogit.api.plumbing;
 
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nullable;
@@ -18,21 +20,22 @@ import javax.annotation.Nullable;
 import org.geogit.api.AbstractGeoGitOp;
 import org.geogit.api.Bucket;
 import org.geogit.api.Node;
-import org.geogit.api.NodeRef;
 import org.geogit.api.ObjectId;
 import org.geogit.api.RevObject;
 import org.geogit.api.RevObject.TYPE;
 import org.geogit.api.RevTree;
-import org.geogit.api.plumbing.LsTreeOp.Strategy;
+import org.geogit.repository.ExecutionService;
+import org.geogit.repository.ExecutionService.Lane;
 import org.geogit.repository.StagingArea;
 import org.geogit.storage.BulkOpListener;
 import org.geogit.storage.ObjectDatabase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
-import com.google.common.base.Predicate;
+import com.google.common.base.Stopwatch;
 import com.google.common.base.Supplier;
-import com.google.common.base.Suppliers;
 import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
@@ -43,9 +46,13 @@ import com.google.common.collect.Sets;
  * database} to the permanent {@link ObjectDatabase object database}, including any child reference,
  * or from the repository database to the index database if {@link #setToIndex} is set to
  * {@code true}.
+ * <p>
+ * Objects are read, written, and deleted from the origin database concurrently, in batches.
  */
 public class DeepMove extends AbstractGeoGitOp<ObjectId> {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeepMove.class);
+
     private boolean toIndex;
 
     private Supplier<Node> objectRef;
@@ -134,102 +141,148 @@ public class DeepMove extends AbstractGeoGitOp<ObjectId> {
         return ret;
     }
 
-    private static class DeleteTask implements Runnable {
-        private List<ObjectId> ids;
+    /**
+     * Moves objects from one database to another in a three stage pipeline.
+     * <p>
+     * The calling thread splits the ids to move in batches of {@link #BATCH_SIZE} and writes them
+     * to the target database, while the next {@link #READ_AHEAD} batches are read from the origin
+     * database, and the ids of the objects written, or found to be already in the target database,
+     * are deleted from the origin database in batches of {@link #DELETE_BATCH_SIZE}, on the
+     * {@link Lane#IO IO lane}. Reads and deletes are short tasks that never wait on each other, and
+     * reads are awaited in submission order, so the pipeline makes progress regardless of how busy
+     * the lane is.
+     */
+    private static class MovePipeline {
 
-        private ObjectDatabase db;
+        private static final int BATCH_SIZE = 10 * 1000;
 
-        public DeleteTask(List<ObjectId> ids, ObjectDatabase db) {
-            this.ids = ids;
-            this.db = db;
-        }
+        private static final int DELETE_BATCH_SIZE = 100 * 1000;
 
-        @Override
-        public void run() {
-            db.deleteAll(ids.iterator());
-            ids.clear();
-            ids = null;
-        }
-    }
+        private static final int READ_AHEAD = 2;
 
-    private static class DeletingListener extends BulkOpListener {
+        private final ObjectDatabase from;
 
-        private final int limit = 1000 * 10;
+        private final ObjectDatabase to;
 
-        final List<ObjectId> removeIds = Lists.newArrayListWithCapacity(limit);
+        private final ExecutorService executor;
 
-        private ExecutorService deletingService;
+        private final LinkedList<FutureTask<List<RevObject>>> reads = Lists.newLinkedList();
 
-        private ObjectDatabase db;
+        private final List<FutureTask<Long>> deletes = Lists.newArrayList();
 
-        public DeletingListener(ExecutorService deletingService, ObjectDatabase db) {
-            this.deletingService = deletingService;
-            this.db = db;
+        private List<ObjectId> moved = Lists.newArrayListWithCapacity(DELETE_BATCH_SIZE);
+
+        private final BulkOpListener movedCollector = new BulkOpListener() {
+            @Override
+            public void inserted(ObjectId object, @Nullable Integer storageSizeBytes) {
+                moved(object);
+            }
+
+            @Override
+            public void found(ObjectId object, @Nullable Integer storageSizeBytes) {
+                // already in the target database, still to be removed from the origin one
+                moved(object);
+            }
+        };
+
+        private long written;
+
+        MovePipeline(ObjectDatabase from, ObjectDatabase to, ExecutorService executor) {
+            this.from = from;
+            this.to = to;
+            this.executor = executor;
         }
 
-        @Override
-        public synchronized void inserted(ObjectId object, @Nullable Integer storageSizeBytes) {
-            removeIds.add(object);
-            if (removeIds.size() == limit) {
-                deleteInserted();
+        public void moveAll(final Iterator<ObjectId> ids) {
+            final Stopwatch sw = Stopwatch.createStarted();
+            final Iterator<List<ObjectId>> batches = Iterators.partition(ids, BATCH_SIZE);
+            try {
+                while (reads.size() < READ_AHEAD && batches.hasNext()) {
+                    read(batches.next());
+                }
+                while (!reads.isEmpty()) {
+                    List<RevObject> objects = ExecutionService.await(reads.removeFirst());
+                    if (batches.hasNext()) {
+                        read(batches.next());
+                    }
+                    to.putAll(objects.iterator(), movedCollector);
+                    written += objects.size();
+                    delete(DELETE_BATCH_SIZE);
+                }
+                delete(1);
+                for (FutureTask<Long> delete : deletes) {
+                    ExecutionService.await(delete);
+                }
+            } finally {
+                for (FutureTask<List<RevObject>> read : reads) {
+                    read.cancel(false);
+                }
+                for (FutureTask<Long> delete : deletes) {
+                    delete.cancel(false);
+                }
+            }
+            sw.stop();
+            if (written > 0) {
+                LOGGER.debug("Moved {} objects in {} ({}/s)", written, sw, Math.round(written
+                        / Math.max(1D, sw.elapsed(TimeUnit.MILLISECONDS)) * 1000D));
             }
         }
 
-        public void deleteInserted() {
-            if (!removeIds.isEmpty()) {
-                DeleteTask deleteTask = new DeleteTask(Lists.newArrayList(removeIds), db);
-                deletingService.execute(deleteTask);
-                removeIds.clear();
+        private void read(final List<ObjectId> ids) {
+            FutureTask<List<RevObject>> read = new FutureTask<List<RevObject>>(
+                    new Callable<List<RevObject>>() {
+                        @Override
+                        public List<RevObject> call() {
+                            return Lists.newArrayList(from.getAll(ids));
+                        }
+                    });
+            reads.add(read);
+            executor.execute(read);
+        }
+
+        private synchronized void moved(ObjectId id) {
+            moved.add(id);
+        }
+
+        private synchronized void delete(final int minBatchSize) {
+            if (moved.size() < minBatchSize) {
+                return;
             }
+            final List<ObjectId> ids = moved;
+            moved = Lists.newArrayListWithCapacity(DELETE_BATCH_SIZE);
+            FutureTask<Long> delete = new FutureTask<Long>(new Callable<Long>() {
+                @Override
+                public Long call() {
+                    return from.deleteAll(ids.iterator());
+                }
+            });
+            deletes.add(delete);
+            executor.execute(delete);
         }
     }
 
     private void moveObjects(final ObjectDatabase from, final ObjectDatabase to,
             final Supplier<Iterator<Node>> nodesToMove, final Set<ObjectId> metadataIds) {
 
-        Iterable<ObjectId> ids = new Iterable<ObjectId>() {
-
-            final Function<Node, ObjectId> asId = new Function<Node, ObjectId>() {
-                @Override
-                public ObjectId apply(Node input) {
-                    Optional<ObjectId> metadataId = input.getMetadataId();
-                    if (metadataId.isPresent()) {
-                        metadataIds.add(input.getMetadataId().get());
+        Iterator<ObjectId> ids = Iterators.transform(nodesToMove.get(),
+                new Function<Node, ObjectId>() {
+                    @Override
+                    public ObjectId apply(Node input) {
+                        Optional<ObjectId> metadataId = input.getMetadataId();
+                        if (metadataId.isPresent()) {
+                            metadataIds.add(metadataId.get());
+                        }
+                        return input.getObjectId();
                     }
-                    ObjectId id = input.getObjectId();
-                    return id;
-                }
-            };
-
-            @Override
-            public Iterator<ObjectId> iterator() {
-                Iterator<Node> iterator = nodesToMove.get();
-                Iterator<ObjectId> ids = Iterators.transform(iterator, asId);
+                });
 
-                return ids;
-            }
-        };
+        moveObjects(from, to, ids);
+    }
 
-        final ExecutorService deletingService = Executors.newSingleThreadExecutor();
-        try {
-            final DeletingListener deletingListener = new DeletingListener(deletingService, from);
-
-            // store objects into the target db and remove them from the origin db in one shot
-            to.putAll(from.getAll(ids), deletingListener);
-            // in case there are some deletes pending cause the iterator finished and the listener
-            // didn't fill its buffer
-            deletingListener.deleteInserted();
-
-        } finally {
-            deletingService.shutdown();
-            while (!deletingService.isTerminated()) {
-                try {
-                    deletingService.awaitTermination(100, TimeUnit.MILLISECONDS);
-                } catch (InterruptedException e) {
-                    // ok, still awaiting for delete tasks to finish
-                }
-            }
-        }
+    private void moveObjects(final ObjectDatabase from, final ObjectDatabase to,
+            final Iterator<ObjectId> ids) {
+        ExecutorService executor = context.executionService().getExecutor(Lane.IO);
+        new MovePipeline(from, to, executor).moveAll(ids);
     }
 
     /**
@@ -251,47 +304,51 @@ public class DeepMove extends AbstractGeoGitOp<ObjectId> {
         }
     }
 
+    /**
+     * Moves the tree, all its subtrees and bucket trees, and all their features in a single pass
+     * over the tree, feeding the ids of each tree and its features to the {@link MovePipeline}.
+     */
     private void moveTree(final ObjectId treeId, final ObjectDatabase from,
             final ObjectDatabase to, final Set<ObjectId> metadataIds) {
 
-        Supplier<Iterator<NodeRef>> refs = command(LsTreeOp.class).setReference(treeId.toString())
-                .setStrategy(Strategy.DEPTHFIRST_ONLY_FEATURES);
-
-        Supplier<Iterator<Node>> nodes = Suppliers.compose(
-                new Function<Iterator<NodeRef>, Iterator<Node>>() {
-
-                    @Override
-                    public Iterator<Node> apply(Iterator<NodeRef> input) {
-                        return Iterators.transform(input, new Function<NodeRef, Node>() {
-                            @Override
-                            public Node apply(NodeRef input) {
-                                return input.getNode();
-                            }
-                        });
-                    }
-                }, refs);
-
-        // move all features, recursively as given by the LsTreeOp strategy
-        moveObjects(from, to, nodes, metadataIds);
-
-        // collect all subtree and bucket ids here to delete them from the origin db
-        final Set<ObjectId> alltreeIds = Sets.newTreeSet();
-        Predicate<RevTree> collectIds = new Predicate<RevTree>() {
+        final Function<Node, ObjectId> featureId = new Function<Node, ObjectId>() {
+            @Override
+            public ObjectId apply(Node input) {
+                Optional<ObjectId> metadataId = input.getMetadataId();
+                if (metadataId.isPresent()) {
+                    metadataIds.add(metadataId.get());
+                }
+                return input.getObjectId();
+            }
+        };
+        final Function<RevTree, Iterator<ObjectId>> treeAndFeatureIds;
+        treeAndFeatureIds = new Function<RevTree, Iterator<ObjectId>>() {
             @Override
-            public boolean apply(RevTree input) {
-                alltreeIds.add(input.getId());
-                return true;
+            public Iterator<ObjectId> apply(RevTree tree) {
+                Iterator<ObjectId> treeId = Iterators.singletonIterator(tree.getId());
+                if (!tree.features().isPresent()) {
+                    return treeId;
+                }
+                Iterator<Node> features = tree.features().get().iterator();
+                return Iterators.concat(treeId, Iterators.transform(features, featureId));
             }
         };
 
         // iterator that traverses the tree,all its subtrees, an bucket trees
-        Iterator<RevTree> allSubtreesAndBuckets = new AllTrees(treeId, from);
-        allSubtreesAndBuckets = Iterators.filter(allSubtreesAndBuckets, collectIds);
+        Iterator<RevTree> allSubtreesAndBuckets = new AllTrees(treeId, from,
+                Sets.<ObjectId> newHashSet());
 
-        to.putAll(allSubtreesAndBuckets);
-        from.deleteAll(alltreeIds.iterator());
+        Iterator<ObjectId> ids = Iterators.concat(Iterators.transform(allSubtreesAndBuckets,
+                treeAndFeatureIds));
+        moveObjects(from, to, ids);
     }
 
+    /**
+     * Traverses a tree and all its subtrees and bucket trees, visiting each distinct tree once.
+     * <p>
+     * A tree is loaded before its id is handed out, so it's never looked up in the origin database
+     * after being moved out of it.
+     */
     private static class AllTrees extends AbstractIterator<RevTree> {
 
         private RevTree tree;
@@ -304,15 +361,18 @@ public class DeepMove extends AbstractGeoGitOp<ObjectId> {
 
         private Iterator<RevTree> bucketTrees;
 
-        public AllTrees(ObjectId id, ObjectDatabase from) {
+        private final Set<ObjectId> visited;
+
+        public AllTrees(ObjectId id, ObjectDatabase from, Set<ObjectId> visited) {
             this.from = from;
-            this.tree = from.getTree(id);
+            this.visited = visited;
+            this.tree = visited.add(id) ? from.getTree(id) : null;
             this.trees = Iterators.emptyIterator();
-            if (tree.trees().isPresent()) {
+            this.buckets = Iterators.emptyIterator();
+            if (tree != null && tree.trees().isPresent()) {
                 trees = tree.trees().get().iterator();
             }
-            buckets = Iterators.emptyIterator();
-            if (tree.buckets().isPresent()) {
+            if (tree != null && tree.buckets().isPresent()) {
                 buckets = tree.buckets().get().values().iterator();
             }
             bucketTrees = Iterators.emptyIterator();
@@ -325,15 +385,15 @@ public class DeepMove extends AbstractGeoGitOp<ObjectId> {
                 tree = null;
                 return ret;
             }
-            if (trees.hasNext()) {
-                ObjectId objectId = trees.next().getObjectId();
-                return from.getTree(objectId);
-            }
             if (bucketTrees.hasNext()) {
                 return bucketTrees.next();
             }
+            if (trees.hasNext()) {
+                bucketTrees = new AllTrees(trees.next().getObjectId(), from, visited);
+                return computeNext();
+            }
             if (buckets.hasNext()) {
-                bucketTrees = new AllTrees(buckets.next().id(), from);
+                bucketTrees = new AllTrees(buckets.next().id(), from, visited);
                 return computeNext();
             }
             return endOfData();
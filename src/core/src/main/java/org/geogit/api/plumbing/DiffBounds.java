@@ -9,7 +9,8 @@ import static com.google.common.base.Optional.fromNullable;
 import static com.google.common.base.Preconditions.checkArgument;
 
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.annotation.Nullable;
 
@@ -24,7 +25,10 @@ import org.geogit.api.RevFeatureType;
 import org.geogit.api.RevTree;
 import org.geogit.api.plumbing.diff.DiffSummary;
 import org.geogit.api.plumbing.diff.DiffTreeVisitor;
+import org.geogit.api.plumbing.diff.DiffTreeVisitor.ForkJoinConsumer;
 import org.geogit.api.plumbing.diff.PathFilteringDiffConsumer;
+import org.geogit.repository.ExecutionService;
+import org.geogit.storage.DiffSummaryCache;
 import org.geogit.storage.ObjectDatabase;
 import org.geotools.geometry.jts.JTS;
 import org.geotools.geometry.jts.ReferencedEnvelope;
@@ -41,15 +45,20 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
+import com.google.inject.Inject;
 import com.vividsolutions.jts.geom.Envelope;
 
 /**
  * Computes the bounds of the difference between the two trees instead of the actual diffs.
- * 
+ * <p>
+ * When both trees are in the repository's object database, the result is looked up in and stored
+ * to the {@link DiffSummaryCache}.
  */
 
 public class DiffBounds extends AbstractGeoGitOp<DiffSummary<BoundingBox, BoundingBox>> {
 
+    private final DiffSummaryCache cache;
+
     private String oldVersion;
 
     private String newVersion;
@@ -60,6 +69,13 @@ public class DiffBounds extends AbstractGeoGitOp<DiffSummary<BoundingBox, Boundi
 
     private CoordinateReferenceSystem crs;
 
+    private ForkJoinPool forkJoinPool;
+
+    @Inject
+    public DiffBounds(DiffSummaryCache cache) {
+        this.cache = cache;
+    }
+
     public DiffBounds setOldVersion(String oldVersion) {
         this.oldVersion = oldVersion;
         this.pathFilters = ImmutableList.of();
@@ -94,6 +110,15 @@ public class DiffBounds extends AbstractGeoGitOp<DiffSummary<BoundingBox, Boundi
         return this;
     }
 
+    /**
+     * @param pool the pool where to compute the diff bounds in parallel, if not provided the
+     *        repository's shared {@link ExecutionService#getForkJoinPool() pool} is used
+     */
+    public DiffBounds setForkJoinPool(@Nullable ForkJoinPool pool) {
+        this.forkJoinPool = pool;
+        return this;
+    }
+
     @Override
     protected DiffSummary<BoundingBox, BoundingBox> _call() {
         checkArgument(cached && oldVersion == null || !cached, String.format(
@@ -112,15 +137,34 @@ public class DiffBounds extends AbstractGeoGitOp<DiffSummary<BoundingBox, Boundi
 
         ObjectDatabase leftSource = resolveSafeDb(leftRefSpec);
         ObjectDatabase rightSource = resolveSafeDb(rightRefSpec);
-        DiffTreeVisitor visitor = new DiffTreeVisitor(left, right, leftSource, rightSource);
         CoordinateReferenceSystem crs = resolveCrs();
+
+        final ObjectDatabase objectDatabase = objectDatabase();
+        final boolean cacheable = DiffCount.isCommitted(objectDatabase, left.getId())
+                && DiffCount.isCommitted(objectDatabase, right.getId());
+        if (cacheable) {
+            Optional<DiffSummary<BoundingBox, BoundingBox>> cachedBounds = cache.getBounds(
+                    left.getId(), right.getId(), pathFilters, crs);
+            if (cachedBounds.isPresent()) {
+                return cachedBounds.get();
+            }
+        }
+
+        DiffTreeVisitor visitor = new DiffTreeVisitor(left, right, leftSource, rightSource);
         BoundsWalk walk = new BoundsWalk(crs, stagingDatabase());
-        DiffTreeVisitor.Consumer consumer = walk;
+        ForkJoinConsumer consumer = walk;
         if (!pathFilters.isEmpty()) {
             consumer = new PathFilteringDiffConsumer(pathFilters, walk);
         }
-        visitor.walk(consumer);
+        ForkJoinPool pool = forkJoinPool;
+        if (pool == null) {
+            pool = context.executionService().getForkJoinPool();
+        }
+        visitor.walk(consumer, pool);
         DiffSummary<BoundingBox, BoundingBox> diffBounds = walk.getResult();
+        if (cacheable) {
+            cache.putBounds(left.getId(), right.getId(), pathFilters, crs, diffBounds);
+        }
         return diffBounds;
     }
 
@@ -158,7 +202,11 @@ public class DiffBounds extends AbstractGeoGitOp<DiffSummary<BoundingBox, Boundi
         return stagingDatabase().getTree(id.get());
     }
 
-    private static class BoundsWalk implements DiffTreeVisitor.Consumer {
+    /**
+     * Supports parallel traversals by computing the bounds of each forked bucket separately and
+     * expanding its own bounds to include them at {@link #join}.
+     */
+    private static class BoundsWalk implements ForkJoinConsumer {
 
         private DiffSummary<BoundingBox, BoundingBox> result;
 
@@ -172,22 +220,42 @@ public class DiffBounds extends AbstractGeoGitOp<DiffSummary<BoundingBox, Boundi
 
         private final ObjectDatabase source;
 
-        private final Map<ObjectId, MathTransform> transformsByMetadataId;
+        private final ConcurrentMap<ObjectId, MathTransform> transformsByMetadataId;
 
         private Optional<ObjectId> currentDefaultLefMetadataId = Optional.absent();
 
         private Optional<ObjectId> currentDefaultRightMetadataId = Optional.absent();
 
         public BoundsWalk(CoordinateReferenceSystem crs, ObjectDatabase source) {
+            this(crs, source, Maps.<ObjectId, MathTransform> newConcurrentMap());
+        }
+
+        private BoundsWalk(CoordinateReferenceSystem crs, ObjectDatabase source,
+                ConcurrentMap<ObjectId, MathTransform> transformsByMetadataId) {
             this.crs = crs;
             this.source = source;
-            this.transformsByMetadataId = Maps.newHashMap();
+            this.transformsByMetadataId = transformsByMetadataId;
             leftEnv = new ReferencedEnvelope(this.crs);
             rightEnv = new ReferencedEnvelope(this.crs);
             leftHelper = new ReferencedEnvelope(this.crs);
             rightHelper = new ReferencedEnvelope(this.crs);
         }
 
+        @Override
+        public ForkJoinConsumer fork() {
+            BoundsWalk fork = new BoundsWalk(crs, source, transformsByMetadataId);
+            fork.currentDefaultLefMetadataId = this.currentDefaultLefMetadataId;
+            fork.currentDefaultRightMetadataId = this.currentDefaultRightMetadataId;
+            return fork;
+        }
+
+        @Override
+        public void join(ForkJoinConsumer forked) {
+            BoundsWalk fork = (BoundsWalk) forked;
+            leftEnv.expandToInclude(fork.leftEnv);
+            rightEnv.expandToInclude(fork.rightEnv);
+        }
+
         @Override
         public void feature(@Nullable Node left, @Nullable Node right) {
             setEnv(left, leftHelper, md(left).or(currentDefaultLefMetadataId));
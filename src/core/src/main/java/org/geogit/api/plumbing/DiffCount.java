@@ -8,6 +8,7 @@ package org.geogit.api.plumbing;
 import static com.google.common.base.Preconditions.checkState;
 
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.annotation.Nullable;
 
@@ -19,25 +20,44 @@ import org.geogit.api.plumbing.diff.DiffObjectCount;
 import org.geogit.api.plumbing.diff.DiffTreeVisitor;
 import org.geogit.api.plumbing.diff.DiffTreeWalk;
 import org.geogit.api.plumbing.diff.PathFilteringDiffConsumer;
+import org.geogit.repository.ExecutionService;
+import org.geogit.storage.DiffSummaryCache;
+import org.geogit.storage.ObjectDatabase;
 import org.geogit.storage.StagingDatabase;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.inject.Inject;
 
 /**
  * A faster alternative to count the number of diffs between two trees than walking a
  * {@link DiffTreeWalk} iterator.
+ * <p>
+ * When both trees are in the repository's object database, the result is looked up in and stored
+ * to the {@link DiffSummaryCache}, and the counts of changed subtrees and bucket trees are memoized
+ * in it too, so that repeated and overlapping diffs between committed trees avoid traversing them
+ * again.
  * 
  * @see DiffCountConsumer
  */
 public class DiffCount extends AbstractGeoGitOp<DiffObjectCount> {
 
+    private final DiffSummaryCache cache;
+
     private final List<String> pathFilters = Lists.newLinkedList();
 
     private String oldRefSpec;
 
     private String newRefSpec;
 
+    private ForkJoinPool forkJoinPool;
+
+    @Inject
+    public DiffCount(DiffSummaryCache cache) {
+        this.cache = cache;
+    }
+
     public DiffCount setOldVersion(@Nullable String refSpec) {
         this.oldRefSpec = refSpec;
         return this;
@@ -71,6 +91,15 @@ public class DiffCount extends AbstractGeoGitOp<DiffObjectCount> {
         return this;
     }
 
+    /**
+     * @param pool the pool where to compute the diff in parallel, if not provided the
+     *        repository's shared {@link ExecutionService#getForkJoinPool() pool} is used
+     */
+    public DiffCount setForkJoinPool(@Nullable ForkJoinPool pool) {
+        this.forkJoinPool = pool;
+        return this;
+    }
+
     @Override
     protected DiffObjectCount _call() {
         checkState(oldRefSpec != null, "old ref spec not provided");
@@ -79,21 +108,53 @@ public class DiffCount extends AbstractGeoGitOp<DiffObjectCount> {
         final RevTree oldTree = getTree(oldRefSpec);
         final RevTree newTree = getTree(newRefSpec);
 
+        final ObjectId oldTreeId = oldTree.getId();
+        final ObjectId newTreeId = newTree.getId();
+        final List<String> filters = ImmutableList.copyOf(pathFilters);
+        final ObjectDatabase objectDatabase = objectDatabase();
+        final boolean cacheable = isCommitted(objectDatabase, oldTreeId)
+                && isCommitted(objectDatabase, newTreeId);
+        if (cacheable) {
+            Optional<DiffObjectCount> cached = cache.getCount(oldTreeId, newTreeId, filters);
+            if (cached.isPresent()) {
+                return cached.get();
+            }
+        }
+
         DiffObjectCount diffCount;
         StagingDatabase index = stagingDatabase();
         DiffTreeVisitor visitor = new DiffTreeVisitor(oldTree, newTree, index, index);
 
-        DiffCountConsumer counter = new DiffCountConsumer(index);
-        DiffTreeVisitor.Consumer filter = counter;
-        if (!pathFilters.isEmpty()) {
-            filter = new PathFilteringDiffConsumer(pathFilters, counter);
+        // subtree counts can only be memoized if they're not filtered
+        final boolean memoize = cacheable && filters.isEmpty();
+        DiffCountConsumer counter = new DiffCountConsumer(index, memoize ? cache : null);
+        DiffTreeVisitor.ForkJoinConsumer filter = counter;
+        if (!filters.isEmpty()) {
+            filter = new PathFilteringDiffConsumer(filters, counter);
         }
-        visitor.walk(filter);
+        ForkJoinPool pool = forkJoinPool;
+        if (pool == null) {
+            pool = context.executionService().getForkJoinPool();
+        }
+        visitor.walk(filter, pool);
         diffCount = counter.get();
 
+        if (cacheable) {
+            cache.putCount(oldTreeId, newTreeId, filters, diffCount);
+        }
         return diffCount;
     }
 
+    /**
+     * Trees only in the staging database are likely to be short lived, so only the diffs between
+     * trees in the object database are worth caching, by this command and by {@link DiffBounds}
+     * 
+     * @return whether the tree is empty or stored in the given object database
+     */
+    static boolean isCommitted(ObjectDatabase objectDatabase, ObjectId treeId) {
+        return RevTree.EMPTY_TREE_ID.equals(treeId) || objectDatabase.exists(treeId);
+    }
+
     /**
      * @return the tree referenced by the old ref, or the head of the index.
      */
@@ -103,6 +164,9 @@ public class DiffCount extends AbstractGeoGitOp<DiffObjectCount> {
         Optional<ObjectId> resolved = command(ResolveTreeish.class).setTreeish(refSpec).call();
         if (resolved.isPresent()) {
             ObjectId headTreeId = resolved.get();
+            if (RevTree.EMPTY_TREE_ID.equals(headTreeId)) {
+                return RevTree.EMPTY;
+            }
             headTree = command(RevObjectParse.class).setObjectId(headTreeId).call(RevTree.class)
                     .get();
         } else {
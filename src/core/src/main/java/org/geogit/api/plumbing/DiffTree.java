@@ -10,6 +10,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.annotation.Nullable;
 
@@ -17,7 +18,11 @@ import org.geogit.api.AbstractGeoGitOp;
 import org.geogit.api.ObjectId;
 import org.geogit.api.RevTree;
 import org.geogit.api.plumbing.diff.DiffEntry;
+import org.geogit.api.plumbing.diff.DiffEntryListConsumer;
+import org.geogit.api.plumbing.diff.DiffTreeVisitor;
+import org.geogit.api.plumbing.diff.DiffTreeVisitor.ForkJoinConsumer;
 import org.geogit.api.plumbing.diff.DiffTreeWalk;
+import org.geogit.api.plumbing.diff.PathFilteringDiffConsumer;
 import org.geogit.storage.ObjectDatabase;
 
 import com.google.common.base.Optional;
@@ -42,6 +47,8 @@ public class DiffTree extends AbstractGeoGitOp<Iterator<DiffEntry>> implements
 
     private boolean recursive;
 
+    private ForkJoinPool forkJoinPool;
+
     /**
      * Constructs a new instance of the {@code DiffTree} operation with the given parameters.
      */
@@ -107,6 +114,23 @@ public class DiffTree extends AbstractGeoGitOp<Iterator<DiffEntry>> implements
         return this;
     }
 
+    /**
+     * Sets the pool where to compute the diff in parallel. If not provided (default) the diff is
+     * computed lazily as the returned iterator is traversed.
+     * <p>
+     * Note that when computing the diff in parallel all the resulting {@link DiffEntry diff
+     * entries} are collected in memory before returning, in the same order than the lazily
+     * computed ones, so this is better suited for diffs known to be of a moderate size.
+     * 
+     * @param pool the fork join pool where to compute the diff, or {@code null} to compute it
+     *        lazily
+     * @return {@code this}
+     */
+    public DiffTree setForkJoinPool(@Nullable ForkJoinPool pool) {
+        this.forkJoinPool = pool;
+        return this;
+    }
+
     /**
      * Implements {@link Supplier#get()} by delegating to {@link #call()}.
      */
@@ -149,6 +173,10 @@ public class DiffTree extends AbstractGeoGitOp<Iterator<DiffEntry>> implements
             newTree = RevTree.EMPTY;
         }
 
+        if (forkJoinPool != null) {
+            return parallelDiff(oldTree, newTree);
+        }
+
         DiffTreeWalk treeWalk = new DiffTreeWalk(stagingDatabase(), oldTree, newTree);
         treeWalk.setFilter(pathFilters);
         treeWalk.setReportTrees(reportTrees);
@@ -156,6 +184,18 @@ public class DiffTree extends AbstractGeoGitOp<Iterator<DiffEntry>> implements
         return treeWalk.get();
     }
 
+    private Iterator<DiffEntry> parallelDiff(RevTree oldTree, RevTree newTree) {
+        final ObjectDatabase db = stagingDatabase();
+        DiffTreeVisitor visitor = new DiffTreeVisitor(oldTree, newTree, db, db);
+        DiffEntryListConsumer collector = new DiffEntryListConsumer(reportTrees, recursive);
+        ForkJoinConsumer consumer = collector;
+        if (!pathFilters.isEmpty()) {
+            consumer = new PathFilteringDiffConsumer(pathFilters, collector);
+        }
+        visitor.walk(consumer, forkJoinPool);
+        return collector.getEntries().iterator();
+    }
+
     /**
      * @param reportTrees
      * @return
@@ -15,6 +15,8 @@ import java.util.Set;
 import org.geogit.api.AbstractGeoGitOp;
 import org.geogit.api.ObjectId;
 import org.geogit.api.RevCommit;
+import org.geogit.repository.Repository;
+import org.geogit.storage.CommitGraph;
 import org.geogit.storage.GraphDatabase;
 import org.geogit.storage.GraphDatabase.Direction;
 import org.geogit.storage.GraphDatabase.GraphEdge;
@@ -22,16 +24,28 @@ import org.geogit.storage.GraphDatabase.GraphNode;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.inject.Inject;
 
 /**
  * Finds the common {@link RevCommit commit} ancestor of two commits.
+ * <p>
+ * The {@link CommitGraph} is used to find it whenever the full history of both commits is
+ * available, otherwise (e.g. for shallow and sparse repositories) both histories are traversed
+ * through the {@link GraphDatabase}.
  */
 public class FindCommonAncestor extends AbstractGeoGitOp<Optional<ObjectId>> {
 
+    private final CommitGraph commitGraph;
+
     private ObjectId left;
 
     private ObjectId right;
 
+    @Inject
+    public FindCommonAncestor(CommitGraph commitGraph) {
+        this.commitGraph = commitGraph;
+    }
+
     /**
      * @param left the left {@link ObjectId}
      */
@@ -82,13 +96,32 @@ public class FindCommonAncestor extends AbstractGeoGitOp<Optional<ObjectId>> {
 
         getProgressListener().started();
 
-        Optional<ObjectId> ancestor = findLowestCommonAncestor(left, right);
+        Optional<ObjectId> ancestor;
+        if (canUseCommitGraph()) {
+            ancestor = commitGraph.findLowestCommonAncestor(left, right);
+        } else {
+            ancestor = findLowestCommonAncestor(left, right);
+        }
 
         getProgressListener().complete();
 
         return ancestor;
     }
 
+    /**
+     * @return whether the full history of both commits is in the {@link CommitGraph}, or could be
+     *         added to it
+     */
+    private boolean canUseCommitGraph() {
+        final Repository repository = repository();
+        if (repository.isSparse() || repository.getDepth().isPresent()) {
+            // the graph database knows about commits that are not in the object database
+            return false;
+        }
+        return commitGraph.index(objectDatabase(), left)
+                && commitGraph.index(objectDatabase(), right);
+    }
+
     /**
      * Finds the lowest common ancestor of two commits.
      * 
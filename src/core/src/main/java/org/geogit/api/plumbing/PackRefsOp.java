@@ -0,0 +1,28 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.api.plumbing;
+
+import org.geogit.api.AbstractGeoGitOp;
+import org.geogit.storage.RefDatabase;
+
+/**
+ * Consolidates the storage of the refs under the "refs" namespace for faster reads, as the
+ * {@link RefDatabase} reads never do it on their own.
+ * 
+ * @see RefDatabase#packRefs()
+ */
+public class PackRefsOp extends AbstractGeoGitOp<Void> {
+
+    /**
+     * Executes the {@code PackRefsOp} operation.
+     * 
+     * @return {@code null}
+     */
+    @Override
+    protected Void _call() {
+        refDatabase().packRefs();
+        return null;
+    }
+}
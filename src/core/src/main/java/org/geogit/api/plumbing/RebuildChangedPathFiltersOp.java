@@ -0,0 +1,72 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.api.plumbing;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import org.geogit.api.AbstractGeoGitOp;
+import org.geogit.api.ObjectId;
+import org.geogit.api.Ref;
+import org.geogit.api.RevCommit;
+import org.geogit.api.porcelain.BranchListOp;
+import org.geogit.api.porcelain.LogOp;
+import org.geogit.storage.ChangedPathFilter;
+import org.geogit.storage.ChangedPathFilterDatabase;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import com.google.inject.Inject;
+
+/**
+ * Builds the {@link ChangedPathFilter} of all the commits reachable from any local or remote branch
+ * that don't have one yet (e.g. commits created before filters were computed at commit time, or
+ * fetched from a remote), and returns the list of commits a filter was built for.
+ *
+ * @see BuildChangedPathFilter
+ */
+public class RebuildChangedPathFiltersOp extends AbstractGeoGitOp<ImmutableList<ObjectId>> {
+
+    private final ChangedPathFilterDatabase filters;
+
+    @Inject
+    public RebuildChangedPathFiltersOp(ChangedPathFilterDatabase filters) {
+        this.filters = filters;
+    }
+
+    /**
+     * Executes the {@code RebuildChangedPathFiltersOp} operation.
+     * 
+     * @return a list of the {@link ObjectId}s of the commits a filter was built for
+     */
+    @Override
+    protected ImmutableList<ObjectId> _call() {
+        List<ObjectId> updated = new LinkedList<ObjectId>();
+        ImmutableList<Ref> branches = command(BranchListOp.class).setLocal(true).setRemotes(true)
+                .call();
+
+        final Set<ObjectId> visited = Sets.newHashSet();
+        for (Ref ref : branches) {
+            Iterator<RevCommit> commits = command(LogOp.class).setUntil(ref.getObjectId()).call();
+            while (commits.hasNext()) {
+                RevCommit next = commits.next();
+                final ObjectId commitId = next.getId();
+                if (!visited.add(commitId) || filters.get(commitId).isPresent()) {
+                    continue;
+                }
+                Optional<ChangedPathFilter> built = command(BuildChangedPathFilter.class)
+                        .setCommit(next).call();
+                if (built.isPresent()) {
+                    updated.add(commitId);
+                }
+            }
+        }
+
+        return ImmutableList.copyOf(updated);
+    }
+}
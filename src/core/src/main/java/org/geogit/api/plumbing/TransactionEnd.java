@@ -5,13 +5,24 @@
 
 package org.geogit.api.plumbing;
 
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeoutException;
 
 import javax.annotation.Nullable;
 
 import org.geogit.api.AbstractGeoGitOp;
+import org.geogit.api.CommitBuilder;
 import org.geogit.api.GeogitTransaction;
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
 import org.geogit.api.Ref;
+import org.geogit.api.RevCommit;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
 import org.geogit.api.SymRef;
 import org.geogit.api.hooks.Hookable;
 import org.geogit.api.porcelain.CheckoutOp;
@@ -19,12 +30,18 @@ import org.geogit.api.porcelain.MergeOp;
 import org.geogit.api.porcelain.NothingToCommitException;
 import org.geogit.api.porcelain.RebaseConflictsException;
 import org.geogit.api.porcelain.RebaseOp;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Suppliers;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 /**
  * Finishes a {@link GeogitTransaction} by merging all refs that have been changed.
@@ -33,13 +50,31 @@ import com.google.common.collect.ImmutableSet;
  * to the value of the transaction ref.
  * <p>
  * If the repository ref was updated while the transaction occurred, the changes will be brought
- * together via a merge or rebase operation and the new ref will be updated to the result.
+ * together via a merge or rebase operation and the new ref will be updated to the result. When
+ * rebasing, if the transaction and the repository changed different root level trees the
+ * transaction commits are replayed by comparing root trees only, with no feature level checks.
+ * <p>
+ * Refs are updated optimistically with a compare and set, retrying if another transaction updated
+ * the same ref concurrently, so that transactions don't hold the repository lock while they are
+ * being reconciled.
  * 
  * @see GeogitTransaction
  */
 @Hookable(name = "transaction-end")
 public class TransactionEnd extends AbstractGeoGitOp<Boolean> {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(TransactionEnd.class);
+
+    /**
+     * Number of times the update of a ref is attempted when it is concurrently modified
+     */
+    private static final int MAX_ATTEMPTS = 10;
+
+    /**
+     * Maximum number of transaction commits replayed by comparing root trees only
+     */
+    private static final int MAX_FAST_REBASE_COMMITS = 1000;
+
     private boolean cancel = false;
 
     private GeogitTransaction transaction = null;
@@ -111,58 +146,22 @@ public class TransactionEnd extends AbstractGeoGitOp<Boolean> {
 
         if (!cancel) {
             ImmutableSet<Ref> changedRefs = getChangedRefs();
-            // Lock the repository
-            try {
-                refDatabase().lock();
-            } catch (TimeoutException e) {
-                Throwables.propagate(e);
-            }
 
-            try {
-                // Update refs
-                for (Ref ref : changedRefs) {
-                    Ref updatedRef = ref;
-
-                    Optional<Ref> repoRef = command(RefParse.class).setName(ref.getName()).call();
-                    if (repoRef.isPresent() && repositoryChanged(repoRef.get())) {
-                        if (rebase) {
-                            // Try to rebase
-                            transaction.command(CheckoutOp.class).setSource(ref.getName())
-                                    .setForce(true).call();
-                            try {
-                                transaction
-                                        .command(RebaseOp.class)
-                                        .setUpstream(
-                                                Suppliers.ofInstance(repoRef.get().getObjectId()))
-                                        .call();
-                            } catch (RebaseConflictsException e) {
-                                Throwables.propagate(e);
-                            }
-                            updatedRef = transaction.command(RefParse.class).setName(ref.getName())
-                                    .call().get();
-                        } else {
-                            // sync transactions have to use merge to prevent divergent history
-                            transaction.command(CheckoutOp.class).setSource(ref.getName())
-                                    .setForce(true).call();
-                            try {
-                                transaction
-                                        .command(MergeOp.class)
-                                        .setAuthor(authorName.orNull(), authorEmail.orNull())
-                                        .addCommit(
-                                                Suppliers.ofInstance(repoRef.get().getObjectId()))
-                                        .call();
-                            } catch (NothingToCommitException e) {
-                                // The repo commit is already in our history, this is a fast
-                                // forward.
-                            }
-                            updatedRef = transaction.command(RefParse.class).setName(ref.getName())
-                                    .call().get();
-                        }
-                    }
-                    command(UpdateRef.class).setName(ref.getName())
-                            .setNewValue(updatedRef.getObjectId()).call();
+            // write the objects the transaction holds in memory before any ref points to them
+            transaction.writeStagedObjects();
 
-                    if (currentBranch.equals(ref.getName())) {
+            // Update refs
+            for (Ref ref : changedRefs) {
+                Ref updatedRef = updateRef(ref);
+
+                if (currentBranch.equals(ref.getName())) {
+                    // Lock the repository
+                    try {
+                        refDatabase().lock();
+                    } catch (TimeoutException e) {
+                        Throwables.propagate(e);
+                    }
+                    try {
                         // Update HEAD, WORK_HEAD and STAGE_HEAD
                         command(UpdateSymRef.class).setName(Ref.HEAD).setNewValue(ref.getName())
                                 .call();
@@ -170,16 +169,15 @@ public class TransactionEnd extends AbstractGeoGitOp<Boolean> {
                                 .setNewValue(updatedRef.getObjectId()).call();
                         command(UpdateRef.class).setName(Ref.STAGE_HEAD)
                                 .setNewValue(updatedRef.getObjectId()).call();
+                    } finally {
+                        // Unlock the repository
+                        refDatabase().unlock();
                     }
                 }
-
-                // TODO: What happens if there are unstaged or staged changes in the repository when
-                // a transaction is committed?
-            } finally {
-                // Unlock the repository
-                refDatabase().unlock();
             }
 
+            // TODO: What happens if there are unstaged or staged changes in the repository when
+            // a transaction is committed?
         }
 
         // Erase old refs
@@ -189,17 +187,226 @@ public class TransactionEnd extends AbstractGeoGitOp<Boolean> {
         return true;
     }
 
+    /**
+     * Updates the repository ref to the value of the transaction ref, reconciling both if the
+     * repository ref changed since the transaction started.
+     * <p>
+     * The update is optimistic: the new value is computed without holding the repository lock and
+     * then set with a compare and set of the repository ref. If another transaction updated the
+     * ref in the meantime, the new value is recomputed against its new value, up to
+     * {@link #MAX_ATTEMPTS} times.
+     * 
+     * @return the ref with the value it was updated to
+     */
+    private Ref updateRef(final Ref ref) {
+        final String refName = ref.getName();
+        for (int attempt = 1;; attempt++) {
+            Optional<Ref> repoRef = command(RefParse.class).setName(refName).call();
+            Ref updatedRef = ref;
+            if (repoRef.isPresent() && repositoryChanged(repoRef.get())) {
+                updatedRef = reconcile(ref, repoRef.get());
+                // and the ones created by the rebase or merge
+                transaction.writeStagedObjects();
+            }
+            // a missing ref is expected to still not exist
+            final String expectedValue = repoRef.isPresent() ? repoRef.get().getObjectId()
+                    .toString() : null;
+            if (refDatabase().compareAndPut(refName, expectedValue,
+                    updatedRef.getObjectId().toString())) {
+                return updatedRef;
+            }
+            if (attempt == MAX_ATTEMPTS) {
+                throw new IllegalStateException("Unable to update " + refName + " after "
+                        + attempt + " attempts, it is being concurrently modified");
+            }
+            LOGGER.debug("{} changed while ending transaction {}, retrying ({} of {})", refName,
+                    transaction, attempt, MAX_ATTEMPTS);
+            backOff(attempt);
+        }
+    }
+
+    /**
+     * Brings together the transaction changes and the ones made to the repository ref since the
+     * transaction started.
+     * 
+     * @return the ref pointing to the reconciled commit
+     */
+    private Ref reconcile(final Ref ref, final Ref repoRef) {
+        if (rebase) {
+            Optional<ObjectId> rebased = fastRebase(ref, repoRef);
+            if (rebased.isPresent()) {
+                return new Ref(ref.getName(), rebased.get());
+            }
+            // Try to rebase
+            transaction.command(CheckoutOp.class).setSource(ref.getName()).setForce(true).call();
+            try {
+                transaction.command(RebaseOp.class)
+                        .setUpstream(Suppliers.ofInstance(repoRef.getObjectId())).call();
+            } catch (RebaseConflictsException e) {
+                Throwables.propagate(e);
+            }
+        } else {
+            // sync transactions have to use merge to prevent divergent history
+            transaction.command(CheckoutOp.class).setSource(ref.getName()).setForce(true).call();
+            try {
+                transaction.command(MergeOp.class)
+                        .setAuthor(authorName.orNull(), authorEmail.orNull())
+                        .addCommit(Suppliers.ofInstance(repoRef.getObjectId())).call();
+            } catch (NothingToCommitException e) {
+                // The repo commit is already in our history, this is a fast
+                // forward.
+            }
+        }
+        return transaction.command(RefParse.class).setName(ref.getName()).call().get();
+    }
+
+    /**
+     * Rebases the transaction commits on top of the repository ref by comparing root trees only,
+     * as long as the transaction and the repository changed disjoint sets of root level trees
+     * (e.g. different feature types), in which case no feature level conflict can exist.
+     * 
+     * @return the id of the last rebased commit, or absent if the history is not linear, the root
+     *         trees are too large to compare directly, or both sides changed the same root level
+     *         tree, in which case a regular rebase has to be performed
+     */
+    private Optional<ObjectId> fastRebase(final Ref ref, final Ref repoRef) {
+        Optional<Ref> original = transactionOriginal(repoRef);
+        if (!original.isPresent()) {
+            return Optional.absent();
+        }
+        final ObjectId baseId = original.get().getObjectId();
+
+        // transaction commits, newest first
+        List<RevCommit> commits = Lists.newArrayList();
+        ObjectId commitId = ref.getObjectId();
+        while (!commitId.equals(baseId)) {
+            if (commitId.isNull() || commits.size() == MAX_FAST_REBASE_COMMITS) {
+                return Optional.absent();
+            }
+            RevCommit commit = objectDatabase().getCommit(commitId);
+            if (commit.getParentIds().size() != 1) {
+                return Optional.absent();
+            }
+            commits.add(commit);
+            commitId = commit.getParentIds().get(0);
+        }
+        if (commits.isEmpty()) {
+            // the ref was not changed in the transaction
+            return Optional.of(repoRef.getObjectId());
+        }
+
+        final RevTree repoTree = rootTree(repoRef.getObjectId());
+        Optional<Map<String, Node>> baseChildren = rootChildren(rootTree(baseId));
+        Optional<Map<String, Node>> repoChildren = rootChildren(repoTree);
+        if (!baseChildren.isPresent() || !repoChildren.isPresent()) {
+            return Optional.absent();
+        }
+        Set<String> repoChanged = changedChildren(baseChildren.get(), repoChildren.get());
+
+        Set<String> txChanged = Sets.newHashSet();
+        List<Map<String, Node>> commitChildren = Lists.newArrayListWithCapacity(commits.size());
+        for (RevCommit commit : Lists.reverse(commits)) {
+            Optional<Map<String, Node>> children = rootChildren(objectDatabase().getTree(
+                    commit.getTreeId()));
+            if (!children.isPresent()) {
+                return Optional.absent();
+            }
+            commitChildren.add(children.get());
+            txChanged.addAll(changedChildren(baseChildren.get(), children.get()));
+        }
+        if (!Sets.intersection(repoChanged, txChanged).isEmpty()) {
+            return Optional.absent();
+        }
+
+        ObjectId parentId = repoRef.getObjectId();
+        Iterator<Map<String, Node>> childrenIterator = commitChildren.iterator();
+        for (RevCommit commit : Lists.reverse(commits)) {
+            Map<String, Node> children = childrenIterator.next();
+            RevTreeBuilder builder = repoTree.builder(objectDatabase());
+            for (String name : txChanged) {
+                Node node = children.get(name);
+                if (node == null) {
+                    builder.remove(name);
+                } else {
+                    builder.put(node);
+                }
+            }
+            RevTree newTree = builder.build();
+            objectDatabase().put(newTree);
+
+            long timestamp = platform().currentTimeMillis();
+            CommitBuilder commitBuilder = new CommitBuilder(commit);
+            commitBuilder.setParentIds(ImmutableList.of(parentId));
+            commitBuilder.setTreeId(newTree.getId());
+            commitBuilder.setCommitterTimestamp(timestamp);
+            commitBuilder.setCommitterTimeZoneOffset(platform().timeZoneOffset(timestamp));
+            RevCommit newCommit = commitBuilder.build();
+            objectDatabase().put(newCommit);
+            parentId = newCommit.getId();
+        }
+        return Optional.of(parentId);
+    }
+
+    private RevTree rootTree(ObjectId commitId) {
+        if (commitId.isNull()) {
+            return RevTree.EMPTY;
+        }
+        return objectDatabase().getTree(objectDatabase().getCommit(commitId).getTreeId());
+    }
+
+    /**
+     * @return the direct children of the tree by name, or absent if the tree is split in buckets
+     */
+    private static Optional<Map<String, Node>> rootChildren(RevTree tree) {
+        if (tree.buckets().isPresent()) {
+            return Optional.absent();
+        }
+        Map<String, Node> children = Maps.newHashMap();
+        for (Iterator<Node> it = tree.children(); it.hasNext();) {
+            Node node = it.next();
+            children.put(node.getName(), node);
+        }
+        return Optional.of(children);
+    }
+
+    private static Set<String> changedChildren(Map<String, Node> left, Map<String, Node> right) {
+        Set<String> changed = Sets.newHashSet();
+        for (String name : Sets.union(left.keySet(), right.keySet())) {
+            Node leftNode = left.get(name);
+            Node rightNode = right.get(name);
+            boolean same = leftNode == null ? rightNode == null : (leftNode.equals(rightNode)
+                    && leftNode.getMetadataId().equals(rightNode.getMetadataId()));
+            if (!same) {
+                changed.add(name);
+            }
+        }
+        return changed;
+    }
+
+    private static void backOff(int attempt) {
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextInt(1, 1 + 5 * attempt));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Throwables.propagate(e);
+        }
+    }
+
     private ImmutableSet<Ref> getChangedRefs() {
         return transaction.command(ForEachRef.class).setPrefixFilter(Ref.REFS_PREFIX).call();
     }
 
     private boolean repositoryChanged(Ref ref) {
-        Optional<Ref> transactionOriginal = transaction.command(RefParse.class)
-                .setName(ref.getName().replace("refs/", "orig/refs/")).call();
+        Optional<Ref> transactionOriginal = transactionOriginal(ref);
         if (transactionOriginal.isPresent()) {
             return !ref.getObjectId().equals(transactionOriginal.get().getObjectId());
         }
         // Ref was created in transaction and on the repo
         return true;
     }
+
+    private Optional<Ref> transactionOriginal(Ref ref) {
+        return transaction.command(RefParse.class)
+                .setName(ref.getName().replace("refs/", "orig/refs/")).call();
+    }
 }
@@ -95,19 +95,12 @@ public class UpdateRef extends AbstractGeoGitOp<Optional<Ref>> {
         Preconditions.checkState(name != null, "name has not been set");
         Preconditions.checkState(delete || newValue != null, "value has not been set");
 
-        if (oldValue != null) {
-            String storedValue;
-            try {
-                storedValue = refDatabase().getRef(name);
-            } catch (IllegalArgumentException e) {
-                // may be updating what used to be a symred to be a direct ref
-                storedValue = refDatabase().getSymRef(name);
-            }
-            Preconditions.checkState(oldValue.toString().equals(storedValue), "Old value ("
-                    + storedValue + ") doesn't match expected value '" + oldValue + "'");
-        }
-
         if (delete) {
+            if (oldValue != null) {
+                String storedValue = readStoredValue();
+                Preconditions.checkState(oldValue.equals(storedValue), "Old value ("
+                        + storedValue + ") doesn't match expected value '" + oldValue + "'");
+            }
             Optional<Ref> oldRef = command(RefParse.class).setName(name).call();
             if (oldRef.isPresent()) {
                 refDatabase().remove(oldRef.get().getName());
@@ -115,8 +108,29 @@ public class UpdateRef extends AbstractGeoGitOp<Optional<Ref>> {
             return oldRef;
         }
 
-        refDatabase().putRef(name, newValue.toString());
+        if (oldValue != null) {
+            // compare and set atomically, so concurrent updates of the same ref are detected
+            boolean updated = refDatabase().compareAndPut(name, oldValue, newValue.toString());
+            if (!updated) {
+                String storedValue = readStoredValue();
+                throw new IllegalStateException("Old value (" + storedValue
+                        + ") doesn't match expected value '" + oldValue + "'");
+            }
+        } else {
+            refDatabase().putRef(name, newValue.toString());
+        }
         return command(RefParse.class).setName(name).call();
     }
 
+    private String readStoredValue() {
+        String storedValue;
+        try {
+            storedValue = refDatabase().getRef(name);
+        } catch (IllegalArgumentException e) {
+            // may be updating what used to be a symref to be a direct ref
+            storedValue = refDatabase().getSymRef(name);
+        }
+        return storedValue;
+    }
+
 }
@@ -11,6 +11,9 @@ import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.SortedSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
 
 import javax.annotation.Nullable;
 
@@ -28,17 +31,22 @@ import org.geogit.api.plumbing.diff.DiffEntry;
 import org.geogit.api.plumbing.diff.MutableTree;
 import org.geogit.api.plumbing.diff.TreeDifference;
 import org.geogit.api.porcelain.CommitOp;
+import org.geogit.repository.ExecutionService;
+import org.geogit.repository.ExecutionService.Lane;
 import org.geogit.repository.SpatialOps;
+import org.geogit.storage.ChangedPathFilter;
 import org.geogit.storage.ObjectDatabase;
 import org.geogit.storage.StagingDatabase;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Function;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
@@ -61,6 +69,14 @@ import com.vividsolutions.jts.geom.Envelope;
  * Conceptually, write-tree sync()s the current index contents into a set of tree objects on the
  * {@link ObjectDatabase}. In order to have that match what is actually in your directory right now,
  * you need to have done a {@link UpdateIndex} phase before you did the write-tree.
+ * <p>
+ * The changed trees are rewritten, and the contents of new trees moved to the object database,
+ * concurrently on the repository's {@link ExecutionService}; the new root tree is assembled once
+ * they're all done.
+ * <p>
+ * The paths of the trees and features found changed along the way are kept, so that the
+ * {@link ChangedPathFilter} of a commit of the new tree can be built without diffing it again,
+ * see {@link #getChangedPaths()}.
  * 
  * @see TreeDifference
  * @see MutableTree
@@ -74,6 +90,20 @@ public class WriteTree2 extends AbstractGeoGitOp<ObjectId> {
 
     private final List<String> pathFilters = Lists.newLinkedList();
 
+    private ForkJoinPool forkJoinPool;
+
+    /**
+     * Paths of the trees and features changed by the new tree, filled concurrently by the tree
+     * rewrites
+     */
+    private Set<String> changedPaths;
+
+    /**
+     * Whether all the changes went through {@link #applyChanges}, and hence are in
+     * {@link #changedPaths}, as opposed to moving or removing whole trees
+     */
+    private volatile boolean changedPathsComplete;
+
     // to be used when implementing a replacement for the current WriteTree2.setDiffSupplier()
     // private Supplier<Iterator<DiffEntry>> diffSupplier = null;
 
@@ -106,6 +136,31 @@ public class WriteTree2 extends AbstractGeoGitOp<ObjectId> {
         return this;
     }
 
+    /**
+     * @param pool if provided, the differences for each changed tree are computed in parallel on
+     *        the given pool
+     * @return {@code this}
+     * @see DiffTree#setForkJoinPool(ForkJoinPool)
+     */
+    public WriteTree2 setForkJoinPool(@Nullable ForkJoinPool pool) {
+        this.forkJoinPool = pool;
+        return this;
+    }
+
+    /**
+     * @return the paths of the trees and features changed by the last written tree with respect
+     *         to the {@link #setOldRoot(Supplier) old root}, or {@link Optional#absent() absent} if
+     *         they're not all known, as when whole trees were added, removed, renamed or had their
+     *         metadata changed, or there are more than a changed path filter holds
+     */
+    public Optional<Set<String>> getChangedPaths() {
+        if (changedPaths == null || !changedPathsComplete
+                || changedPaths.size() > BuildChangedPathFilter.MAX_PATHS) {
+            return Optional.absent();
+        }
+        return Optional.of(changedPaths);
+    }
+
     /**
      * Executes the write tree operation.
      * 
@@ -117,6 +172,9 @@ public class WriteTree2 extends AbstractGeoGitOp<ObjectId> {
     protected ObjectId _call() {
         final ProgressListener progress = getProgressListener();
 
+        changedPaths = Sets.newConcurrentHashSet();
+        changedPathsComplete = true;
+
         TreeDifference treeDifference = computeTreeDifference();
 
         if (treeDifference.areEqual()) {
@@ -136,7 +194,10 @@ public class WriteTree2 extends AbstractGeoGitOp<ObjectId> {
         handlePureMetadataChanges(treeDifference, ignoreList);
         handleNewTrees(treeDifference, ignoreList);
         handleDeletedTrees(treeDifference, ignoreList);
-        handleRemainingDifferences(treeDifference, ignoreList);
+        handleRemainingDifferences(treeDifference, ignoreList, progress);
+        if (progress.isCanceled()) {
+            return null;
+        }
 
         progress.complete();
 
@@ -163,6 +224,7 @@ public class WriteTree2 extends AbstractGeoGitOp<ObjectId> {
                 continue;// filter doesn't apply to the changed tree
             }
             deepMove(newValue.getMetadataId());
+            changedPathsComplete = false;
             MutableTree leftTree = treeDifference.getLeftTree();
             leftTree.setChild(newValue.getParentPath(), newValue.getNode());
         }
@@ -185,6 +247,7 @@ public class WriteTree2 extends AbstractGeoGitOp<ObjectId> {
                     leftTree.forceChild(ref.getParentPath(), newNode);
                 }
             } else {
+                changedPathsComplete = false;
                 MutableTree leftTree = treeDifference.getLeftTree();
                 leftTree.removeChild(path);
             }
@@ -193,30 +256,38 @@ public class WriteTree2 extends AbstractGeoGitOp<ObjectId> {
 
     private void handleNewTrees(TreeDifference treeDifference, Set<String> ignoreList) {
         SortedSet<NodeRef> newTrees = treeDifference.findNewTrees();
-        for (NodeRef ref : newTrees) {
-            final String path = ref.path();
-            if (ignoreList.contains(path)) {
-                continue;
-            }
-            ignoreList.add(path);
-
-            if (!filterMatchesOrIsParent(path)) {
-                MutableTree rightTree = treeDifference.getRightTree();
-                if (filterApplies(path, rightTree)) {
-                    // can't optimize
-                    RevTree newTree = applyChanges(null, ref);
-                    Node newNode = Node.tree(ref.name(), newTree.getId(), ref.getMetadataId());
+        List<FutureTask<Void>> moves = Lists.newArrayList();
+        try {
+            for (NodeRef ref : newTrees) {
+                final String path = ref.path();
+                if (ignoreList.contains(path)) {
+                    continue;
+                }
+                ignoreList.add(path);
+
+                if (!filterMatchesOrIsParent(path)) {
+                    MutableTree rightTree = treeDifference.getRightTree();
+                    if (filterApplies(path, rightTree)) {
+                        // can't optimize
+                        RevTree newTree = applyChanges(null, ref);
+                        Node newNode = Node.tree(ref.name(), newTree.getId(), ref.getMetadataId());
+                        MutableTree leftTree = treeDifference.getLeftTree();
+                        leftTree.forceChild(ref.getParentPath(), newNode);
+                    }
+                } else {
+                    LOGGER.trace("Creating new tree {}", path);
+                    moves.add(submit(deepMoveTask(ref.getNode())));
+                    changedPathsComplete = false;
                     MutableTree leftTree = treeDifference.getLeftTree();
-                    leftTree.forceChild(ref.getParentPath(), newNode);
+                    String parentPath = ref.getParentPath();
+                    Node node = ref.getNode();
+                    leftTree.setChild(parentPath, node);
                 }
-            } else {
-                LOGGER.trace("Creating new tree {}", path);
-                deepMove(ref.getNode());
-                MutableTree leftTree = treeDifference.getLeftTree();
-                String parentPath = ref.getParentPath();
-                Node node = ref.getNode();
-                leftTree.setChild(parentPath, node);
             }
+            awaitAll(moves);
+        } finally {
+            // no-op for finished moves, prevents the pending ones from running on failure
+            cancelAll(moves);
         }
     }
 
@@ -245,22 +316,32 @@ public class WriteTree2 extends AbstractGeoGitOp<ObjectId> {
                 continue;// filter doesn't apply to the renamed tree as a whole
             }
             LOGGER.trace("Handling rename of {} as {}", oldValue.path(), newPath);
+            changedPathsComplete = false;
             MutableTree leftTree = treeDifference.getLeftTree();
             leftTree.removeChild(oldValue.path());
             leftTree.setChild(newValue.getParentPath(), newValue.getNode());
         }
     }
 
-    private void handleRemainingDifferences(TreeDifference treeDifference, Set<String> ignoreList) {
+    /**
+     * Rewrites the changed trees concurrently on the {@link Lane#CPU CPU lane}. Each tree only
+     * gets the changes to its direct feature children (subtree nodes are set by
+     * {@link MutableTree#build} afterwards), so the rewrites don't depend on each other, and the
+     * resulting tree nodes are set on the left tree in the original order as they complete.
+     */
+    private void handleRemainingDifferences(TreeDifference treeDifference, Set<String> ignoreList,
+            ProgressListener progress) {
 
         // old/new refs to trees that have changed and apply to the pathFilters, deepest paths first
         final SortedMap<NodeRef, NodeRef> changedTrees = treeDifference.findChanges();
         final SortedMap<NodeRef, NodeRef> filteredChangedTrees = changedTrees;// filterChanges(changedTrees);
 
-        for (Map.Entry<NodeRef, NodeRef> changedTreeRefs : filteredChangedTrees.entrySet()) {
+        List<NodeRef> changedTreeRefs = Lists.newArrayList();
+        List<FutureTask<RevTree>> rewrites = Lists.newArrayList();
+        for (Map.Entry<NodeRef, NodeRef> changedTree : filteredChangedTrees.entrySet()) {
 
-            NodeRef leftTreeRef = changedTreeRefs.getKey();
-            NodeRef rightTreeRef = changedTreeRefs.getValue();
+            final NodeRef leftTreeRef = changedTree.getKey();
+            final NodeRef rightTreeRef = changedTree.getValue();
             String newPath = rightTreeRef.path();
             if (ignoreList.contains(newPath)) {
                 continue;
@@ -269,15 +350,55 @@ public class WriteTree2 extends AbstractGeoGitOp<ObjectId> {
                 continue;
             }
             ignoreList.add(newPath);
-            RevTree tree = applyChanges(leftTreeRef, rightTreeRef);
+            changedTreeRefs.add(rightTreeRef);
+            rewrites.add(submit(new Callable<RevTree>() {
+                @Override
+                public RevTree call() {
+                    return applyChanges(leftTreeRef, rightTreeRef);
+                }
+            }));
+        }
+
+        final int total = rewrites.size();
+        try {
+            for (int i = 0; i < total && !progress.isCanceled(); i++) {
+                RevTree tree = ExecutionService.await(rewrites.get(i));
+                NodeRef rightTreeRef = changedTreeRefs.get(i);
+
+                Envelope bounds = SpatialOps.boundsOf(tree);
+                Node newTreeNode = Node.create(rightTreeRef.name(), tree.getId(),
+                        rightTreeRef.getMetadataId(), TYPE.TREE, bounds);
+
+                MutableTree leftRoot = treeDifference.getLeftTree();
+                String parentPath = rightTreeRef.getParentPath();
+                leftRoot.setChild(parentPath, newTreeNode);
 
-            Envelope bounds = SpatialOps.boundsOf(tree);
-            Node newTreeNode = Node.create(rightTreeRef.name(), tree.getId(),
-                    rightTreeRef.getMetadataId(), TYPE.TREE, bounds);
+                progress.setDescription(String.format("Tree %s written (%d of %d)",
+                        rightTreeRef.path(), i + 1, total));
+                progress.setProgress((i + 1) * 100f / total);
+            }
+        } finally {
+            // no-op for finished tasks, prevents the pending ones from running on failure or
+            // cancellation
+            cancelAll(rewrites);
+        }
+    }
+
+    private <T> FutureTask<T> submit(Callable<T> callable) {
+        FutureTask<T> task = new FutureTask<T>(callable);
+        context.executionService().getExecutor(Lane.CPU).execute(task);
+        return task;
+    }
+
+    private static <T> void awaitAll(List<FutureTask<T>> tasks) {
+        for (FutureTask<T> task : tasks) {
+            ExecutionService.await(task);
+        }
+    }
 
-            MutableTree leftRoot = treeDifference.getLeftTree();
-            String parentPath = rightTreeRef.getParentPath();
-            leftRoot.setChild(parentPath, newTreeNode);
+    private static <T> void cancelAll(List<FutureTask<T>> tasks) {
+        for (FutureTask<T> task : tasks) {
+            task.cancel(false);
         }
     }
 
@@ -301,7 +422,17 @@ public class WriteTree2 extends AbstractGeoGitOp<ObjectId> {
 
         Supplier<Iterator<DiffEntry>> diffs = command(DiffTree.class).setRecursive(false)
                 .setReportTrees(false).setOldTree(leftTreeId).setNewTree(rightTreeId)
-                .setFilter(strippedPathFilters);
+                .setFilter(strippedPathFilters).setForkJoinPool(forkJoinPool);
+        if (forkJoinPool != null) {
+            // the diffs are collected in memory anyways, compute them only once
+            final List<DiffEntry> diffList = ImmutableList.copyOf(diffs.get());
+            diffs = new Supplier<Iterator<DiffEntry>>() {
+                @Override
+                public Iterator<DiffEntry> get() {
+                    return diffList.iterator();
+                }
+            };
+        }
 
         // move new blobs from the index to the repository (note: this could be parallelized)
         Supplier<Iterator<Node>> nodesToMove = asNodeSupplierOfNewContents(diffs,
@@ -331,6 +462,7 @@ public class WriteTree2 extends AbstractGeoGitOp<ObjectId> {
             });
         }
 
+        boolean changed = false;
         for (; iterator.hasNext();) {
             final DiffEntry diff = iterator.next();
             if (diff.isDelete()) {
@@ -340,6 +472,14 @@ public class WriteTree2 extends AbstractGeoGitOp<ObjectId> {
                 Node node = newObject.getNode();
                 builder.put(node);
             }
+            addChangedPaths(treePath, diff);
+            changed = true;
+        }
+        if (changed && !treePath.isEmpty()) {
+            // the tree and all its parents changed too
+            for (String path : NodeRef.allPathsTo(treePath)) {
+                addChangedPath(path);
+            }
         }
 
         final RevTree newTree = builder.build();
@@ -347,6 +487,25 @@ public class WriteTree2 extends AbstractGeoGitOp<ObjectId> {
         return newTree;
     }
 
+    private void addChangedPaths(String treePath, DiffEntry diff) {
+        if (diff.getOldObject() != null) {
+            addChangedPath(NodeRef.appendChild(treePath, diff.oldName()));
+        }
+        if (diff.getNewObject() != null) {
+            addChangedPath(NodeRef.appendChild(treePath, diff.newName()));
+        }
+    }
+
+    private void addChangedPath(String path) {
+        if (changedPathsComplete) {
+            changedPaths.add(path);
+            if (changedPaths.size() > BuildChangedPathFilter.MAX_PATHS) {
+                // won't be used, stop holding them
+                changedPathsComplete = false;
+            }
+        }
+    }
+
     private boolean filterMatchesOrIsParent(final String treePath) {
         if (pathFilters.isEmpty()) {
             return true;
@@ -522,9 +681,15 @@ public class WriteTree2 extends AbstractGeoGitOp<ObjectId> {
         command(DeepMove.class).setObject(objectRef).setToIndex(false).call();
     }
 
-    private void deepMove(Node ref) {
-        Supplier<Node> objectRef = Suppliers.ofInstance(ref);
-        command(DeepMove.class).setObjectRef(objectRef).setToIndex(false).call();
+    private Callable<Void> deepMoveTask(final Node ref) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() {
+                Supplier<Node> objectRef = Suppliers.ofInstance(ref);
+                command(DeepMove.class).setObjectRef(objectRef).setToIndex(false).call();
+                return null;
+            }
+        };
     }
 
     /**
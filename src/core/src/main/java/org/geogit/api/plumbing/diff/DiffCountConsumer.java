@@ -4,14 +4,24 @@
  */
 package org.geogit.api.plumbing.diff;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import javax.annotation.Nullable;
+
 import org.geogit.api.Bucket;
 import org.geogit.api.Node;
 import org.geogit.api.NodeRef;
 import org.geogit.api.ObjectId;
 import org.geogit.api.RevTree;
 import org.geogit.api.plumbing.diff.DiffTreeVisitor.Consumer;
+import org.geogit.api.plumbing.diff.DiffTreeVisitor.ForkJoinConsumer;
+import org.geogit.storage.DiffSummaryCache;
 import org.geogit.storage.ObjectDatabase;
 
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+
 /**
  * A {@link Consumer} for diffs that computes the number for tree and feature changes between the
  * traversal's two trees.
@@ -19,21 +29,66 @@ import org.geogit.storage.ObjectDatabase;
  * <p>
  * Use {@link DiffCountConsumer#get() consumer.get()} after {@link DiffTreeVisitor#walk(Consumer)
  * visitor.walk(consumer)} to get the resulting {@link DiffObjectCount}.
+ * <p>
+ * Supports parallel traversals by counting each forked bucket separately and adding up the counts
+ * at {@link #join}.
+ * <p>
+ * If a {@link DiffSummaryCache} is provided, the counts of changed subtree pairs and bucket tree
+ * pairs are memoized, keyed by their tree ids, so that traversing a pair whose count has already
+ * been computed (possibly while computing the diff between other root trees) is avoided. Bucket
+ * pairs make overlapping diffs within a single large feature type tree share the work of the
+ * buckets they both changed. Since the memoized counts are not path filtered, a cache shall only
+ * be given when this consumer is not decorated by a path filtering consumer.
  */
-public class DiffCountConsumer implements DiffTreeVisitor.Consumer {
+public class DiffCountConsumer implements DiffTreeVisitor.ForkJoinConsumer {
+
+    /**
+     * Subtree counts below this number of changed features are cheaper to recompute than to store
+     */
+    private static final long MIN_MEMOIZED_FEATURE_COUNT = 1000;
+
+    private static final ImmutableList<String> NO_FILTERS = ImmutableList.of();
 
     private ObjectDatabase db;
 
+    @Nullable
+    private final DiffSummaryCache cache;
+
+    /**
+     * The changed subtree and bucket tree pairs being traversed, with the count snapshot at the
+     * time they were entered; only used if {@link #cache} is not null
+     */
+    private final Deque<SubtreeState> subtrees = new ArrayDeque<SubtreeState>();
+
     private DiffObjectCount count = new DiffObjectCount();
 
     public DiffCountConsumer(ObjectDatabase db) {
+        this(db, null);
+    }
+
+    /**
+     * @param db the database to get the trees from
+     * @param cache if provided, where to look up and memoize the counts of changed subtree pairs
+     */
+    public DiffCountConsumer(ObjectDatabase db, @Nullable DiffSummaryCache cache) {
         this.db = db;
+        this.cache = cache;
     }
 
     public DiffObjectCount get() {
         return count;
     }
 
+    @Override
+    public ForkJoinConsumer fork() {
+        return new DiffCountConsumer(db, cache);
+    }
+
+    @Override
+    public void join(ForkJoinConsumer forked) {
+        count.add(((DiffCountConsumer) forked).get());
+    }
+
     @Override
     public void feature(Node left, Node right) {
         if (left == null) {
@@ -63,7 +118,7 @@ public class DiffCountConsumer implements DiffTreeVisitor.Consumer {
         }
 
         count.changedTrees(1);// the tree changed, or this method wouldn't have been called
-        return true;
+        return enter(left.getObjectId(), right.getObjectId());
     }
 
     @Override
@@ -73,9 +128,42 @@ public class DiffCountConsumer implements DiffTreeVisitor.Consumer {
             addTreeFeatures(bucket.id(), left != null, right != null);
             return false;
         }
+        return enter(left.id(), right.id());
+    }
+
+    /**
+     * Adds the memoized count of the given pair of trees if present, or starts tracking its count
+     * otherwise.
+     * 
+     * @return whether the pair of trees shall be traversed
+     */
+    private boolean enter(final ObjectId leftId, final ObjectId rightId) {
+        if (cache != null) {
+            Optional<DiffObjectCount> cached = cache.getCount(leftId, rightId, NO_FILTERS);
+            if (cached.isPresent()) {
+                count.add(cached.get());
+                return false;
+            }
+            subtrees.push(new SubtreeState(leftId, rightId, count.copy()));
+        }
         return true;
     }
 
+    /**
+     * Memoizes the count of the given pair of trees if it was being tracked and is large enough.
+     */
+    private void exit(final ObjectId leftId, final ObjectId rightId) {
+        // the end events are also called for the pairs that were not entered, which were not pushed
+        SubtreeState current = subtrees.peek();
+        if (current != null && current.leftId.equals(leftId) && current.rightId.equals(rightId)) {
+            subtrees.pop();
+            DiffObjectCount subtreeCount = count.subtract(current.snapshot);
+            if (subtreeCount.featureCount() >= MIN_MEMOIZED_FEATURE_COUNT) {
+                cache.putCount(current.leftId, current.rightId, NO_FILTERS, subtreeCount);
+            }
+        }
+    }
+
     private boolean addTreeFeatures(ObjectId treeId, boolean leftPresent, boolean rightPresent) {
         RevTree tree = db.getTree(treeId);
         long size = tree.size();
@@ -93,11 +181,30 @@ public class DiffCountConsumer implements DiffTreeVisitor.Consumer {
 
     @Override
     public void endTree(Node left, Node right) {
-        // no need to do anything
+        if (cache == null || left == null || right == null) {
+            return;
+        }
+        exit(left.getObjectId(), right.getObjectId());
     }
 
     @Override
     public void endBucket(int bucketIndex, int bucketDepth, Bucket left, Bucket right) {
-        // no need to do anything
+        if (cache == null || left == null || right == null) {
+            return;
+        }
+        exit(left.id(), right.id());
+    }
+
+    private static final class SubtreeState {
+
+        private final ObjectId leftId, rightId;
+
+        private final DiffObjectCount snapshot;
+
+        SubtreeState(ObjectId leftId, ObjectId rightId, DiffObjectCount snapshot) {
+            this.leftId = leftId;
+            this.rightId = rightId;
+            this.snapshot = snapshot;
+        }
     }
-}
\ No newline at end of file
+}
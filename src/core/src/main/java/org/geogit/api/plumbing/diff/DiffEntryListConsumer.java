@@ -0,0 +1,156 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.api.plumbing.diff;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.Bucket;
+import org.geogit.api.Node;
+import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
+import org.geogit.api.plumbing.diff.DiffTreeVisitor.Consumer;
+import org.geogit.api.plumbing.diff.DiffTreeVisitor.ForkJoinConsumer;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+
+/**
+ * A {@link Consumer} that collects the differences found by a {@link DiffTreeVisitor} traversal as
+ * a list of {@link DiffEntry}, in the same order they are reported.
+ * <p>
+ * Supports parallel traversals by collecting the entries of each forked bucket separately and
+ * appending them in order at {@link #join}, hence the resulting list is in the same order than for
+ * a sequential traversal.
+ * <p>
+ * Use {@link #getEntries()} after {@link DiffTreeVisitor#walk} to get the resulting list.
+ */
+public class DiffEntryListConsumer implements DiffTreeVisitor.ForkJoinConsumer {
+
+    private final boolean reportTrees;
+
+    private final boolean recursive;
+
+    /**
+     * The trees being traversed, with the one the current events refer to on top
+     */
+    private final Deque<TreeState> parents;
+
+    private final List<DiffEntry> entries = Lists.newArrayList();
+
+    /**
+     * @param reportTrees whether to report a {@link DiffEntry} for each changed tree or not
+     * @param recursive whether to report differences recursively ({@code true} or just for direct
+     *        children of the root trees ({@code false})
+     */
+    public DiffEntryListConsumer(boolean reportTrees, boolean recursive) {
+        this(reportTrees, recursive, new ArrayDeque<TreeState>());
+    }
+
+    private DiffEntryListConsumer(boolean reportTrees, boolean recursive,
+            Deque<TreeState> parents) {
+        this.reportTrees = reportTrees;
+        this.recursive = recursive;
+        this.parents = parents;
+    }
+
+    /**
+     * @return the collected differences
+     */
+    public List<DiffEntry> getEntries() {
+        return entries;
+    }
+
+    @Override
+    public ForkJoinConsumer fork() {
+        return new DiffEntryListConsumer(reportTrees, recursive, new ArrayDeque<TreeState>(
+                parents));
+    }
+
+    @Override
+    public void join(ForkJoinConsumer forked) {
+        entries.addAll(((DiffEntryListConsumer) forked).entries);
+    }
+
+    @Override
+    public void feature(@Nullable Node left, @Nullable Node right) {
+        TreeState parent = parents.peek();
+        NodeRef oldRef = ref(left, parent.path, parent.leftMetadataId);
+        NodeRef newRef = ref(right, parent.path, parent.rightMetadataId);
+        entries.add(new DiffEntry(oldRef, newRef));
+    }
+
+    @Override
+    public boolean tree(@Nullable Node left, @Nullable Node right) {
+        final String name = left == null ? right.getName() : left.getName();
+        if (NodeRef.ROOT.equals(name)) {
+            parents.push(new TreeState(left, right, NodeRef.ROOT, ObjectId.NULL, ObjectId.NULL));
+            return true;
+        }
+        TreeState parent = parents.peek();
+        NodeRef oldRef = ref(left, parent.path, parent.leftMetadataId);
+        NodeRef newRef = ref(right, parent.path, parent.rightMetadataId);
+        if (reportTrees) {
+            entries.add(new DiffEntry(oldRef, newRef));
+        }
+        if (!recursive) {
+            return false;
+        }
+        ObjectId leftMd = oldRef == null ? ObjectId.NULL : oldRef.getMetadataId();
+        ObjectId rightMd = newRef == null ? ObjectId.NULL : newRef.getMetadataId();
+        String path = NodeRef.appendChild(parent.path, name);
+        parents.push(new TreeState(left, right, path, leftMd, rightMd));
+        return true;
+    }
+
+    @Override
+    public void endTree(@Nullable Node left, @Nullable Node right) {
+        // endTree is called regardless of tree() returning true (and a decorator consumer may not
+        // have forwarded the tree() call at all), so check it is the tree on top of the stack
+        TreeState current = parents.peek();
+        if (current != null && Objects.equal(current.left, left)
+                && Objects.equal(current.right, right)) {
+            parents.pop();
+        }
+    }
+
+    @Override
+    public boolean bucket(int bucketIndex, int bucketDepth, @Nullable Bucket left,
+            @Nullable Bucket right) {
+        return true;
+    }
+
+    @Override
+    public void endBucket(int bucketIndex, int bucketDepth, @Nullable Bucket left,
+            @Nullable Bucket right) {
+        // nothing to do
+    }
+
+    @Nullable
+    private static NodeRef ref(@Nullable Node node, String parentPath, ObjectId metadataId) {
+        return node == null ? null : new NodeRef(node, parentPath, metadataId);
+    }
+
+    private static final class TreeState {
+
+        private final Node left, right;
+
+        private final String path;
+
+        private final ObjectId leftMetadataId, rightMetadataId;
+
+        TreeState(@Nullable Node left, @Nullable Node right, String path, ObjectId leftMetadataId,
+                ObjectId rightMetadataId) {
+            this.left = left;
+            this.right = right;
+            this.path = path;
+            this.leftMetadataId = leftMetadataId;
+            this.rightMetadataId = rightMetadataId;
+        }
+    }
+}
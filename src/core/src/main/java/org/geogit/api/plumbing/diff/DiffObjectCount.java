@@ -14,6 +14,20 @@ public class DiffObjectCount {
 
     private int treesAdded, treesRemoved, treesChanged;
 
+    public DiffObjectCount() {
+        //
+    }
+
+    public DiffObjectCount(long featuresAdded, long featuresRemoved, long featuresChanged,
+            int treesAdded, int treesRemoved, int treesChanged) {
+        this.featuresAdded = featuresAdded;
+        this.featuresRemoved = featuresRemoved;
+        this.featuresChanged = featuresChanged;
+        this.treesAdded = treesAdded;
+        this.treesRemoved = treesRemoved;
+        this.treesChanged = treesChanged;
+    }
+
     /**
      * Returns the total count of modified elements (i.e. sum of added, changed, and removed trees
      * and features)
@@ -36,6 +50,36 @@ public class DiffObjectCount {
         return treesAdded + treesChanged + treesRemoved;
     }
 
+    /**
+     * Increases all the counts by the ones in {@code other}
+     */
+    void add(DiffObjectCount other) {
+        featuresAdded += other.featuresAdded;
+        featuresRemoved += other.featuresRemoved;
+        featuresChanged += other.featuresChanged;
+        treesAdded += other.treesAdded;
+        treesRemoved += other.treesRemoved;
+        treesChanged += other.treesChanged;
+    }
+
+    /**
+     * @return a new count with the difference between these counts and the ones in {@code other}
+     */
+    DiffObjectCount subtract(DiffObjectCount other) {
+        return new DiffObjectCount(featuresAdded - other.featuresAdded, featuresRemoved
+                - other.featuresRemoved, featuresChanged - other.featuresChanged, treesAdded
+                - other.treesAdded, treesRemoved - other.treesRemoved, treesChanged
+                - other.treesChanged);
+    }
+
+    /**
+     * @return a copy of this count
+     */
+    DiffObjectCount copy() {
+        return new DiffObjectCount(featuresAdded, featuresRemoved, featuresChanged, treesAdded,
+                treesRemoved, treesChanged);
+    }
+
     /**
      * Increases the number of added features by a given number
      */
@@ -15,6 +15,9 @@ import java.util.List;
 import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
@@ -34,6 +37,7 @@ import com.google.common.base.Objects;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Multimaps;
 import com.google.common.collect.PeekingIterator;
 import com.google.common.collect.Sets;
@@ -44,6 +48,11 @@ import com.vividsolutions.jts.geom.Envelope;
  * and emit diff events to a {@link Consumer}, which can choose to skip parts of the walk when it
  * had collected enough information for its purpose and don't need to go further down a given pair
  * of trees (either named or bucket).
+ * <p>
+ * The traversal can also be run in parallel through {@link #walk(ForkJoinConsumer, ForkJoinPool)},
+ * in which case the work is split at bucket boundaries and the sibling buckets of a pair of bucket
+ * trees are traversed concurrently, each one with its own {@link ForkJoinConsumer#fork() forked}
+ * consumer.
  */
 @ParametersAreNonnullByDefault
 public class DiffTreeVisitor {
@@ -95,7 +104,46 @@ public class DiffTreeVisitor {
      *        can abort the walk for whole subtrees.
      */
     public final void walk(Consumer consumer) {
+        if (consumer instanceof ForkJoinConsumer) {
+            // make sure the traversal is not forked even if called from inside a ForkJoinPool
+            consumer = new ForwardingConsumer(consumer) {
+            };
+        }
+        walkInternal(consumer);
+    }
+
+    /**
+     * Walks up the differences between the two trees the same way than {@link #walk(Consumer)},
+     * but traversing the sibling buckets of bucket trees concurrently on the given
+     * {@link ForkJoinPool}.
+     * <p>
+     * Every time the traversal splits at the buckets of a pair of trees,
+     * {@link ForkJoinConsumer#fork()} is called on the current consumer once per bucket index and
+     * the events for the contents of each bucket are sent to the forked consumer, possibly from a
+     * different thread. Once all the buckets are done, the forked consumers are
+     * {@link ForkJoinConsumer#join joined} back in bucket index order, so consumers that accumulate
+     * their results on a per fork basis can produce them in the same order than a sequential walk.
+     * <p>
+     * This method blocks until the whole traversal is finished.
+     * 
+     * @param consumer the callback object that gets notified of changes between the two trees and
+     *        can abort the walk for whole subtrees
+     * @param pool the fork join pool where to run the traversal
+     */
+    public final void walk(final ForkJoinConsumer consumer, final ForkJoinPool pool) {
+        checkNotNull(consumer, "consumer");
+        checkNotNull(pool, "pool");
+        pool.invoke(new RecursiveAction() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void compute() {
+                walkInternal(consumer);
+            }
+        });
+    }
 
+    private void walkInternal(Consumer consumer) {
         if (left.equals(right)) {
             return;
         }
@@ -245,25 +293,35 @@ public class DiffTreeVisitor {
         final SortedSet<Integer> bucketIndexes = Sets.newTreeSet(Sets.union(leftBuckets.keySet(),
                 nodesByBucket.keySet()));
 
-        for (Integer bucketIndex : bucketIndexes) {
-            Bucket leftBucket = leftBuckets.get(bucketIndex);
-            List<Node> rightNodes = nodesByBucket.get(bucketIndex);// never returns null, but empty
-            if (null == leftBucket) {
-                traverseLeafLeaf(consumer, Iterators.<Node> emptyIterator(), rightNodes.iterator());
-            } else if (rightNodes.isEmpty()) {
-                if (consumer.bucket(bucketIndex, bucketDepth, leftBucket, null)) {
-                    traverseBucketBucket(consumer, leftBucket, null, bucketDepth);
-                }
-                consumer.endBucket(bucketIndex, bucketDepth, leftBucket, null);
-            } else {
-                RevTree leftTree = leftSource.getTree(leftBucket.id());
-                if (leftTree.buckets().isPresent()) {
-                    traverseBucketLeaf(consumer, leftTree, rightNodes.iterator(), bucketDepth + 1);
-                } else {
-                    traverseLeafLeaf(consumer, leftTree.children(), rightNodes.iterator());
+        List<BucketTraversal> traversals = Lists.newArrayListWithCapacity(bucketIndexes.size());
+        for (final Integer bucketIndex : bucketIndexes) {
+            final Bucket leftBucket = leftBuckets.get(bucketIndex);
+            // never returns null, but empty
+            final List<Node> rightNodes = nodesByBucket.get(bucketIndex);
+            traversals.add(new BucketTraversal() {
+                @Override
+                void run(Consumer consumer) {
+                    if (null == leftBucket) {
+                        traverseLeafLeaf(consumer, Iterators.<Node> emptyIterator(),
+                                rightNodes.iterator());
+                    } else if (rightNodes.isEmpty()) {
+                        if (consumer.bucket(bucketIndex, bucketDepth, leftBucket, null)) {
+                            traverseBucketBucket(consumer, leftBucket, null, bucketDepth);
+                        }
+                        consumer.endBucket(bucketIndex, bucketDepth, leftBucket, null);
+                    } else {
+                        RevTree leftTree = leftSource.getTree(leftBucket.id());
+                        if (leftTree.buckets().isPresent()) {
+                            traverseBucketLeaf(consumer, leftTree, rightNodes.iterator(),
+                                    bucketDepth + 1);
+                        } else {
+                            traverseLeafLeaf(consumer, leftTree.children(), rightNodes.iterator());
+                        }
+                    }
                 }
-            }
+            });
         }
+        traverseBuckets(consumer, traversals);
     }
 
     /**
@@ -289,25 +347,35 @@ public class DiffTreeVisitor {
         final SortedSet<Integer> bucketIndexes = Sets.newTreeSet(Sets.union(rightBuckets.keySet(),
                 nodesByBucket.keySet()));
 
-        for (Integer bucketIndex : bucketIndexes) {
-            Bucket rightBucket = rightBuckets.get(bucketIndex);
-            List<Node> leftNodes = nodesByBucket.get(bucketIndex);// never returns null, but empty
-            if (null == rightBucket) {
-                traverseLeafLeaf(consumer, leftNodes.iterator(), Iterators.<Node> emptyIterator());
-            } else if (leftNodes.isEmpty()) {
-                if (consumer.bucket(bucketIndex, bucketDepth, null, rightBucket)) {
-                    traverseBucketBucket(consumer, null, rightBucket, bucketDepth);
-                }
-                consumer.endBucket(bucketIndex, bucketDepth, null, rightBucket);
-            } else {
-                RevTree rightTree = rightSource.getTree(rightBucket.id());
-                if (rightTree.buckets().isPresent()) {
-                    traverseLeafBucket(consumer, leftNodes.iterator(), rightTree, bucketDepth + 1);
-                } else {
-                    traverseLeafLeaf(consumer, leftNodes.iterator(), rightTree.children());
+        List<BucketTraversal> traversals = Lists.newArrayListWithCapacity(bucketIndexes.size());
+        for (final Integer bucketIndex : bucketIndexes) {
+            final Bucket rightBucket = rightBuckets.get(bucketIndex);
+            // never returns null, but empty
+            final List<Node> leftNodes = nodesByBucket.get(bucketIndex);
+            traversals.add(new BucketTraversal() {
+                @Override
+                void run(Consumer consumer) {
+                    if (null == rightBucket) {
+                        traverseLeafLeaf(consumer, leftNodes.iterator(),
+                                Iterators.<Node> emptyIterator());
+                    } else if (leftNodes.isEmpty()) {
+                        if (consumer.bucket(bucketIndex, bucketDepth, null, rightBucket)) {
+                            traverseBucketBucket(consumer, null, rightBucket, bucketDepth);
+                        }
+                        consumer.endBucket(bucketIndex, bucketDepth, null, rightBucket);
+                    } else {
+                        RevTree rightTree = rightSource.getTree(rightBucket.id());
+                        if (rightTree.buckets().isPresent()) {
+                            traverseLeafBucket(consumer, leftNodes.iterator(), rightTree,
+                                    bucketDepth + 1);
+                        } else {
+                            traverseLeafLeaf(consumer, leftNodes.iterator(), rightTree.children());
+                        }
+                    }
                 }
-            }
+            });
         }
+        traverseBuckets(consumer, traversals);
     }
 
     /**
@@ -382,23 +450,80 @@ public class DiffTreeVisitor {
         ImmutableSortedMap<Integer, Bucket> rb = right.buckets().get();
         TreeSet<Integer> availableIndexes = newTreeSet(union(lb.keySet(), rb.keySet()));
 
-        @Nullable
-        Bucket lbucket;
-        @Nullable
-        Bucket rbucket;
+        List<BucketTraversal> traversals = Lists.newArrayListWithCapacity(availableIndexes.size());
         for (Integer index : availableIndexes) {
-            lbucket = lb.get(index);
-            rbucket = rb.get(index);
+            @Nullable
+            final Bucket lbucket = lb.get(index);
+            @Nullable
+            final Bucket rbucket = rb.get(index);
             if (Objects.equal(lbucket, rbucket)) {
                 continue;
             }
-            if (consumer.bucket(index.intValue(), bucketDepth, lbucket, rbucket)) {
-                RevTree ltree = lbucket == null ? RevTree.EMPTY : leftSource.getTree(lbucket.id());
-                RevTree rtree = rbucket == null ? RevTree.EMPTY : rightSource.getTree(rbucket.id());
-                traverseTree(consumer, ltree, rtree, bucketDepth + 1);
+            final int bucketIndex = index.intValue();
+            traversals.add(new BucketTraversal() {
+                @Override
+                void run(Consumer consumer) {
+                    if (consumer.bucket(bucketIndex, bucketDepth, lbucket, rbucket)) {
+                        RevTree ltree = lbucket == null ? RevTree.EMPTY : leftSource.getTree(lbucket
+                                .id());
+                        RevTree rtree = rbucket == null ? RevTree.EMPTY : rightSource
+                                .getTree(rbucket.id());
+                        traverseTree(consumer, ltree, rtree, bucketDepth + 1);
+                    }
+                    consumer.endBucket(bucketIndex, bucketDepth, lbucket, rbucket);
+                }
+            });
+        }
+        traverseBuckets(consumer, traversals);
+    }
+
+    /**
+     * Runs the traversal of a set of sibling buckets, given in bucket index order.
+     * <p>
+     * If the traversal was started through {@link #walk(ForkJoinConsumer, ForkJoinPool)} each
+     * bucket is traversed on its own {@link RecursiveAction} with a consumer
+     * {@link ForkJoinConsumer#fork() forked} off {@code consumer}, and the forked consumers are
+     * {@link ForkJoinConsumer#join joined} back in order once all of them are done; otherwise the
+     * buckets are traversed in order in the calling thread.
+     */
+    private void traverseBuckets(final Consumer consumer, final List<BucketTraversal> traversals) {
+        final boolean fork = traversals.size() > 1 && consumer instanceof ForkJoinConsumer
+                && ForkJoinTask.inForkJoinPool();
+        if (!fork) {
+            for (BucketTraversal traversal : traversals) {
+                traversal.run(consumer);
             }
-            consumer.endBucket(index.intValue(), bucketDepth, lbucket, rbucket);
+            return;
+        }
+
+        final ForkJoinConsumer parent = (ForkJoinConsumer) consumer;
+        final List<ForkJoinConsumer> forks = Lists.newArrayListWithCapacity(traversals.size());
+        final List<RecursiveAction> tasks = Lists.newArrayListWithCapacity(traversals.size());
+        for (final BucketTraversal traversal : traversals) {
+            final ForkJoinConsumer forked = parent.fork();
+            forks.add(forked);
+            tasks.add(new RecursiveAction() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected void compute() {
+                    traversal.run(forked);
+                }
+            });
         }
+        ForkJoinTask.invokeAll(tasks);
+        for (ForkJoinConsumer forked : forks) {
+            parent.join(forked);
+        }
+    }
+
+    /**
+     * The traversal of the trees pointed out by a single bucket index, used by
+     * {@link #traverseBuckets} to run sibling buckets either sequentially or concurrently.
+     */
+    private abstract class BucketTraversal {
+
+        abstract void run(Consumer consumer);
     }
 
     /**
@@ -508,6 +633,37 @@ public class DiffTreeVisitor {
                 @Nullable final Bucket left, @Nullable final Bucket right);
     }
 
+    /**
+     * A {@link Consumer} that can be used by a parallel traversal as performed by
+     * {@link DiffTreeVisitor#walk(ForkJoinConsumer, ForkJoinPool)}.
+     * <p>
+     * Whenever the traversal splits the work at bucket boundaries, {@link #fork()} is called once
+     * per bucket to get the consumer for the events of that bucket, which may be traversed
+     * concurrently with its siblings. Once all the sibling buckets are done, {@link #join} is
+     * called on this consumer for each of the forked ones in bucket index order, always from the
+     * thread that forked them. Hence a consumer that accumulates its results on each fork and
+     * appends them to its own at {@code join} produces the same output, in the same order, than a
+     * sequential traversal.
+     * <p>
+     * A forked consumer must carry over any traversal state its parent holds at the time of the
+     * fork (e.g. the path of the tree being traversed). Thread safe consumers with no such state
+     * can return {@code this} from {@link #fork()} and do nothing at {@link #join}.
+     */
+    public static interface ForkJoinConsumer extends Consumer {
+
+        /**
+         * @return the consumer to receive the events of one of the buckets being traversed
+         *         concurrently, as of the current state of this consumer
+         */
+        public abstract ForkJoinConsumer fork();
+
+        /**
+         * Merges the results of a consumer previously obtained through {@link #fork()} into this
+         * one, once the traversal of its bucket is finished.
+         */
+        public abstract void join(ForkJoinConsumer forked);
+    }
+
     /**
      * Template class for consumer decorators, forwards all event calls to the provided consumer;
      * concrete subclasses shall override the event methods of their interest.
@@ -4,28 +4,60 @@
  */
 package org.geogit.api.plumbing.diff;
 
+import static com.google.common.base.Preconditions.checkState;
+
 import java.util.List;
 
 import org.geogit.api.Bucket;
 import org.geogit.api.Node;
 import org.geogit.api.NodeRef;
 import org.geogit.api.plumbing.diff.DiffTreeVisitor.Consumer;
+import org.geogit.api.plumbing.diff.DiffTreeVisitor.ForkJoinConsumer;
 
 /**
  * A {@link Consumer} decorator that checks for whether each tree/bucket/feature event applies to
  * the provided list of filters before delegating to the actual {@code DiffTreeVisitor.Consumer},
  * which hence will only be notified of the events that apply to the given path filters.
+ * <p>
+ * Can be used on a parallel traversal as long as the delegate consumer is a
+ * {@link ForkJoinConsumer} itself, in which case each fork tracks its own tree path and forwards to
+ * a fork of the delegate.
  */
-public class PathFilteringDiffConsumer extends DiffTreeVisitor.ForwardingConsumer {
+public class PathFilteringDiffConsumer extends DiffTreeVisitor.ForwardingConsumer implements
+        ForkJoinConsumer {
+
+    private final DiffTreeVisitor.Consumer delegate;
 
     private DiffPathTracker tracker;
 
     private DiffPathFilter filter;
 
     public PathFilteringDiffConsumer(List<String> pathFilters, DiffTreeVisitor.Consumer delegate) {
+        this(new DiffPathFilter(pathFilters), new DiffPathTracker(), delegate);
+    }
+
+    private PathFilteringDiffConsumer(DiffPathFilter filter, DiffPathTracker tracker,
+            DiffTreeVisitor.Consumer delegate) {
         super(delegate);
-        this.tracker = new DiffPathTracker();
-        this.filter = new DiffPathFilter(pathFilters);
+        this.delegate = delegate;
+        this.tracker = tracker;
+        this.filter = filter;
+    }
+
+    @Override
+    public ForkJoinConsumer fork() {
+        checkState(delegate instanceof ForkJoinConsumer,
+                "The delegate consumer does not support parallel traversals: %s", delegate);
+        ForkJoinConsumer forkedDelegate = ((ForkJoinConsumer) delegate).fork();
+        DiffPathTracker forkedTracker = new DiffPathTracker();
+        forkedTracker.currentPath = tracker.getCurrentPath();
+        return new PathFilteringDiffConsumer(filter, forkedTracker, forkedDelegate);
+    }
+
+    @Override
+    public void join(ForkJoinConsumer forked) {
+        PathFilteringDiffConsumer fork = (PathFilteringDiffConsumer) forked;
+        ((ForkJoinConsumer) delegate).join((ForkJoinConsumer) fork.delegate);
     }
 
     @Override
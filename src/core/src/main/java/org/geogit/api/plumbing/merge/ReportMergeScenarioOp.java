@@ -74,8 +74,10 @@ public class ReportMergeScenarioOp extends AbstractGeoGitOp<MergeScenarioReport>
         Map<String, DiffEntry> mergeIntoDiffs = Maps.newHashMap();
         MergeScenarioReport report = new MergeScenarioReport();
 
+        // all collected in memory anyway, so compute them in parallel
         Iterator<DiffEntry> diffs = command(DiffTree.class).setOldTree(ancestor.get())
-                .setReportTrees(true).setNewTree(mergeInto.getId()).call();
+                .setReportTrees(true).setNewTree(mergeInto.getId())
+                .setForkJoinPool(context.executionService().getForkJoinPool()).call();
         while (diffs.hasNext()) {
             DiffEntry diff = diffs.next();
             String path = diff.oldPath() == null ? diff.newPath() : diff.oldPath();
@@ -11,6 +11,7 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 import javax.annotation.Nullable;
 
@@ -23,6 +24,7 @@ import org.geogit.api.RevPerson;
 import org.geogit.api.RevTree;
 import org.geogit.api.SymRef;
 import org.geogit.api.hooks.Hookable;
+import org.geogit.api.plumbing.BuildChangedPathFilter;
 import org.geogit.api.plumbing.RefParse;
 import org.geogit.api.plumbing.ResolveTreeish;
 import org.geogit.api.plumbing.RevObjectParse;
@@ -294,15 +296,13 @@ public class CommitOp extends AbstractGeoGitOp<RevCommit> {
             }
         }
 
-        ObjectId newTreeId;
-        {
-            WriteTree2 writeTree = command(WriteTree2.class);
-            writeTree.setOldRoot(oldRoot).setProgressListener(subProgress(writeTreeProgress));
-            if (!pathFilters.isEmpty()) {
-                writeTree.setPathFilter(pathFilters);
-            }
-            newTreeId = writeTree.call();
+        final ObjectId newTreeId;
+        final WriteTree2 writeTree = command(WriteTree2.class);
+        writeTree.setOldRoot(oldRoot).setProgressListener(subProgress(writeTreeProgress));
+        if (!pathFilters.isEmpty()) {
+            writeTree.setPathFilter(pathFilters);
         }
+        newTreeId = writeTree.call();
 
         if (getProgressListener().isCanceled()) {
             return null;
@@ -348,6 +348,15 @@ public class CommitOp extends AbstractGeoGitOp<RevCommit> {
         }
         final ObjectDatabase objectDb = objectDatabase();
         objectDb.put(commit);
+        // so that path filtered logs can skip this commit if it didn't touch the path. The tree
+        // was written from its differences with HEAD, the first parent, reuse them if known
+        // instead of diffing the trees again
+        Optional<Set<String>> changedPaths = Optional.absent();
+        if (!amend && !currHeadCommitId.isNull()) {
+            changedPaths = writeTree.getChangedPaths();
+        }
+        command(BuildChangedPathFilter.class).setCommit(commit)
+                .setFirstParentChanges(changedPaths.orNull()).call();
         // set the HEAD pointing to the new commit
         final Optional<Ref> branchHead = command(UpdateRef.class).setName(currentBranch)
                 .setNewValue(commit.getId()).call();
@@ -23,6 +23,8 @@ import org.geogit.api.plumbing.FindTreeChild;
 import org.geogit.api.plumbing.RevParse;
 import org.geogit.di.CanRunDuringConflict;
 import org.geogit.repository.Repository;
+import org.geogit.storage.ChangedPathFilter;
+import org.geogit.storage.ChangedPathFilterDatabase;
 import org.geogit.storage.GraphDatabase;
 import org.geotools.util.Range;
 
@@ -34,6 +36,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.inject.Inject;
 
 /**
  * Operation to query the commits logs.
@@ -47,6 +50,8 @@ import com.google.common.collect.Sets;
  * <li> {@link #addPath(String) addPath}: Show only commits that affect the specified path.
  * </ul>
  * </p>
+ * When filtering by path, the commits' {@link ChangedPathFilter changed path filters} are used to
+ * skip the commits that definitely didn't touch any of the paths without comparing their trees.
  * 
  * 
  */
@@ -78,7 +83,11 @@ public class LogOp extends AbstractGeoGitOp<Iterator<RevCommit>> {
 
     private List<ObjectId> commits = Lists.newArrayList();
 
-    public LogOp() {
+    private final ChangedPathFilterDatabase changedPathFilters;
+
+    @Inject
+    public LogOp(ChangedPathFilterDatabase changedPathFilters) {
+        this.changedPathFilters = changedPathFilters;
         timeRange = ALWAYS;
     }
 
@@ -540,6 +549,9 @@ public class LogOp extends AbstractGeoGitOp<Iterator<RevCommit>> {
                 return false;
             }
             if (paths != null) {
+                if (!mightHaveChanged(commit)) {
+                    return false;
+                }
                 applies = false;
                 final Repository repository = repository();
                 // did this commit touch any of the paths?
@@ -577,6 +589,34 @@ public class LogOp extends AbstractGeoGitOp<Iterator<RevCommit>> {
             return applies;
         }
 
+        /**
+         * @return {@code false} if the commit's changed path filter proves it touched none of the
+         *         {@link #paths}, {@code true} otherwise
+         */
+        private boolean mightHaveChanged(RevCommit commit) {
+            Optional<ChangedPathFilter> filter = changedPathFilters.get(commit.getId());
+            if (!filter.isPresent()) {
+                return true;
+            }
+            for (String path : paths) {
+                if (!isNormalized(path) || filter.get().mightContain(path)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Filters contain paths as reported by {@link NodeRef#path()}, any other form of the path
+         * can't be looked up in them
+         */
+        private boolean isNormalized(String path) {
+            final char separator = NodeRef.PATH_SEPARATOR;
+            return !path.isEmpty() && path.charAt(0) != separator
+                    && path.charAt(path.length() - 1) != separator
+                    && path.indexOf(new String(new char[] { separator, separator })) == -1;
+        }
+
         private ObjectId getPathHash(RevTree tree, String path) {
             ObjectId hash = ObjectId.NULL;
             Optional<NodeRef> ref = findTreeChild.setChildPath(path).setParent(tree).call();
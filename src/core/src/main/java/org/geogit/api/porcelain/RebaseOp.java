@@ -21,6 +21,7 @@ import org.geogit.api.Ref;
 import org.geogit.api.RevCommit;
 import org.geogit.api.SymRef;
 import org.geogit.api.hooks.Hookable;
+import org.geogit.api.plumbing.BuildChangedPathFilter;
 import org.geogit.api.plumbing.CatObject;
 import org.geogit.api.plumbing.DiffTree;
 import org.geogit.api.plumbing.FindCommonAncestor;
@@ -456,6 +457,7 @@ public class RebaseOp extends AbstractGeoGitOp<Boolean> {
 
                 RevCommit newCommit = builder.build();
                 repository.objectDatabase().put(newCommit);
+                command(BuildChangedPathFilter.class).setCommit(newCommit).call();
 
                 rebaseHead = newCommit.getId();
 
@@ -508,6 +510,7 @@ public class RebaseOp extends AbstractGeoGitOp<Boolean> {
 
             RevCommit newCommit = builder.build();
             repository.objectDatabase().put(newCommit);
+            command(BuildChangedPathFilter.class).setCommit(newCommit).call();
 
             rebaseHead = newCommit.getId();
 
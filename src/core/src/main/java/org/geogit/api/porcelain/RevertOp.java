@@ -22,6 +22,7 @@ import org.geogit.api.Ref;
 import org.geogit.api.RevCommit;
 import org.geogit.api.RevTree;
 import org.geogit.api.SymRef;
+import org.geogit.api.plumbing.BuildChangedPathFilter;
 import org.geogit.api.plumbing.DiffTree;
 import org.geogit.api.plumbing.FindTreeChild;
 import org.geogit.api.plumbing.RefParse;
@@ -360,6 +361,7 @@ public class RevertOp extends AbstractGeoGitOp<Boolean> {
 
         RevCommit newCommit = builder.build();
         objectDatabase().put(newCommit);
+        command(BuildChangedPathFilter.class).setCommit(newCommit).call();
 
         revertHead = newCommit.getId();
 
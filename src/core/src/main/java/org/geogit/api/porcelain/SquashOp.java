@@ -21,6 +21,7 @@ import org.geogit.api.Platform;
 import org.geogit.api.Ref;
 import org.geogit.api.RevCommit;
 import org.geogit.api.SymRef;
+import org.geogit.api.plumbing.BuildChangedPathFilter;
 import org.geogit.api.plumbing.FindCommonAncestor;
 import org.geogit.api.plumbing.ForEachRef;
 import org.geogit.api.plumbing.RefParse;
@@ -223,6 +224,7 @@ public class SquashOp extends AbstractGeoGitOp<ObjectId> {
 
         RevCommit newCommit = builder.build();
         repository.objectDatabase().put(newCommit);
+        command(BuildChangedPathFilter.class).setCommit(newCommit).call();
 
         newHead = newCommit.getId();
         ObjectId newTreeId = newCommit.getTreeId();
@@ -270,6 +272,7 @@ public class SquashOp extends AbstractGeoGitOp<ObjectId> {
             RevCommit newCommit = builder.build();
             replacedCommits.put(commit.getId(), newCommit.getId());
             objectDatabase().put(newCommit);
+            command(BuildChangedPathFilter.class).setCommit(newCommit).call();
             head = newCommit.getId();
             ObjectId newTreeId = newCommit.getTreeId();
 
@@ -5,18 +5,22 @@
 package org.geogit.di;
 
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import org.geogit.api.Context;
 import org.geogit.api.DefaultPlatform;
 import org.geogit.api.Platform;
 import org.geogit.api.hooks.CommandHooksDecorator;
+import org.geogit.repository.ExecutionService;
+import org.geogit.repository.ExecutionService.Lane;
 import org.geogit.repository.Index;
 import org.geogit.repository.Repository;
 import org.geogit.repository.StagingArea;
 import org.geogit.repository.WorkingTree;
+import org.geogit.storage.ChangedPathFilterDatabase;
+import org.geogit.storage.CommitGraph;
 import org.geogit.storage.ConfigDatabase;
 import org.geogit.storage.DeduplicationService;
+import org.geogit.storage.DiffSummaryCache;
 import org.geogit.storage.GraphDatabase;
 import org.geogit.storage.ObjectDatabase;
 import org.geogit.storage.ObjectSerializingFactory;
@@ -24,6 +28,8 @@ import org.geogit.storage.RefDatabase;
 import org.geogit.storage.StagingDatabase;
 import org.geogit.storage.datastream.DataStreamSerializationFactoryV1;
 import org.geogit.storage.datastream.DataStreamSerializationFactoryV2;
+import org.geogit.storage.fs.FileChangedPathFilterDatabase;
+import org.geogit.storage.fs.FileDiffSummaryCache;
 import org.geogit.storage.fs.FileObjectDatabase;
 import org.geogit.storage.fs.FileRefDatabase;
 import org.geogit.storage.fs.IniFileConfigDatabase;
@@ -52,6 +58,7 @@ import com.google.inject.multibindings.Multibinder;
  * @see GraphDatabase
  * @see ObjectSerializingFactory
  * @see DeduplicationService
+ * @see ExecutionService
  */
 
 public class GeogitModule extends AbstractModule {
@@ -63,15 +70,19 @@ public class GeogitModule extends AbstractModule {
     @Override
     protected void configure() {
 
-        Provider<ExecutorService> fineGrainedExecutor = new Provider<ExecutorService>() {
+        bind(ExecutionService.class).in(Scopes.SINGLETON);
+
+        final Provider<ExecutionService> executionService = getProvider(ExecutionService.class);
+        Provider<ExecutorService> ioExecutor = new Provider<ExecutorService>() {
             @Override
             public ExecutorService get() {
-                int availableProcessors = Runtime.getRuntime().availableProcessors();
-                return Executors.newFixedThreadPool(availableProcessors);
+                return executionService.get().getExecutor(Lane.IO);
             }
         };
 
-        bind(ExecutorService.class).toProvider(fineGrainedExecutor).in(Scopes.SINGLETON);
+        // object databases that parallelize their writes wait for their tasks through
+        // ExecutionService.await, since they may be called from a task of the IO lane itself
+        bind(ExecutorService.class).toProvider(ioExecutor).in(Scopes.SINGLETON);
 
         bind(Context.class).to(GuiceInjector.class).in(Scopes.SINGLETON);
 
@@ -86,6 +97,7 @@ public class GeogitModule extends AbstractModule {
         bind(StagingDatabase.class).to(HeapStagingDatabase.class).in(Scopes.SINGLETON);
         bind(WorkingTree.class).in(Scopes.SINGLETON);
         bind(GraphDatabase.class).to(HeapGraphDatabase.class).in(Scopes.SINGLETON);
+        bind(CommitGraph.class).in(Scopes.SINGLETON);
 
         bind(ObjectDatabase.class).to(FileObjectDatabase.class).in(Scopes.SINGLETON);
         bind(RefDatabase.class).to(FileRefDatabase.class).in(Scopes.SINGLETON);
@@ -95,6 +107,10 @@ public class GeogitModule extends AbstractModule {
 
         bind(DeduplicationService.class).to(HeapDeduplicationService.class).in(Scopes.SINGLETON);
 
+        bind(DiffSummaryCache.class).to(FileDiffSummaryCache.class).in(Scopes.SINGLETON);
+        bind(ChangedPathFilterDatabase.class).to(FileChangedPathFilterDatabase.class).in(
+                Scopes.SINGLETON);
+
         bindCommitGraphInterceptor();
 
         bindConflictCheckingInterceptor();
@@ -109,7 +125,7 @@ public class GeogitModule extends AbstractModule {
     private void bindCommitGraphInterceptor() {
 
         ObjectDatabasePutInterceptor commitGraphUpdater = new ObjectDatabasePutInterceptor(
-                getProvider(GraphDatabase.class));
+                getProvider(GraphDatabase.class), getProvider(CommitGraph.class));
 
         bindDecorator(binder(), commitGraphUpdater);
     }
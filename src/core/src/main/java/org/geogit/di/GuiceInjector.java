@@ -8,6 +8,7 @@ package org.geogit.di;
 import org.geogit.api.AbstractGeoGitOp;
 import org.geogit.api.Context;
 import org.geogit.api.Platform;
+import org.geogit.repository.ExecutionService;
 import org.geogit.repository.Repository;
 import org.geogit.repository.StagingArea;
 import org.geogit.repository.WorkingTree;
@@ -123,6 +124,11 @@ public class GuiceInjector implements Context {
         return getDecoratedInstance(DeduplicationService.class);
     }
 
+    @Override
+    public ExecutionService executionService() {
+        return getDecoratedInstance(ExecutionService.class);
+    }
+
     @Override
     public PluginDefaults pluginDefaults() {
         return getDecoratedInstance(PluginDefaults.class);
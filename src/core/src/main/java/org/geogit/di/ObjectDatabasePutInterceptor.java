@@ -11,6 +11,7 @@ import org.geogit.api.ObjectId;
 import org.geogit.api.RevCommit;
 import org.geogit.api.RevObject;
 import org.geogit.storage.BulkOpListener;
+import org.geogit.storage.CommitGraph;
 import org.geogit.storage.ForwardingObjectDatabase;
 import org.geogit.storage.GraphDatabase;
 import org.geogit.storage.ObjectDatabase;
@@ -24,14 +25,18 @@ import com.google.inject.util.Providers;
 
 /**
  * Method interceptor for {@link ObjectDatabase#put(RevObject)} that adds new commits to the graph
- * database.
+ * database and the {@link CommitGraph}.
  */
 class ObjectDatabasePutInterceptor implements Decorator {
 
     private Provider<GraphDatabase> graphDb;
 
-    public ObjectDatabasePutInterceptor(Provider<GraphDatabase> graphDb) {
+    private Provider<CommitGraph> commitGraph;
+
+    public ObjectDatabasePutInterceptor(Provider<GraphDatabase> graphDb,
+            Provider<CommitGraph> commitGraph) {
         this.graphDb = graphDb;
+        this.commitGraph = commitGraph;
     }
 
     @Override
@@ -44,16 +49,20 @@ class ObjectDatabasePutInterceptor implements Decorator {
     @SuppressWarnings("unchecked")
     @Override
     public ObjectDatabase decorate(Object subject) {
-        return new GraphUpdatingObjectDatabase(graphDb, (ObjectDatabase) subject);
+        return new GraphUpdatingObjectDatabase(graphDb, commitGraph, (ObjectDatabase) subject);
     }
 
     private static class GraphUpdatingObjectDatabase extends ForwardingObjectDatabase {
 
         private Provider<GraphDatabase> graphDb;
 
-        public GraphUpdatingObjectDatabase(Provider<GraphDatabase> graphDb, ObjectDatabase subject) {
+        private Provider<CommitGraph> commitGraph;
+
+        public GraphUpdatingObjectDatabase(Provider<GraphDatabase> graphDb,
+                Provider<CommitGraph> commitGraph, ObjectDatabase subject) {
             super(Providers.of(subject));
             this.graphDb = graphDb;
+            this.commitGraph = commitGraph;
         }
 
         @Override
@@ -64,6 +73,7 @@ class ObjectDatabasePutInterceptor implements Decorator {
             if (inserted && RevObject.TYPE.COMMIT.equals(object.getType())) {
                 RevCommit commit = (RevCommit) object;
                 graphDb.get().put(commit.getId(), commit.getParentIds());
+                commitGraph.get().add(commit);
             }
             return inserted;
         }
@@ -83,6 +93,8 @@ class ObjectDatabasePutInterceptor implements Decorator {
 
                         private final GraphDatabase graphDatabase = graphDb.get();
 
+                        private final CommitGraph graph = commitGraph.get();
+
                         @Override
                         public RevObject apply(RevObject input) {
                             if (input instanceof RevCommit) {
@@ -90,6 +102,7 @@ class ObjectDatabasePutInterceptor implements Decorator {
                                 ObjectId commitId = commit.getId();
                                 ImmutableList<ObjectId> parentIds = commit.getParentIds();
                                 graphDatabase.put(commitId, parentIds);
+                                graph.add(commit);
 
                                 // addedCommits.add((RevCommit) input);
                             }
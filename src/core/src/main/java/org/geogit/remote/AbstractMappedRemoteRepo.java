@@ -11,6 +11,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -53,6 +54,11 @@ public abstract class AbstractMappedRemoteRepo implements IRemoteRepo {
 
     public static String PLACEHOLDER_COMMIT_MESSAGE = "Placeholder Sparse Commit";
 
+    /**
+     * Number of commits {@link #beforeFetch(List)} is called with at a time
+     */
+    private static final int FETCH_BATCH_SIZE = 500;
+
     protected Repository localRepository;
 
     protected RepositoryFilter filter;
@@ -175,7 +181,11 @@ public abstract class AbstractMappedRemoteRepo implements IRemoteRepo {
         try {
             gatherer.traverse(ref.getObjectId());
             Stack<ObjectId> needed = gatherer.commits;
+            int fetched = 0;
             while (!needed.empty()) {
+                if (fetched++ % FETCH_BATCH_SIZE == 0) {
+                    beforeFetch(nextCommits(needed));
+                }
                 ObjectId commitId = needed.pop();
                 // If the last commit is empty, add it anyways to preserve parentage of new commits.
                 boolean allowEmpty = needed.isEmpty();
@@ -188,6 +198,27 @@ public abstract class AbstractMappedRemoteRepo implements IRemoteRepo {
         }
     }
 
+    /**
+     * Called before fetching a batch of commits, so that what's needed to fetch each of them can
+     * be retrieved at once. Does nothing by default.
+     * 
+     * @param commits the ids of the commits about to be fetched, in the order they'll be fetched
+     */
+    protected void beforeFetch(List<ObjectId> commits) {
+    }
+
+    /**
+     * @return up to {@link #FETCH_BATCH_SIZE} commits from the top of the stack, in the order
+     *         they're popped
+     */
+    private static List<ObjectId> nextCommits(Stack<ObjectId> needed) {
+        List<ObjectId> next = new ArrayList<ObjectId>();
+        for (int i = needed.size() - 1; i >= 0 && next.size() < FETCH_BATCH_SIZE; i--) {
+            next.add(needed.get(i));
+        }
+        return next;
+    }
+
     /**
      * This function takes all of the changes introduced by the specified commit and filters them
      * based on the repository filter. It then uses the filtered results to construct a new commit
@@ -6,6 +6,8 @@ package org.geogit.remote;
 
 import static org.geogit.storage.datastream.FormatCommonV1.readObjectId;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInput;
 import java.io.DataInputStream;
 import java.io.DataOutput;
@@ -13,16 +15,33 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 import javax.annotation.Nullable;
 
 import org.geogit.api.NodeRef;
 import org.geogit.api.ObjectId;
+import org.geogit.api.RevFeature;
 import org.geogit.api.RevObject;
+import org.geogit.api.RevObject.TYPE;
 import org.geogit.api.plumbing.diff.DiffEntry;
+import org.geogit.repository.ExecutionService;
+import org.geogit.repository.ExecutionService.Lane;
 import org.geogit.repository.Repository;
 import org.geogit.storage.BulkOpListener;
 import org.geogit.storage.BulkOpListener.CountingListener;
@@ -40,6 +59,12 @@ import com.google.common.io.CountingOutputStream;
 /**
  * Provides a method of packing a set of changes and the affected objects to and from a binary
  * stream.
+ * <p>
+ * A stream either carries the objects of each change along with it, or, when written
+ * {@link #write(OutputStream, Iterator, Set, boolean) batched}, sends the objects of every
+ * {@link #BATCH_SIZE} changes in a single deflated {@link CHUNK_TYPE#OBJECT_BATCH batch} read from
+ * the object database in bulk, ahead of those changes. Both forms are read by
+ * {@link #ingest(InputStream, Callback)}, which decodes several batches concurrently.
  */
 public final class BinaryPackedChanges {
 
@@ -47,6 +72,26 @@ public final class BinaryPackedChanges {
 
     private static final DataStreamSerializationFactoryV1 serializer = DataStreamSerializationFactoryV1.INSTANCE;
 
+    /**
+     * Capability a remote lists when it can read changes written
+     * {@link #write(OutputStream, Iterator, Set, boolean) batched}
+     */
+    public static final String BATCHED_CHANGES_CAPABILITY = "batchedchanges";
+
+    /**
+     * Number of changes whose objects are sent in a single batch
+     */
+    private static final int BATCH_SIZE = 256;
+
+    /**
+     * Number of batches decoded concurrently while ingesting
+     */
+    private static final int BATCHES_IN_FLIGHT = 4;
+
+    private static final int BATCHED_OBJECT = 0;
+
+    private static final int BATCHED_DELTA = 1;
+
     private final Repository repository;
 
     private boolean filtered;
@@ -75,6 +120,24 @@ public final class BinaryPackedChanges {
             public int value() {
                 return 3;
             }
+        },
+        DELTA_AND_DIFF_ENTRY {
+            @Override
+            public int value() {
+                return 4;
+            }
+        },
+        METADATA_OBJECT_DELTA_AND_DIFF_ENTRY {
+            @Override
+            public int value() {
+                return 5;
+            }
+        },
+        OBJECT_BATCH {
+            @Override
+            public int value() {
+                return 6;
+            }
         };
 
         public abstract int value();
@@ -111,8 +174,62 @@ public final class BinaryPackedChanges {
      * @return the number of objects written
      */
     public long write(OutputStream out, Iterator<DiffEntry> changes) throws IOException {
+        return write(out, changes, Collections.<ObjectId> emptySet());
+    }
+
+    /**
+     * Writes the set of changes to the provided output stream, sending the new version of changed
+     * features as a {@link FeatureDelta delta} against their old version whenever the receiving
+     * end is known to have it.
+     * 
+     * @param out the stream to write to
+     * @param changes the changes to write
+     * @param deltaBases the ids of the objects the receiving end has and can rebuild changed
+     *        features from
+     * @throws IOException
+     * @return the number of objects written
+     */
+    public long write(OutputStream out, Iterator<DiffEntry> changes, Set<ObjectId> deltaBases)
+            throws IOException {
+        return write(out, changes, deltaBases, false);
+    }
+
+    /**
+     * Writes the set of changes to the provided output stream, optionally sending their objects in
+     * batches.
+     * <p>
+     * Batches are read from the object database with {@link ObjectDatabase#getAll(Iterable)} and
+     * compressed on the {@link Lane#IO IO lane}, the objects of the next batch being read while the
+     * current one is written. Only receiving ends that know about batches can read such a stream.
+     * 
+     * @param out the stream to write to
+     * @param changes the changes to write
+     * @param deltaBases the ids of the objects the receiving end has and can rebuild changed
+     *        features from
+     * @param batched whether to send the objects in batches
+     * @throws IOException
+     * @return the number of objects written
+     */
+    public long write(OutputStream out, Iterator<DiffEntry> changes, Set<ObjectId> deltaBases,
+            boolean batched) throws IOException {
+        CountingOutputStream counting = new CountingOutputStream(out);
+        final long objectCount = batched ? writeBatches(counting, changes, deltaBases)
+                : writeEach(counting, changes, deltaBases);
+
+        // signal the end of changes
+        counting.write(CHUNK_TYPE.FILTER_FLAG.value());
+        final boolean filtersApplied = changes instanceof FilteredDiffIterator
+                && ((FilteredDiffIterator) changes).wasFiltered();
+        counting.write(filtersApplied ? 1 : 0);
+
+        LOGGER.info(String.format("Written %,d bytes to remote accounting for %,d objects.",
+                counting.getCount(), objectCount));
+        return objectCount;
+    }
+
+    private long writeEach(OutputStream out, Iterator<DiffEntry> changes,
+            Set<ObjectId> deltaBases) throws IOException {
         final ObjectDatabase objectDatabase = repository.objectDatabase();
-        out = new CountingOutputStream(out);
 
         // avoids sending the same metadata object multiple times
         Set<ObjectId> writtenMetadataIds = new HashSet<ObjectId>();
@@ -130,11 +247,20 @@ public final class BinaryPackedChanges {
             } else {
                 // its a change or an addition, new object is guaranteed to be present
                 NodeRef newObject = diff.getNewObject();
+                ObjectId objectId = newObject.objectId();
+                RevObject object = objectDatabase.get(objectId);
+                byte[] delta = null;
+                if (diff.isChange() && deltaBases.contains(diff.oldObjectId())) {
+                    delta = delta(object, diff.oldObjectId());
+                }
+
                 ObjectId metadataId = newObject.getMetadataId();
                 if (writtenMetadataIds.contains(metadataId)) {
-                    out.write(CHUNK_TYPE.OBJECT_AND_DIFF_ENTRY.value());
+                    out.write(delta == null ? CHUNK_TYPE.OBJECT_AND_DIFF_ENTRY.value()
+                            : CHUNK_TYPE.DELTA_AND_DIFF_ENTRY.value());
                 } else {
-                    out.write(CHUNK_TYPE.METADATA_OBJECT_AND_DIFF_ENTRY.value());
+                    out.write(delta == null ? CHUNK_TYPE.METADATA_OBJECT_AND_DIFF_ENTRY.value()
+                            : CHUNK_TYPE.METADATA_OBJECT_DELTA_AND_DIFF_ENTRY.value());
                     RevObject metadata = objectDatabase.get(metadataId);
                     writeObjectId(metadataId, out, oidbuffer);
                     serializer.createObjectWriter(metadata.getType()).write(metadata, out);
@@ -142,26 +268,200 @@ public final class BinaryPackedChanges {
                     objectCount++;
                 }
 
-                ObjectId objectId = newObject.objectId();
                 writeObjectId(objectId, out, oidbuffer);
-                RevObject object = objectDatabase.get(objectId);
-                serializer.createObjectWriter(object.getType()).write(object, out);
+                if (delta == null) {
+                    serializer.createObjectWriter(object.getType()).write(object, out);
+                } else {
+                    writeObjectId(diff.oldObjectId(), out, oidbuffer);
+                    out.write(delta);
+                }
                 objectCount++;
             }
             DataOutput dataOut = new DataOutputStream(out);
             FormatCommonV1.writeDiff(diff, dataOut);
         }
-        // signal the end of changes
-        out.write(CHUNK_TYPE.FILTER_FLAG.value());
-        final boolean filtersApplied = changes instanceof FilteredDiffIterator
-                && ((FilteredDiffIterator) changes).wasFiltered();
-        out.write(filtersApplied ? 1 : 0);
+        return objectCount;
+    }
 
-        LOGGER.info(String.format("Written %,d bytes to remote accounting for %,d objects.",
-                ((CountingOutputStream) out).getCount(), objectCount));
+    private long writeBatches(OutputStream out, Iterator<DiffEntry> changes,
+            Set<ObjectId> deltaBases) throws IOException {
+        final Executor executor = repository.executionService().getExecutor(Lane.IO);
+        final DataOutput dataOut = new DataOutputStream(out);
+
+        // avoids sending the same metadata object multiple times
+        Set<ObjectId> writtenMetadataIds = new HashSet<ObjectId>();
+
+        long objectCount = 0;
+
+        FutureTask<Batch> next = nextBatch(changes, deltaBases, writtenMetadataIds, executor);
+        while (next != null) {
+            final FutureTask<Batch> current = next;
+            // the objects of the next batch are read while this one is written
+            next = nextBatch(changes, deltaBases, writtenMetadataIds, executor);
+            Batch batch = ExecutionService.await(current);
+
+            out.write(CHUNK_TYPE.OBJECT_BATCH.value());
+            dataOut.writeInt(batch.objectCount);
+            dataOut.writeInt(batch.compressed.length);
+            out.write(batch.compressed);
+            for (DiffEntry diff : batch.changes) {
+                out.write(CHUNK_TYPE.DIFF_ENTRY.value());
+                FormatCommonV1.writeDiff(diff, dataOut);
+            }
+            objectCount += batch.objectCount;
+        }
         return objectCount;
     }
 
+    /**
+     * Takes the next {@link #BATCH_SIZE} changes and starts packing their objects.
+     * 
+     * @return the task packing the batch, or {@code null} if there are no more changes
+     */
+    @Nullable
+    private FutureTask<Batch> nextBatch(Iterator<DiffEntry> changes,
+            final Set<ObjectId> deltaBases, Set<ObjectId> writtenMetadataIds, Executor executor) {
+        if (!changes.hasNext()) {
+            return null;
+        }
+        final List<DiffEntry> batch = new ArrayList<DiffEntry>(BATCH_SIZE);
+        final List<ObjectId> metadataIds = new ArrayList<ObjectId>();
+        while (changes.hasNext() && batch.size() < BATCH_SIZE) {
+            DiffEntry diff = changes.next();
+            batch.add(diff);
+            if (!diff.isDelete()) {
+                ObjectId metadataId = diff.getNewObject().getMetadataId();
+                if (writtenMetadataIds.add(metadataId)) {
+                    metadataIds.add(metadataId);
+                }
+            }
+        }
+        FutureTask<Batch> task = new FutureTask<Batch>(new Callable<Batch>() {
+            @Override
+            public Batch call() throws IOException {
+                return pack(batch, metadataIds, deltaBases);
+            }
+        });
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Reads the new objects of the given changes, and the metadata objects not sent yet, in bulk
+     * and serializes them to a deflated batch.
+     */
+    private Batch pack(List<DiffEntry> changes, List<ObjectId> metadataIds,
+            Set<ObjectId> deltaBases) throws IOException {
+        Set<ObjectId> ids = new LinkedHashSet<ObjectId>(metadataIds);
+        for (DiffEntry diff : changes) {
+            if (!diff.isDelete()) {
+                ids.add(diff.newObjectId());
+                if (diff.isChange() && deltaBases.contains(diff.oldObjectId())) {
+                    ids.add(diff.oldObjectId());
+                }
+            }
+        }
+        final Map<ObjectId, RevObject> objects = getAll(repository.objectDatabase(), ids);
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(new DeflaterOutputStream(compressed));
+        Set<ObjectId> written = new HashSet<ObjectId>();
+        for (ObjectId metadataId : metadataIds) {
+            RevObject metadata = get(objects, metadataId);
+            data.writeByte(BATCHED_OBJECT);
+            data.write(metadataId.getRawValue());
+            serializer.createObjectWriter(metadata.getType()).write(metadata, data);
+            written.add(metadataId);
+        }
+        for (DiffEntry diff : changes) {
+            if (diff.isDelete() || !written.add(diff.newObjectId())) {
+                continue;
+            }
+            final ObjectId objectId = diff.newObjectId();
+            RevObject object = get(objects, objectId);
+            byte[] delta = null;
+            if (diff.isChange() && deltaBases.contains(diff.oldObjectId())) {
+                delta = delta(object, objects.get(diff.oldObjectId()));
+            }
+            if (delta == null) {
+                data.writeByte(BATCHED_OBJECT);
+                data.write(objectId.getRawValue());
+                serializer.createObjectWriter(object.getType()).write(object, data);
+            } else {
+                data.writeByte(BATCHED_DELTA);
+                data.write(objectId.getRawValue());
+                data.write(diff.oldObjectId().getRawValue());
+                data.write(delta);
+            }
+        }
+        data.close();
+        return new Batch(changes, written.size(), compressed.toByteArray());
+    }
+
+    private static Map<ObjectId, RevObject> getAll(ObjectDatabase database, Set<ObjectId> ids) {
+        Map<ObjectId, RevObject> objects = new HashMap<ObjectId, RevObject>();
+        try {
+            for (Iterator<RevObject> found = database.getAll(ids); found.hasNext();) {
+                RevObject object = found.next();
+                objects.put(object.getId(), object);
+            }
+        } catch (UnsupportedOperationException e) {
+            // not all backends read in bulk
+            for (ObjectId id : ids) {
+                objects.put(id, database.get(id));
+            }
+        }
+        return objects;
+    }
+
+    private static RevObject get(Map<ObjectId, RevObject> objects, ObjectId id) {
+        RevObject object = objects.get(id);
+        Preconditions.checkState(object != null, "Object %s not found", id);
+        return object;
+    }
+
+    /**
+     * @return the delta encoding of {@code object} against {@code baseId}, or {@code null} if
+     *         either is not a feature or it can't be encoded against it
+     */
+    @Nullable
+    private byte[] delta(RevObject object, ObjectId baseId) throws IOException {
+        if (!TYPE.FEATURE.equals(object.getType())) {
+            return null;
+        }
+        return delta(object, repository.objectDatabase().getIfPresent(baseId, RevFeature.class));
+    }
+
+    /**
+     * @return the delta encoding of {@code object} against {@code base}, or {@code null} if either
+     *         is not a feature or it can't be encoded against it
+     */
+    @Nullable
+    private static byte[] delta(RevObject object, @Nullable RevObject base) throws IOException {
+        if (!TYPE.FEATURE.equals(object.getType()) || !(base instanceof RevFeature)) {
+            return null;
+        }
+        return FeatureDelta.encode((RevFeature) base, (RevFeature) object);
+    }
+
+    /**
+     * A batch of changes and their objects, packed to be sent ahead of them
+     */
+    private static class Batch {
+
+        private final List<DiffEntry> changes;
+
+        private final int objectCount;
+
+        private final byte[] compressed;
+
+        Batch(List<DiffEntry> changes, int objectCount, byte[] compressed) {
+            this.changes = changes;
+            this.objectCount = objectCount;
+            this.compressed = compressed;
+        }
+    }
+
     private void writeObjectId(ObjectId objectId, OutputStream out, byte[] oidbuffer)
             throws IOException {
         objectId.getRawValue(oidbuffer);
@@ -177,11 +477,12 @@ public final class BinaryPackedChanges {
      * @param callback the callback to call for each item
      */
     public void ingest(final InputStream in, Callback callback) {
-        PacketReadingIterator readingIterator = new PacketReadingIterator(in);
+        ObjectDatabase objectDatabase = repository.objectDatabase();
+        PacketReadingIterator readingIterator = new PacketReadingIterator(in, objectDatabase,
+                repository.executionService().getExecutor(Lane.CPU));
 
         Iterator<RevObject> asObjects = asObjects(readingIterator, callback);
 
-        ObjectDatabase objectDatabase = repository.objectDatabase();
         CountingListener listener = BulkOpListener.newCountingListener();
         objectDatabase.putAll(asObjects, listener);
         LOGGER.info("Ingested %,d objects. Inserted: %,d. Already existing: %,d\n",
@@ -192,42 +493,74 @@ public final class BinaryPackedChanges {
     /**
      * Returns an iterator that calls the {@code callback} for each {@link DiffPacket}'s
      * {@link DiffEntry} once, and returns either zero, one, or two {@link RevObject}s, depending on
-     * which information the diff packet carried over.
+     * which information the diff packet carried over, or the objects of a batch packet.
+     * <p>
+     * When a batch packet is reached, the packets following it are read ahead until
+     * {@link #BATCHES_IN_FLIGHT} batches are being decoded.
      */
     private Iterator<RevObject> asObjects(final PacketReadingIterator readingIterator,
             final Callback callback) {
         return new AbstractIterator<RevObject>() {
 
-            private DiffPacket current;
+            private final Deque<DiffPacket> readAhead = new ArrayDeque<DiffPacket>();
+
+            private int batchesAhead;
+
+            private final Deque<RevObject> pending = new ArrayDeque<RevObject>();
 
             @Override
             protected RevObject computeNext() {
-                if (current != null) {
-                    Preconditions.checkState(current.metadataObject != null);
-                    RevObject ret = current.metadataObject;
-                    current = null;
-                    return ret;
-                }
-                while (readingIterator.hasNext()) {
-                    DiffPacket diffPacket = readingIterator.next();
+                while (pending.isEmpty()) {
+                    if (readAhead.isEmpty() && !readingIterator.hasNext()) {
+                        return endOfData();
+                    }
+                    DiffPacket diffPacket = nextPacket();
+                    if (diffPacket.batch != null) {
+                        pending.addAll(ExecutionService.await(diffPacket.batch));
+                        continue;
+                    }
                     callback.callback(diffPacket.entry);
                     RevObject obj = diffPacket.newObject;
                     RevObject md = diffPacket.metadataObject;
                     Preconditions.checkState(obj != null || (obj == null && md == null));
                     if (obj != null) {
+                        pending.add(obj);
                         if (md != null) {
-                            current = diffPacket;
+                            pending.add(md);
                         }
-                        return obj;
                     }
                 }
-                return endOfData();
+                return pending.removeFirst();
+            }
+
+            private DiffPacket nextPacket() {
+                if (readAhead.isEmpty()) {
+                    read();
+                }
+                while (readAhead.peekFirst().batch != null && batchesAhead < BATCHES_IN_FLIGHT
+                        && readingIterator.hasNext()) {
+                    read();
+                }
+                DiffPacket diffPacket = readAhead.removeFirst();
+                if (diffPacket.batch != null) {
+                    batchesAhead--;
+                }
+                return diffPacket;
+            }
+
+            private void read() {
+                DiffPacket diffPacket = readingIterator.next();
+                if (diffPacket.batch != null) {
+                    batchesAhead++;
+                }
+                readAhead.addLast(diffPacket);
             }
         };
     }
 
     private static class DiffPacket {
 
+        @Nullable
         public final DiffEntry entry;
 
         @Nullable
@@ -236,11 +569,25 @@ public final class BinaryPackedChanges {
         @Nullable
         public final RevObject metadataObject;
 
+        /**
+         * The decoding of the objects of a batch packet, which has no entry
+         */
+        @Nullable
+        public final FutureTask<List<RevObject>> batch;
+
         public DiffPacket(DiffEntry entry, @Nullable RevObject newObject,
                 @Nullable RevObject metadata) {
             this.entry = entry;
             this.newObject = newObject;
             this.metadataObject = metadata;
+            this.batch = null;
+        }
+
+        public DiffPacket(FutureTask<List<RevObject>> batch) {
+            this.entry = null;
+            this.newObject = null;
+            this.metadataObject = null;
+            this.batch = batch;
         }
     }
 
@@ -252,9 +599,19 @@ public final class BinaryPackedChanges {
 
         private boolean filtered;
 
-        public PacketReadingIterator(InputStream in) {
+        private final ObjectDatabase database;
+
+        private final Executor executor;
+
+        /**
+         * @param database the database to read the bases of the feature deltas from
+         * @param executor the executor to decode batches of objects on
+         */
+        public PacketReadingIterator(InputStream in, ObjectDatabase database, Executor executor) {
             this.in = in;
             this.data = new DataInputStream(in);
+            this.database = database;
+            this.executor = executor;
         }
 
         /**
@@ -294,6 +651,29 @@ public final class BinaryPackedChanges {
                 revObj = serializer.createObjectReader().read(id, in);
             }
                 break;
+            case DELTA_AND_DIFF_ENTRY:
+                revObj = readDelta();
+                break;
+            case METADATA_OBJECT_DELTA_AND_DIFF_ENTRY: {
+                ObjectId mdid = readObjectId(data);
+                metadata = serializer.createObjectReader().read(mdid, in);
+                revObj = readDelta();
+            }
+                break;
+            case OBJECT_BATCH: {
+                final int count = data.readInt();
+                final byte[] compressed = new byte[data.readInt()];
+                data.readFully(compressed);
+                FutureTask<List<RevObject>> decoding = new FutureTask<List<RevObject>>(
+                        new Callable<List<RevObject>>() {
+                            @Override
+                            public List<RevObject> call() throws IOException {
+                                return decodeBatch(count, compressed);
+                            }
+                        });
+                executor.execute(decoding);
+                return new DiffPacket(decoding);
+            }
             case FILTER_FLAG: {
                 int changesFiltered = in.read();
                 if (changesFiltered != 0) {
@@ -308,6 +688,29 @@ public final class BinaryPackedChanges {
             DiffEntry diff = FormatCommonV1.readDiff(data);
             return new DiffPacket(diff, revObj, metadata);
         }
+
+        private RevFeature readDelta() throws IOException {
+            ObjectId id = readObjectId(data);
+            ObjectId baseId = readObjectId(data);
+            return FeatureDelta.decode(id, database.getFeature(baseId), data);
+        }
+
+        private List<RevObject> decodeBatch(int count, byte[] compressed) throws IOException {
+            DataInputStream batch = new DataInputStream(new InflaterInputStream(
+                    new ByteArrayInputStream(compressed)));
+            List<RevObject> objects = new ArrayList<RevObject>(count);
+            for (int i = 0; i < count; i++) {
+                final int kind = batch.readByte();
+                ObjectId id = readObjectId(batch);
+                if (kind == BATCHED_DELTA) {
+                    ObjectId baseId = readObjectId(batch);
+                    objects.add(FeatureDelta.decode(id, database.getFeature(baseId), batch));
+                } else {
+                    objects.add(serializer.createObjectReader().read(id, batch));
+                }
+            }
+            return objects;
+        }
     }
 
     /**
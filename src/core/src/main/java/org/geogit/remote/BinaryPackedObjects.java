@@ -4,24 +4,48 @@
  */
 package org.geogit.remote;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static java.lang.String.format;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import javax.annotation.Nullable;
 
+import org.geogit.api.NodeRef;
 import org.geogit.api.ObjectId;
 import org.geogit.api.RevCommit;
+import org.geogit.api.RevFeature;
 import org.geogit.api.RevObject;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.plumbing.diff.DiffEntry;
+import org.geogit.api.plumbing.diff.DiffTreeWalk;
+import org.geogit.repository.ExecutionService;
+import org.geogit.repository.ExecutionService.Lane;
 import org.geogit.repository.PostOrderIterator;
 import org.geogit.storage.BulkOpListener;
 import org.geogit.storage.BulkOpListener.CountingListener;
@@ -33,20 +57,101 @@ import org.geogit.storage.datastream.DataStreamSerializationFactoryV1;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Function;
+import com.google.common.base.Optional;
 import com.google.common.base.Stopwatch;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
 import com.google.common.base.Throwables;
 import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterators;
-
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Maps;
+
+/**
+ * Packs and unpacks the objects exchanged with a remote repository.
+ * <p>
+ * Version 1 of the pack stream is just the sequence of each object's raw id followed by its
+ * serialized form. Version 2 starts with the {@link #PACK_V2_MAGIC magic} bytes, followed by
+ * frames of many objects each, compressed as a whole:
+ * 
+ * <pre>
+ * <code>
+ * frame := object count (int) raw size (int) compressed size (int) deflated(object*)
+ * object := raw id (20 bytes) serialized object
+ * </code>
+ * </pre>
+ * 
+ * and a frame with an object count of zero marks the end of the stream. A stream resuming an
+ * interrupted transfer has a frame with an object count of {@link #RESUME_FRAME -1} right after
+ * the magic bytes, followed by the number of objects of the traversal skipped (long) and the raw id
+ * of the last of them. Version 3 streams start
+ * with their own magic bytes and have the same frames, but each object is preceded by a tag byte
+ * telling whether it's a {@link #FULL_OBJECT full object} or a {@link #DELTA_OBJECT delta}, the
+ * latter being a feature given as a {@link FeatureDelta} against a base feature the receiving end
+ * is known to have, that is, the version of the feature in the closest "have" commit:
+ * 
+ * <pre>
+ * <code>
+ * object := FULL_OBJECT raw id serialized object | DELTA_OBJECT raw id raw base id delta
+ * </code>
+ * </pre>
+ * 
+ * When an
+ * {@link ExecutionService} is given, the writer traverses, serializes and compresses the next frame
+ * while the current one is being sent, and the reader decodes the frames it receives in parallel.
+ * {@link #ingest(InputStream) ingest} tells both versions apart by the magic bytes, so the version
+ * of the stream a client receives depends only on what the server sends.
+ */
 public final class BinaryPackedObjects {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(BinaryPackedObjects.class);
 
+    public static final int VERSION_1 = 1;
+
+    public static final int VERSION_2 = 2;
+
+    public static final int VERSION_3 = 3;
+
+    /**
+     * Start of a version 2 stream, the length of an object id so that it can be told apart from
+     * the first object of a version 1 stream
+     */
+    static final byte[] PACK_V2_MAGIC = "geogit-packed-objs-2".getBytes(Charsets.US_ASCII);
+
+    static final byte[] PACK_V3_MAGIC = "geogit-packed-objs-3".getBytes(Charsets.US_ASCII);
+
+    /**
+     * Object count of the frame telling how many objects a resumed stream skips
+     */
+    private static final int RESUME_FRAME = -1;
+
+    private static final byte FULL_OBJECT = 0;
+
+    private static final byte DELTA_OBJECT = 1;
+
+    /**
+     * Maximum number of features a version 3 stream keeps track of the delta base of
+     */
+    private static final int MAX_DELTA_BASES = 1000 * 1000;
+
+    /**
+     * Serialized size of the objects a frame is closed at
+     */
+    private static final int FRAME_SIZE = 1024 * 1024;
+
+    private static final int MAX_FRAME_OBJECTS = 10 * 1000;
+
+    /**
+     * Number of received frames decoded in parallel
+     */
+    private static final int DECODE_AHEAD = 4;
+
     private final ObjectSerializingFactory factory;
 
     private final ObjectReader<RevObject> objectReader;
@@ -59,8 +164,21 @@ public final class BinaryPackedObjects {
 
     private final ObjectDatabase database;
 
+    @Nullable
+    private final ExecutionService executionService;
+
     public BinaryPackedObjects(ObjectDatabase database) {
+        this(database, null);
+    }
+
+    /**
+     * @param executionService if given, used to pipeline the writing and reading of version 2
+     *        streams
+     */
+    public BinaryPackedObjects(ObjectDatabase database,
+            @Nullable ExecutionService executionService) {
         this.database = database;
+        this.executionService = executionService;
         this.factory = DataStreamSerializationFactoryV1.INSTANCE;
         this.objectReader = factory.createObjectReader();
     }
@@ -70,8 +188,28 @@ public final class BinaryPackedObjects {
      */
     public long write(OutputStream out, List<ObjectId> want, List<ObjectId> have,
             boolean traverseCommits, Deduplicator deduplicator) throws IOException {
+        return write(out, want, have, traverseCommits, deduplicator, VERSION_1);
+    }
+
+    /**
+     * @param version the pack stream version to write, {@link #VERSION_1}, {@link #VERSION_2} or
+     *        {@link #VERSION_3}
+     * @return the number of objects written
+     */
+    public long write(OutputStream out, List<ObjectId> want, List<ObjectId> have,
+            boolean traverseCommits, Deduplicator deduplicator, int version) throws IOException {
+        return write(out, want, have, traverseCommits, deduplicator, version, 0, null);
+    }
+
+    /**
+     * @see #write(Supplier, List, List, Set, Callback, boolean, Deduplicator, int, long, ObjectId)
+     * @return the number of objects written
+     */
+    public long write(OutputStream out, List<ObjectId> want, List<ObjectId> have,
+            boolean traverseCommits, Deduplicator deduplicator, int version, long resumeFrom,
+            @Nullable ObjectId resumeAfter) throws IOException {
         return write(Suppliers.ofInstance(out), want, have, new HashSet<ObjectId>(),
-                DEFAULT_CALLBACK, traverseCommits, deduplicator);
+                DEFAULT_CALLBACK, traverseCommits, deduplicator, version, resumeFrom, resumeAfter);
     }
 
     /**
@@ -80,6 +218,45 @@ public final class BinaryPackedObjects {
     public long write(Supplier<? extends OutputStream> outputSupplier, List<ObjectId> want,
             List<ObjectId> have, Set<ObjectId> sent, Callback callback, boolean traverseCommits,
             Deduplicator deduplicator) throws IOException {
+        return write(outputSupplier, want, have, sent, callback, traverseCommits, deduplicator,
+                VERSION_1);
+    }
+
+    /**
+     * @param version the pack stream version to write, {@link #VERSION_1}, {@link #VERSION_2} or
+     *        {@link #VERSION_3}
+     * @return the number of objects written
+     */
+    public long write(Supplier<? extends OutputStream> outputSupplier, List<ObjectId> want,
+            List<ObjectId> have, Set<ObjectId> sent, Callback callback, boolean traverseCommits,
+            Deduplicator deduplicator, int version) throws IOException {
+        return write(outputSupplier, want, have, sent, callback, traverseCommits, deduplicator,
+                version, 0, null);
+    }
+
+    /**
+     * Writes a stream that resumes an interrupted one sent for the same {@code want} and
+     * {@code have} lists, skipping the objects the receiving end reported to have ingested.
+     * <p>
+     * The traversal of the objects to send is the same for the same arguments, so the first
+     * {@code resumeFrom} objects are skipped as long as the last of them is {@code resumeAfter}.
+     * Otherwise the repository changed in between and the whole stream is sent, telling both cases
+     * apart by the presence of the {@link #RESUME_FRAME resume frame}.
+     * 
+     * @param version the pack stream version to write, {@link #VERSION_2} or {@link #VERSION_3}
+     *        when resuming, as version 1 streams can't be resumed
+     * @param resumeFrom the number of objects of the traversal to skip, {@code 0} to send all of
+     *        them
+     * @param resumeAfter the id of the last object to skip
+     * @return the number of objects written
+     */
+    public long write(Supplier<? extends OutputStream> outputSupplier, List<ObjectId> want,
+            List<ObjectId> have, Set<ObjectId> sent, Callback callback, boolean traverseCommits,
+            Deduplicator deduplicator, int version, long resumeFrom,
+            @Nullable ObjectId resumeAfter) throws IOException {
+        checkVersion(version);
+        checkArgument(resumeFrom == 0 || (version != VERSION_1 && resumeAfter != null),
+                "Only version 2 and 3 streams can be resumed, after a given object");
 
         for (ObjectId i : want) {
             if (!database.exists(i)) {
@@ -104,6 +281,15 @@ public final class BinaryPackedObjects {
 
         deduplicator.reset();
 
+        Map<ObjectId, ObjectId> deltaBases = ImmutableMap.of();
+        if (version == VERSION_3) {
+            sw.reset().start();
+            deltaBases = deltaBases(want, have, traverseCommits, deduplicator);
+            deduplicator.reset();
+            LOGGER.info(String.format("Found delta bases for %,d features in %s",
+                    deltaBases.size(), sw.stop()));
+        }
+
         LOGGER.info("obtaining post order iterator on range...");
         sw.reset().start();
         int commitsSent = 0;
@@ -112,9 +298,34 @@ public final class BinaryPackedObjects {
         long objectCount = 0;
         LOGGER.info("PostOrderIterator.range took {}", sw.stop());
 
+        long skipped = 0;
+        if (resumeFrom > 0) {
+            sw.reset().start();
+            if (skip(objects, resumeFrom, resumeAfter)) {
+                skipped = resumeFrom;
+                LOGGER.info(String.format("Skipped %,d objects to resume from in %s", skipped,
+                        sw.stop()));
+            } else {
+                LOGGER.info(String.format(
+                        "Can't resume after object %s at %,d, sending all objects", resumeAfter,
+                        resumeFrom));
+                deduplicator.reset();
+                objects = PostOrderIterator.range(want,
+                        new ArrayList<ObjectId>(previsitResults), database, traverseCommits,
+                        deduplicator);
+            }
+        }
+
         try {
             OutputStream out = outputSupplier.get();
             LOGGER.info("writing objects to remote...");
+            if (version != VERSION_1) {
+                sw.reset().start();
+                objectCount = writeFrames(out, objects, callback, version, deltaBases,
+                        skipped, resumeAfter);
+                LOGGER.info(String.format("%,d objects written in %s", objectCount, sw.stop()));
+                return objectCount;
+            }
             while (objects.hasNext() && commitsSent < CAP) {
                 RevObject object = objects.next();
 
@@ -133,6 +344,257 @@ public final class BinaryPackedObjects {
         return objectCount;
     }
 
+    /**
+     * Skips {@code count} objects from the traversal.
+     * 
+     * @return whether there were that many objects and {@code lastId} is the last of them
+     */
+    private static boolean skip(Iterator<RevObject> objects, long count, ObjectId lastId) {
+        ObjectId last = null;
+        for (long i = 0; i < count; i++) {
+            if (!objects.hasNext()) {
+                return false;
+            }
+            last = objects.next().getId();
+        }
+        return lastId.equals(last);
+    }
+
+    private static void checkVersion(int version) {
+        if (version != VERSION_1 && version != VERSION_2 && version != VERSION_3) {
+            throw new IllegalArgumentException("Unsupported pack version: " + version);
+        }
+    }
+
+    /**
+     * Maps the features changed by the commits to be sent to their version in the closest "have"
+     * commit reached following first parents, for up to {@link #MAX_DELTA_BASES} features.
+     * <p>
+     * The first parent chains are walked from the "have" commits towards the commits to be sent,
+     * diffing each commit against its first parent only, and carrying forward the version each
+     * changed feature had in the "have" commit the chain started at.
+     */
+    private Map<ObjectId, ObjectId> deltaBases(List<ObjectId> want, List<ObjectId> have,
+            boolean traverseCommits, Deduplicator deduplicator) {
+        final Set<ObjectId> haveCommits = ImmutableSet.copyOf(have);
+        final ListMultimap<ObjectId, RevCommit> sendingChildren = ArrayListMultimap.create();
+        Iterator<RevCommit> sending;
+        if (traverseCommits) {
+            sending = Iterators.filter(
+                    PostOrderIterator.rangeOfCommits(want, have, database, deduplicator),
+                    RevCommit.class);
+        } else {
+            sending = Iterators.filter(database.getAll(want), RevCommit.class);
+        }
+        while (sending.hasNext()) {
+            RevCommit commit = sending.next();
+            Optional<ObjectId> parent = commit.parentN(0);
+            if (parent.isPresent()) {
+                sendingChildren.put(parent.get(), commit);
+            }
+        }
+
+        // commits to diff against their first parent, along with the version each feature
+        // changed since the "have" commit had in it, null for the ones it didn't have
+        Deque<Map.Entry<RevCommit, Map<String, ObjectId>>> pending;
+        pending = new ArrayDeque<Map.Entry<RevCommit, Map<String, ObjectId>>>();
+        for (ObjectId haveCommit : haveCommits) {
+            for (RevCommit child : sendingChildren.get(haveCommit)) {
+                Map<String, ObjectId> haveVersions = new HashMap<String, ObjectId>();
+                pending.add(Maps.immutableEntry(child, haveVersions));
+            }
+        }
+        Map<ObjectId, ObjectId> bases = new HashMap<ObjectId, ObjectId>();
+        while (!pending.isEmpty() && bases.size() < MAX_DELTA_BASES) {
+            Map.Entry<RevCommit, Map<String, ObjectId>> next = pending.removeLast();
+            RevCommit commit = next.getKey();
+            Map<String, ObjectId> haveVersions = next.getValue();
+            ObjectId parent = commit.parentN(0).get();
+            RevTree parentTree = database.getTree(database.getCommit(parent).getTreeId());
+            RevTree tree = database.getTree(commit.getTreeId());
+            Iterator<DiffEntry> changes = new DiffTreeWalk(database, parentTree, tree).get();
+            while (changes.hasNext()) {
+                DiffEntry change = changes.next();
+                NodeRef oldObject = change.getOldObject();
+                NodeRef newObject = change.getNewObject();
+                NodeRef node = newObject == null ? oldObject : newObject;
+                if (!TYPE.FEATURE.equals(node.getType())) {
+                    continue;
+                }
+                if (!haveVersions.containsKey(node.path())) {
+                    // first change since the "have" commit
+                    haveVersions.put(node.path(), oldObject == null ? null : oldObject.objectId());
+                }
+                ObjectId base = haveVersions.get(node.path());
+                if (newObject != null && base != null && !base.equals(newObject.objectId())
+                        && bases.size() < MAX_DELTA_BASES
+                        && !bases.containsKey(newObject.objectId())) {
+                    bases.put(newObject.objectId(), base);
+                }
+            }
+            List<RevCommit> children = sendingChildren.get(commit.getId());
+            for (int i = 0; i < children.size(); i++) {
+                // the last child takes over the versions, the others get their own copy
+                Map<String, ObjectId> childVersions = i == children.size() - 1 ? haveVersions
+                        : new HashMap<String, ObjectId>(haveVersions);
+                pending.add(Maps.immutableEntry(children.get(i), childVersions));
+            }
+        }
+        return bases;
+    }
+
+    /**
+     * Writes a version 2 or 3 stream, preparing the next frame while the current one is written.
+     */
+    private long writeFrames(final OutputStream out, final Iterator<RevObject> objects,
+            final Callback callback, final int version, final Map<ObjectId, ObjectId> deltaBases,
+            final long skipped, @Nullable final ObjectId lastSkipped) throws IOException {
+        final AtomicBoolean abort = new AtomicBoolean();
+        final DataOutputStream data = new DataOutputStream(out);
+        data.write(version == VERSION_3 ? PACK_V3_MAGIC : PACK_V2_MAGIC);
+        if (skipped > 0) {
+            data.writeInt(RESUME_FRAME);
+            data.writeLong(skipped);
+            data.write(lastSkipped.getRawValue());
+        }
+        final Map<ObjectId, ObjectId> bases = version == VERSION_3 ? deltaBases : null;
+
+        long objectCount = 0;
+        FutureTask<Frame> next = nextFrame(objects, abort, bases);
+        try {
+            while (true) {
+                Frame frame = ExecutionService.await(next);
+                next = null;
+                if (frame.objects.isEmpty()) {
+                    break;
+                }
+                next = nextFrame(objects, abort, bases);
+
+                data.writeInt(frame.objects.size());
+                data.writeInt(frame.rawSize);
+                data.writeInt(frame.compressed.length);
+                data.write(frame.compressed);
+                data.flush();
+                objectCount += frame.objects.size();
+                for (RevObject object : frame.objects) {
+                    callback.callback(Suppliers.ofInstance(object));
+                }
+            }
+            // end of stream
+            data.writeInt(0);
+            data.flush();
+        } finally {
+            if (next != null) {
+                // make sure the objects iterator is no longer in use when returning
+                abort.set(true);
+                try {
+                    ExecutionService.await(next);
+                } catch (RuntimeException e) {
+                    LOGGER.debug("Error preparing discarded frame", e);
+                }
+            }
+        }
+        return objectCount;
+    }
+
+    /**
+     * @param deltaBases the delta bases of a version 3 stream, {@code null} for version 2
+     */
+    private FutureTask<Frame> nextFrame(final Iterator<RevObject> objects,
+            final AtomicBoolean abort, @Nullable final Map<ObjectId, ObjectId> deltaBases) {
+        FutureTask<Frame> task = new FutureTask<Frame>(new Callable<Frame>() {
+            @Override
+            public Frame call() throws IOException {
+                return prepareFrame(objects, abort, deltaBases);
+            }
+        });
+        if (executionService != null) {
+            // traversing the objects is mostly waiting on the database
+            executionService.getExecutor(Lane.IO).execute(task);
+        }
+        return task;
+    }
+
+    /**
+     * Serializes the next objects up to {@link #FRAME_SIZE} bytes or {@link #MAX_FRAME_OBJECTS}
+     * objects, and compresses them.
+     * 
+     * @return the frame, with no objects if there are no more objects to write
+     */
+    private Frame prepareFrame(Iterator<RevObject> objects, AtomicBoolean abort,
+            @Nullable Map<ObjectId, ObjectId> deltaBases) throws IOException {
+        ByteArrayOutputStream raw = new ByteArrayOutputStream(FRAME_SIZE + FRAME_SIZE / 4);
+        List<RevObject> frameObjects = new ArrayList<RevObject>();
+        while (!abort.get() && raw.size() < FRAME_SIZE
+                && frameObjects.size() < MAX_FRAME_OBJECTS && objects.hasNext()) {
+            RevObject object = objects.next();
+            frameObjects.add(object);
+            if (deltaBases != null) {
+                byte[] delta = delta(object, deltaBases);
+                if (delta != null) {
+                    raw.write(DELTA_OBJECT);
+                    raw.write(object.getId().getRawValue());
+                    raw.write(deltaBases.get(object.getId()).getRawValue());
+                    raw.write(delta);
+                    continue;
+                }
+                raw.write(FULL_OBJECT);
+            }
+            raw.write(object.getId().getRawValue());
+            factory.createObjectWriter(object.getType()).write(object, raw);
+        }
+        if (frameObjects.isEmpty()) {
+            return new Frame(frameObjects, 0, new byte[0]);
+        }
+        final byte[] rawBytes = raw.toByteArray();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(rawBytes.length / 2);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(rawBytes);
+            deflater.finish();
+            byte[] buffer = new byte[64 * 1024];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                compressed.write(buffer, 0, length);
+            }
+        } finally {
+            deflater.end();
+        }
+        return new Frame(frameObjects, rawBytes.length, compressed.toByteArray());
+    }
+
+    /**
+     * @return the delta encoding of {@code object} against its base, or {@code null} if it has no
+     *         base or can't be encoded against it
+     */
+    @Nullable
+    private byte[] delta(RevObject object, Map<ObjectId, ObjectId> deltaBases) throws IOException {
+        ObjectId baseId = deltaBases.get(object.getId());
+        if (baseId == null || !TYPE.FEATURE.equals(object.getType())) {
+            return null;
+        }
+        RevFeature base = database.getIfPresent(baseId, RevFeature.class);
+        if (base == null) {
+            return null;
+        }
+        return FeatureDelta.encode(base, (RevFeature) object);
+    }
+
+    private static class Frame {
+
+        final List<RevObject> objects;
+
+        final int rawSize;
+
+        final byte[] compressed;
+
+        Frame(List<RevObject> objects, int rawSize, byte[] compressed) {
+            this.objects = objects;
+            this.rawSize = rawSize;
+            this.compressed = compressed;
+        }
+    }
+
     /**
      * Find commits which should be previsited to avoid resending objects that are already on the
      * receiving end. A commit should be previsited if:
@@ -218,11 +680,23 @@ public final class BinaryPackedObjects {
     }
 
     /**
+     * Reads a version 1, 2 or 3 pack stream and inserts its objects into the database.
+     * 
      * @return the number of objects parsed from the input stream
      */
     public IngestResults ingest(final InputStream in, final Callback callback) {
-        Iterator<RevObject> objects = streamToObjects(in);
+        return ingest(in, callback, null);
+    }
 
+    /**
+     * Reads a version 1, 2 or 3 pack stream and inserts its objects into the database, reporting
+     * to {@code checkpointListener} how far into the sender's traversal the inserted objects go
+     * after each frame of a version 2 or 3 stream.
+     * 
+     * @return the number of objects parsed from the input stream
+     */
+    public IngestResults ingest(final InputStream in, final Callback callback,
+            @Nullable final CheckpointListener checkpointListener) {
         BulkOpListener listener = new BulkOpListener() {
             @Override
             public void inserted(final ObjectId objectId, @Nullable Integer storageSizeBytes) {
@@ -237,16 +711,147 @@ public final class BinaryPackedObjects {
 
         CountingListener countingListener = BulkOpListener.newCountingListener();
         listener = BulkOpListener.composite(countingListener, listener);
-        database.putAll(objects, listener);
+
+        final ObjectId firstId;
+        try {
+            firstId = readObjectId(in);
+        } catch (EOFException eof) {
+            // empty version 1 stream
+            return new IngestResults(0, 0);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+
+        if (Arrays.equals(PACK_V2_MAGIC, firstId.getRawValue())) {
+            ingestFrames(in, listener, false, checkpointListener);
+        } else if (Arrays.equals(PACK_V3_MAGIC, firstId.getRawValue())) {
+            ingestFrames(in, listener, true, checkpointListener);
+        } else {
+            Iterator<RevObject> objects = streamToObjects(in, firstId);
+            database.putAll(objects, listener);
+        }
         return new IngestResults(countingListener.inserted(), countingListener.found());
     }
 
-    private Iterator<RevObject> streamToObjects(final InputStream in) {
+    /**
+     * Reads the frames of a version 2 or 3 stream, decoding up to {@link #DECODE_AHEAD} of them in
+     * parallel and inserting each frame's objects in a single bulk operation, in stream order.
+     * 
+     * @param tagged whether objects are preceded by their full or delta tag, as in version 3
+     */
+    private void ingestFrames(final InputStream in, final BulkOpListener listener,
+            final boolean tagged, @Nullable final CheckpointListener checkpointListener) {
+        final DataInputStream data = new DataInputStream(in);
+        final Deque<FutureTask<List<RevObject>>> decoding;
+        decoding = new ArrayDeque<FutureTask<List<RevObject>>>();
+        // position in the sender's traversal of the objects inserted so far
+        long position = 0;
+        try {
+            while (true) {
+                final int objectCount = data.readInt();
+                if (objectCount == 0) {
+                    break;
+                }
+                if (objectCount == RESUME_FRAME) {
+                    position = data.readLong();
+                    readObjectId(data);
+                    continue;
+                }
+                final int rawSize = data.readInt();
+                final byte[] compressed = new byte[data.readInt()];
+                data.readFully(compressed);
+
+                FutureTask<List<RevObject>> task = new FutureTask<List<RevObject>>(
+                        new Callable<List<RevObject>>() {
+                            @Override
+                            public List<RevObject> call() throws Exception {
+                                return decodeFrame(objectCount, rawSize, compressed, tagged);
+                            }
+                        });
+                if (executionService != null) {
+                    executionService.getExecutor(Lane.CPU).execute(task);
+                }
+                decoding.add(task);
+                if (decoding.size() >= DECODE_AHEAD) {
+                    position = insert(ExecutionService.await(decoding.removeFirst()), listener,
+                            position, checkpointListener);
+                }
+            }
+            while (!decoding.isEmpty()) {
+                position = insert(ExecutionService.await(decoding.removeFirst()), listener,
+                        position, checkpointListener);
+            }
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        } finally {
+            for (FutureTask<List<RevObject>> task : decoding) {
+                task.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * @return the position in the sender's traversal after the inserted objects
+     */
+    private long insert(List<RevObject> objects, BulkOpListener listener, long position,
+            @Nullable CheckpointListener checkpointListener) {
+        database.putAll(objects.iterator(), listener);
+        position += objects.size();
+        if (checkpointListener != null && !objects.isEmpty()) {
+            checkpointListener.checkpoint(position, objects.get(objects.size() - 1).getId());
+        }
+        return position;
+    }
+
+    private List<RevObject> decodeFrame(final int objectCount, final int rawSize,
+            final byte[] compressed, final boolean tagged) throws IOException,
+            DataFormatException {
+        final byte[] raw = new byte[rawSize];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int offset = 0;
+            while (offset < rawSize) {
+                int length = inflater.inflate(raw, offset, rawSize - offset);
+                if (length == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new EOFException("Truncated frame");
+                }
+                offset += length;
+            }
+        } finally {
+            inflater.end();
+        }
+        // readers are created per frame, frames are decoded concurrently
+        final ObjectReader<RevObject> reader = factory.createObjectReader();
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(raw));
+        List<RevObject> objects = new ArrayList<RevObject>(objectCount);
+        for (int i = 0; i < objectCount; i++) {
+            final byte tag = tagged ? in.readByte() : FULL_OBJECT;
+            ObjectId id = readObjectId(in);
+            if (tag == DELTA_OBJECT) {
+                ObjectId baseId = readObjectId(in);
+                RevFeature base = database.getFeature(baseId);
+                objects.add(FeatureDelta.decode(id, base, in));
+            } else if (tag == FULL_OBJECT) {
+                objects.add(reader.read(id, in));
+            } else {
+                throw new IllegalStateException("Unknown object tag: " + tag);
+            }
+        }
+        return objects;
+    }
+
+    private Iterator<RevObject> streamToObjects(final InputStream in,
+            @Nullable final ObjectId firstId) {
         return new AbstractIterator<RevObject>() {
+
+            private ObjectId nextId = firstId;
+
             @Override
             protected RevObject computeNext() {
                 try {
-                    ObjectId id = readObjectId(in);
+                    ObjectId id = nextId == null ? readObjectId(in) : nextId;
+                    nextId = null;
                     RevObject revObj = objectReader.read(id, in);
                     return revObj;
                 } catch (EOFException eof) {
@@ -279,6 +884,21 @@ public final class BinaryPackedObjects {
         public abstract void callback(Supplier<RevObject> object);
     }
 
+    /**
+     * Told how far into the sender's traversal the objects in the database go as the frames of a
+     * version 2 or 3 stream are inserted, so that an interrupted transfer can be resumed from there
+     * with {@link BinaryPackedObjects#write(Supplier, List, List, Set, Callback, boolean,
+     * Deduplicator, int, long, ObjectId) write}.
+     */
+    public static interface CheckpointListener {
+        /**
+         * @param objectCount the number of objects of the traversal in the database, counting the
+         *        ones skipped by a resumed stream
+         * @param lastObjectId the id of the last of them
+         */
+        public void checkpoint(long objectCount, ObjectId lastObjectId);
+    }
+
     private static final Callback DEFAULT_CALLBACK = new Callback() {
         @Override
         public void callback(Supplier<RevObject> object) {
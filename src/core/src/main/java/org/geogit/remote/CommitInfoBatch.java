@@ -0,0 +1,191 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.remote;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.plumbing.diff.DiffEntry;
+import org.geogit.api.porcelain.DiffOp;
+import org.geogit.repository.Repository;
+import org.geogit.storage.GraphDatabase;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * The wire format of the {@code /repo/commitinfo} request, the batched version of the parents,
+ * depth and affected features requests, answering for a list of commits and optionally a range
+ * of their ancestors at once.
+ * <p>
+ * The request is a flags byte ({@link #AFFECTED_FEATURES} to include the affected features,
+ * {@link #DEPTH} to include the depth of the listed commits), the number of ancestors of the
+ * listed commits to also answer for (int), closest first, and the number of commits (int)
+ * followed by their raw ids. The response is, for each commit found, a {@code 1} byte, the raw
+ * commit id, its depth (int, {@code -1} if not asked for), the number of parents (int) and their
+ * raw ids, and if asked for, the number of features affected by the commit (int) and their raw
+ * ids. It's ended by a {@code 0} byte.
+ * <p>
+ * Computing the depth of a commit may walk its whole history, so it's only done for the listed
+ * commits, never for their ancestors, and for no more than {@link #MAX_DEPTH_COMMITS} of them.
+ */
+public final class CommitInfoBatch {
+
+    static final int AFFECTED_FEATURES = 0x01;
+
+    static final int DEPTH = 0x02;
+
+    /**
+     * Maximum number of commits answered for in a single request, ancestors included
+     */
+    private static final int MAX_COMMITS = 10 * 1000;
+
+    /**
+     * Maximum number of commits whose depth can be asked for in a single request
+     */
+    private static final int MAX_DEPTH_COMMITS = 16;
+
+    private final int flags;
+
+    private final int limit;
+
+    private final List<ObjectId> commits;
+
+    private CommitInfoBatch(int flags, int limit, List<ObjectId> commits) {
+        this.flags = flags;
+        this.limit = limit;
+        this.commits = commits;
+    }
+
+    /**
+     * Writes the request for the given commits and up to a number of their ancestors.
+     */
+    static void writeRequest(OutputStream out, List<ObjectId> commits, int ancestors,
+            boolean depth, boolean affectedFeatures) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeByte((affectedFeatures ? AFFECTED_FEATURES : 0) | (depth ? DEPTH : 0));
+        data.writeInt(ancestors);
+        data.writeInt(commits.size());
+        for (ObjectId id : commits) {
+            data.write(id.getRawValue());
+        }
+        data.flush();
+    }
+
+    /**
+     * Reads a request, failing if it asks for too many commits.
+     */
+    public static CommitInfoBatch readRequest(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        final int flags = data.readByte();
+        final int ancestors = data.readInt();
+        final int count = data.readInt();
+        if (count < 0 || count > MAX_COMMITS || ancestors < 0) {
+            throw new IOException("Can't answer for " + count + " commits at once");
+        }
+        if ((flags & DEPTH) != 0 && count > MAX_DEPTH_COMMITS) {
+            throw new IOException("Can't compute the depth of " + count + " commits at once");
+        }
+        List<ObjectId> commits = new ArrayList<ObjectId>(count);
+        for (int i = 0; i < count; i++) {
+            commits.add(HttpUtils.readObjectId(data));
+        }
+        final int limit = (int) Math.min(MAX_COMMITS, (long) count + ancestors);
+        return new CommitInfoBatch(flags, limit, commits);
+    }
+
+    /**
+     * Writes the information of the requested commits and their ancestors, as found in the given
+     * repository.
+     */
+    public void writeInfo(Repository repository, OutputStream out) throws IOException {
+        final GraphDatabase graph = repository.graphDatabase();
+        final boolean depth = (flags & DEPTH) != 0;
+        final boolean affectedFeatures = (flags & AFFECTED_FEATURES) != 0;
+        DataOutputStream data = new DataOutputStream(out);
+        Set<ObjectId> listed = new HashSet<ObjectId>(commits);
+        Set<ObjectId> seen = new HashSet<ObjectId>(commits);
+        Deque<ObjectId> queue = new ArrayDeque<ObjectId>(commits);
+        int count = 0;
+        while (!queue.isEmpty() && count < limit) {
+            ObjectId commit = queue.removeFirst();
+            if (!graph.exists(commit)) {
+                continue;
+            }
+            ImmutableList<ObjectId> parents = graph.getParents(commit);
+            data.writeByte(1);
+            data.write(commit.getRawValue());
+            data.writeInt(depth && listed.contains(commit) ? graph.getDepth(commit) : -1);
+            data.writeInt(parents.size());
+            for (ObjectId parent : parents) {
+                data.write(parent.getRawValue());
+                if (seen.add(parent)) {
+                    queue.add(parent);
+                }
+            }
+            if (affectedFeatures) {
+                writeAffectedFeatures(repository, data, commit, parents);
+            }
+            count++;
+        }
+        data.writeByte(0);
+        data.flush();
+    }
+
+    /**
+     * Writes the ids of the old versions of the features changed by the commit, as the affected
+     * features request does
+     */
+    private static void writeAffectedFeatures(Repository repository, DataOutputStream data,
+            ObjectId commit, ImmutableList<ObjectId> parents) throws IOException {
+        List<ObjectId> affected = new ArrayList<ObjectId>();
+        if (!parents.isEmpty()) {
+            Iterator<DiffEntry> diff = repository.command(DiffOp.class)
+                    .setOldVersion(parents.get(0)).setNewVersion(commit).call();
+            while (diff.hasNext()) {
+                DiffEntry diffEntry = diff.next();
+                if (diffEntry.getOldObject() != null) {
+                    affected.add(diffEntry.getOldObject().getNode().getObjectId());
+                }
+            }
+        }
+        data.writeInt(affected.size());
+        for (ObjectId id : affected) {
+            data.write(id.getRawValue());
+        }
+    }
+
+    /**
+     * Reads the information of the commits answered for from the response.
+     */
+    static Map<ObjectId, HttpUtils.CommitInfo> readInfo(InputStream in, boolean affectedFeatures)
+            throws IOException {
+        Map<ObjectId, HttpUtils.CommitInfo> info = new HashMap<ObjectId, HttpUtils.CommitInfo>();
+        DataInputStream data = new DataInputStream(in);
+        while (data.readByte() != 0) {
+            ObjectId id = HttpUtils.readObjectId(data);
+            final int depth = data.readInt();
+            ImmutableList<ObjectId> parents = HttpUtils.readObjectIds(data);
+            ImmutableList<ObjectId> affected = null;
+            if (affectedFeatures) {
+                affected = HttpUtils.readObjectIds(data);
+            }
+            info.put(id, new HttpUtils.CommitInfo(depth, parents, affected));
+        }
+        return info;
+    }
+}
@@ -0,0 +1,157 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.remote;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.Ref;
+import org.geogit.api.plumbing.ForEachRef;
+import org.geogit.repository.Repository;
+import org.geogit.storage.GraphDatabase;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.PrimitiveSink;
+
+/**
+ * A probabilistic set of the commits a repository has, sent to a remote so that it can work out
+ * the history both have in common in a single request.
+ * <p>
+ * {@link #mightContain(ObjectId)} never returns {@code false} for a commit in the set, so a
+ * {@code false} result proves the repository doesn't have the commit, while {@code true} means it
+ * probably has it and must be checked by the repository itself.
+ */
+public class CommitSketch {
+
+    private static final Funnel<ObjectId> FUNNEL = new Funnel<ObjectId>() {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void funnel(ObjectId from, PrimitiveSink into) {
+            into.putBytes(from.getRawValue());
+        }
+    };
+
+    private static final double FALSE_POSITIVE_PROBABILITY = 0.01;
+
+    /**
+     * Maximum number of commits {@link #of(Repository)} adds to a sketch, some 1.2MB at the
+     * default false positive probability. Commits left out are merely sent again.
+     */
+    private static final int MAX_COMMITS = 1000 * 1000;
+
+    /**
+     * Size of the header of the serialized filter: the hash strategy (byte), the number of hash
+     * functions (unsigned byte) and the number of longs holding the bits (int)
+     */
+    private static final int HEADER_SIZE = 6;
+
+    /**
+     * Maximum number of hash functions accepted when reading a sketch, the default false positive
+     * probability uses 7
+     */
+    private static final int MAX_HASH_FUNCTIONS = 16;
+
+    /**
+     * Maximum number of longs holding the bits accepted when reading a sketch, some 2MB, enough
+     * for {@link #MAX_COMMITS} commits
+     */
+    private static final int MAX_DATA_LENGTH = 256 * 1024;
+
+    /**
+     * Maximum size of a serialized sketch, larger ones are rejected by {@link #readFrom}
+     */
+    public static final int MAX_SERIALIZED_SIZE = HEADER_SIZE + MAX_DATA_LENGTH * 8;
+
+    private final BloomFilter<ObjectId> filter;
+
+    private CommitSketch(BloomFilter<ObjectId> filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * @param commits the ids of the commits to add to the sketch
+     */
+    public static CommitSketch create(Collection<ObjectId> commits) {
+        BloomFilter<ObjectId> filter = BloomFilter.create(FUNNEL, Math.max(1, commits.size()),
+                FALSE_POSITIVE_PROBABILITY);
+        for (ObjectId id : commits) {
+            filter.put(id);
+        }
+        return new CommitSketch(filter);
+    }
+
+    /**
+     * @return a sketch of the commits reachable from the refs of the given repository, closest to
+     *         the refs first, up to {@link #MAX_COMMITS} commits
+     */
+    public static CommitSketch of(Repository repository) {
+        final GraphDatabase graph = repository.graphDatabase();
+        Set<ObjectId> commits = new HashSet<ObjectId>();
+        Deque<ObjectId> queue = new ArrayDeque<ObjectId>();
+        for (Ref ref : repository.command(ForEachRef.class).call()) {
+            queue.add(ref.getObjectId());
+        }
+        while (!queue.isEmpty() && commits.size() < MAX_COMMITS) {
+            ObjectId id = queue.removeFirst();
+            if (id.isNull() || commits.contains(id) || !graph.exists(id)) {
+                continue;
+            }
+            commits.add(id);
+            queue.addAll(graph.getParents(id));
+        }
+        return create(commits);
+    }
+
+    /**
+     * @return {@code false} if the repository definitely doesn't have the given commit,
+     *         {@code true} if it might have it
+     */
+    public boolean mightContain(ObjectId commitId) {
+        return filter.mightContain(commitId);
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        filter.writeTo(out);
+    }
+
+    /**
+     * Reads a sketch written by {@link #writeTo(OutputStream)}, checking the sizes it declares
+     * before allocating anything so that a malformed or hostile sketch can't exhaust the memory.
+     * 
+     * @throws IOException if the sketch can't be read or is larger than
+     *         {@link #MAX_SERIALIZED_SIZE}
+     */
+    public static CommitSketch readFrom(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        final byte strategy = data.readByte();
+        final int numHashFunctions = data.readUnsignedByte();
+        final int dataLength = data.readInt();
+        if (numHashFunctions < 1 || numHashFunctions > MAX_HASH_FUNCTIONS) {
+            throw new IOException("Invalid commit sketch: " + numHashFunctions
+                    + " hash functions");
+        }
+        if (dataLength < 1 || dataLength > MAX_DATA_LENGTH) {
+            throw new IOException("Invalid commit sketch: " + dataLength + " words of data");
+        }
+        byte[] serialized = new byte[HEADER_SIZE + dataLength * 8];
+        ByteBuffer.wrap(serialized).put(strategy).put((byte) numHashFunctions).putInt(dataLength);
+        data.readFully(serialized, HEADER_SIZE, dataLength * 8);
+        return new CommitSketch(BloomFilter.readFrom(new ByteArrayInputStream(serialized),
+                FUNNEL));
+    }
+}
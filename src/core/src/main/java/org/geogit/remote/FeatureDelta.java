@@ -0,0 +1,215 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.remote;
+
+import static java.lang.String.format;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevFeatureImpl;
+import org.geogit.storage.datastream.FormatCommonV1;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.CoordinateSequenceFilter;
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Encodes a {@link RevFeature} as its differences against another version of the same feature, so
+ * that the receiving end of a pack can rebuild it from the version it already has.
+ * <p>
+ * Each value is either the same as the base feature's, given in full, or a geometry given as the
+ * base geometry with some of its coordinates replaced:
+ * 
+ * <pre>
+ * <code>
+ * delta := value count (int) value*
+ * value := SAME | FULL field tag (byte) serialized value | COORDINATES count (int) coordinate*
+ * coordinate := index (int) x (double) y (double)
+ * </code>
+ * </pre>
+ * 
+ * Coordinates are indexed in the order {@link Geometry#getCoordinates()} returns them.
+ */
+final class FeatureDelta {
+
+    private static final byte SAME = 0;
+
+    private static final byte FULL = 1;
+
+    private static final byte COORDINATES = 2;
+
+    private FeatureDelta() {
+        // static methods only
+    }
+
+    /**
+     * @return the delta encoding of {@code feature} against {@code base}, or {@code null} if the
+     *         features don't have the same number of values or the delta doesn't rebuild the
+     *         feature exactly
+     */
+    @Nullable
+    public static byte[] encode(RevFeature base, RevFeature feature) throws IOException {
+        final List<Optional<Object>> baseValues = base.getValues();
+        final List<Optional<Object>> values = feature.getValues();
+        if (baseValues.size() != values.size()) {
+            return null;
+        }
+        ByteArrayDataOutput out = ByteStreams.newDataOutput();
+        out.writeInt(values.size());
+        for (int i = 0; i < values.size(); i++) {
+            Optional<Object> baseValue = baseValues.get(i);
+            Optional<Object> value = values.get(i);
+            if (baseValue.equals(value)) {
+                out.writeByte(SAME);
+            } else if (!writeCoordinates(baseValue, value, out)) {
+                out.writeByte(FULL);
+                FormatCommonV1.writeValue(value, out);
+            }
+        }
+        final byte[] delta = out.toByteArray();
+
+        // hash collisions aside, the receiving end gets exactly the same feature
+        RevFeature rebuilt = apply(base, ByteStreams.newDataInput(delta));
+        if (!rebuilt.getId().equals(feature.getId())) {
+            return null;
+        }
+        return delta;
+    }
+
+    /**
+     * Rebuilds a feature from its delta against {@code base}.
+     * 
+     * @param id the id of the feature being rebuilt
+     * @throws IllegalStateException if the rebuilt feature doesn't hash to {@code id}
+     */
+    public static RevFeature decode(ObjectId id, RevFeature base, DataInput in)
+            throws IOException {
+        RevFeature feature = apply(base, in);
+        if (!feature.getId().equals(id)) {
+            throw new IllegalStateException(format(
+                    "Delta against %s rebuilt feature %s instead of %s", base.getId(),
+                    feature.getId(), id));
+        }
+        return feature;
+    }
+
+    private static RevFeature apply(RevFeature base, DataInput in) throws IOException {
+        final List<Optional<Object>> baseValues = base.getValues();
+        final int count = in.readInt();
+        if (count != baseValues.size()) {
+            throw new IllegalStateException(format("Delta has %d values, base %s has %d", count,
+                    base.getId(), baseValues.size()));
+        }
+        ImmutableList.Builder<Optional<Object>> values = ImmutableList.builder();
+        for (int i = 0; i < count; i++) {
+            final byte tag = in.readByte();
+            switch (tag) {
+            case SAME:
+                values.add(baseValues.get(i));
+                break;
+            case FULL:
+                values.add(FormatCommonV1.readValue(in));
+                break;
+            case COORDINATES: {
+                Geometry geom = (Geometry) baseValues.get(i).get();
+                values.add(Optional.<Object> of(readCoordinates(geom, in)));
+            }
+                break;
+            default:
+                throw new IllegalStateException("Unknown delta value tag: " + tag);
+            }
+        }
+        return RevFeatureImpl.build(values.build());
+    }
+
+    /**
+     * Writes {@code value} as the coordinates it changes from {@code baseValue}, if both are
+     * geometries of the same class and number of coordinates, and not all coordinates changed.
+     * 
+     * @return whether the value was written
+     */
+    private static boolean writeCoordinates(Optional<Object> baseValue, Optional<Object> value,
+            ByteArrayDataOutput out) {
+        if (!(baseValue.orNull() instanceof Geometry) || !(value.orNull() instanceof Geometry)) {
+            return false;
+        }
+        final Geometry baseGeom = (Geometry) baseValue.get();
+        final Geometry geom = (Geometry) value.get();
+        if (!baseGeom.getClass().equals(geom.getClass())
+                || baseGeom.getNumPoints() != geom.getNumPoints()
+                || baseGeom.getNumGeometries() != geom.getNumGeometries()) {
+            return false;
+        }
+        final Coordinate[] baseCoords = baseGeom.getCoordinates();
+        final Coordinate[] coords = geom.getCoordinates();
+        int[] changed = new int[coords.length];
+        int changedCount = 0;
+        for (int i = 0; i < coords.length; i++) {
+            if (!baseCoords[i].equals2D(coords[i])) {
+                changed[changedCount++] = i;
+            }
+        }
+        if (changedCount == coords.length) {
+            return false;
+        }
+        out.writeByte(COORDINATES);
+        out.writeInt(changedCount);
+        for (int i = 0; i < changedCount; i++) {
+            Coordinate c = coords[changed[i]];
+            out.writeInt(changed[i]);
+            out.writeDouble(c.x);
+            out.writeDouble(c.y);
+        }
+        return true;
+    }
+
+    private static Geometry readCoordinates(Geometry base, DataInput in) throws IOException {
+        final int count = in.readInt();
+        final int[] indexes = new int[count];
+        final double[] ordinates = new double[2 * count];
+        for (int i = 0; i < count; i++) {
+            indexes[i] = in.readInt();
+            ordinates[2 * i] = in.readDouble();
+            ordinates[2 * i + 1] = in.readDouble();
+        }
+        Geometry geom = (Geometry) base.clone();
+        geom.apply(new CoordinateSequenceFilter() {
+
+            private int index;
+
+            @Override
+            public void filter(CoordinateSequence seq, int i) {
+                int changed = Arrays.binarySearch(indexes, index++);
+                if (changed >= 0) {
+                    seq.setOrdinate(i, CoordinateSequence.X, ordinates[2 * changed]);
+                    seq.setOrdinate(i, CoordinateSequence.Y, ordinates[2 * changed + 1]);
+                }
+            }
+
+            @Override
+            public boolean isDone() {
+                return false;
+            }
+
+            @Override
+            public boolean isGeometryChanged() {
+                return true;
+            }
+        });
+        return geom;
+    }
+}
@@ -0,0 +1,210 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.remote;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.ObjectId;
+import org.geogit.repository.Repository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+/**
+ * The durable progress of a fetch from a remote repository, saved as the objects it sends are
+ * ingested so that an interrupted fetch or clone can be resumed instead of started over.
+ * <p>
+ * A checkpoint is the {@code want} and {@code have} lists of the request being served, which
+ * determine the objects the remote sends and their order, and how many of those objects are
+ * already in the local database along with the id of the last of them. The commits of the request
+ * that were fully received are in the local database too, so the next fetch doesn't want them
+ * anymore, and the checkpoint lets the remote skip the objects received for the commit that was
+ * being transferred.
+ * <p>
+ * The checkpoint is kept in the {@code FETCH_CHECKPOINT} file of the repository directory, and
+ * there's only one at a time.
+ */
+final class FetchCheckpoint {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FetchCheckpoint.class);
+
+    private static final String FILE_NAME = "FETCH_CHECKPOINT";
+
+    private static final String HEADER = "# geogit fetch checkpoint";
+
+    private static final Charset CHARSET = Charsets.UTF_8;
+
+    private final String remote;
+
+    private final ImmutableList<ObjectId> want;
+
+    private final ImmutableList<ObjectId> have;
+
+    private final long objectCount;
+
+    private final ObjectId lastObjectId;
+
+    FetchCheckpoint(String remote, List<ObjectId> want, Collection<ObjectId> have,
+            long objectCount, ObjectId lastObjectId) {
+        this.remote = remote;
+        this.want = ImmutableList.copyOf(want);
+        this.have = ImmutableList.copyOf(have);
+        this.objectCount = objectCount;
+        this.lastObjectId = lastObjectId;
+    }
+
+    public ImmutableList<ObjectId> getWant() {
+        return want;
+    }
+
+    public ImmutableList<ObjectId> getHave() {
+        return have;
+    }
+
+    /**
+     * @return the number of objects sent for the request that are in the local database
+     */
+    public long getObjectCount() {
+        return objectCount;
+    }
+
+    public ObjectId getLastObjectId() {
+        return lastObjectId;
+    }
+
+    /**
+     * @return whether resending the checkpoint's request to {@code remote} fetches the given
+     *         commits, and the objects it says were received are in {@code repository}
+     */
+    public boolean resumes(String remote, Collection<ObjectId> want, Repository repository) {
+        return this.remote.equals(remote) && !want.isEmpty() && this.want.containsAll(want)
+                && repository.objectDatabase().exists(lastObjectId);
+    }
+
+    /**
+     * @return the checkpoint saved in the given repository, if any
+     */
+    public static Optional<FetchCheckpoint> load(Repository repository) {
+        final File file = file(repository);
+        if (file == null || !file.exists()) {
+            return Optional.absent();
+        }
+        try {
+            List<String> lines = Files.readLines(file, CHARSET);
+            String remote = null;
+            long objectCount = 0;
+            ObjectId lastObjectId = null;
+            ImmutableList.Builder<ObjectId> want = ImmutableList.builder();
+            ImmutableList.Builder<ObjectId> have = ImmutableList.builder();
+            for (String line : lines) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] tokens = line.split(" ");
+                String key = tokens[0];
+                if ("remote".equals(key)) {
+                    remote = tokens[1];
+                } else if ("objects".equals(key)) {
+                    objectCount = Long.parseLong(tokens[1]);
+                    lastObjectId = ObjectId.valueOf(tokens[2]);
+                } else if ("want".equals(key)) {
+                    want.add(ObjectId.valueOf(tokens[1]));
+                } else if ("have".equals(key)) {
+                    have.add(ObjectId.valueOf(tokens[1]));
+                }
+            }
+            checkState(remote != null && lastObjectId != null, "Incomplete fetch checkpoint");
+            return Optional.of(new FetchCheckpoint(remote, want.build(), have.build(),
+                    objectCount, lastObjectId));
+        } catch (IOException | RuntimeException e) {
+            // it's just an optimization, the fetch starts over
+            LOGGER.warn("Ignoring unreadable fetch checkpoint {}", file, e);
+            return Optional.absent();
+        }
+    }
+
+    /**
+     * Saves this checkpoint in the given repository, replacing the previous one
+     */
+    public void save(Repository repository) {
+        final File file = file(repository);
+        if (file == null) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder(HEADER).append('\n');
+        sb.append("remote ").append(remote).append('\n');
+        sb.append("objects ").append(objectCount).append(' ').append(lastObjectId).append('\n');
+        for (ObjectId id : want) {
+            sb.append("want ").append(id).append('\n');
+        }
+        for (ObjectId id : have) {
+            sb.append("have ").append(id).append('\n');
+        }
+        try {
+            File tmp = File.createTempFile(FILE_NAME, ".tmp", file.getParentFile());
+            try {
+                FileOutputStream fout = new FileOutputStream(tmp);
+                try {
+                    fout.write(sb.toString().getBytes(CHARSET));
+                    fout.flush();
+                    fout.getFD().sync();
+                } finally {
+                    fout.close();
+                }
+                java.nio.file.Files.move(tmp.toPath(), file.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                if (tmp.exists()) {
+                    tmp.delete();
+                }
+            }
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Removes the checkpoint saved in the given repository, if any
+     */
+    public static void clear(Repository repository) {
+        final File file = file(repository);
+        if (file != null && file.exists() && !file.delete()) {
+            LOGGER.warn("Unable to delete fetch checkpoint {}", file);
+        }
+    }
+
+    /**
+     * @return the checkpoint file, or {@code null} if the repository is not in the filesystem
+     */
+    @Nullable
+    private static File file(Repository repository) {
+        URL location = repository.getLocation();
+        if (location == null || !"file".equals(location.getProtocol())) {
+            return null;
+        }
+        try {
+            return new File(new File(location.toURI()), FILE_NAME);
+        } catch (URISyntaxException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+}
@@ -14,9 +14,14 @@ import java.io.Writer;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
 
 import org.geogit.api.ObjectId;
 import org.geogit.api.Ref;
@@ -53,6 +58,21 @@ class HttpMappedRemoteRepo extends AbstractMappedRemoteRepo {
 
     private URL repositoryURL;
 
+    /**
+     * Features affected by the commits about to be fetched, retrieved in bulk by
+     * {@link #beforeFetch(List)}
+     */
+    private final Map<ObjectId, ImmutableList<ObjectId>> affectedFeatures;
+
+    private boolean batchCommitInfo;
+
+    /**
+     * Whether pushed changes are sent with their objects in batches, as told by the remote
+     * {@link HttpUtils#getCapabilities(URL) capabilities} on the first push
+     */
+    @Nullable
+    private Boolean batchedChanges;
+
     /**
      * Constructs a new {@code HttpMappedRemoteRepo}.
      * 
@@ -61,6 +81,8 @@ class HttpMappedRemoteRepo extends AbstractMappedRemoteRepo {
      */
     public HttpMappedRemoteRepo(URL repositoryURL, Repository localRepository) {
         super(localRepository);
+        this.affectedFeatures = new HashMap<ObjectId, ImmutableList<ObjectId>>();
+        this.batchCommitInfo = true;
         String url = repositoryURL.toString();
         if (url.endsWith("/")) {
             url = url.substring(0, url.lastIndexOf('/'));
@@ -204,6 +226,26 @@ class HttpMappedRemoteRepo extends AbstractMappedRemoteRepo {
         return new HttpRepositoryWrapper(repositoryURL);
     }
 
+    /**
+     * Retrieves the features affected by all the given commits in a single request, if the remote
+     * supports it.
+     */
+    @Override
+    protected void beforeFetch(List<ObjectId> commits) {
+        affectedFeatures.clear();
+        if (!batchCommitInfo) {
+            return;
+        }
+        Optional<Map<ObjectId, HttpUtils.CommitInfo>> info = HttpUtils.getCommitInfo(
+                repositoryURL, commits, 0, false, true);
+        batchCommitInfo = info.isPresent();
+        if (batchCommitInfo) {
+            for (Map.Entry<ObjectId, HttpUtils.CommitInfo> entry : info.get().entrySet()) {
+                affectedFeatures.put(entry.getKey(), entry.getValue().getAffectedFeatures());
+            }
+        }
+    }
+
     /**
      * Gets all of the changes from the target commit that should be applied to the sparse clone.
      * 
@@ -213,11 +255,13 @@ class HttpMappedRemoteRepo extends AbstractMappedRemoteRepo {
     @Override
     protected FilteredDiffIterator getFilteredChanges(RevCommit commit) {
         // Get affected features
-        ImmutableList<ObjectId> affectedFeatures = HttpUtils.getAffectedFeatures(repositoryURL,
-                commit.getId());
+        ImmutableList<ObjectId> affected = affectedFeatures.remove(commit.getId());
+        if (affected == null) {
+            affected = HttpUtils.getAffectedFeatures(repositoryURL, commit.getId());
+        }
         // Create a list of features I have
         List<ObjectId> tracked = new LinkedList<ObjectId>();
-        for (ObjectId id : affectedFeatures) {
+        for (ObjectId id : affected) {
             if (localRepository.blobExists(id)) {
                 tracked.add(id);
             }
@@ -267,6 +311,10 @@ class HttpMappedRemoteRepo extends AbstractMappedRemoteRepo {
         }
         message.add("commitId", new JsonPrimitive(commitId.toString()));
         message.add("tracked", trackedArray);
+        // changed features may be sent as deltas against the tracked version
+        message.add("deltas", new JsonPrimitive(true));
+        // and objects may be sent in batches
+        message.add("batched", new JsonPrimitive(true));
         JsonArray filterArray = new JsonArray();
         ImmutableList<FilterDescription> repoFilters = filter.getFilterDescriptions();
         for (FilterDescription description : repoFilters) {
@@ -346,60 +394,78 @@ class HttpMappedRemoteRepo extends AbstractMappedRemoteRepo {
             if (newParents.size() > 0) {
                 parent = from.graphDatabase().getMapping(newParents.get(0));
             }
-            Iterator<DiffEntry> diffIter = from.command(DiffOp.class).setNewVersion(commitId)
-                    .setOldVersion(parent).setReportTrees(true).call();
-
-            // connect and send packed changes
-            final URL resourceURL;
-            try {
-                resourceURL = new URL(repositoryURL.toString() + "/repo/applychanges");
-            } catch (MalformedURLException e) {
-                throw Throwables.propagate(e);
+            if (batchedChanges == null) {
+                // servers that predate batched changes fail to read them, which can't be told
+                // from a failure after the commit was created, so they're only sent when the
+                // remote says it reads them
+                batchedChanges = Boolean.valueOf(HttpUtils.getCapabilities(repositoryURL)
+                        .contains(BinaryPackedChanges.BATCHED_CHANGES_CAPABILITY));
             }
-
-            final HttpURLConnection connection;
-            final OutputStream out;
+            ObjectId remoteCommitId;
             try {
-                connection = (HttpURLConnection) resourceURL.openConnection();
-                connection.setDoOutput(true);
-                connection.setDoInput(true);
-                out = connection.getOutputStream();
-                // pack the commit object
-                final ObjectSerializingFactory factory = DataStreamSerializationFactoryV1.INSTANCE;
-                final ObjectWriter<RevCommit> commitWriter = factory
-                        .createObjectWriter(TYPE.COMMIT);
-                commitWriter.write(commit, out);
-
-                // write the new parents
-                out.write(newParents.size());
-                for (ObjectId parentId : newParents) {
-                    out.write(parentId.getRawValue());
-                }
-
-                // pack the changes
-                BinaryPackedChanges changes = new BinaryPackedChanges(from);
-                changes.write(out, diffIter);
+                remoteCommitId = applyChanges(commit, newParents, parent,
+                        batchedChanges.booleanValue());
             } catch (IOException e) {
                 throw Throwables.propagate(e);
             }
+            if (remoteCommitId != null) {
+                from.graphDatabase().map(commit.getId(), remoteCommitId);
+                from.graphDatabase().map(remoteCommitId, commit.getId());
+            }
+        }
+    }
 
-            final InputStream in;
-            try {
-                in = connection.getInputStream();
-                BufferedReader rd = new BufferedReader(new InputStreamReader(in));
-
-                String line = rd.readLine();
-                if (line != null) {
-                    ObjectId remoteCommitId = ObjectId.valueOf(line);
-                    from.graphDatabase().map(commit.getId(), remoteCommitId);
-                    from.graphDatabase().map(remoteCommitId, commit.getId());
-                }
+    /**
+     * Sends a commit and its changes against {@code parent} to the remote, to be applied on top of
+     * the given parents.
+     * 
+     * @param batched whether to send the objects of the changes in batches
+     * @return the id of the commit created by the remote, or {@code null} if it didn't report it
+     * @throws IOException if the remote answered with an error status
+     */
+    @Nullable
+    private ObjectId applyChanges(RevCommit commit, List<ObjectId> newParents, ObjectId parent,
+            boolean batched) throws IOException {
+        final Repository from = localRepository;
+        Iterator<DiffEntry> diffIter = from.command(DiffOp.class).setNewVersion(commit.getId())
+                .setOldVersion(parent).setReportTrees(true).call();
+
+        // connect and send packed changes
+        final URL resourceURL;
+        try {
+            resourceURL = new URL(repositoryURL.toString() + "/repo/applychanges");
+        } catch (MalformedURLException e) {
+            throw Throwables.propagate(e);
+        }
 
-            } catch (IOException e) {
-                throw Throwables.propagate(e);
-            }
+        final HttpURLConnection connection = (HttpURLConnection) resourceURL.openConnection();
+        connection.setDoOutput(true);
+        connection.setDoInput(true);
+        final OutputStream out = connection.getOutputStream();
+        // pack the commit object
+        final ObjectSerializingFactory factory = DataStreamSerializationFactoryV1.INSTANCE;
+        final ObjectWriter<RevCommit> commitWriter = factory.createObjectWriter(TYPE.COMMIT);
+        commitWriter.write(commit, out);
+
+        // write the new parents
+        out.write(newParents.size());
+        for (ObjectId parentId : newParents) {
+            out.write(parentId.getRawValue());
+        }
+
+        // pack the changes
+        BinaryPackedChanges changes = new BinaryPackedChanges(from);
+        changes.write(out, diffIter, Collections.<ObjectId> emptySet(), batched);
 
+        final int responseCode = connection.getResponseCode();
+        if (responseCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+            throw new IOException("Remote failed to apply changes: " + responseCode + " "
+                    + connection.getResponseMessage());
         }
+        final InputStream in = connection.getInputStream();
+        BufferedReader rd = new BufferedReader(new InputStreamReader(in));
+        String line = rd.readLine();
+        return line == null ? null : ObjectId.valueOf(line);
     }
 
     /**
@@ -14,38 +14,60 @@ import java.io.Writer;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
 
 import org.geogit.api.ObjectId;
 import org.geogit.api.Ref;
 import org.geogit.api.RevCommit;
 import org.geogit.api.RevObject;
 import org.geogit.api.RevTag;
+import org.geogit.api.porcelain.ConfigException;
 import org.geogit.api.porcelain.SynchronizationException;
 import org.geogit.remote.BinaryPackedObjects.IngestResults;
 import org.geogit.remote.HttpUtils.ReportingOutputStream;
+import org.geogit.repository.ExecutionService;
+import org.geogit.repository.ExecutionService.Lane;
 import org.geogit.repository.Repository;
+import org.geogit.storage.BulkOpListener;
+import org.geogit.storage.ConfigDatabase;
 import org.geogit.storage.DeduplicationService;
 import org.geogit.storage.Deduplicator;
+import org.geogit.storage.ForwardingObjectDatabase;
 import org.geogit.storage.ObjectDatabase;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
+import com.google.common.base.Predicate;
 import com.google.common.base.Stopwatch;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
+import com.google.inject.util.Providers;
 
 /**
  * An implementation of a remote repository that exists on a remote machine and made public via an
@@ -57,6 +79,24 @@ class HttpRemoteRepo extends AbstractRemoteRepo {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(HttpRemoteRepo.class);
 
+    /**
+     * Minimum time between two saves of the {@link FetchCheckpoint} of the objects being fetched
+     */
+    private static final int CHECKPOINT_INTERVAL_SECONDS = 10;
+
+    /**
+     * Config key of the number of concurrent streams to fetch with, one to fetch with a single
+     * stream
+     */
+    static final String FETCH_STREAMS_KEY = "fetch.streams";
+
+    private static final int DEFAULT_FETCH_STREAMS = 4;
+
+    /**
+     * Minimum number of commits fetched by each concurrent stream
+     */
+    private static final int MIN_COMMITS_PER_STREAM = 50;
+
     private URL repositoryURL;
 
     final private DeduplicationService deduplicationService;
@@ -194,14 +234,237 @@ class HttpRemoteRepo extends AbstractRemoteRepo {
             Collections.reverse(want);
             Set<ObjectId> have = new HashSet<ObjectId>();
             have.addAll(traverser.have);
-            while (!want.isEmpty()) {
-                fetchMoreData(want, have);
+            Optional<FetchCheckpoint> checkpoint = FetchCheckpoint.load(localRepository);
+            if (checkpoint.isPresent()
+                    && checkpoint.get().resumes(repositoryURL.toString(), want, localRepository)) {
+                fetchMoreData(want, have, checkpoint.get(), true);
+                fetchCommits(want, have, 1);
+            } else {
+                fetchCommits(want, have, fetchStreams());
             }
+            FetchCheckpoint.clear(localRepository);
         } catch (Exception e) {
             Throwables.propagate(e);
         }
     }
 
+    /**
+     * Fetches the given commits, oldest first, in up to {@code streams} concurrent streams, and
+     * then sequentially the ones the streams didn't store.
+     */
+    @VisibleForTesting
+    void fetchCommits(final List<ObjectId> want, final Set<ObjectId> have, final int streams) {
+        List<List<ObjectId>> ranges = commitRanges(want, streams);
+        if (ranges.size() > 1) {
+            fetchInParallel(ranges, want, have);
+        }
+        while (!want.isEmpty()) {
+            fetchMoreData(want, have, null, true);
+        }
+    }
+
+    /**
+     * Splits the commits to fetch, oldest first, into consecutive ranges of at least
+     * {@link #MIN_COMMITS_PER_STREAM} commits each, one per stream.
+     */
+    @VisibleForTesting
+    static List<List<ObjectId>> commitRanges(List<ObjectId> want, int streams) {
+        final int count = Math.min(streams, want.size() / MIN_COMMITS_PER_STREAM);
+        if (count <= 1) {
+            return ImmutableList.<List<ObjectId>> of(want);
+        }
+        final int rangeSize = (want.size() + count - 1) / count;
+        return Lists.partition(ImmutableList.copyOf(want), rangeSize);
+    }
+
+    /**
+     * @return the number of concurrent streams to fetch with, as configured by
+     *         {@link #FETCH_STREAMS_KEY}
+     */
+    private int fetchStreams() {
+        final ConfigDatabase config = localRepository.configDatabase();
+        Optional<Integer> configured;
+        try {
+            configured = config.get(FETCH_STREAMS_KEY, Integer.class);
+            if (!configured.isPresent()) {
+                configured = config.getGlobal(FETCH_STREAMS_KEY, Integer.class);
+            }
+        } catch (ConfigException e) {
+            configured = Optional.absent();
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("Invalid value for {}, using {}", FETCH_STREAMS_KEY,
+                    DEFAULT_FETCH_STREAMS);
+            configured = Optional.absent();
+        }
+        return configured.or(DEFAULT_FETCH_STREAMS).intValue();
+    }
+
+    /**
+     * Fetches each range of commits in its own concurrent stream.
+     * <p>
+     * The stream of each range has the last commit of every previous range as "have", so the
+     * remote doesn't send the objects the previous streams send, and all but the first ask for
+     * version 2 streams, which have no deltas against them. The commits of all but the first range
+     * are thus held in memory as they're received and only stored once the streams of all previous
+     * ranges completed, so that a commit is never stored before the objects it refers to.
+     * If a stream fails or doesn't send all the commits of its range, the commits held for the
+     * following ranges are dropped, and the want and have lists are updated with what was stored,
+     * for the rest to be fetched sequentially. A stream failure is logged rather than thrown, so
+     * that a remote that can't serve concurrent streams still gets fetched from.
+     */
+    @VisibleForTesting
+    void fetchInParallel(final List<List<ObjectId>> ranges, final List<ObjectId> want,
+            final Set<ObjectId> have) {
+        final ImmutableList<ObjectId> originalWant = ImmutableList.copyOf(want);
+        final ImmutableSet<ObjectId> originalHave = ImmutableSet.copyOf(have);
+        final ObjectDatabase database = localRepository.objectDatabase();
+        final Executor executor = localRepository.executionService().getExecutor(Lane.IO);
+
+        LOGGER.info("Fetching {} commits in {} streams", want.size(), ranges.size());
+        List<List<ObjectId>> streamWants = new ArrayList<List<ObjectId>>();
+        List<CommitHoldingDatabase> streamDatabases = new ArrayList<CommitHoldingDatabase>();
+        List<FutureTask<Void>> streams = new ArrayList<FutureTask<Void>>();
+        Set<ObjectId> rangeHave = new HashSet<ObjectId>(have);
+        for (int i = 0; i < ranges.size(); i++) {
+            final List<ObjectId> streamWant = new LinkedList<ObjectId>(ranges.get(i));
+            final Set<ObjectId> streamHave = new HashSet<ObjectId>(rangeHave);
+            // only the first stream's request stays valid to resume from, and only its commits
+            // can be stored right away
+            final boolean first = i == 0;
+            final CommitHoldingDatabase streamDatabase = first ? null
+                    : new CommitHoldingDatabase(database);
+            FutureTask<Void> stream = new FutureTask<Void>(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    if (first) {
+                        fetchMoreData(streamWant, streamHave, null, true);
+                    } else {
+                        // version 2 streams have no deltas against features of previous ranges
+                        fetchMoreData(streamWant, streamHave, null, false, streamDatabase,
+                                BinaryPackedObjects.VERSION_2);
+                    }
+                    return null;
+                }
+            });
+            executor.execute(stream);
+            streamWants.add(streamWant);
+            streamDatabases.add(streamDatabase);
+            streams.add(stream);
+            rangeHave.add(Iterables.getLast(ranges.get(i)));
+        }
+
+        boolean complete = true;
+        for (int i = 0; i < streams.size(); i++) {
+            boolean failed = false;
+            try {
+                ExecutionService.await(streams.get(i));
+            } catch (RuntimeException e) {
+                failed = true;
+                LOGGER.warn("Fetch stream {} of {} failed, fetching the rest sequentially", i + 1,
+                        streams.size(), e);
+            }
+            complete = complete && !failed && streamWants.get(i).isEmpty();
+            if (complete && streamDatabases.get(i) != null) {
+                streamDatabases.get(i).storeHeld();
+            }
+        }
+
+        want.clear();
+        have.clear();
+        have.addAll(originalHave);
+        List<RevCommit> received = new ArrayList<RevCommit>();
+        for (ObjectId commitId : originalWant) {
+            if (database.exists(commitId)) {
+                received.add(database.getCommit(commitId));
+            } else {
+                want.add(commitId);
+            }
+        }
+        for (RevCommit commit : received) {
+            have.add(commit.getId());
+        }
+        for (RevCommit commit : received) {
+            have.removeAll(commit.getParentIds());
+        }
+    }
+
+    /**
+     * An object database that holds the commits and tags put into it in memory instead of storing
+     * them, until {@link #storeHeld()} is called.
+     */
+    private static class CommitHoldingDatabase extends ForwardingObjectDatabase {
+
+        private final Map<ObjectId, RevObject> held = new LinkedHashMap<ObjectId, RevObject>();
+
+        public CommitHoldingDatabase(ObjectDatabase subject) {
+            super(Providers.of(subject));
+        }
+
+        private static boolean holds(RevObject object) {
+            return object instanceof RevCommit || object instanceof RevTag;
+        }
+
+        /**
+         * Stores the objects held so far.
+         */
+        public synchronized void storeHeld() {
+            super.putAll(held.values().iterator());
+            held.clear();
+        }
+
+        @Override
+        public synchronized boolean exists(ObjectId id) {
+            return held.containsKey(id) || super.exists(id);
+        }
+
+        @Override
+        public synchronized RevObject get(ObjectId id) {
+            RevObject object = held.get(id);
+            return object == null ? super.get(id) : object;
+        }
+
+        @Override
+        public synchronized boolean put(RevObject object) {
+            if (!holds(object)) {
+                return super.put(object);
+            }
+            if (super.exists(object.getId())) {
+                return false;
+            }
+            return held.put(object.getId(), object) == null;
+        }
+
+        @Override
+        public void putAll(Iterator<? extends RevObject> objects) {
+            putAll(objects, BulkOpListener.NOOP_LISTENER);
+        }
+
+        @Override
+        public synchronized void putAll(Iterator<? extends RevObject> objects,
+                BulkOpListener listener) {
+            final List<RevObject> diverted = new ArrayList<RevObject>();
+            Iterator<? extends RevObject> others = Iterators.filter(objects,
+                    new Predicate<RevObject>() {
+                        @Override
+                        public boolean apply(RevObject input) {
+                            if (holds(input)) {
+                                diverted.add(input);
+                                return false;
+                            }
+                            return true;
+                        }
+                    });
+            super.putAll(others, listener);
+            for (RevObject object : diverted) {
+                if (put(object)) {
+                    listener.inserted(object.getId(), null);
+                } else {
+                    listener.found(object.getId(), null);
+                }
+            }
+        }
+    }
+
     /**
      * Push all new objects from the specified {@link Ref} to the remote.
      * 
@@ -338,9 +601,38 @@ class HttpRemoteRepo extends AbstractRemoteRepo {
      * 
      * @param want a list of ObjectIds that need to be fetched
      * @param have a list of ObjectIds that are in common with the remote repository
+     * @param resume the checkpoint of an interrupted fetch to resume by sending its request again
+     * @param checkpoints whether to save the progress as a {@link FetchCheckpoint}
      */
-    private void fetchMoreData(final List<ObjectId> want, final Set<ObjectId> have) {
-        final JsonObject message = createFetchMessage(want, have);
+    private void fetchMoreData(final List<ObjectId> want, final Set<ObjectId> have,
+            @Nullable final FetchCheckpoint resume, final boolean checkpoints) {
+        fetchMoreData(want, have, resume, checkpoints, localRepository.objectDatabase(),
+                BinaryPackedObjects.VERSION_3);
+    }
+
+    /**
+     * @param database the database to store the objects received into
+     * @param packVersion the pack stream version to ask for
+     */
+    private void fetchMoreData(final List<ObjectId> want, final Set<ObjectId> have,
+            @Nullable final FetchCheckpoint resume, final boolean checkpoints,
+            final ObjectDatabase database, final int packVersion) {
+        // the request determines the objects sent and their order, as tracked by the checkpoints
+        final List<ObjectId> requestWant;
+        final List<ObjectId> requestHave;
+        final JsonObject message;
+        if (resume == null) {
+            requestWant = ImmutableList.copyOf(want);
+            requestHave = ImmutableList.copyOf(have);
+            message = createFetchMessage(requestWant, requestHave, packVersion);
+        } else {
+            requestWant = resume.getWant();
+            requestHave = resume.getHave();
+            message = createFetchMessage(requestWant, requestHave, packVersion);
+            message.addProperty("resumeFrom", resume.getObjectCount());
+            message.addProperty("resumeAfter", resume.getLastObjectId().toString());
+            LOGGER.info("Resuming interrupted fetch after {} objects", resume.getObjectCount());
+        }
         final URL resourceURL;
         try {
             resourceURL = new URL(repositoryURL.toString() + "/repo/batchobjects");
@@ -371,7 +663,8 @@ class HttpRemoteRepo extends AbstractRemoteRepo {
         final HttpUtils.ReportingInputStream in = HttpUtils.getResponseStream(connection);
         System.err.println("Processing response...");
 
-        BinaryPackedObjects unpacker = new BinaryPackedObjects(localRepository.objectDatabase());
+        BinaryPackedObjects unpacker = new BinaryPackedObjects(database,
+                localRepository.executionService());
         BinaryPackedObjects.Callback callback = new BinaryPackedObjects.Callback() {
             @Override
             public void callback(Supplier<RevObject> supplier) {
@@ -390,8 +683,24 @@ class HttpRemoteRepo extends AbstractRemoteRepo {
             }
         };
 
+        BinaryPackedObjects.CheckpointListener checkpointListener;
+        checkpointListener = new BinaryPackedObjects.CheckpointListener() {
+
+            private final Stopwatch sinceLast = Stopwatch.createStarted();
+
+            @Override
+            public void checkpoint(long objectCount, ObjectId lastObjectId) {
+                if (checkpoints
+                        && sinceLast.elapsed(TimeUnit.SECONDS) >= CHECKPOINT_INTERVAL_SECONDS) {
+                    new FetchCheckpoint(repositoryURL.toString(), requestWant, requestHave,
+                            objectCount, lastObjectId).save(localRepository);
+                    sinceLast.reset().start();
+                }
+            }
+        };
+
         Stopwatch sw = Stopwatch.createStarted();
-        IngestResults ingestResults = unpacker.ingest(in, callback);
+        IngestResults ingestResults = unpacker.ingest(in, callback, checkpointListener);
         sw.stop();
 
         System.err
@@ -400,7 +709,8 @@ class HttpRemoteRepo extends AbstractRemoteRepo {
                         ingestResults.getExisting(), sw, in.compressedSize(), in.unCompressedSize());
     }
 
-    private JsonObject createFetchMessage(List<ObjectId> want, Set<ObjectId> have) {
+    private JsonObject createFetchMessage(List<ObjectId> want, List<ObjectId> have,
+            int packVersion) {
         JsonObject message = new JsonObject();
         JsonArray wantArray = new JsonArray();
         for (ObjectId id : want) {
@@ -412,6 +722,8 @@ class HttpRemoteRepo extends AbstractRemoteRepo {
         }
         message.add("want", wantArray);
         message.add("have", haveArray);
+        // servers that don't know about it keep sending version 1 streams, ingest reads both
+        message.addProperty("packVersion", packVersion);
         return message;
     }
 
@@ -420,7 +732,7 @@ class HttpRemoteRepo extends AbstractRemoteRepo {
      */
     @Override
     public RepositoryWrapper getRemoteWrapper() {
-        return new HttpRepositoryWrapper(repositoryURL);
+        return new HttpRepositoryWrapper(repositoryURL, localRepository);
     }
 
     /**
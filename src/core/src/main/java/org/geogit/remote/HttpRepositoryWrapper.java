@@ -5,26 +5,98 @@
 package org.geogit.remote;
 
 import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
 
 import org.geogit.api.ObjectId;
+import org.geogit.repository.Repository;
+import org.geogit.storage.GraphDatabase;
 
 import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
 
 /**
  * Provides an interface to make basic queries to a remote repository over http.
+ * <p>
+ * When given the local repository, the commit graph is negotiated in bulk rather than one commit
+ * at a time: parents are asked for along with those of all the ancestors the local repository
+ * doesn't have according to a {@link CommitSketch}, and the existence of a commit is asked for
+ * along with that of its local ancestors. Without the local repository, as for sparse clones,
+ * parents are asked for along with those of a range of ancestors, and the depth of a commit along
+ * with them when it's asked for, but not that of its ancestors. Answers are kept for the life of
+ * the wrapper, which is that of a single fetch or push, and remotes that don't support negotiating
+ * are queried one commit at a time.
  */
 class HttpRepositoryWrapper implements RepositoryWrapper {
 
+    /**
+     * Number of local commits asked about in a single existence query
+     */
+    private static final int EXISTS_BATCH_SIZE = 1000;
+
+    /**
+     * Number of ancestors whose parents are asked for along with those of a commit
+     */
+    private static final int ANCESTORS_BATCH_SIZE = 1000;
+
     private URL repositoryURL;
 
+    @Nullable
+    private final Repository localRepository;
+
+    private final Supplier<CommitSketch> localCommits;
+
+    private final Map<ObjectId, ImmutableList<ObjectId>> parents;
+
+    private final Map<ObjectId, Boolean> exists;
+
+    private final Map<ObjectId, Integer> depths;
+
+    private boolean negotiate;
+
+    private boolean batchCommitInfo;
+
     /**
      * Constructs a new {@code HttpRepositoryWrapper} with the provided URL.
      * 
      * @param repositoryURL the URL of the repository
      */
     public HttpRepositoryWrapper(final URL repositoryURL) {
+        this(repositoryURL, null);
+    }
+
+    /**
+     * Constructs a new {@code HttpRepositoryWrapper} with the provided URL that negotiates the
+     * commit graph with the remote repository.
+     * 
+     * @param repositoryURL the URL of the repository
+     * @param localRepository the local repository, or {@code null} not to negotiate
+     */
+    public HttpRepositoryWrapper(final URL repositoryURL,
+            @Nullable final Repository localRepository) {
         this.repositoryURL = repositoryURL;
+        this.localRepository = localRepository;
+        this.negotiate = localRepository != null;
+        this.parents = new HashMap<ObjectId, ImmutableList<ObjectId>>();
+        this.exists = new HashMap<ObjectId, Boolean>();
+        this.depths = new HashMap<ObjectId, Integer>();
+        this.batchCommitInfo = true;
+        this.localCommits = Suppliers.memoize(new Supplier<CommitSketch>() {
+            @Override
+            public CommitSketch get() {
+                return CommitSketch.of(localRepository);
+            }
+        });
     }
 
     /**
@@ -35,7 +107,49 @@ class HttpRepositoryWrapper implements RepositoryWrapper {
      */
     @Override
     public boolean objectExists(ObjectId objectId) {
-        return objectId.isNull() || HttpUtils.networkObjectExists(repositoryURL, objectId);
+        if (objectId.isNull()) {
+            return true;
+        }
+        Boolean cached = exists.get(objectId);
+        if (cached == null && negotiate) {
+            Optional<Map<ObjectId, Boolean>> batch = HttpUtils.batchObjectExists(repositoryURL,
+                    existsBatch(objectId));
+            negotiate = batch.isPresent();
+            if (negotiate) {
+                exists.putAll(batch.get());
+                cached = exists.get(objectId);
+            }
+        }
+        if (cached == null) {
+            cached = Boolean.valueOf(HttpUtils.networkObjectExists(repositoryURL, objectId));
+            exists.put(objectId, cached);
+        }
+        return cached.booleanValue();
+    }
+
+    /**
+     * @return the given object followed by the local ancestors not yet asked about, closest first,
+     *         as the remote is likely to be asked about them next
+     */
+    private List<ObjectId> existsBatch(ObjectId objectId) {
+        final GraphDatabase graph = localRepository.graphDatabase();
+        List<ObjectId> batch = new ArrayList<ObjectId>();
+        batch.add(objectId);
+        Set<ObjectId> seen = new HashSet<ObjectId>(batch);
+        Deque<ObjectId> queue = new ArrayDeque<ObjectId>(batch);
+        while (!queue.isEmpty() && batch.size() < EXISTS_BATCH_SIZE) {
+            ObjectId id = queue.removeFirst();
+            if (!graph.exists(id)) {
+                continue;
+            }
+            for (ObjectId parent : graph.getParents(id)) {
+                if (seen.add(parent) && !exists.containsKey(parent)) {
+                    batch.add(parent);
+                    queue.add(parent);
+                }
+            }
+        }
+        return batch;
     }
 
     /**
@@ -46,7 +160,25 @@ class HttpRepositoryWrapper implements RepositoryWrapper {
      */
     @Override
     public ImmutableList<ObjectId> getParents(ObjectId commitId) {
-        return HttpUtils.getParents(repositoryURL, commitId);
+        ImmutableList<ObjectId> cached = parents.get(commitId);
+        if (cached == null && negotiate) {
+            Optional<Map<ObjectId, ImmutableList<ObjectId>>> negotiated = HttpUtils
+                    .negotiateParents(repositoryURL, commitId, localCommits.get());
+            negotiate = negotiated.isPresent();
+            if (negotiate) {
+                parents.putAll(negotiated.get());
+                cached = parents.get(commitId);
+            }
+        }
+        if (cached == null && !negotiate) {
+            fetchCommitInfo(commitId, false);
+            cached = parents.get(commitId);
+        }
+        if (cached == null) {
+            cached = HttpUtils.getParents(repositoryURL, commitId);
+            parents.put(commitId, cached);
+        }
+        return cached;
     }
 
     /**
@@ -57,9 +189,39 @@ class HttpRepositoryWrapper implements RepositoryWrapper {
      */
     @Override
     public int getDepth(ObjectId commitId) {
-        Optional<Integer> depth = HttpUtils.getDepth(repositoryURL, commitId.toString());
+        Integer cached = depths.get(commitId);
+        if (cached == null) {
+            fetchCommitInfo(commitId, true);
+            cached = depths.get(commitId);
+        }
+        if (cached == null) {
+            Optional<Integer> depth = HttpUtils.getDepth(repositoryURL, commitId.toString());
+            cached = depth.or(0);
+            depths.put(commitId, cached);
+        }
+        return cached.intValue();
+    }
 
-        return depth.or(0);
+    /**
+     * Asks for the parents of the given commit and a range of its ancestors, and optionally for
+     * the depth of the given commit, if the remote supports it.
+     */
+    private void fetchCommitInfo(ObjectId commitId, boolean depth) {
+        if (!batchCommitInfo) {
+            return;
+        }
+        Optional<Map<ObjectId, HttpUtils.CommitInfo>> info = HttpUtils.getCommitInfo(
+                repositoryURL, ImmutableList.of(commitId), ANCESTORS_BATCH_SIZE, depth, false);
+        batchCommitInfo = info.isPresent();
+        if (batchCommitInfo) {
+            for (Map.Entry<ObjectId, HttpUtils.CommitInfo> entry : info.get().entrySet()) {
+                parents.put(entry.getKey(), entry.getValue().getParents());
+                Optional<Integer> commitDepth = entry.getValue().getDepth();
+                if (commitDepth.isPresent()) {
+                    depths.put(entry.getKey(), commitDepth.get());
+                }
+            }
+        }
     }
 
     /**
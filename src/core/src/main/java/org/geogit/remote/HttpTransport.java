@@ -0,0 +1,304 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.remote;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.porcelain.ConfigException;
+import org.geogit.storage.ConfigDatabase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Maps;
+
+/**
+ * The HTTP connections to a remote repository, shared by all the requests {@link HttpUtils} makes
+ * to it.
+ * <p>
+ * Connections are never {@link HttpURLConnection#disconnect() disconnected}. Instead,
+ * {@link #release(HttpURLConnection)} consumes what's left of the response so that the JVM's
+ * keep-alive cache reuses the underlying socket for the next request to the same host, saving a
+ * connection setup per request on commit by commit operations. The number of requests in flight
+ * is limited to the number of connections the transport is configured with, responses are
+ * requested gzip encoded, and connect and read timeouts apply to every request.
+ * <p>
+ * The settings of a remote are read by {@link #configure(URL, ConfigDatabase, String)} from the
+ * {@code remote.<name>.connectTimeout} and {@code remote.<name>.readTimeout} config keys, in
+ * seconds with zero meaning no timeout, and {@code remote.<name>.maxConnections}. They apply to
+ * the requests under the remote's URL, other requests to the same host use the default settings.
+ * <p>
+ * Each connection is released to the transport it was obtained from, even if it was redirected
+ * elsewhere or the transport was reconfigured in the meantime.
+ */
+class HttpTransport {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HttpTransport.class);
+
+    static final int DEFAULT_CONNECT_TIMEOUT_SECONDS = 30;
+
+    static final int DEFAULT_READ_TIMEOUT_SECONDS = 0;
+
+    /**
+     * The default number of idle connections per host the JVM keeps alive
+     */
+    static final int DEFAULT_MAX_CONNECTIONS = 5;
+
+    /**
+     * Transports of the configured remotes, by remote URL
+     */
+    private static final ConcurrentMap<String, HttpTransport> CONFIGURED = Maps.newConcurrentMap();
+
+    /**
+     * Transports with the default settings, by protocol and authority of the remote URL
+     */
+    private static final ConcurrentMap<String, HttpTransport> DEFAULTS = Maps.newConcurrentMap();
+
+    /**
+     * The transport each connection in flight was obtained from
+     */
+    private static final ConcurrentMap<HttpURLConnection, HttpTransport> OWNERS = Maps
+            .newConcurrentMap();
+
+    private final int connectTimeoutSeconds;
+
+    private final int readTimeoutSeconds;
+
+    private final int maxConnections;
+
+    private final int connectTimeoutMillis;
+
+    private final int readTimeoutMillis;
+
+    private final Semaphore permits;
+
+    HttpTransport(int connectTimeoutSeconds, int readTimeoutSeconds, int maxConnections) {
+        this.connectTimeoutSeconds = connectTimeoutSeconds;
+        this.readTimeoutSeconds = readTimeoutSeconds;
+        this.maxConnections = maxConnections;
+        this.connectTimeoutMillis = (int) TimeUnit.SECONDS.toMillis(connectTimeoutSeconds);
+        this.readTimeoutMillis = (int) TimeUnit.SECONDS.toMillis(readTimeoutSeconds);
+        this.permits = new Semaphore(maxConnections, true);
+    }
+
+    /**
+     * @return the transport of the {@link #configure(URL, ConfigDatabase, String) configured}
+     *         remote the given URL is under, or the one to its host with the default settings
+     */
+    public static HttpTransport forUrl(URL url) {
+        final String target = url.toExternalForm();
+        HttpTransport transport = null;
+        int matchLength = -1;
+        for (Map.Entry<String, HttpTransport> entry : CONFIGURED.entrySet()) {
+            final String remote = entry.getKey();
+            if (remote.length() > matchLength && isUnder(target, remote)) {
+                transport = entry.getValue();
+                matchLength = remote.length();
+            }
+        }
+        if (transport != null) {
+            return transport;
+        }
+        final String key = hostKey(url);
+        transport = DEFAULTS.get(key);
+        if (transport == null) {
+            transport = new HttpTransport(DEFAULT_CONNECT_TIMEOUT_SECONDS,
+                    DEFAULT_READ_TIMEOUT_SECONDS, DEFAULT_MAX_CONNECTIONS);
+            HttpTransport existing = DEFAULTS.putIfAbsent(key, transport);
+            if (existing != null) {
+                transport = existing;
+            }
+        }
+        return transport;
+    }
+
+    private static boolean isUnder(String target, String remote) {
+        if (!target.startsWith(remote)) {
+            return false;
+        }
+        if (target.length() == remote.length()) {
+            return true;
+        }
+        final char next = target.charAt(remote.length());
+        return next == '/' || next == '?';
+    }
+
+    /**
+     * Sets up the transport to the remote at {@code url} with the settings of the given remote.
+     * The transport in use is kept if the settings didn't change.
+     */
+    public static void configure(URL url, ConfigDatabase config, String remoteName) {
+        final String section = "remote." + remoteName + ".";
+        int connectTimeout = configured(config, section + "connectTimeout", 0,
+                DEFAULT_CONNECT_TIMEOUT_SECONDS);
+        int readTimeout = configured(config, section + "readTimeout", 0,
+                DEFAULT_READ_TIMEOUT_SECONDS);
+        int maxConnections = configured(config, section + "maxConnections", 1,
+                DEFAULT_MAX_CONNECTIONS);
+        final String key = remoteKey(url);
+        HttpTransport existing = CONFIGURED.get(key);
+        if (existing == null || existing.connectTimeoutSeconds != connectTimeout
+                || existing.readTimeoutSeconds != readTimeout
+                || existing.maxConnections != maxConnections) {
+            CONFIGURED.put(key, new HttpTransport(connectTimeout, readTimeout, maxConnections));
+        }
+    }
+
+    private static int configured(ConfigDatabase config, String key, int min, int defaultValue) {
+        Optional<Integer> configured;
+        try {
+            configured = config.get(key, Integer.class);
+        } catch (ConfigException e) {
+            configured = Optional.absent();
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("Invalid value for {}, using {}", key, defaultValue);
+            configured = Optional.absent();
+        }
+        if (configured.isPresent() && configured.get().intValue() < min) {
+            LOGGER.warn("Invalid value for {}, using {}", key, defaultValue);
+            configured = Optional.absent();
+        }
+        return configured.or(defaultValue).intValue();
+    }
+
+    private static String hostKey(URL url) {
+        return url.getProtocol() + "://" + url.getAuthority();
+    }
+
+    private static String remoteKey(URL url) {
+        String key = url.toExternalForm();
+        while (key.endsWith("/")) {
+            key = key.substring(0, key.length() - 1);
+        }
+        return key;
+    }
+
+    /**
+     * Connects to the given URL using HTTP GET method.
+     * <p>
+     * The connection must be given back with {@link #release(HttpURLConnection)} once its
+     * response has been read.
+     */
+    public HttpURLConnection get(String url) throws IOException {
+        HttpURLConnection connection = open(url);
+        boolean connected = false;
+        try {
+            connection.setRequestMethod("GET");
+            connection.addRequestProperty("Accept-Encoding", "gzip");
+            LOGGER.debug("Connecting to '{}'...", url);
+            connection.connect();
+            int responseCode = connection.getResponseCode();
+            LOGGER.debug(" connected ({}).", responseCode);
+            connected = true;
+        } finally {
+            if (!connected) {
+                release(connection);
+            }
+        }
+        return connection;
+    }
+
+    /**
+     * Opens a connection to post to the given URL, the request body is yet to be written.
+     * <p>
+     * The connection must be given back with {@link #release(HttpURLConnection)} once its
+     * response has been read.
+     */
+    public HttpURLConnection post(String url, String contentType) throws IOException {
+        HttpURLConnection connection = open(url);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", contentType);
+        LOGGER.debug("Posting to '{}'...", url);
+        return connection;
+    }
+
+    private HttpURLConnection open(String url) throws IOException {
+        try {
+            // a request waiting longer than it'd wait to connect is as good as timed out
+            if (connectTimeoutMillis == 0) {
+                permits.acquire();
+            } else if (!permits.tryAcquire(connectTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Timed out waiting for a connection to " + url);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a connection to " + url);
+        }
+        HttpURLConnection connection;
+        try {
+            connection = (HttpURLConnection) new URL(url).openConnection();
+        } catch (IOException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+        OWNERS.put(connection, this);
+        connection.setUseCaches(false);
+        connection.setConnectTimeout(connectTimeoutMillis);
+        connection.setReadTimeout(readTimeoutMillis);
+        return connection;
+    }
+
+    /**
+     * Consumes what's left of the response of a connection obtained from a transport, keeping the
+     * underlying socket alive to be reused, and gives it back to that transport.
+     * <p>
+     * Connections obtained elsewhere are consumed and disconnected.
+     */
+    public static void release(@Nullable HttpURLConnection connection) {
+        if (connection == null) {
+            return;
+        }
+        final HttpTransport owner = OWNERS.remove(connection);
+        if (owner == null) {
+            try {
+                HttpUtils.consumeAndCloseStream(connection.getErrorStream());
+            } catch (IOException e) {
+                LOGGER.debug("Error consuming error stream", e);
+            } finally {
+                connection.disconnect();
+            }
+            return;
+        }
+        try {
+            InputStream errorStream = connection.getErrorStream();
+            if (errorStream != null) {
+                HttpUtils.consumeAndCloseStream(errorStream);
+            }
+        } catch (IOException e) {
+            // the socket is not reused then
+            LOGGER.debug("Error consuming error stream", e);
+        } finally {
+            owner.permits.release();
+        }
+    }
+
+    /**
+     * @return the number of requests in flight
+     */
+    int inFlight() {
+        return Collections.frequency(OWNERS.values(), this);
+    }
+
+    /**
+     * Drops the transports of the remote at the given URL and of its host, so that they use the
+     * default settings again
+     */
+    static void reset(URL url) {
+        CONFIGURED.remove(remoteKey(url));
+        DEFAULTS.remove(hostKey(url));
+    }
+}
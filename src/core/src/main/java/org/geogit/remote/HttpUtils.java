@@ -5,6 +5,8 @@
 package org.geogit.remote;
 
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.FilterInputStream;
 import java.io.FilterOutputStream;
 import java.io.IOException;
@@ -14,6 +16,9 @@ import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.InetAddress;
 import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -29,14 +34,13 @@ import org.geogit.api.SymRef;
 import org.geogit.repository.Repository;
 import org.geogit.storage.ObjectReader;
 import org.geogit.storage.datastream.DataStreamSerializationFactoryV1;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableList.Builder;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.io.Closeables;
 import com.google.common.io.CountingInputStream;
 import com.google.common.io.CountingOutputStream;
@@ -46,8 +50,6 @@ import com.google.common.io.CountingOutputStream;
  */
 class HttpUtils {
 
-    private static final Logger LOGGER = LoggerFactory.getLogger(HttpUtils.class);
-
     /**
      * Parse the provided ref string to a {@link Ref}. The input string should be in the following
      * format:
@@ -82,22 +84,13 @@ class HttpUtils {
     }
 
     /**
-     * Consumes the error stream of the provided connection and then closes it.
+     * Consumes the error stream of the provided connection and then closes it, or gives it back to
+     * the {@link HttpTransport} it was obtained from to be reused.
      * 
      * @param connection the connection to close
      */
     public static void consumeErrStreamAndCloseConnection(@Nullable HttpURLConnection connection) {
-        if (connection == null) {
-            return;
-        }
-        try {
-            InputStream es = ((HttpURLConnection) connection).getErrorStream();
-            consumeAndCloseStream(es);
-        } catch (IOException ex) {
-            throw Throwables.propagate(ex);
-        } finally {
-            connection.disconnect();
-        }
+        HttpTransport.release(connection);
     }
 
     /**
@@ -358,6 +351,182 @@ class HttpUtils {
         return listBuilder.build();
     }
 
+    /**
+     * Gets the parents of the specified commit and of its ancestors from the remote repository,
+     * which walks its history from the commit until reaching commits the sketch says the local
+     * repository has, and stops early on very long histories.
+     * 
+     * @param repositoryURL the URL of the repository
+     * @param commit the id of the commit to start walking from
+     * @param sketch the commits the local repository has
+     * @return the parents of each commit walked, or {@link Optional#absent()} if the remote
+     *         repository doesn't support negotiating
+     */
+    public static Optional<Map<ObjectId, ImmutableList<ObjectId>>> negotiateParents(
+            URL repositoryURL, ObjectId commit, CommitSketch sketch) {
+        HttpURLConnection connection = null;
+        Map<ObjectId, ImmutableList<ObjectId>> parents = null;
+        try {
+            connection = post(repositoryURL.toString() + "/repo/negotiate");
+            OutputStream out = connection.getOutputStream();
+            ParentsNegotiation.writeRequest(out, commit, sketch);
+            out.flush();
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                return Optional.absent();
+            }
+            InputStream is = HttpUtils.getResponseStream(connection);
+            try {
+                parents = ParentsNegotiation.readParents(is);
+            } finally {
+                consumeAndCloseStream(is);
+            }
+        } catch (Exception e) {
+            Throwables.propagate(e);
+        } finally {
+            consumeErrStreamAndCloseConnection(connection);
+        }
+        return Optional.of(parents);
+    }
+
+    /**
+     * Determines which of the given objects exist in the remote repository.
+     * 
+     * @param repositoryURL the URL of the repository
+     * @param objectIds the ids to check for
+     * @return whether each object exists, or {@link Optional#absent()} if the remote repository
+     *         doesn't support batched queries
+     */
+    public static Optional<Map<ObjectId, Boolean>> batchObjectExists(URL repositoryURL,
+            List<ObjectId> objectIds) {
+        HttpURLConnection connection = null;
+        Map<ObjectId, Boolean> exists = new HashMap<ObjectId, Boolean>();
+        try {
+            connection = post(repositoryURL.toString() + "/repo/batchexists");
+            DataOutputStream out = new DataOutputStream(connection.getOutputStream());
+            out.writeInt(objectIds.size());
+            for (ObjectId id : objectIds) {
+                out.write(id.getRawValue());
+            }
+            out.flush();
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                return Optional.absent();
+            }
+            InputStream is = HttpUtils.getResponseStream(connection);
+            try {
+                DataInputStream in = new DataInputStream(is);
+                for (ObjectId id : objectIds) {
+                    exists.put(id, in.readByte() != 0);
+                }
+            } finally {
+                consumeAndCloseStream(is);
+            }
+        } catch (Exception e) {
+            Throwables.propagate(e);
+        } finally {
+            consumeErrStreamAndCloseConnection(connection);
+        }
+        return Optional.of(exists);
+    }
+
+    /**
+     * Retrieves the parents and optionally the depth and the features affected by each of the
+     * given commits, and the parents of up to a number of their ancestors, in a single request.
+     * 
+     * @param repositoryURL the URL of the repository
+     * @param commits the ids of the commits to retrieve the information of
+     * @param ancestors the number of ancestors of the given commits to also retrieve the
+     *        information of, closest first
+     * @param depth whether to retrieve the depth of the given commits too, ancestors excluded
+     * @param affectedFeatures whether to retrieve the features affected by each commit too
+     * @return the information of each commit the remote repository has, or
+     *         {@link Optional#absent()} if it doesn't support batched queries
+     */
+    public static Optional<Map<ObjectId, CommitInfo>> getCommitInfo(URL repositoryURL,
+            List<ObjectId> commits, int ancestors, boolean depth, boolean affectedFeatures) {
+        HttpURLConnection connection = null;
+        Map<ObjectId, CommitInfo> info = null;
+        try {
+            connection = post(repositoryURL.toString() + "/repo/commitinfo");
+            OutputStream out = connection.getOutputStream();
+            CommitInfoBatch.writeRequest(out, commits, ancestors, depth, affectedFeatures);
+            out.flush();
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                return Optional.absent();
+            }
+            InputStream is = HttpUtils.getResponseStream(connection);
+            try {
+                info = CommitInfoBatch.readInfo(is, affectedFeatures);
+            } finally {
+                consumeAndCloseStream(is);
+            }
+        } catch (Exception e) {
+            Throwables.propagate(e);
+        } finally {
+            consumeErrStreamAndCloseConnection(connection);
+        }
+        return Optional.of(info);
+    }
+
+    /**
+     * The parents, depth and affected features of a commit of a remote repository, as retrieved in
+     * bulk by {@link HttpUtils#getCommitInfo(URL, List, int, boolean, boolean)}.
+     */
+    static class CommitInfo {
+
+        private final int depth;
+
+        private final ImmutableList<ObjectId> parents;
+
+        @Nullable
+        private final ImmutableList<ObjectId> affectedFeatures;
+
+        CommitInfo(int depth, ImmutableList<ObjectId> parents,
+                @Nullable ImmutableList<ObjectId> affectedFeatures) {
+            this.depth = depth;
+            this.parents = parents;
+            this.affectedFeatures = affectedFeatures;
+        }
+
+        /**
+         * @return the depth of the commit, or {@link Optional#absent()} if it wasn't asked for
+         */
+        public Optional<Integer> getDepth() {
+            return depth < 0 ? Optional.<Integer> absent() : Optional.of(Integer.valueOf(depth));
+        }
+
+        public ImmutableList<ObjectId> getParents() {
+            return parents;
+        }
+
+        /**
+         * @return the features modified or deleted by the commit, or {@code null} if they weren't
+         *         asked for
+         */
+        @Nullable
+        public ImmutableList<ObjectId> getAffectedFeatures() {
+            return affectedFeatures;
+        }
+    }
+
+    static ImmutableList<ObjectId> readObjectIds(DataInputStream in) throws IOException {
+        final int count = in.readInt();
+        Builder<ObjectId> ids = ImmutableList.builder();
+        for (int i = 0; i < count; i++) {
+            ids.add(readObjectId(in));
+        }
+        return ids.build();
+    }
+
+    static ObjectId readObjectId(DataInputStream in) throws IOException {
+        byte[] raw = new byte[ObjectId.NUM_BYTES];
+        in.readFully(raw);
+        return ObjectId.createNoClone(raw);
+    }
+
+    private static HttpURLConnection post(String url) throws IOException {
+        return HttpTransport.forUrl(new URL(url)).post(url, "application/octet-stream");
+    }
+
     /**
      * Retrieves the remote ref that matches the provided refspec.
      * 
@@ -452,6 +621,41 @@ class HttpUtils {
         return listBuilder.build();
     }
 
+    /**
+     * Retrieves the optional features the remote repository supports, like reading
+     * {@link BinaryPackedChanges#BATCHED_CHANGES_CAPABILITY batched changes}.
+     * 
+     * @param repositoryURL the URL of the repository
+     * @return the names of the supported features, empty if the remote predates the capabilities
+     *         query
+     */
+    public static ImmutableSet<String> getCapabilities(URL repositoryURL) {
+        HttpURLConnection connection = null;
+        ImmutableSet.Builder<String> capabilities = ImmutableSet.builder();
+        try {
+            connection = connect(repositoryURL.toString() + "/repo/capabilities");
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                return ImmutableSet.of();
+            }
+            InputStream is = HttpUtils.getResponseStream(connection);
+            try {
+                BufferedReader rd = new BufferedReader(new InputStreamReader(is));
+                String line = rd.readLine();
+                while (line != null) {
+                    capabilities.add(line.trim());
+                    line = rd.readLine();
+                }
+            } finally {
+                consumeAndCloseStream(is);
+            }
+        } catch (Exception e) {
+            Throwables.propagate(e);
+        } finally {
+            consumeErrStreamAndCloseConnection(connection);
+        }
+        return capabilities.build();
+    }
+
     /**
      * Begins a push operation to the target repository.
      * 
@@ -475,19 +679,12 @@ class HttpUtils {
     }
 
     /**
-     * Connects to the given URL using HTTP GET method
+     * Connects to the given URL using HTTP GET method, through the {@link HttpTransport} to its
+     * host. The connection must be closed with
+     * {@link #consumeErrStreamAndCloseConnection(HttpURLConnection)}.
      */
     public static HttpURLConnection connect(String url) throws IOException {
-        HttpURLConnection connection;
-        connection = (HttpURLConnection) new URL(url).openConnection();
-        connection.setRequestMethod("GET");
-        connection.setUseCaches(false);
-        // connection.addRequestProperty("Accept-Encoding", "gzip");
-        LOGGER.debug("Connecting to '{}'...", url);
-        connection.connect();
-        int responseCode = connection.getResponseCode();
-        LOGGER.debug(" connected ({}).", responseCode);
-        return connection;
+        return HttpTransport.forUrl(new URL(url)).get(url);
     }
 
     /**
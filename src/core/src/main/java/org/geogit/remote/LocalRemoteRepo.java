@@ -7,6 +7,7 @@ package org.geogit.remote;
 import java.io.File;
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.List;
 
 import org.geogit.api.Bucket;
 import org.geogit.api.Context;
@@ -21,19 +22,25 @@ import org.geogit.api.RevTag;
 import org.geogit.api.RevTree;
 import org.geogit.api.SymRef;
 import org.geogit.api.plumbing.ForEachRef;
+import org.geogit.api.plumbing.RebuildChangedPathFiltersOp;
 import org.geogit.api.plumbing.RefParse;
 import org.geogit.api.plumbing.RevObjectParse;
 import org.geogit.api.plumbing.UpdateRef;
 import org.geogit.api.plumbing.UpdateSymRef;
 import org.geogit.api.porcelain.SynchronizationException;
+import org.geogit.repository.PostOrderIterator;
 import org.geogit.repository.Repository;
+import org.geogit.storage.Deduplicator;
+import org.geogit.storage.ObjectDatabase;
 import org.geogit.storage.ObjectInserter;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterators;
 
 /**
  * An implementation of a remote repository that exists on the local machine.
@@ -42,6 +49,12 @@ import com.google.common.collect.ImmutableSet;
  */
 class LocalRemoteRepo extends AbstractRemoteRepo {
 
+    /**
+     * Number of objects written to the local object database at once when copying the whole
+     * history in bulk, bounding the memory held by each insert
+     */
+    private static final int BULK_COPY_BATCH_SIZE = 10 * 1000;
+
     private GeoGIT remoteGeoGit;
 
     private Context injector;
@@ -148,6 +161,10 @@ class LocalRemoteRepo extends AbstractRemoteRepo {
 
         try {
             traverser.traverse(ref.getObjectId());
+            if (copiesInBulk(traverser, fetchLimit)) {
+                copyInBulk(ref.getObjectId());
+                return;
+            }
             while (!traverser.commits.isEmpty()) {
                 walkHead(traverser.commits.pop(), true);
             }
@@ -157,6 +174,44 @@ class LocalRemoteRepo extends AbstractRemoteRepo {
         }
     }
 
+    /**
+     * Whether the fetch can copy the whole history in bulk, that is when the local repository
+     * shares no commits with the fetched history, as when cloning, and both repositories have their
+     * full history.
+     */
+    private boolean copiesInBulk(CommitTraverser traverser, Optional<Integer> fetchLimit) {
+        return !traverser.commits.isEmpty() && traverser.have.isEmpty() && !fetchLimit.isPresent()
+                && !localRepository.getDepth().isPresent() && !getDepth().isPresent();
+    }
+
+    /**
+     * Copies every object reachable from {@code top} into the local object database through
+     * {@link ObjectDatabase#putAll(Iterator) bulk inserts} of {@link #BULK_COPY_BATCH_SIZE}
+     * objects, which also record the commits in the local graph database.
+     * <p>
+     * The objects are streamed in post order, each commit after its parents and contents, so an
+     * interrupted copy leaves no commit without its contents. Nothing is checked for existence in
+     * the local repository, as it shares no history with the remote one. The changed path filters
+     * of the copied commits are not built, that's left to {@link RebuildChangedPathFiltersOp}.
+     */
+    private void copyInBulk(ObjectId top) {
+        final ObjectDatabase from = remoteGeoGit.getRepository().objectDatabase();
+        final ObjectDatabase to = localRepository.objectDatabase();
+        final Deduplicator deduplicator = localRepository.deduplicationService()
+                .createDeduplicator();
+        try {
+            Iterator<RevObject> objects = PostOrderIterator.range(ImmutableList.of(top),
+                    ImmutableList.<ObjectId> of(), from, true, deduplicator);
+            Iterator<List<RevObject>> batches = Iterators.partition(objects,
+                    BULK_COPY_BATCH_SIZE);
+            while (batches.hasNext()) {
+                to.putAll(batches.next().iterator());
+            }
+        } finally {
+            deduplicator.release();
+        }
+    }
+
     /**
      * Push all new objects from the specified {@link Ref} to the given refspec.
      * 
@@ -0,0 +1,454 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.remote;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.porcelain.ConfigException;
+import org.geogit.repository.Repository;
+import org.geogit.storage.ConfigDatabase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+/**
+ * An on-disk cache of the {@link BinaryPackedObjects} streams sent for batched object requests,
+ * so that the many clients fetching the same new commits get the pack computed for the first of
+ * them instead of the repository being traversed and the objects serialized again for each one.
+ * <p>
+ * A pack is cached for its stream version and its {@code want} and {@code have} sets, which
+ * determine its contents as history is immutable, and only served to requests for the very same
+ * sets: a pack made for more wants or fewer haves would send clients objects they didn't ask
+ * for, up to the whole history for a clone. When the cache outgrows its size limit the least
+ * recently served packs are evicted.
+ * <p>
+ * The cache lives in the {@code packcache} directory of the repository, each pack in a
+ * {@code <key>.pack} file next to a {@code <key>.refs} file listing the sets it was made for. Its
+ * size limit is read from the {@code web.packCacheSize} config key, in megabytes, and zero
+ * disables it.
+ */
+public final class PackCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PackCache.class);
+
+    static final String CACHE_SIZE_KEY = "web.packCacheSize";
+
+    static final int DEFAULT_CACHE_SIZE_MB = 512;
+
+    private static final String DIRECTORY_NAME = "packcache";
+
+    private static final String PACK_SUFFIX = ".pack";
+
+    private static final String REFS_SUFFIX = ".refs";
+
+    /**
+     * Caches by repository directory
+     */
+    private static final ConcurrentMap<File, PackCache> CACHES = Maps.newConcurrentMap();
+
+    private final File directory;
+
+    private final long maxSize;
+
+    /**
+     * The cached packs, least recently served first
+     */
+    private final LinkedHashMap<String, Entry> entries;
+
+    private long size;
+
+    private PackCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    }
+
+    /**
+     * @return the pack cache of the given repository, absent if it's disabled or the repository
+     *         is not in the filesystem
+     */
+    public static Optional<PackCache> forRepository(Repository repository) {
+        final URL location = repository.getLocation();
+        if (location == null || !"file".equals(location.getProtocol())) {
+            return Optional.absent();
+        }
+        final File repositoryDirectory;
+        try {
+            repositoryDirectory = new File(location.toURI());
+        } catch (URISyntaxException e) {
+            throw Throwables.propagate(e);
+        }
+        PackCache cache = CACHES.get(repositoryDirectory);
+        if (cache == null) {
+            final long maxSize = configuredSize(repository.configDatabase()) * 1024L * 1024L;
+            if (maxSize <= 0) {
+                return Optional.absent();
+            }
+            File directory = new File(repositoryDirectory, DIRECTORY_NAME);
+            if (!directory.exists() && !directory.mkdirs()) {
+                LOGGER.warn("Unable to create pack cache directory {}", directory);
+                return Optional.absent();
+            }
+            cache = new PackCache(directory, maxSize);
+            PackCache existing = CACHES.putIfAbsent(repositoryDirectory, cache);
+            if (existing == null) {
+                cache.load();
+            } else {
+                cache = existing;
+            }
+        }
+        return Optional.of(cache);
+    }
+
+    /**
+     * @return a cache in the given directory, indexing the packs already there, that isn't shared
+     *         with the one {@link #forRepository(Repository)} returns
+     */
+    @VisibleForTesting
+    static PackCache open(File directory, long maxSize) {
+        PackCache cache = new PackCache(directory, maxSize);
+        cache.load();
+        return cache;
+    }
+
+    private static int configuredSize(ConfigDatabase config) {
+        Optional<Integer> configured;
+        try {
+            configured = config.get(CACHE_SIZE_KEY, Integer.class);
+            if (!configured.isPresent()) {
+                configured = config.getGlobal(CACHE_SIZE_KEY, Integer.class);
+            }
+        } catch (ConfigException e) {
+            configured = Optional.absent();
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("Invalid value for {}, using {}", CACHE_SIZE_KEY, DEFAULT_CACHE_SIZE_MB);
+            configured = Optional.absent();
+        }
+        return configured.or(DEFAULT_CACHE_SIZE_MB).intValue();
+    }
+
+    /**
+     * Indexes the packs cached before a restart, discarding the ones that can't be read
+     */
+    private synchronized void load() {
+        File[] packs = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(PACK_SUFFIX);
+            }
+        });
+        if (packs == null) {
+            return;
+        }
+        Arrays.sort(packs, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                return Long.compare(f1.lastModified(), f2.lastModified());
+            }
+        });
+        for (File pack : packs) {
+            String name = pack.getName();
+            String key = name.substring(0, name.length() - PACK_SUFFIX.length());
+            File refs = new File(directory, key + REFS_SUFFIX);
+            try {
+                Entry entry = Entry.read(key, pack, refs);
+                entries.put(key, entry);
+                size += entry.size;
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("Discarding unreadable cached pack {}", pack, e);
+                delete(pack, refs);
+            }
+        }
+        evict();
+    }
+
+    /**
+     * @return an open channel to the cached pack of the given version for the given sets, to be
+     *         closed by the caller
+     */
+    public synchronized Optional<FileChannel> find(int version, Collection<ObjectId> want,
+            Collection<ObjectId> have) {
+        // marks it as recently served
+        Entry entry = entries.get(key(version, want, have));
+        if (entry == null) {
+            return Optional.absent();
+        }
+        try {
+            FileChannel channel = new FileInputStream(entry.pack).getChannel();
+            entry.pack.setLastModified(System.currentTimeMillis());
+            return Optional.of(channel);
+        } catch (FileNotFoundException e) {
+            LOGGER.warn("Cached pack {} is gone", entry.pack);
+            remove(entry);
+            return Optional.absent();
+        }
+    }
+
+    /**
+     * Sends the whole contents of a cached pack to {@code out} and closes the channel.
+     */
+    public static void transfer(FileChannel pack, OutputStream out) throws IOException {
+        try {
+            WritableByteChannel target = Channels.newChannel(out);
+            final long length = pack.size();
+            long position = 0;
+            while (position < length) {
+                position += pack.transferTo(position, length - position, target);
+            }
+            out.flush();
+        } finally {
+            pack.close();
+        }
+    }
+
+    /**
+     * @return a stream that writes to {@code out} and keeps a copy of what's written, which is
+     *         cached as the pack of the given version for the given sets once
+     *         {@link CachingOutputStream#commit() committed}
+     */
+    public CachingOutputStream store(int version, Collection<ObjectId> want,
+            Collection<ObjectId> have, OutputStream out) throws IOException {
+        Entry entry = new Entry(key(version, want, have), version, want, have);
+        File tmp = File.createTempFile(entry.key, ".tmp", directory);
+        return new CachingOutputStream(out, tmp, entry);
+    }
+
+    private synchronized void add(Entry entry, File tmp) throws IOException {
+        File refs = entry.refs(directory);
+        File pack = entry.pack(directory);
+        Files.write(entry.describe(), refs, Charsets.UTF_8);
+        java.nio.file.Files.move(tmp.toPath(), pack.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        entry.pack = pack;
+        Entry previous = entries.put(entry.key, entry);
+        if (previous != null) {
+            size -= previous.size;
+        }
+        size += entry.size;
+        evict();
+    }
+
+    private void evict() {
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (size > maxSize && eldest.hasNext()) {
+            Entry entry = eldest.next();
+            eldest.remove();
+            size -= entry.size;
+            // requests being served keep reading it where the filesystem allows it
+            delete(entry.pack, entry.refs(directory));
+        }
+    }
+
+    private void remove(Entry entry) {
+        if (entries.remove(entry.key) != null) {
+            size -= entry.size;
+        }
+        delete(entry.pack, entry.refs(directory));
+    }
+
+    private static void delete(File... files) {
+        for (File file : files) {
+            if (file.exists() && !file.delete()) {
+                LOGGER.warn("Unable to delete {}", file);
+            }
+        }
+    }
+
+    private static String key(int version, Collection<ObjectId> want, Collection<ObjectId> have) {
+        Hasher hasher = Hashing.sha1().newHasher();
+        hasher.putInt(version);
+        hasher.putInt(want.size());
+        for (ObjectId id : ImmutableSortedSet.copyOf(want)) {
+            hasher.putBytes(id.getRawValue());
+        }
+        for (ObjectId id : ImmutableSortedSet.copyOf(have)) {
+            hasher.putBytes(id.getRawValue());
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * A cached pack and the sets it was made for
+     */
+    private static class Entry {
+
+        private final String key;
+
+        private final int version;
+
+        private final ImmutableSet<ObjectId> want;
+
+        private final ImmutableSet<ObjectId> have;
+
+        private File pack;
+
+        private long size;
+
+        Entry(String key, int version, Collection<ObjectId> want, Collection<ObjectId> have) {
+            this.key = key;
+            this.version = version;
+            this.want = ImmutableSet.copyOf(want);
+            this.have = ImmutableSet.copyOf(have);
+        }
+
+        File pack(File directory) {
+            return new File(directory, key + PACK_SUFFIX);
+        }
+
+        File refs(File directory) {
+            return new File(directory, key + REFS_SUFFIX);
+        }
+
+        String describe() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("version ").append(version).append('\n');
+            for (ObjectId id : want) {
+                sb.append("want ").append(id).append('\n');
+            }
+            for (ObjectId id : have) {
+                sb.append("have ").append(id).append('\n');
+            }
+            return sb.toString();
+        }
+
+        static Entry read(String key, File pack, File refs) throws IOException {
+            List<String> lines = Files.readLines(refs, Charsets.UTF_8);
+            Integer version = null;
+            ImmutableSet.Builder<ObjectId> want = ImmutableSet.builder();
+            ImmutableSet.Builder<ObjectId> have = ImmutableSet.builder();
+            for (String line : lines) {
+                String[] tokens = line.split(" ");
+                if ("version".equals(tokens[0])) {
+                    version = Integer.valueOf(tokens[1]);
+                } else if ("want".equals(tokens[0])) {
+                    want.add(ObjectId.valueOf(tokens[1]));
+                } else if ("have".equals(tokens[0])) {
+                    have.add(ObjectId.valueOf(tokens[1]));
+                }
+            }
+            if (version == null) {
+                throw new IOException("No pack version in " + refs);
+            }
+            Entry entry = new Entry(key, version.intValue(), want.build(), have.build());
+            entry.pack = pack;
+            entry.size = pack.length();
+            return entry;
+        }
+    }
+
+    /**
+     * Writes a pack to the requesting client while keeping a copy of it, which is dropped if the
+     * pack is not {@link #commit() committed} or outgrows the cache.
+     */
+    public final class CachingOutputStream extends FilterOutputStream {
+
+        private final File tmp;
+
+        private final Entry entry;
+
+        private OutputStream copy;
+
+        private CachingOutputStream(OutputStream out, File tmp, Entry entry)
+                throws FileNotFoundException {
+            super(out);
+            this.tmp = tmp;
+            this.entry = entry;
+            this.copy = new FileOutputStream(tmp);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            if (copy != null) {
+                copy.write(b);
+                copied(1);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (copy != null) {
+                copy.write(b, off, len);
+                copied(len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        private void copied(int length) {
+            entry.size += length;
+            if (entry.size > maxSize) {
+                LOGGER.debug("Pack {} is too big to be cached", entry.key);
+                discard();
+            }
+        }
+
+        /**
+         * Caches the pack written so far as the complete pack for its sets
+         */
+        public void commit() throws IOException {
+            if (copy == null) {
+                return;
+            }
+            copy.close();
+            copy = null;
+            try {
+                add(entry, tmp);
+            } finally {
+                delete(tmp);
+            }
+        }
+
+        /**
+         * Drops the copy of the pack, without closing the client's stream
+         */
+        public void discard() {
+            if (copy != null) {
+                try {
+                    copy.close();
+                } catch (IOException e) {
+                    LOGGER.debug("Error closing pack copy {}", tmp, e);
+                }
+                copy = null;
+            }
+            delete(tmp);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.remote;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.geogit.api.ObjectId;
+import org.geogit.storage.GraphDatabase;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * The wire format of the {@code /repo/negotiate} request, which walks the history of the remote
+ * repository from a commit until reaching the commits the local repository has according to a
+ * {@link CommitSketch}, and answers the parents of every commit walked.
+ * <p>
+ * The request is the raw id of the commit to start from followed by the sketch. The response is a
+ * sequence of a {@code 1} byte, the raw commit id, the number of parents (int) and their raw ids,
+ * ended by a {@code 0} byte. The starting commit is always walked, as the client asks about it
+ * because it doesn't have it, even if the sketch says otherwise.
+ */
+public final class ParentsNegotiation {
+
+    /**
+     * Maximum size of a request, larger ones are rejected without being read
+     */
+    public static final int MAX_REQUEST_SIZE = ObjectId.NUM_BYTES
+            + CommitSketch.MAX_SERIALIZED_SIZE;
+
+    /**
+     * Maximum number of commits answered, the client asks again from where it stopped if needed
+     */
+    private static final int MAX_COMMITS = 100 * 1000;
+
+    private final ObjectId start;
+
+    private final CommitSketch sketch;
+
+    private ParentsNegotiation(ObjectId start, CommitSketch sketch) {
+        this.start = start;
+        this.sketch = sketch;
+    }
+
+    /**
+     * Writes the request to walk the history from the given commit.
+     */
+    static void writeRequest(OutputStream out, ObjectId start, CommitSketch sketch)
+            throws IOException {
+        out.write(start.getRawValue());
+        sketch.writeTo(out);
+    }
+
+    /**
+     * Reads a request, failing without allocating more than {@link #MAX_REQUEST_SIZE} bytes if it
+     * is malformed or too large.
+     */
+    public static ParentsNegotiation readRequest(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        final ObjectId start = HttpUtils.readObjectId(data);
+        final CommitSketch sketch = CommitSketch.readFrom(data);
+        return new ParentsNegotiation(start, sketch);
+    }
+
+    /**
+     * Walks the history of the given graph as requested and writes the parents of the commits
+     * walked.
+     */
+    public void writeParents(GraphDatabase graph, OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        Set<ObjectId> seen = new HashSet<ObjectId>();
+        Deque<ObjectId> queue = new ArrayDeque<ObjectId>();
+        queue.add(start);
+        seen.add(start);
+        int count = 0;
+        while (!queue.isEmpty() && count < MAX_COMMITS) {
+            ObjectId commit = queue.removeFirst();
+            if (!graph.exists(commit)) {
+                continue;
+            }
+            if (!commit.equals(start) && sketch.mightContain(commit)) {
+                // the client has it, or will ask again from it if it turns out it doesn't
+                continue;
+            }
+            ImmutableList<ObjectId> parents = graph.getParents(commit);
+            data.writeByte(1);
+            data.write(commit.getRawValue());
+            data.writeInt(parents.size());
+            for (ObjectId parent : parents) {
+                data.write(parent.getRawValue());
+                if (seen.add(parent)) {
+                    queue.add(parent);
+                }
+            }
+            count++;
+        }
+        data.writeByte(0);
+        data.flush();
+    }
+
+    /**
+     * Reads the parents of the commits walked from the response.
+     */
+    static Map<ObjectId, ImmutableList<ObjectId>> readParents(InputStream in)
+            throws IOException {
+        Map<ObjectId, ImmutableList<ObjectId>> parents;
+        parents = new HashMap<ObjectId, ImmutableList<ObjectId>>();
+        DataInputStream data = new DataInputStream(in);
+        while (data.readByte() != 0) {
+            ObjectId id = HttpUtils.readObjectId(data);
+            parents.put(id, HttpUtils.readObjectIds(data));
+        }
+        return parents;
+    }
+}
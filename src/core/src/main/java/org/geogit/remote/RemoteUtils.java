@@ -65,6 +65,8 @@ public class RemoteUtils {
                 } else {
                     Authenticator.setDefault(null);
                 }
+                HttpTransport.configure(fetchURI.toURL(), localRepository.configDatabase(),
+                        remoteConfig.getName());
                 if (remoteConfig.getMapped()) {
                     remoteRepo = new HttpMappedRemoteRepo(fetchURI.toURL(), localRepository);
                 } else {
@@ -0,0 +1,371 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.repository;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.geogit.api.Context;
+import org.geogit.api.Platform;
+import org.geogit.api.porcelain.ConfigException;
+import org.geogit.di.Singleton;
+import org.geogit.storage.ConfigDatabase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+
+/**
+ * Repository wide work scheduler, so that the components that parallelize their work draw their
+ * threads from a couple of shared, bounded pools instead of each creating (and tearing down) its
+ * own.
+ * <p>
+ * Work is split in two {@link Lane lanes}: {@link Lane#CPU} for computation bound tasks (e.g.
+ * building and sorting trees) and {@link Lane#IO} for tasks that spend most of their time waiting
+ * on a data source or the storage backend. Each lane's thread count is read from the
+ * {@link ConfigDatabase} the first time the lane is used, through the {@code execution.cputhreads}
+ * and {@code execution.iothreads} keys, looked up first in the repository and then in the global
+ * config. Idle threads time out, so a repository that's not being used holds no threads.
+ * <p>
+ * Fork/join computations, like parallel diffs, share a {@link #getForkJoinPool() pool} as large as
+ * the CPU lane.
+ * <p>
+ * The {@link ExecutorService executors} handed out by {@link #getExecutor(Lane)} are shared and
+ * can't be shut down by their users; they're disposed of when the repository is closed through
+ * {@link #shutdown()}, and lazily recreated if the repository is reopened. Lanes process tasks in
+ * submission order, hence a task may wait for the result of a task submitted earlier to the same
+ * lane, but never for a task submitted after it.
+ *
+ * @see Context#executionService()
+ */
+@Singleton
+public class ExecutionService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExecutionService.class);
+
+    /**
+     * Kind of work a task performs, determining the pool it's executed in
+     */
+    public static enum Lane {
+        CPU("execution.cputhreads"), IO("execution.iothreads");
+
+        private final String configKey;
+
+        private Lane(String configKey) {
+            this.configKey = configKey;
+        }
+
+        /**
+         * @return the config key that sets the number of threads of the lane
+         */
+        public String configKey() {
+            return configKey;
+        }
+    }
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final ConfigDatabase configDatabase;
+
+    private final Platform platform;
+
+    private final Map<Lane, ThreadPoolExecutor> pools;
+
+    private final Map<Lane, ExecutorService> executors;
+
+    private SharedForkJoinPool forkJoinPool;
+
+    @Inject
+    public ExecutionService(ConfigDatabase configDatabase, Platform platform) {
+        this.configDatabase = configDatabase;
+        this.platform = platform;
+        this.pools = new EnumMap<Lane, ThreadPoolExecutor>(Lane.class);
+        this.executors = new EnumMap<Lane, ExecutorService>(Lane.class);
+        for (Lane lane : Lane.values()) {
+            executors.put(lane, new LaneExecutor(lane));
+        }
+    }
+
+    /**
+     * @return the shared executor for the given lane
+     */
+    public ExecutorService getExecutor(Lane lane) {
+        checkNotNull(lane);
+        return executors.get(lane);
+    }
+
+    /**
+     * @return the shared pool for fork/join computations, with as many threads as the
+     *         {@link Lane#CPU CPU lane}; it's shut down when the repository is closed and, like
+     *         the lane executors, throws {@link UnsupportedOperationException} if its users try
+     *         to shut it down
+     */
+    public synchronized ForkJoinPool getForkJoinPool() {
+        if (forkJoinPool == null) {
+            forkJoinPool = new SharedForkJoinPool(configuredThreads(Lane.CPU));
+        }
+        return forkJoinPool;
+    }
+
+    /**
+     * @return the number of threads the given lane runs its tasks in
+     */
+    public int getParallelism(Lane lane) {
+        return pool(lane).getMaximumPoolSize();
+    }
+
+    /**
+     * @return a snapshot of the utilization of the given lane, as periodically logged by the
+     *         metrics module while the repository is open
+     */
+    public synchronized LaneStats getStats(Lane lane) {
+        ThreadPoolExecutor pool = pools.get(lane);
+        if (pool == null) {
+            return new LaneStats(lane, 0, 0, 0, 0, 0);
+        }
+        return new LaneStats(lane, pool.getMaximumPoolSize(), pool.getPoolSize(),
+                pool.getActiveCount(), pool.getQueue().size(), pool.getCompletedTaskCount());
+    }
+
+    /**
+     * Waits for the task to finish, running it in the calling thread if it hasn't started yet, so
+     * that waiting never depends on the availability of a thread in a lane.
+     * <p>
+     * Tasks that are waited for from within another task are better submitted as
+     * {@link FutureTask}s and waited for through this method.
+     *
+     * @return the task result
+     */
+    public static <T> T await(FutureTask<T> task) {
+        task.run();
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            throw Throwables.propagate(e);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(Throwables.getRootCause(e));
+        }
+    }
+
+    /**
+     * Shuts down the lane pools and the fork/join pool, cancelling any running or pending task.
+     * The {@link #getStats(Lane) utilization} of each lane that was used is logged at debug level.
+     */
+    public synchronized void shutdown() {
+        for (Lane lane : pools.keySet()) {
+            LOGGER.debug("Shutting down {}", getStats(lane));
+        }
+        for (ThreadPoolExecutor pool : pools.values()) {
+            pool.shutdownNow();
+        }
+        pools.clear();
+        if (forkJoinPool != null) {
+            forkJoinPool.dispose();
+            forkJoinPool = null;
+        }
+    }
+
+    private synchronized ThreadPoolExecutor pool(Lane lane) {
+        ThreadPoolExecutor pool = pools.get(lane);
+        if (pool == null) {
+            final int nThreads = configuredThreads(lane);
+            pool = new ThreadPoolExecutor(nThreads, nThreads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactoryBuilder()
+                            .setDaemon(true)
+                            .setNameFormat("GeoGit-" + lane.name().toLowerCase() + "-%d").build());
+            pool.allowCoreThreadTimeOut(true);
+            pools.put(lane, pool);
+        }
+        return pool;
+    }
+
+    private int configuredThreads(Lane lane) {
+        final int cores = platform.availableProcessors();
+        final int defaultThreads = lane == Lane.CPU ? cores : Math.max(4, 2 * cores);
+        Optional<Integer> configured;
+        try {
+            configured = configDatabase.get(lane.configKey(), Integer.class);
+            if (!configured.isPresent()) {
+                configured = configDatabase.getGlobal(lane.configKey(), Integer.class);
+            }
+        } catch (ConfigException e) {
+            // no repository or global config to read from
+            configured = Optional.absent();
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("Invalid value for {}, using {} threads", lane.configKey(), defaultThreads);
+            configured = Optional.absent();
+        }
+        if (configured.isPresent() && configured.get().intValue() < 1) {
+            LOGGER.warn("Invalid value for {}, using {} threads", lane.configKey(), defaultThreads);
+            configured = Optional.absent();
+        }
+        return configured.or(defaultThreads).intValue();
+    }
+
+    /**
+     * Utilization of a lane at a given point in time.
+     */
+    public static class LaneStats {
+
+        private final Lane lane;
+
+        private final int parallelism;
+
+        private final int threads;
+
+        private final int activeTasks;
+
+        private final int queuedTasks;
+
+        private final long completedTasks;
+
+        LaneStats(Lane lane, int parallelism, int threads, int activeTasks, int queuedTasks,
+                long completedTasks) {
+            this.lane = lane;
+            this.parallelism = parallelism;
+            this.threads = threads;
+            this.activeTasks = activeTasks;
+            this.queuedTasks = queuedTasks;
+            this.completedTasks = completedTasks;
+        }
+
+        public Lane getLane() {
+            return lane;
+        }
+
+        /**
+         * @return the maximum number of threads of the lane
+         */
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        /**
+         * @return the number of threads currently alive
+         */
+        public int getThreads() {
+            return threads;
+        }
+
+        /**
+         * @return the approximate number of tasks being executed
+         */
+        public int getActiveTasks() {
+            return activeTasks;
+        }
+
+        /**
+         * @return the number of tasks waiting for a thread
+         */
+        public int getQueuedTasks() {
+            return queuedTasks;
+        }
+
+        /**
+         * @return the approximate number of tasks executed since the lane was started
+         */
+        public long getCompletedTasks() {
+            return completedTasks;
+        }
+
+        @Override
+        public String toString() {
+            return Objects.toStringHelper(this).add("lane", lane).add("parallelism", parallelism)
+                    .add("threads", threads).add("active", activeTasks).add("queued", queuedTasks)
+                    .add("completed", completedTasks).toString();
+        }
+    }
+
+    /**
+     * Shared fork/join pool that can only be shut down through {@link ExecutionService#shutdown()}
+     */
+    private static class SharedForkJoinPool extends ForkJoinPool {
+
+        SharedForkJoinPool(int parallelism) {
+            super(parallelism);
+        }
+
+        @Override
+        public void shutdown() {
+            throw new UnsupportedOperationException(
+                    "shared pool, it's shut down when the repository is closed");
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            throw new UnsupportedOperationException(
+                    "shared pool, it's shut down when the repository is closed");
+        }
+
+        void dispose() {
+            super.shutdownNow();
+        }
+    }
+
+    /**
+     * Shared executor that hands its tasks to the lane's current pool and can't be shut down by its
+     * users.
+     */
+    private class LaneExecutor extends AbstractExecutorService {
+
+        private final Lane lane;
+
+        LaneExecutor(Lane lane) {
+            this.lane = lane;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            pool(lane).execute(command);
+        }
+
+        @Override
+        public void shutdown() {
+            throw new UnsupportedOperationException(
+                    "shared executor, it's shut down when the repository is closed");
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            throw new UnsupportedOperationException(
+                    "shared executor, it's shut down when the repository is closed");
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return "ExecutionService[" + lane + "]";
+        }
+    }
+}
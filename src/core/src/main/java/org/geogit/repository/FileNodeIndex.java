@@ -4,14 +4,16 @@
  */
 package org.geogit.repository;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
+import static org.geogit.repository.ExecutionService.await;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.DataInputStream;
-import java.io.DataOutput;
 import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
@@ -21,99 +23,187 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
-import java.util.SortedMap;
-import java.util.TreeMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import org.geogit.api.Node;
 import org.geogit.api.Platform;
-import org.geogit.api.plumbing.ResolveGeogitDir;
 import org.geogit.storage.NodePathStorageOrder;
 import org.geogit.storage.NodeStorageOrder;
 import org.geogit.storage.datastream.FormatCommonV2;
 
-import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.collect.AbstractIterator;
-import com.google.common.collect.Iterators;
-import com.google.common.collect.Lists;
-import com.google.common.collect.UnmodifiableIterator;
 import com.google.common.io.Closeables;
 import com.ning.compress.lzf.LZFInputStream;
 import com.ning.compress.lzf.LZFOutputStream;
 
+/**
+ * A {@link NodeIndex} implemented as an external sort.
+ * <p>
+ * Nodes are serialized as they're added into a partition's byte buffer, alongside the 64-bit
+ * {@link NodePathStorageOrder FNV-1a} hash of their names, which is used as a precomputed sort key.
+ * Once a partition reaches its memory budget it's sorted and spilled to a compressed run file
+ * asynchronously, so partitions are sorted in parallel while more nodes are being added. At
+ * {@link #nodes()} time the runs are merged with a k-way heap merge that compares only the
+ * precomputed keys and deserializes each node once; if there are more than {@link #MAX_MERGE_RUNS}
+ * runs, groups of them are first merged in parallel into larger runs.
+ * <p>
+ * Nodes with the same sort key are returned in the order they were added, hence when a node name
+ * is added more than once the last one added is the last one returned.
+ */
 class FileNodeIndex implements Closeable, NodeIndex {
 
-    private static final int PARTITION_SIZE = 1000 * 1000;
+    /**
+     * Default memory budget of a partition, in bytes
+     */
+    static final int DEFAULT_PARTITION_BYTES = 32 * 1024 * 1024;
+
+    /**
+     * Maximum number of runs merged at once
+     */
+    static final int MAX_MERGE_RUNS = 32;
+
+    /**
+     * Maximum number of partitions waiting to be spilled, before {@link #add(Node)} waits for them
+     */
+    private static final int MAX_PENDING_FLUSHES = 4;
+
+    private static final NodePathStorageOrder NAME_ORDER = new NodePathStorageOrder();
+
+    /**
+     * Computes the sort key of a node, flipping the sign bit of its unsigned name hash so that the
+     * keys can be compared as signed longs.
+     */
+    static long sortKey(Node node) {
+        return NAME_ORDER.hashCodeBits(node.getName()) ^ Long.MIN_VALUE;
+    }
+
+    /**
+     * Per record memory overhead of a partition: its key and offset, plus the sort permutation
+     */
+    private static final int RECORD_OVERHEAD = 8 + 4 + 4;
 
     private static final class IndexPartition {
 
-        // use a TreeMap instead of a TreeSet to account for the rare case of a hash collision
-        private SortedMap<String, Node> cache = new TreeMap<>(new NodePathStorageOrder());
+        private final FastByteArrayOutputStream data = new FastByteArrayOutputStream();
 
-        private File tmpFolder;
+        private final DataOutputStream dataOut = new DataOutputStream(data);
 
-        public IndexPartition(final File tmpFolder) {
-            this.tmpFolder = tmpFolder;
-        }
+        private long[] keys = new long[1024];
+
+        private int[] offsets = new int[1024];
+
+        private int size;
 
         public void add(Node node) {
-            cache.put(node.getName(), node);
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, 2 * size);
+                offsets = Arrays.copyOf(offsets, 2 * size);
+            }
+            keys[size] = sortKey(node);
+            offsets[size] = data.size();
+            try {
+                FormatCommonV2.writeNode(node, dataOut);
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+            size++;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public long sizeBytes() {
+            return data.size() + (long) RECORD_OVERHEAD * size;
+        }
+
+        private int length(int record) {
+            int end = record == size - 1 ? data.size() : offsets[record + 1];
+            return end - offsets[record];
         }
 
-        public Iterable<Node> getSortedNodes() {
-            return cache.values();
+        /**
+         * @return the record indexes sorted by key, records with the same key retaining their
+         *         insertion order
+         */
+        public int[] sort() {
+            int[] order = new int[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            int[] tmp = new int[size];
+            // bottom-up merge sort, stable as required
+            for (int width = 1; width < size; width *= 2) {
+                for (int lo = 0; lo < size; lo += 2 * width) {
+                    int mid = Math.min(lo + width, size);
+                    int hi = Math.min(lo + 2 * width, size);
+                    int i = lo, j = mid, k = lo;
+                    while (i < mid && j < hi) {
+                        tmp[k++] = keys[order[j]] < keys[order[i]] ? order[j++] : order[i++];
+                    }
+                    while (i < mid) {
+                        tmp[k++] = order[i++];
+                    }
+                    while (j < hi) {
+                        tmp[k++] = order[j++];
+                    }
+                }
+                int[] swap = order;
+                order = tmp;
+                tmp = swap;
+            }
+            return order;
         }
 
-        public File flush() {
-            Iterable<Node> cache = getSortedNodes();
+        public File flush(final File tmpFolder) {
+            final int[] order = sort();
             final File file;
             try {
                 file = File.createTempFile("geogitNodes", ".idx", tmpFolder);
                 file.deleteOnExit();
-                // System.err.println("Created index file " + file.getAbsolutePath());
-                FastByteArrayOutputStream buf = new FastByteArrayOutputStream();
-
-                OutputStream fileOut = new BufferedOutputStream(new FileOutputStream(file),
-                        1024 * 1024);
-                fileOut = new LZFOutputStream(fileOut);
+                DataOutputStream out = newRunOutput(file);
                 try {
-                    for (Node node : cache) {
-                        buf.reset();
-                        DataOutput out = new DataOutputStream(buf);
-                        try {
-                            FormatCommonV2.writeNode(node, out);
-                        } catch (IOException e) {
-                            throw Throwables.propagate(e);
-                        }
-                        int size = buf.size();
-                        fileOut.write(buf.bytes(), 0, size);
+                    final byte[] bytes = data.bytes();
+                    for (int record : order) {
+                        writeRecord(out, keys[record], bytes, offsets[record], length(record));
                     }
                 } finally {
-                    this.cache.clear();
-                    this.cache = null;
-                    fileOut.close();
+                    out.close();
                 }
             } catch (Exception e) {
-                e.printStackTrace();
                 throw Throwables.propagate(e);
             }
             return file;
         }
+
+        public Run asRun(int index) {
+            return new MemoryRun(index, this, sort());
+        }
     }
 
     private static final Random random = new Random();
 
+    private final long partitionBytes;
+
     private IndexPartition currPartition;
 
-    private List<Future<File>> indexFiles = new LinkedList<Future<File>>();
+    /**
+     * Set by {@link #nodes()}, which consumes the runs
+     */
+    private boolean nodesCalled;
+
+    private List<FutureTask<File>> indexFiles = new LinkedList<FutureTask<File>>();
+
+    private List<File> mergedFiles = new LinkedList<File>();
 
     private List<CompositeNodeIterator> openIterators = new LinkedList<CompositeNodeIterator>();
 
@@ -121,148 +211,419 @@ class FileNodeIndex implements Closeable, NodeIndex {
 
     private File tmpFolder;
 
+    /**
+     * Set on {@link #close()}, so that the partitions waiting to be spilled are discarded instead
+     */
+    private volatile boolean closed;
+
     public FileNodeIndex(Platform platform, ExecutorService executorService) {
+        this(platform, executorService, DEFAULT_PARTITION_BYTES);
+    }
+
+    FileNodeIndex(Platform platform, ExecutorService executorService, long partitionBytes) {
+        checkArgument(partitionBytes > 0, "partitionBytes must be > 0");
         File tmpFolder = new File(platform.getTempDir(), "nodeindex" + Math.abs(random.nextInt()));
         checkState(tmpFolder.mkdirs());
         this.tmpFolder = tmpFolder;
         this.executorService = executorService;
-        this.currPartition = new IndexPartition(this.tmpFolder);
+        this.partitionBytes = partitionBytes;
+        this.currPartition = new IndexPartition();
     }
 
     @Override
-    public void close() {
+    public synchronized void close() {
+        closed = true;
         try {
             for (CompositeNodeIterator it : openIterators) {
                 it.close();
             }
-            for (Future<File> ff : indexFiles) {
+            for (FutureTask<File> ff : indexFiles) {
                 try {
-                    File file = ff.get();
-                    file.delete();
+                    File file = await(ff);
+                    if (file != null) {
+                        file.delete();
+                    }
                 } catch (Exception e) {
                     e.printStackTrace();
                 }
             }
+            for (File file : mergedFiles) {
+                file.delete();
+            }
         } finally {
             tmpFolder.delete();
             openIterators.clear();
             indexFiles.clear();
+            mergedFiles.clear();
         }
     }
 
     @Override
     public synchronized void add(Node node) {
         currPartition.add(node);
-        if (currPartition.cache.size() == PARTITION_SIZE) {
+        if (currPartition.sizeBytes() >= partitionBytes) {
             flush(currPartition);
-            currPartition = new IndexPartition(this.tmpFolder);
+            currPartition = new IndexPartition();
         }
     }
 
     private void flush(final IndexPartition ip) {
-        indexFiles.add(executorService.submit(new Callable<File>() {
-
+        FutureTask<File> task = new FutureTask<File>(new Callable<File>() {
             @Override
             public File call() throws Exception {
-                return ip.flush();
+                if (closed) {
+                    // the index was closed before the partition was spilled, e.g. on failure
+                    return null;
+                }
+                return ip.flush(tmpFolder);
             }
-        }));
-
+        });
+        indexFiles.add(task);
+        executorService.execute(task);
+
+        // bound the memory held by partitions waiting to be spilled
+        int pending = 0;
+        for (FutureTask<File> f : indexFiles) {
+            if (!f.isDone()) {
+                pending++;
+            }
+        }
+        if (pending > MAX_PENDING_FLUSHES) {
+            for (FutureTask<File> f : indexFiles) {
+                if (!f.isDone()) {
+                    await(f);
+                    break;
+                }
+            }
+        }
     }
 
+    /**
+     * Merges the runs into the sorted iterator of the added nodes. Intermediate merges replace and
+     * delete the runs they merge, so this method can only be called once.
+     * 
+     * @throws IllegalStateException if called more than once
+     */
     @Override
-    public Iterator<Node> nodes() {
+    public synchronized Iterator<Node> nodes() {
+        checkState(!nodesCalled, "nodes() can only be called once");
+        nodesCalled = true;
         List<File> files = new ArrayList<File>(indexFiles.size());
+        for (FutureTask<File> ff : indexFiles) {
+            files.add(await(ff));
+        }
+
+        while (files.size() > MAX_MERGE_RUNS) {
+            files = mergeRuns(files);
+        }
+
+        List<Run> runs = new ArrayList<Run>(files.size() + 1);
+        for (File f : files) {
+            runs.add(new FileRun(runs.size(), f));
+        }
+        if (currPartition.size() > 0) {
+            // the unflushed partition holds the latest nodes, goes last
+            runs.add(currPartition.asRun(runs.size()));
+        }
+        currPartition = new IndexPartition();
+
+        CompositeNodeIterator iterator = new CompositeNodeIterator(runs);
+        openIterators.add(iterator);
+        return iterator;
+    }
+
+    /**
+     * Merges consecutive groups of up to {@link #MAX_MERGE_RUNS} runs in parallel, preserving the
+     * relative order of the runs.
+     */
+    private List<File> mergeRuns(List<File> files) {
+        List<FutureTask<File>> merges = new ArrayList<FutureTask<File>>();
+        for (int i = 0; i < files.size(); i += MAX_MERGE_RUNS) {
+            final List<File> group = files.subList(i, Math.min(i + MAX_MERGE_RUNS, files.size()));
+            FutureTask<File> task = new FutureTask<File>(new Callable<File>() {
+                @Override
+                public File call() throws Exception {
+                    return merge(group);
+                }
+            });
+            merges.add(task);
+            executorService.execute(task);
+        }
+        List<File> merged = new ArrayList<File>(merges.size());
+        for (FutureTask<File> task : merges) {
+            File file = await(task);
+            merged.add(file);
+            mergedFiles.add(file);
+        }
+        return merged;
+    }
+
+    private File merge(List<File> group) throws IOException {
+        List<Run> runs = new ArrayList<Run>(group.size());
+        for (File f : group) {
+            runs.add(new FileRun(runs.size(), f));
+        }
+        RunMerger merger = new RunMerger(runs);
+        File file = File.createTempFile("geogitNodes", ".idx", tmpFolder);
+        file.deleteOnExit();
+        DataOutputStream out = newRunOutput(file);
         try {
-            for (Future<File> ff : indexFiles) {
-                files.add(ff.get());
+            Run run;
+            while ((run = merger.next()) != null) {
+                writeRecord(out, run.key, run.buffer, run.offset, run.length);
             }
-        } catch (Exception e) {
-            e.printStackTrace();
-            throw Throwables.propagate(Throwables.getRootCause(e));
+        } finally {
+            out.close();
+            merger.close();
         }
+        for (File f : group) {
+            f.delete();
+        }
+        return file;
+    }
 
-        List<Node> unflushed = Lists.newArrayList(currPartition.getSortedNodes());
-        currPartition.cache.clear();
-        return new CompositeNodeIterator(files, unflushed);
+    private static DataOutputStream newRunOutput(File file) throws IOException {
+        OutputStream fileOut = new BufferedOutputStream(new FileOutputStream(file), 1024 * 1024);
+        fileOut = new LZFOutputStream(fileOut);
+        return new DataOutputStream(fileOut);
     }
 
-    private static class CompositeNodeIterator extends AbstractIterator<Node> {
+    private static void writeRecord(DataOutputStream out, long key, byte[] bytes, int offset,
+            int length) throws IOException {
+        out.writeLong(key);
+        out.writeInt(length);
+        out.write(bytes, offset, length);
+    }
 
-        private NodeStorageOrder order = new NodeStorageOrder();
+    /**
+     * A sorted sequence of serialized nodes; {@link #key}, {@link #buffer}, {@link #offset} and
+     * {@link #length} hold the current record after a successful call to {@link #advance()}.
+     */
+    private static abstract class Run {
 
-        private List<IndexIterator> openIterators;
+        final int index;
 
-        private UnmodifiableIterator<Node> delegate;
+        long key;
 
-        public CompositeNodeIterator(List<File> files, List<Node> unflushedAndSorted) {
+        byte[] buffer;
 
-            openIterators = new ArrayList<IndexIterator>();
-            LinkedList<Iterator<Node>> iterators = new LinkedList<Iterator<Node>>();
-            for (File f : files) {
-                IndexIterator iterator = new IndexIterator(f);
-                openIterators.add(iterator);
-                iterators.add(iterator);
-            }
-            if (!unflushedAndSorted.isEmpty()) {
-                iterators.add(unflushedAndSorted.iterator());
-            }
-            delegate = Iterators.mergeSorted(iterators, order);
+        int offset;
+
+        int length;
+
+        Run(int index) {
+            this.index = index;
         }
 
-        public void close() {
-            for (IndexIterator it : openIterators) {
-                it.close();
-            }
-            openIterators.clear();
+        abstract boolean advance();
+
+        void close() {
+            // no-op by default
+        }
+    }
+
+    private static class MemoryRun extends Run {
+
+        private final IndexPartition partition;
+
+        private final int[] order;
+
+        private int next;
+
+        MemoryRun(int index, IndexPartition partition, int[] order) {
+            super(index);
+            this.partition = partition;
+            this.order = order;
         }
 
         @Override
-        protected Node computeNext() {
-            if (delegate.hasNext()) {
-                return delegate.next();
+        boolean advance() {
+            if (next == order.length) {
+                return false;
             }
-            return endOfData();
+            final int record = order[next++];
+            key = partition.keys[record];
+            buffer = partition.data.bytes();
+            offset = partition.offsets[record];
+            length = partition.length(record);
+            return true;
         }
-
     }
 
-    private static class IndexIterator extends AbstractIterator<Node> {
+    private static class FileRun extends Run {
 
         private DataInputStream in;
 
-        public IndexIterator(File file) {
+        FileRun(int index, File file) {
+            super(index);
             Preconditions.checkArgument(file.exists(), "file %s does not exist", file);
             try {
-                if (this.in == null) {
-                    InputStream fin = new BufferedInputStream(new FileInputStream(file), 64 * 1024);
-                    fin = new LZFInputStream(fin);
-                    this.in = new DataInputStream(fin);
-                }
+                InputStream fin = new BufferedInputStream(new FileInputStream(file), 64 * 1024);
+                fin = new LZFInputStream(fin);
+                this.in = new DataInputStream(fin);
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+            this.buffer = new byte[256];
+        }
 
+        @Override
+        boolean advance() {
+            try {
+                key = in.readLong();
+                length = in.readInt();
+                if (buffer.length < length) {
+                    buffer = new byte[Math.max(length, 2 * buffer.length)];
+                }
+                in.readFully(buffer, 0, length);
+                return true;
+            } catch (EOFException eof) {
+                close();
+                return false;
             } catch (IOException e) {
+                close();
                 throw Throwables.propagate(e);
             }
         }
 
-        public void close() {
+        @Override
+        void close() {
             Closeables.closeQuietly(in);
         }
+    }
+
+    /**
+     * K-way merge of runs over a binary min-heap ordered by key and then by run index, so that
+     * records with the same key are returned in the order of the runs they come from.
+     */
+    private static class RunMerger {
+
+        private final Run[] heap;
+
+        private final List<Run> runs;
+
+        private int size;
+
+        /**
+         * The run whose current record was last returned, to be advanced on the next call
+         */
+        private Run last;
+
+        RunMerger(List<Run> runs) {
+            this.runs = runs;
+            this.heap = new Run[runs.size()];
+            for (Run run : runs) {
+                if (run.advance()) {
+                    heap[size++] = run;
+                }
+            }
+            for (int i = size / 2 - 1; i >= 0; i--) {
+                siftDown(i);
+            }
+        }
+
+        /**
+         * @return the run holding the next record in order, or {@code null} if all runs are
+         *         exhausted
+         */
+        Run next() {
+            if (last != null) {
+                if (last.advance()) {
+                    heap[0] = last;
+                } else {
+                    heap[0] = heap[--size];
+                    heap[size] = null;
+                }
+                if (size > 0) {
+                    siftDown(0);
+                }
+                last = null;
+            }
+            if (size == 0) {
+                return null;
+            }
+            last = heap[0];
+            return last;
+        }
+
+        private void siftDown(int i) {
+            final Run run = heap[i];
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && less(heap[child + 1], heap[child])) {
+                    child++;
+                }
+                if (!less(heap[child], run)) {
+                    break;
+                }
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = run;
+        }
+
+        private static boolean less(Run r1, Run r2) {
+            return r1.key < r2.key || (r1.key == r2.key && r1.index < r2.index);
+        }
+
+        void close() {
+            for (Run run : runs) {
+                run.close();
+            }
+        }
+    }
+
+    /**
+     * Iterates over the merged runs, returning nodes in {@link NodeStorageOrder}
+     */
+    private static class CompositeNodeIterator extends AbstractIterator<Node> {
+
+        private final RunMerger merger;
+
+        private final ReusableByteArrayInputStream bytes = new ReusableByteArrayInputStream();
+
+        private final DataInputStream in = new DataInputStream(bytes);
+
+        public CompositeNodeIterator(List<Run> runs) {
+            this.merger = new RunMerger(runs);
+        }
+
+        public void close() {
+            merger.close();
+        }
 
         @Override
         protected Node computeNext() {
-            try {
-                Node node = FormatCommonV2.readNode(in);
-                return node;
-            } catch (EOFException eof) {
-                Closeables.closeQuietly(in);
+            Run run = merger.next();
+            if (run == null) {
+                close();
                 return endOfData();
-            } catch (Exception e) {
-                Closeables.closeQuietly(in);
+            }
+            bytes.reset(run.buffer, run.offset, run.length);
+            try {
+                return FormatCommonV2.readNode(in);
+            } catch (IOException e) {
+                close();
                 throw Throwables.propagate(e);
             }
         }
+    }
+
+    private static class ReusableByteArrayInputStream extends ByteArrayInputStream {
+
+        public ReusableByteArrayInputStream() {
+            super(new byte[0]);
+        }
 
+        public void reset(byte[] buf, int offset, int length) {
+            this.buf = buf;
+            this.pos = offset;
+            this.count = offset + length;
+            this.mark = offset;
+        }
     }
 
     private static class FastByteArrayOutputStream extends ByteArrayOutputStream {
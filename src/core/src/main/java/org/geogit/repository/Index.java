@@ -269,9 +269,10 @@ public class Index implements StagingArea {
                     parentMetadataId = parentRef.get().getMetadataId();
                 }
 
-                parentBuilder = context.command(FindOrCreateSubtree.class)
+                RevTree parent = context.command(FindOrCreateSubtree.class)
                         .setParent(Suppliers.ofInstance(Optional.of(getTree()))).setIndex(true)
-                        .setChildPath(parentPath).call().builder(getDatabase());
+                        .setChildPath(parentPath).call();
+                parentBuilder = RevTreeBuilder.bounded(getDatabase(), parent);
             }
             parentTress.put(parentPath, parentBuilder);
             if (parentMetadataId != null) {
@@ -8,7 +8,6 @@ import java.io.Closeable;
 import java.net.URL;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
 
 import org.geogit.api.AbstractGeoGitOp;
 import org.geogit.api.Context;
@@ -75,12 +74,12 @@ public class Repository implements Context {
 
     public static final String DEPTH_CONFIG_KEY = "core.depth";
 
-    private ExecutorService executor;
+    private ExecutionService executionService;
 
     @Inject
-    public Repository(Context injector, ExecutorService executor) {
+    public Repository(Context injector, ExecutionService executionService) {
         this.injector = injector;
-        this.executor = executor;
+        this.executionService = executionService;
     }
 
     public void addListener(RepositoryListener listener) {
@@ -124,7 +123,7 @@ public class Repository implements Context {
         for (RepositoryListener l : listeners) {
             l.closed();
         }
-        executor.shutdownNow();
+        executionService.shutdown();
     }
 
     private void close(Closeable db) {
@@ -386,6 +385,11 @@ public class Repository implements Context {
         return injector.deduplicationService();
     }
 
+    @Override
+    public ExecutionService executionService() {
+        return injector.executionService();
+    }
+
     @Override
     public PluginDefaults pluginDefaults() {
         return injector.pluginDefaults();
@@ -4,14 +4,21 @@
  */
 package org.geogit.repository;
 
+import static org.geogit.api.RevTree.NORMALIZED_SIZE_LIMIT;
+
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
 
 import javax.annotation.Nullable;
 
+import org.geogit.api.Bucket;
 import org.geogit.api.Node;
 import org.geogit.api.ObjectId;
 import org.geogit.api.Platform;
@@ -20,6 +27,9 @@ import org.geogit.api.RevFeatureTypeImpl;
 import org.geogit.api.RevObject.TYPE;
 import org.geogit.api.RevTree;
 import org.geogit.api.RevTreeBuilder;
+import org.geogit.api.RevTreeImpl;
+import org.geogit.api.plumbing.HashObject;
+import org.geogit.storage.NodePathStorageOrder;
 import org.geogit.storage.ObjectDatabase;
 import org.opengis.feature.type.FeatureType;
 import org.opengis.feature.type.Name;
@@ -29,6 +39,9 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.vividsolutions.jts.geom.Envelope;
@@ -47,6 +60,15 @@ class RevTreeBuilder2 {
 
     private final ObjectId defaultMetadataId;
 
+    /**
+     * Number of nodes handed at once to the builder of a bucket tree
+     */
+    private static final int CHUNK_SIZE = 10 * 1000;
+
+    private final Platform platform;
+
+    private final ExecutorService executorService;
+
     /**
      * Copy constructor
      */
@@ -57,6 +79,8 @@ class RevTreeBuilder2 {
         this.db = db;
         this.original = origTree;
         this.defaultMetadataId = defaultMetadataId;
+        this.platform = platform;
+        this.executorService = executorService;
         this.nodeIndex = new FileNodeIndex(platform, executorService);
     }
 
@@ -85,6 +109,12 @@ class RevTreeBuilder2 {
     /**
      * Traverses the nodes in the {@link NodeIndex}, deletes the ones with {@link ObjectId#NULL
      * NULL} ObjectIds, and adds the ones with non "NULL" ids.
+     * <p>
+     * Small trees are built on the calling thread. Otherwise the node stream, which comes sorted in
+     * storage order and hence grouped by top level bucket, is split by bucket and each bucket tree
+     * is built concurrently by its own {@link RevTreeBuilder} as soon as the stream moves past its
+     * bucket. The new bucket trees are assembled into the resulting tree at the end, and saved at
+     * once unless the result is small enough to be a leaf tree.
      * 
      * @return the new tree, not saved to the object database. Any bucket tree though is saved when
      *         this method returns.
@@ -95,17 +125,21 @@ class RevTreeBuilder2 {
         }
 
         Stopwatch sw = Stopwatch.createStarted();
-        RevTreeBuilder builder;
+        RevTree namedTree;
         try {
-            builder = new RevTreeBuilder(db, original);
             Iterator<Node> nodes = nodeIndex.nodes();
-            while (nodes.hasNext()) {
-                Node node = nodes.next();
-                if (node.getObjectId().isNull()) {
-                    builder.remove(node.getName());
-                } else {
-                    builder.put(node);
+            List<Node> head = Lists.newArrayList(Iterators.limit(nodes, NORMALIZED_SIZE_LIMIT + 1));
+            final boolean smallTree = !nodes.hasNext() && head.size() <= NORMALIZED_SIZE_LIMIT
+                    && (original == null || !original.buckets().isPresent());
+            nodes = Iterators.concat(head.iterator(), nodes);
+            if (smallTree) {
+                RevTreeBuilder builder = new RevTreeBuilder(db, original);
+                while (nodes.hasNext()) {
+                    add(builder, nodes.next());
                 }
+                namedTree = builder.build();
+            } else {
+                namedTree = new BucketsBuild().build(nodes);
             }
         } catch (RuntimeException e) {
             e.printStackTrace();
@@ -113,15 +147,259 @@ class RevTreeBuilder2 {
         } finally {
             nodeIndex.close();
         }
-        LOGGER.debug("Index traversed in {}", sw.stop());
-        sw.reset().start();
-
-        RevTree namedTree = builder.build();
         saveExtraFeatureTypes();
-        LOGGER.debug("RevTreeBuilder.build() in {}", sw.stop());
+        LOGGER.debug("Tree built in {}", sw.stop());
         return namedTree;
     }
 
+    /**
+     * Discards the nodes added so far without building the tree, releasing the temporary storage
+     * of the node index and skipping the sorting work that hasn't started yet. Used when the
+     * operation feeding this builder fails; it's a no-op once the tree was {@link #build() built}.
+     */
+    public void dispose() {
+        if (nodeIndex != null) {
+            nodeIndex.close();
+        }
+    }
+
+    private static void add(RevTreeBuilder builder, Node node) {
+        if (node.getObjectId().isNull()) {
+            builder.remove(node.getName());
+        } else {
+            builder.put(node);
+        }
+    }
+
+    /**
+     * Builds the top level bucket trees of the resulting tree concurrently.
+     * <p>
+     * The nodes of each bucket are handed to the bucket's builder in chunks of
+     * {@link #CHUNK_SIZE}, each chunk being processed by a task that first waits for the previous
+     * chunk of the same bucket. Once the stream moves past a bucket its tree is built, releasing
+     * its builder. The number of tasks in flight is bounded, so is the memory used, since the
+     * sorted node stream only feeds a few buckets at a time.
+     */
+    private class BucketsBuild {
+
+        private final NodePathStorageOrder order = new NodePathStorageOrder();
+
+        private final Map<Integer, BucketState> buckets = Maps.newTreeMap();
+
+        private final LinkedList<FutureTask<Void>> inFlight = Lists.newLinkedList();
+
+        private final int maxInFlight = 2 * Math.max(1, platform.availableProcessors());
+
+        public RevTree build(Iterator<Node> nodes) {
+            final SortedMap<Integer, Bucket> originalBuckets;
+            if (original != null && original.buckets().isPresent()) {
+                originalBuckets = original.buckets().get();
+            } else {
+                originalBuckets = ImmutableSortedMap.of();
+                if (original != null) {
+                    // distribute the original leaf tree nodes among the buckets
+                    Iterator<Node> children = original.children();
+                    while (children.hasNext()) {
+                        Node child = children.next();
+                        state(bucket(child.getName()), null).seed.add(child);
+                    }
+                }
+            }
+
+            List<FutureTask<Void>> builds = Lists.newArrayList();
+            BucketState current = null;
+            List<Node> chunk = Lists.newArrayListWithCapacity(CHUNK_SIZE);
+            while (nodes.hasNext()) {
+                Node node = nodes.next();
+                Integer bucketIndex = bucket(node.getName());
+                if (current == null || !current.bucketIndex.equals(bucketIndex)) {
+                    if (current != null) {
+                        // the stream is sorted, no more nodes for this bucket
+                        submit(current, chunk);
+                        chunk = Lists.newArrayListWithCapacity(CHUNK_SIZE);
+                        builds.add(submitBuild(current));
+                    }
+                    current = state(bucketIndex, originalBuckets.get(bucketIndex));
+                    Preconditions.checkState(!current.built, "Nodes not sorted by bucket");
+                }
+                chunk.add(node);
+                if (chunk.size() == CHUNK_SIZE) {
+                    submit(current, chunk);
+                    chunk = Lists.newArrayListWithCapacity(CHUNK_SIZE);
+                }
+            }
+            if (current != null) {
+                submit(current, chunk);
+            }
+
+            // the last bucket and the ones only holding nodes of the original leaf tree
+            for (BucketState state : buckets.values()) {
+                if (!state.built) {
+                    builds.add(submitBuild(state));
+                }
+            }
+            for (FutureTask<Void> build : builds) {
+                ExecutionService.await(build);
+            }
+            inFlight.clear();
+
+            return assemble(originalBuckets);
+        }
+
+        private Integer bucket(String name) {
+            return order.bucket(name, 0);
+        }
+
+        private BucketState state(Integer bucketIndex, @Nullable Bucket originalBucket) {
+            BucketState state = buckets.get(bucketIndex);
+            if (state == null) {
+                state = new BucketState(bucketIndex, originalBucket);
+                buckets.put(bucketIndex, state);
+            }
+            return state;
+        }
+
+        private void submit(final BucketState state, final List<Node> chunk) {
+            if (!chunk.isEmpty()) {
+                submit(state, chunk, false);
+            }
+        }
+
+        private FutureTask<Void> submitBuild(final BucketState state) {
+            state.built = true;
+            return submit(state, ImmutableList.<Node> of(), true);
+        }
+
+        private FutureTask<Void> submit(final BucketState state, final List<Node> chunk,
+                final boolean build) {
+
+            final FutureTask<Void> previous = state.last;
+            FutureTask<Void> task = new FutureTask<Void>(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    if (previous != null) {
+                        ExecutionService.await(previous);
+                    }
+                    if (state.builder == null) {
+                        RevTree currentTree = state.originalBucket == null ? null : db
+                                .getTree(state.originalBucket.id());
+                        state.currentSize = currentTree == null ? 0L : currentTree.size();
+                        state.currentNumTrees = currentTree == null ? 0 : currentTree.numTrees();
+                        state.builder = RevTreeBuilder.bucketTreeBuilder(db, currentTree, 1);
+                        for (Node node : state.seed) {
+                            state.builder.put(node);
+                        }
+                        state.seed = null;
+                    }
+                    for (Node node : chunk) {
+                        add(state.builder, node);
+                    }
+                    if (build) {
+                        state.result = state.builder.build();
+                        state.builder = null;
+                    }
+                    return null;
+                }
+            });
+            state.last = task;
+            executorService.execute(task);
+
+            inFlight.add(task);
+            if (inFlight.size() > maxInFlight) {
+                ExecutionService.await(inFlight.removeFirst());
+            }
+            return task;
+        }
+
+        private RevTree assemble(final SortedMap<Integer, Bucket> originalBuckets) {
+            Map<Integer, Bucket> newBuckets = Maps.newTreeMap();
+            newBuckets.putAll(originalBuckets);
+            long size = originalBuckets.isEmpty() ? 0L : original.size();
+            int numTrees = originalBuckets.isEmpty() ? 0 : original.numTrees();
+
+            Map<Integer, RevTree> bucketTrees = Maps.newTreeMap();
+            for (BucketState state : buckets.values()) {
+                RevTree bucketTree = state.result;
+                size += bucketTree.size() - state.currentSize;
+                numTrees += bucketTree.numTrees() - state.currentNumTrees;
+                if (bucketTree.isEmpty()) {
+                    newBuckets.remove(state.bucketIndex);
+                } else {
+                    Envelope bounds = SpatialOps.boundsOf(bucketTree);
+                    newBuckets.put(state.bucketIndex, Bucket.create(bucketTree.getId(), bounds));
+                    bucketTrees.put(state.bucketIndex, bucketTree);
+                }
+            }
+
+            if (size <= NORMALIZED_SIZE_LIMIT) {
+                // too small for a bucket tree, build a leaf tree out of the bucket contents, the
+                // new bucket trees not being referenced by it are not saved
+                RevTreeBuilder builder = new RevTreeBuilder(db);
+                for (Map.Entry<Integer, Bucket> bucket : newBuckets.entrySet()) {
+                    RevTree bucketTree = bucketTrees.get(bucket.getKey());
+                    if (bucketTree == null) {
+                        bucketTree = db.getTree(bucket.getValue().id());
+                    }
+                    addChildren(bucketTree, builder);
+                }
+                return builder.build();
+            }
+            if (!bucketTrees.isEmpty()) {
+                db.putAll(bucketTrees.values().iterator());
+            }
+            RevTree unnamedTree = RevTreeImpl.createNodeTree(ObjectId.NULL, size, numTrees,
+                    newBuckets);
+            ObjectId treeId = new HashObject().setObject(unnamedTree).call();
+            return RevTreeImpl.create(treeId, size, unnamedTree);
+        }
+
+        private void addChildren(RevTree tree, RevTreeBuilder builder) {
+            if (tree.buckets().isPresent()) {
+                for (Bucket bucket : tree.buckets().get().values()) {
+                    addChildren(db.getTree(bucket.id()), builder);
+                }
+            } else {
+                Iterator<Node> children = tree.children();
+                while (children.hasNext()) {
+                    builder.put(children.next());
+                }
+            }
+        }
+    }
+
+    /**
+     * State of the build of a top level bucket tree, confined to one task at a time
+     */
+    private static class BucketState {
+
+        final Integer bucketIndex;
+
+        @Nullable
+        final Bucket originalBucket;
+
+        List<Node> seed = Lists.newArrayList();
+
+        RevTreeBuilder builder;
+
+        long currentSize;
+
+        int currentNumTrees;
+
+        RevTree result;
+
+        FutureTask<Void> last;
+
+        /**
+         * Whether the build of the bucket tree has been submitted, set by the submitting thread
+         */
+        boolean built;
+
+        BucketState(Integer bucketIndex, @Nullable Bucket originalBucket) {
+            this.bucketIndex = bucketIndex;
+            this.originalBucket = originalBucket;
+        }
+    }
+
     private void saveExtraFeatureTypes() {
         Collection<RevFeatureType> types = revFeatureTypes.values();
         List<RevFeatureType> nonDefaults = Lists.newLinkedList();
@@ -14,7 +14,6 @@ import java.util.Map;
 import java.util.TreeSet;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 import javax.annotation.Nullable;
@@ -49,6 +48,7 @@ import org.geogit.api.plumbing.WriteBack;
 import org.geogit.api.plumbing.diff.DiffEntry;
 import org.geogit.api.plumbing.diff.DiffObjectCount;
 import org.geogit.di.Singleton;
+import org.geogit.repository.ExecutionService.Lane;
 import org.geogit.storage.BulkOpListener;
 import org.geogit.storage.BulkOpListener.CountingListener;
 import org.geogit.storage.StagingDatabase;
@@ -77,7 +77,6 @@ import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.UnmodifiableIterator;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.vividsolutions.jts.geom.CoordinateSequenceFactory;
 import com.vividsolutions.jts.geom.Envelope;
@@ -333,9 +332,10 @@ public class WorkingTree {
             if (parents.containsKey(parentPath)) {
                 parentTree = parents.get(parentPath);
             } else {
-                parentTree = context.command(FindOrCreateSubtree.class).setIndex(true)
-                        .setParent(Suppliers.ofInstance(Optional.of(currentWorkHead)))
-                        .setChildPath(parentPath).call().builder(indexDatabase);
+                parentTree = RevTreeBuilder.bounded(indexDatabase,
+                        context.command(FindOrCreateSubtree.class).setIndex(true)
+                                .setParent(Suppliers.ofInstance(Optional.of(currentWorkHead)))
+                                .setChildPath(parentPath).call());
                 parents.put(parentPath, parentTree);
             }
             String featureName = NodeRef.nodeFromPath(featurePath);
@@ -466,8 +466,9 @@ public class WorkingTree {
             }
         }
 
-        final ExecutorService executorService = Executors.newFixedThreadPool(2 + nFetchThreads,
-                new ThreadFactoryBuilder().setNameFormat("WorkingTree-tree-builder-%d").build());
+        final ExecutionService executionService = context.executionService();
+        final ExecutorService fetchService = executionService.getExecutor(Lane.IO);
+        final ExecutorService treeBuildingService = executionService.getExecutor(Lane.CPU);
 
         listener.started();
 
@@ -476,9 +477,9 @@ public class WorkingTree {
         final RevTree origTree = indexDatabase.getTree(treeRef.objectId());
         Platform platform = context.platform();
         RevTreeBuilder2 builder = new RevTreeBuilder2(indexDatabase, origTree,
-                treeRef.getMetadataId(), platform, executorService);
+                treeRef.getMetadataId(), platform, treeBuildingService);
 
-        List<Future<Integer>> insertBlobsFuture = insertBlobs(source, query, executorService,
+        List<Future<Integer>> insertBlobsFuture = insertBlobs(source, query, fetchService,
                 listener, collectionSize, nFetchThreads, builder);
 
         RevTree newFeatureTree;
@@ -500,9 +501,12 @@ public class WorkingTree {
             listener.complete();
 
         } catch (Exception e) {
+            // don't let the remaining fetch tasks hold the shared IO lane
+            for (Future<Integer> f : insertBlobsFuture) {
+                f.cancel(true);
+            }
+            builder.dispose();
             throw Throwables.propagate(Throwables.getRootCause(e));
-        } finally {
-            executorService.shutdown();
         }
         ObjectId newTree = context.command(WriteBack.class).setAncestor(getTreeSupplier())
                 .setChildPath(treePath).setMetadataId(treeRef.getMetadataId()).setToIndex(true)
@@ -678,9 +682,8 @@ public class WorkingTree {
 
         checkArgument(collectionSize == null || collectionSize.intValue() > -1);
 
-        final int nTreeThreads = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
-        final ExecutorService treeBuildingService = Executors.newFixedThreadPool(nTreeThreads,
-                new ThreadFactoryBuilder().setNameFormat("WorkingTree-tree-builder-%d").build());
+        final ExecutorService treeBuildingService = context.executionService().getExecutor(
+                Lane.CPU);
 
         final WorkingTreeInsertHelper insertHelper;
 
@@ -755,7 +758,8 @@ public class WorkingTree {
             int existing = countingListener.found();
             return inserted + existing;
         } finally {
-            treeBuildingService.shutdownNow();
+            // discards the partitions of the trees not built if something failed
+            insertHelper.dispose();
         }
     }
 
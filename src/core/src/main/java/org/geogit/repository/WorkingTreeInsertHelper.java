@@ -149,6 +149,15 @@ class WorkingTreeInsertHelper {
         return result;
     }
 
+    /**
+     * Discards the nodes of the trees that were not built, see {@link RevTreeBuilder2#dispose()}
+     */
+    public void dispose() {
+        for (RevTreeBuilder2 builder : treeBuilders.values()) {
+            builder.dispose();
+        }
+    }
+
     private class AsyncBuildTree implements Callable<Void> {
 
         private String treePath;
@@ -0,0 +1,198 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.TreeSet;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.plumbing.diff.DiffObjectCount;
+import org.geogit.api.plumbing.diff.DiffSummary;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.opengis.geometry.BoundingBox;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.hash.Hasher;
+
+/**
+ * Base class for {@link DiffSummaryCache} implementations, takes care of computing the cache keys
+ * and encoding the cached summaries, so that concrete subclasses only need to store and retrieve
+ * raw values through {@link #getRaw(ObjectId)} and {@link #putRaw(ObjectId, byte[])}.
+ */
+public abstract class AbstractDiffSummaryCache implements DiffSummaryCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AbstractDiffSummaryCache.class);
+
+    private static final String COUNT = "count";
+
+    private static final String BOUNDS = "bounds";
+
+    /**
+     * @return the raw value stored under the given key, or {@code null} if not found
+     */
+    @Nullable
+    protected abstract byte[] getRaw(ObjectId key);
+
+    /**
+     * Stores the raw value under the given key, replacing any previous value
+     */
+    protected abstract void putRaw(ObjectId key, byte[] value);
+
+    @Override
+    public Optional<DiffObjectCount> getCount(ObjectId leftTree, ObjectId rightTree,
+            List<String> pathFilters) {
+        final ObjectId key = key(COUNT, leftTree, rightTree, pathFilters);
+        final byte[] raw = getRaw(key);
+        if (raw == null) {
+            return Optional.absent();
+        }
+        DataInput in = new DataInputStream(new ByteArrayInputStream(raw));
+        try {
+            long featuresAdded = in.readLong();
+            long featuresRemoved = in.readLong();
+            long featuresChanged = in.readLong();
+            int treesAdded = in.readInt();
+            int treesRemoved = in.readInt();
+            int treesChanged = in.readInt();
+            return Optional.of(new DiffObjectCount(featuresAdded, featuresRemoved,
+                    featuresChanged, treesAdded, treesRemoved, treesChanged));
+        } catch (IOException e) {
+            LOGGER.warn("Error decoding cached diff count {}, ignoring", key, e);
+            return Optional.absent();
+        }
+    }
+
+    @Override
+    public void putCount(ObjectId leftTree, ObjectId rightTree, List<String> pathFilters,
+            DiffObjectCount count) {
+        final ObjectId key = key(COUNT, leftTree, rightTree, pathFilters);
+        ByteArrayOutputStream raw = new ByteArrayOutputStream(36);
+        DataOutput out = new DataOutputStream(raw);
+        try {
+            out.writeLong(count.getFeaturesAdded());
+            out.writeLong(count.getFeaturesRemoved());
+            out.writeLong(count.getFeaturesChanged());
+            out.writeInt(count.getTreesAdded());
+            out.writeInt(count.getTreesRemoved());
+            out.writeInt(count.getTreesChanged());
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        putRaw(key, raw.toByteArray());
+    }
+
+    @Override
+    public Optional<DiffSummary<BoundingBox, BoundingBox>> getBounds(ObjectId leftTree,
+            ObjectId rightTree, List<String> pathFilters, CoordinateReferenceSystem crs) {
+        final Optional<String> crsKey = crsKey(crs);
+        if (!crsKey.isPresent()) {
+            return Optional.absent();
+        }
+        final ObjectId key = key(BOUNDS + crsKey.get(), leftTree, rightTree, pathFilters);
+        final byte[] raw = getRaw(key);
+        if (raw == null) {
+            return Optional.absent();
+        }
+        DataInput in = new DataInputStream(new ByteArrayInputStream(raw));
+        try {
+            BoundingBox left = readBounds(in, crs);
+            BoundingBox right = readBounds(in, crs);
+            BoundingBox merged = in.readBoolean() ? readBounds(in, crs) : null;
+            return Optional.of(new DiffSummary<BoundingBox, BoundingBox>(left, right, merged));
+        } catch (IOException e) {
+            LOGGER.warn("Error decoding cached diff bounds {}, ignoring", key, e);
+            return Optional.absent();
+        }
+    }
+
+    @Override
+    public void putBounds(ObjectId leftTree, ObjectId rightTree, List<String> pathFilters,
+            CoordinateReferenceSystem crs, DiffSummary<BoundingBox, BoundingBox> bounds) {
+        final Optional<String> crsKey = crsKey(crs);
+        if (!crsKey.isPresent()) {
+            return;
+        }
+        final ObjectId key = key(BOUNDS + crsKey.get(), leftTree, rightTree, pathFilters);
+        ByteArrayOutputStream raw = new ByteArrayOutputStream(106);
+        DataOutput out = new DataOutputStream(raw);
+        try {
+            writeBounds(out, bounds.getLeft());
+            writeBounds(out, bounds.getRight());
+            Optional<BoundingBox> merged = bounds.getMergedResult();
+            out.writeBoolean(merged.isPresent());
+            if (merged.isPresent()) {
+                writeBounds(out, merged.get());
+            }
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        putRaw(key, raw.toByteArray());
+    }
+
+    private static BoundingBox readBounds(DataInput in, CoordinateReferenceSystem crs)
+            throws IOException {
+        if (in.readBoolean()) {
+            return new ReferencedEnvelope(crs);
+        }
+        double minx = in.readDouble();
+        double maxx = in.readDouble();
+        double miny = in.readDouble();
+        double maxy = in.readDouble();
+        return new ReferencedEnvelope(minx, maxx, miny, maxy, crs);
+    }
+
+    private static void writeBounds(DataOutput out, BoundingBox bounds) throws IOException {
+        final boolean empty = bounds.isEmpty();
+        out.writeBoolean(empty);
+        if (!empty) {
+            out.writeDouble(bounds.getMinX());
+            out.writeDouble(bounds.getMaxX());
+            out.writeDouble(bounds.getMinY());
+            out.writeDouble(bounds.getMaxY());
+        }
+    }
+
+    /**
+     * The bounds are computed in a given CRS, so the CRS definition (including axis order) is part
+     * of the key
+     */
+    private static Optional<String> crsKey(CoordinateReferenceSystem crs) {
+        try {
+            return Optional.of(crs.toWKT());
+        } catch (UnsupportedOperationException e) {
+            LOGGER.debug("CRS can't be formatted as WKT, diff bounds won't be cached: {}", crs);
+            return Optional.absent();
+        }
+    }
+
+    private static ObjectId key(final String kind, final ObjectId leftTree,
+            final ObjectId rightTree, final List<String> pathFilters) {
+
+        final Hasher hasher = ObjectId.HASH_FUNCTION.newHasher();
+        hasher.putString(kind, Charsets.UTF_8);
+        hasher.putBytes(leftTree.getRawValue());
+        hasher.putBytes(rightTree.getRawValue());
+        // filter order and duplicates don't change the result
+        for (String filter : new TreeSet<String>(pathFilters)) {
+            hasher.putString(filter, Charsets.UTF_8);
+            hasher.putByte((byte) 0);
+        }
+        return ObjectId.createNoClone(hasher.hash().asBytes());
+    }
+}
@@ -9,6 +9,9 @@ import java.util.concurrent.TimeoutException;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import javax.annotation.Nullable;
+
+import com.google.common.base.Objects;
 import com.google.common.base.Throwables;
 
 /**
@@ -44,4 +47,38 @@ public abstract class AbstractRefDatabase implements RefDatabase {
         lock.unlock();
     }
 
+    /**
+     * Compares and sets the ref value while holding the same lock used by {@link #lock()}, so the
+     * operation is atomic with respect to other compare and set calls and to callers holding the
+     * coarse repository lock.
+     */
+    @Override
+    public boolean compareAndPut(final String refName, @Nullable final String expectedValue,
+            final String newValue) {
+        lock.lock();
+        try {
+            String currentValue;
+            try {
+                currentValue = getRef(refName);
+            } catch (IllegalArgumentException e) {
+                // may be updating what used to be a symref to be a direct ref
+                currentValue = getSymRef(refName);
+            }
+            if (!Objects.equal(expectedValue, currentValue)) {
+                return false;
+            }
+            putRef(refName, newValue);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Does nothing by default, as there's nothing to consolidate in most implementations.
+     */
+    @Override
+    public void packRefs() {
+        //
+    }
 }
@@ -0,0 +1,70 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+
+import org.geogit.api.RevCommit;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.Funnels;
+
+/**
+ * A probabilistic set of the paths (both tree and feature paths) a {@link RevCommit} changed with
+ * respect to its parents.
+ * <p>
+ * {@link #mightContain(String)} never returns {@code false} for a path the commit changed, so a
+ * {@code false} result proves the commit did not touch the path, and {@code true} means it might
+ * have.
+ *
+ * @see ChangedPathFilterDatabase
+ */
+public class ChangedPathFilter {
+
+    private static final Funnel<CharSequence> FUNNEL = Funnels.stringFunnel(Charsets.UTF_8);
+
+    private static final double FALSE_POSITIVE_PROBABILITY = 0.01;
+
+    private final BloomFilter<CharSequence> filter;
+
+    private ChangedPathFilter(BloomFilter<CharSequence> filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * @param changedPaths the full paths of all the trees and features changed by a commit
+     * @return a filter for the given paths
+     */
+    public static ChangedPathFilter create(Collection<String> changedPaths) {
+        BloomFilter<CharSequence> filter = BloomFilter.create(FUNNEL, changedPaths.size(),
+                FALSE_POSITIVE_PROBABILITY);
+        for (String path : changedPaths) {
+            filter.put(path);
+        }
+        return new ChangedPathFilter(filter);
+    }
+
+    /**
+     * @param path the full path of a tree or feature
+     * @return {@code false} if the commit definitely didn't change the given path, {@code true} if
+     *         it might have
+     */
+    public boolean mightContain(String path) {
+        return filter.mightContain(path);
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        filter.writeTo(out);
+    }
+
+    public static ChangedPathFilter readFrom(InputStream in) throws IOException {
+        return new ChangedPathFilter(BloomFilter.readFrom(in, FUNNEL));
+    }
+}
@@ -0,0 +1,36 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.plumbing.BuildChangedPathFilter;
+import org.geogit.api.plumbing.RebuildChangedPathFiltersOp;
+import org.geogit.di.Singleton;
+
+import com.google.common.base.Optional;
+
+/**
+ * Auxiliary storage for the {@link ChangedPathFilter} of each commit, used to skip the commits
+ * that didn't touch a given path without comparing their trees.
+ * <p>
+ * Filters are computed at commit time by {@link BuildChangedPathFilter}, and can be built for
+ * commits lacking them (e.g. fetched ones) by {@link RebuildChangedPathFiltersOp}. Commits with
+ * no filter stored are handled as if they might have changed any path.
+ */
+@Singleton
+public interface ChangedPathFilterDatabase {
+
+    /**
+     * @param commitId the id of the commit
+     * @return the changed path filter for the given commit, if present
+     */
+    public Optional<ChangedPathFilter> get(ObjectId commitId);
+
+    /**
+     * Stores the changed path filter for the given commit, replacing any previous one
+     */
+    public void put(ObjectId commitId, ChangedPathFilter filter);
+
+}
@@ -0,0 +1,497 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.Platform;
+import org.geogit.api.RevCommit;
+import org.geogit.api.plumbing.FindCommonAncestor;
+import org.geogit.api.plumbing.ResolveGeogitDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+
+/**
+ * A compact representation of the commit graph, where commits are identified by an int index and
+ * each one has its parents' indexes, its generation number and its commit timestamp.
+ * <p>
+ * The generation number of a commit is one more than the maximum generation number of its parents,
+ * and {@code 1} for commits with no parents. Hence a commit can only be an ancestor of commits with
+ * a greater generation number, which allows ancestry queries like
+ * {@link #findLowestCommonAncestor(ObjectId, ObjectId)} and {@link #isAncestor(ObjectId, ObjectId)}
+ * to stop traversing the history as soon as they reach commits older than the ones they look for.
+ * <p>
+ * A commit is only added to the graph once all its ancestors are, so that generation numbers are
+ * exact. New commits are added as they're inserted in the object database if their parents are
+ * already in the graph, otherwise they're added the first time they're {@link #index indexed}. A
+ * commit whose history is incomplete (e.g. in a shallow clone) can't be indexed, and callers shall
+ * fall back to traversing the {@link GraphDatabase}.
+ * <p>
+ * Commits are persisted in the {@code commitgraph} file of the repository, an append only list of
+ * records with the commit id, commit timestamp and parent indexes, which is memory mapped and
+ * loaded at first use. If the repository directory can't be found the graph is kept in memory
+ * only.
+ *
+ * @see FindCommonAncestor
+ */
+public class CommitGraph {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CommitGraph.class);
+
+    private static final String FILE_NAME = "commitgraph";
+
+    private static final int MAGIC = 0x43475048;// "CGPH"
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 8;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final Platform platform;
+
+    private boolean loaded;
+
+    @Nullable
+    private File file;
+
+    /**
+     * Length of the valid contents of {@link #file}, or {@code -1} if it needs to be rewritten
+     */
+    private long validLength;
+
+    private final Map<ObjectId, Integer> indexes = Maps.newHashMap();
+
+    private ObjectId[] ids = new ObjectId[INITIAL_CAPACITY];
+
+    private int[] generations = new int[INITIAL_CAPACITY];
+
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+
+    /**
+     * The parents of commit {@code i} are {@code parents[parentsStart[i]]} to
+     * {@code parents[parentsStart[i + 1] - 1]}
+     */
+    private int[] parentsStart = new int[INITIAL_CAPACITY + 1];
+
+    private int[] parents = new int[INITIAL_CAPACITY];
+
+    private int size;
+
+    /**
+     * Orders commit indexes by descending generation number, then descending timestamp
+     */
+    private final Comparator<Integer> newestFirst = new Comparator<Integer>() {
+        @Override
+        public int compare(Integer c1, Integer c2) {
+            int g1 = generations[c1.intValue()];
+            int g2 = generations[c2.intValue()];
+            if (g1 != g2) {
+                return g1 > g2 ? -1 : 1;
+            }
+            long t1 = timestamps[c1.intValue()];
+            long t2 = timestamps[c2.intValue()];
+            return t1 == t2 ? 0 : (t1 > t2 ? -1 : 1);
+        }
+    };
+
+    @Inject
+    public CommitGraph(final Platform platform) {
+        checkNotNull(platform);
+        this.platform = platform;
+    }
+
+    /**
+     * Adds the given commit to the graph if all its parents are already in the graph, does nothing
+     * otherwise.
+     */
+    public synchronized void add(RevCommit commit) {
+        load();
+        if (indexes.containsKey(commit.getId())) {
+            return;
+        }
+        for (ObjectId parentId : commit.getParentIds()) {
+            if (!indexes.containsKey(parentId)) {
+                return;
+            }
+        }
+        PendingCommit pending = new PendingCommit(commit);
+        addInternal(pending);
+        persist(ImmutableList.of(pending));
+    }
+
+    /**
+     * Makes sure the given commit and all its ancestors are in the graph, reading the ones that
+     * aren't from the given database.
+     *
+     * @param source the database to get the commits missing from the graph from
+     * @param commitId the commit to index
+     * @return {@code true} if the commit is in the graph, {@code false} if it couldn't be added
+     *         because some of its ancestors are not in {@code source}
+     */
+    public synchronized boolean index(ObjectDatabase source, ObjectId commitId) {
+        load();
+        if (indexes.containsKey(commitId)) {
+            return true;
+        }
+        final Map<ObjectId, PendingCommit> pending = Maps.newHashMap();
+        final List<PendingCommit> added = Lists.newArrayList();
+        final Deque<PendingCommit> stack = new ArrayDeque<PendingCommit>();
+
+        boolean complete = push(source, commitId, stack, pending);
+        while (complete && !stack.isEmpty()) {
+            final PendingCommit commit = stack.peek();
+            if (indexes.containsKey(commit.id)) {
+                stack.pop();
+                continue;
+            }
+            boolean ready = true;
+            for (ObjectId parentId : commit.parentIds) {
+                if (!indexes.containsKey(parentId)) {
+                    ready = false;
+                    if (!push(source, parentId, stack, pending)) {
+                        complete = false;
+                        break;
+                    }
+                }
+            }
+            if (ready) {
+                stack.pop();
+                addInternal(commit);
+                added.add(commit);
+            }
+        }
+        // whatever could be added is valid, even if the requested commit couldn't be
+        persist(added);
+        return complete;
+    }
+
+    private boolean push(ObjectDatabase source, ObjectId commitId, Deque<PendingCommit> stack,
+            Map<ObjectId, PendingCommit> pending) {
+        PendingCommit commit = pending.get(commitId);
+        if (commit == null) {
+            RevCommit revCommit = commitId.isNull() ? null : source.getIfPresent(commitId,
+                    RevCommit.class);
+            if (revCommit == null) {
+                return false;
+            }
+            commit = new PendingCommit(revCommit);
+            pending.put(commitId, commit);
+        }
+        stack.push(commit);
+        return true;
+    }
+
+    /**
+     * @return the generation number of the given commit, or {@code 0} if it's not in the graph
+     */
+    public synchronized int getGeneration(ObjectId commitId) {
+        load();
+        Integer index = indexes.get(commitId);
+        return index == null ? 0 : generations[index.intValue()];
+    }
+
+    /**
+     * Determines whether {@code ancestor} is {@code commit} or one of its ancestors. Both commits
+     * must be in the graph.
+     */
+    public synchronized boolean isAncestor(ObjectId ancestor, ObjectId commit) {
+        final int target = indexOf(ancestor);
+        final int start = indexOf(commit);
+        if (target == start) {
+            return true;
+        }
+        final int minGeneration = generations[target];
+        if (generations[start] <= minGeneration) {
+            return false;
+        }
+        BitSet visited = new BitSet(size);
+        Deque<Integer> queue = new ArrayDeque<Integer>();
+        queue.add(Integer.valueOf(start));
+        visited.set(start);
+        while (!queue.isEmpty()) {
+            final int c = queue.poll().intValue();
+            for (int i = parentsStart[c]; i < parentsStart[c + 1]; i++) {
+                final int parent = parents[i];
+                if (parent == target) {
+                    return true;
+                }
+                // a commit can't be an ancestor of one with a lower or equal generation
+                if (!visited.get(parent) && generations[parent] > minGeneration) {
+                    visited.set(parent);
+                    queue.add(Integer.valueOf(parent));
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the lowest common ancestor of two commits, that is, a common ancestor that is not an
+     * ancestor of any other common ancestor. If there are several, the one with the highest
+     * generation number and most recent timestamp is returned. Both commits must be in the graph.
+     *
+     * @return the lowest common ancestor, or {@link Optional#absent()} if the commits have no
+     *         common history
+     */
+    public synchronized Optional<ObjectId> findLowestCommonAncestor(ObjectId left, ObjectId right) {
+        final int l = indexOf(left);
+        final int r = indexOf(right);
+        if (l == r) {
+            return Optional.of(left);
+        }
+        final byte leftFlag = 1, rightFlag = 2, both = leftFlag | rightFlag;
+        final byte[] flags = new byte[size];
+        final PriorityQueue<Integer> queue = new PriorityQueue<Integer>(16, newestFirst);
+        flags[l] |= leftFlag;
+        flags[r] |= rightFlag;
+        queue.add(Integer.valueOf(l));
+        queue.add(Integer.valueOf(r));
+
+        // Commits are visited by decreasing generation number, so by the time a commit is visited
+        // all its descendants reachable from left or right have been visited and its flags are
+        // final. Hence the first commit reachable from both is not an ancestor of any other common
+        // ancestor.
+        while (!queue.isEmpty()) {
+            final int c = queue.poll().intValue();
+            final byte flag = flags[c];
+            if (flag == both) {
+                return Optional.of(ids[c]);
+            }
+            for (int i = parentsStart[c]; i < parentsStart[c + 1]; i++) {
+                final int parent = parents[i];
+                if ((flags[parent] & flag) != flag) {
+                    flags[parent] |= flag;
+                    queue.add(Integer.valueOf(parent));
+                }
+            }
+        }
+        return Optional.absent();
+    }
+
+    private int indexOf(ObjectId commitId) {
+        load();
+        Integer index = indexes.get(commitId);
+        checkArgument(index != null, "Commit %s is not in the commit graph", commitId);
+        return index.intValue();
+    }
+
+    private void addInternal(PendingCommit commit) {
+        final int parentCount = commit.parentIds.size();
+        final int[] parentIndexes = new int[parentCount];
+        for (int i = 0; i < parentCount; i++) {
+            parentIndexes[i] = indexes.get(commit.parentIds.get(i)).intValue();
+        }
+        addInternal(commit.id, commit.timestamp, parentIndexes);
+    }
+
+    private void addInternal(ObjectId id, long timestamp, int[] parentIndexes) {
+        final int index = size;
+        if (index == ids.length) {
+            final int capacity = ids.length * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            generations = Arrays.copyOf(generations, capacity);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            parentsStart = Arrays.copyOf(parentsStart, capacity + 1);
+        }
+        final int start = parentsStart[index];
+        if (start + parentIndexes.length > parents.length) {
+            parents = Arrays.copyOf(parents, Math.max(parents.length * 2, start
+                    + parentIndexes.length));
+        }
+        int generation = 0;
+        for (int i = 0; i < parentIndexes.length; i++) {
+            parents[start + i] = parentIndexes[i];
+            generation = Math.max(generation, generations[parentIndexes[i]]);
+        }
+        ids[index] = id;
+        generations[index] = generation + 1;
+        timestamps[index] = timestamp;
+        parentsStart[index + 1] = start + parentIndexes.length;
+        indexes.put(id, Integer.valueOf(index));
+        size++;
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        file = file();
+        if (file == null || !file.exists()) {
+            validLength = 0;
+            return;
+        }
+        validLength = -1;
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                        channel.size());
+                if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC
+                        || buffer.getInt() != VERSION) {
+                    LOGGER.warn("Ignoring invalid commit graph file {}", file);
+                    return;
+                }
+                validLength = readRecords(buffer);
+                if (validLength != channel.size()) {
+                    LOGGER.warn("Commit graph file {} is truncated, it'll be rewritten", file);
+                    validLength = -1;
+                }
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Error reading commit graph file {}, it'll be rewritten", file, e);
+        }
+    }
+
+    /**
+     * @return the position after the last complete record
+     */
+    private long readRecords(ByteBuffer buffer) {
+        final byte[] rawId = new byte[ObjectId.NUM_BYTES];
+        while (buffer.remaining() >= ObjectId.NUM_BYTES + 12) {
+            final int recordStart = buffer.position();
+            buffer.get(rawId);
+            final long timestamp = buffer.getLong();
+            final int parentCount = buffer.getInt();
+            if (parentCount < 0 || buffer.remaining() < 4 * parentCount) {
+                return recordStart;
+            }
+            int[] parentIndexes = new int[parentCount];
+            for (int i = 0; i < parentCount; i++) {
+                int parent = buffer.getInt();
+                if (parent < 0 || parent >= size) {
+                    return recordStart;
+                }
+                parentIndexes[i] = parent;
+            }
+            addInternal(ObjectId.createNoClone(rawId.clone()), timestamp, parentIndexes);
+        }
+        return buffer.position();
+    }
+
+    private void persist(List<PendingCommit> added) {
+        if (file == null || added.isEmpty()) {
+            return;
+        }
+        try {
+            if (validLength != file.length()) {
+                rewrite();
+            } else {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(file, true)));
+                try {
+                    for (PendingCommit commit : added) {
+                        writeRecord(out, indexes.get(commit.id).intValue());
+                    }
+                } finally {
+                    out.close();
+                }
+                validLength = file.length();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Error writing commit graph file {}", file, e);
+            validLength = -1;
+        }
+    }
+
+    private void rewrite() throws IOException {
+        final File parent = file.getParentFile();
+        File tmp = File.createTempFile(FILE_NAME, ".tmp", parent);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+                tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (int i = 0; i < size; i++) {
+                writeRecord(out, i);
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            // on some platforms rename doesn't replace an existing file
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                throw new IOException("Can't replace " + file);
+            }
+        }
+        validLength = file.length();
+    }
+
+    private void writeRecord(DataOutputStream out, int index) throws IOException {
+        out.write(ids[index].getRawValue());
+        out.writeLong(timestamps[index]);
+        final int start = parentsStart[index];
+        final int end = parentsStart[index + 1];
+        out.writeInt(end - start);
+        for (int i = start; i < end; i++) {
+            out.writeInt(parents[i]);
+        }
+    }
+
+    @Nullable
+    private File file() {
+        final Optional<URL> repoUrl = new ResolveGeogitDir(platform).call();
+        if (!repoUrl.isPresent()) {
+            return null;
+        }
+        try {
+            return new File(new File(repoUrl.get().toURI()), FILE_NAME);
+        } catch (URISyntaxException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private static final class PendingCommit {
+
+        private final ObjectId id;
+
+        private final ImmutableList<ObjectId> parentIds;
+
+        private final long timestamp;
+
+        PendingCommit(RevCommit commit) {
+            this.id = commit.getId();
+            this.parentIds = commit.getParentIds();
+            this.timestamp = commit.getCommitter().getTimestamp();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import java.util.List;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.plumbing.DiffBounds;
+import org.geogit.api.plumbing.DiffCount;
+import org.geogit.api.plumbing.diff.DiffObjectCount;
+import org.geogit.api.plumbing.diff.DiffSummary;
+import org.geogit.di.Singleton;
+import org.opengis.geometry.BoundingBox;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.google.common.base.Optional;
+
+/**
+ * A cache for the summaries of the differences between two trees, as computed by
+ * {@link DiffCount} and {@link DiffBounds}.
+ * <p>
+ * Since trees are immutable and addressed by their {@link ObjectId}, the summary of the diff
+ * between two given trees never changes, so entries are keyed by the left and right tree ids plus
+ * the path filters the summary was computed with, and never need to be invalidated.
+ * <p>
+ * Entries computed with no path filters for pairs of subtrees are also used to memoize the
+ * traversal of the trees they refer to, so that overlapping diffs reuse each other's work.
+ */
+@Singleton
+public interface DiffSummaryCache {
+
+    /**
+     * @param leftTree the id of the tree at the left side of the diff
+     * @param rightTree the id of the tree at the right side of the diff
+     * @param pathFilters the path filters the count was computed with, possibly empty
+     * @return the cached count of changes between the two trees, if present
+     */
+    public Optional<DiffObjectCount> getCount(ObjectId leftTree, ObjectId rightTree,
+            List<String> pathFilters);
+
+    /**
+     * Stores the count of changes between the two given trees
+     */
+    public void putCount(ObjectId leftTree, ObjectId rightTree, List<String> pathFilters,
+            DiffObjectCount count);
+
+    /**
+     * @param leftTree the id of the tree at the left side of the diff
+     * @param rightTree the id of the tree at the right side of the diff
+     * @param pathFilters the path filters the bounds were computed with, possibly empty
+     * @param crs the coordinate reference system the bounds were computed in
+     * @return the cached bounds of the changes between the two trees, if present
+     */
+    public Optional<DiffSummary<BoundingBox, BoundingBox>> getBounds(ObjectId leftTree,
+            ObjectId rightTree, List<String> pathFilters, CoordinateReferenceSystem crs);
+
+    /**
+     * Stores the bounds of the changes between the two given trees, as computed in the given
+     * {@code crs}
+     */
+    public void putBounds(ObjectId leftTree, ObjectId rightTree, List<String> pathFilters,
+            CoordinateReferenceSystem crs, DiffSummary<BoundingBox, BoundingBox> bounds);
+
+}
@@ -14,6 +14,7 @@ import org.geogit.api.RevTree;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Ordering;
 import com.google.common.primitives.UnsignedLong;
+import com.google.common.primitives.UnsignedLongs;
 
 /**
  * Implements storage order of {@link Node} based on the non cryptographic 64-bit <a
@@ -88,6 +89,15 @@ public final class NodePathStorageOrder extends Ordering<String> implements Seri
         return fnv;
     }
 
+    /**
+     * Computes the same hash than {@link #hashCodeLong(String)} but returns its raw bits, avoiding
+     * the allocation of an {@link UnsignedLong}. Compare the results with
+     * {@link UnsignedLongs#compare(long, long)} to honour this ordering.
+     */
+    public long hashCodeBits(String name) {
+        return FNV1a64bitHash.fnvBits(name);
+    }
+
     /**
      * The FNV-1a hash function used as {@link Node} storage order.
      */
@@ -95,21 +105,29 @@ public final class NodePathStorageOrder extends Ordering<String> implements Seri
 
         private static final long serialVersionUID = -1931193743208260766L;
 
-        private static final UnsignedLong FNV64_OFFSET_BASIS = UnsignedLong
-                .valueOf("14695981039346656037");
+        private static final long FNV64_OFFSET_BASIS = UnsignedLong.valueOf(
+                "14695981039346656037").longValue();
 
-        private static final UnsignedLong FNV64_PRIME = UnsignedLong.valueOf("1099511628211");
+        private static final long FNV64_PRIME = UnsignedLong.valueOf("1099511628211").longValue();
 
         public int compare(final String p1, final String p2) {
-            UnsignedLong hash1 = fnv(p1);
-            UnsignedLong hash2 = fnv(p2);
-            return hash1.compareTo(hash2);
+            long hash1 = fnvBits(p1);
+            long hash2 = fnvBits(p2);
+            return UnsignedLongs.compare(hash1, hash2);
         }
 
         private static UnsignedLong fnv(CharSequence chars) {
+            return UnsignedLong.fromLongBits(fnvBits(chars));
+        }
+
+        /**
+         * Computes the hash over the raw bits of the unsigned long value, multiplication and xor
+         * being the same for signed and unsigned 64-bit values.
+         */
+        private static long fnvBits(CharSequence chars) {
             final int length = chars.length();
 
-            UnsignedLong hash = FNV64_OFFSET_BASIS;
+            long hash = FNV64_OFFSET_BASIS;
 
             for (int i = 0; i < length; i++) {
                 char c = chars.charAt(i);
@@ -121,21 +139,12 @@ public final class NodePathStorageOrder extends Ordering<String> implements Seri
             return hash;
         }
 
-        private static UnsignedLong update(UnsignedLong hash, final byte octet) {
-            // it's ok to use the signed long value here, its a bitwise operation anyways, and its
-            // on the lower byte of the long value
-            final long longValue = hash.longValue();
-            final long bits = longValue ^ octet;
-
-            // System.err.println("hash : " + Long.toBinaryString(longValue));
-            // System.err.println("xor  : " + Long.toBinaryString(bits));
-            // System.err.println("octet: " + Integer.toBinaryString(octet));
-
-            // convert back to unsigned long
-            hash = UnsignedLong.fromLongBits(bits);
+        private static long update(final long hash, final byte octet) {
+            // note the octet is sign extended, as it always has been, in order to preserve the
+            // established storage order
+            final long bits = hash ^ octet;
             // multiply by prime
-            hash = hash.times(FNV64_PRIME);
-            return hash;
+            return bits * FNV64_PRIME;
         }
 
         /**
@@ -145,7 +154,7 @@ public final class NodePathStorageOrder extends Ordering<String> implements Seri
         public int byteN(final String nodeName, final int depth) {
             Preconditions.checkArgument(depth < 8, "depth too deep: %s", Integer.valueOf(depth));
 
-            final long longBits = fnv(nodeName).longValue();
+            final long longBits = fnvBits(nodeName);
 
             final int displaceBits = 8 * (7 - depth);// how many bits to right shift longBits to get
                                                      // the byte N
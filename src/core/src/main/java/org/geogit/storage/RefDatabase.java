@@ -8,6 +8,8 @@ import java.io.Closeable;
 import java.util.Map;
 import java.util.concurrent.TimeoutException;
 
+import javax.annotation.Nullable;
+
 import org.geogit.di.Singleton;
 import org.geogit.repository.RepositoryConnectionException;
 
@@ -74,6 +76,22 @@ public interface RefDatabase extends Closeable{
      */
     public abstract void putSymRef(String name, String val);
 
+    /**
+     * Atomically sets the value of a ref only if its current value matches the expected one.
+     * <p>
+     * This allows concurrent writers to update refs optimistically, without holding the
+     * repository wide {@link #lock() lock} while they compute the new value.
+     * 
+     * @param refName the name of the ref
+     * @param expectedValue the value the ref is expected to have, or {@code null} if it is
+     *        expected not to exist
+     * @param newValue the value to set the ref to
+     * @return {@code true} if the ref was updated, {@code false} if its current value didn't
+     *         match {@code expectedValue}
+     */
+    public abstract boolean compareAndPut(String refName, @Nullable String expectedValue,
+            String newValue);
+
     /**
      * @param refName the name of the ref to remove (e.g. {@code "HEAD"},
      *        {@code "refs/remotes/origin"}, etc).
@@ -96,4 +114,10 @@ public interface RefDatabase extends Closeable{
      * @return the references removed, may be empty.
      */
     public abstract Map<String, String> removeAll(String namespace);
+
+    /**
+     * Consolidates the storage of the refs under the "refs" namespace for faster reads, if the
+     * implementation supports it. Reads never do it on their own.
+     */
+    public abstract void packRefs();
 }
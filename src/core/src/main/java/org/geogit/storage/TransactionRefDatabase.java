@@ -12,6 +12,8 @@ import java.util.Map.Entry;
 import java.util.UUID;
 import java.util.concurrent.TimeoutException;
 
+import javax.annotation.Nullable;
+
 import org.geogit.api.Context;
 import org.geogit.api.GeogitTransaction;
 import org.geogit.api.Ref;
@@ -20,6 +22,7 @@ import org.geogit.api.plumbing.TransactionEnd;
 import org.geogit.repository.Index;
 import org.geogit.repository.WorkingTree;
 
+import com.google.common.base.Objects;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 
@@ -178,6 +181,35 @@ public class TransactionRefDatabase implements RefDatabase {
         refDb.putSymRef(internalName, val);
     }
 
+    /**
+     * Compares against the ref value as seen by the transaction (i.e. falling back to the original
+     * value if the ref has not been changed in the transaction) and sets the value in the
+     * transaction namespace.
+     */
+    @Override
+    public boolean compareAndPut(final String refName, @Nullable final String expectedValue,
+            final String newValue) {
+        final String internalName = toInternal(refName);
+        String currentValue = readTxRef(refName);
+        if (!Objects.equal(expectedValue, currentValue)) {
+            return false;
+        }
+        // the transaction namespace value must not have changed in the meantime; it is null if
+        // the current value came from the original namespace
+        String internalValue = readRef(internalName);
+        return refDb.compareAndPut(internalName, internalValue, newValue);
+    }
+
+    private String readTxRef(String name) {
+        String value = null;
+        try {
+            value = getRef(name);
+        } catch (IllegalArgumentException e) {
+            value = getSymRef(name);
+        }
+        return value;
+    }
+
     @Override
     public String remove(final String refName) {
         return refDb.remove(toInternal(refName));
@@ -203,6 +235,14 @@ public class TransactionRefDatabase implements RefDatabase {
 
     }
 
+    /**
+     * Does nothing, the refs of a transaction are short lived.
+     */
+    @Override
+    public void packRefs() {
+        //
+    }
+
     @Override
     public Map<String, String> removeAll(String namespace) {
         final String txMappedNamespace = toInternal(namespace);
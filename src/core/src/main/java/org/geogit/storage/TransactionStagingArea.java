@@ -48,8 +48,19 @@ public class TransactionStagingArea implements StagingArea {
      * @param transactionId the transaction id
      */
     public TransactionStagingArea(final StagingArea index, final UUID transactionId) {
+        this(index, new TransactionStagingDatabase(index.getDatabase(), transactionId));
+    }
+
+    /**
+     * Constructs a new {@code TransactionStagingArea} over the given transaction database.
+     * 
+     * @param index the repository index
+     * @param database the transaction staging database
+     */
+    public TransactionStagingArea(final StagingArea index,
+            final TransactionStagingDatabase database) {
         this.index = index;
-        database = new TransactionStagingDatabase(index.getDatabase(), transactionId);
+        this.database = database;
     }
 
     /**
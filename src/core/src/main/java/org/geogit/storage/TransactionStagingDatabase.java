@@ -8,7 +8,11 @@ import static org.geogit.api.Ref.append;
 
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nullable;
 
@@ -24,7 +28,14 @@ import org.geogit.api.plumbing.TransactionBegin;
 import org.geogit.api.plumbing.TransactionEnd;
 import org.geogit.api.plumbing.merge.Conflict;
 
+import com.google.common.base.Function;
 import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 
 /**
  * A {@link StagingDatabase} decorator for a specific {@link GeogitTransaction transaction}.
@@ -32,6 +43,13 @@ import com.google.common.base.Optional;
  * This decorator creates a transaction specific namespace under the
  * {@code transactions/<transaction id>} path, and maps all query and storage methods to that
  * namespace.
+ * <p>
+ * New objects are held in an in-memory overlay, up to a {@link #DEFAULT_OVERLAY_LIMIT limit} of
+ * objects past which they're spilled to the original database, so that short transactions don't
+ * write, move, and delete their objects from the shared staging database. Objects moved out of
+ * the staging database by the transaction's commits are dropped from the overlay, and the surviving
+ * ones are either {@link #writeOverlay(ObjectDatabase) written} to the repository when the
+ * transaction is committed, or {@link #clearOverlay() discarded} if it's cancelled.
  * 
  * @see GeogitTransaction
  * @see TransactionBegin
@@ -39,23 +57,101 @@ import com.google.common.base.Optional;
  */
 public class TransactionStagingDatabase implements StagingDatabase {
 
+    /**
+     * Default maximum number of objects held in memory by a transaction
+     */
+    public static final int DEFAULT_OVERLAY_LIMIT = 10 * 1000;
+
+    private static final int GET_ALL_BATCH_SIZE = 1000;
+
     private final StagingDatabase database;
 
     private final String txNamespace;
 
+    private final ConcurrentMap<ObjectId, RevObject> overlay;
+
+    private final int overlayLimit;
+
     /**
-     * Constructs a new {@code TransactionStagingDatabase}.
+     * Constructs a new {@code TransactionStagingDatabase} with the
+     * {@link #DEFAULT_OVERLAY_LIMIT default overlay limit}.
      * 
      * @param database the original staging database
      * @param transactionId the transaction id
      */
     public TransactionStagingDatabase(final StagingDatabase database, final UUID transactionId) {
+        this(database, transactionId, DEFAULT_OVERLAY_LIMIT);
+    }
+
+    /**
+     * Constructs a new {@code TransactionStagingDatabase}.
+     * 
+     * @param database the original staging database
+     * @param transactionId the transaction id
+     * @param overlayLimit the maximum number of objects to hold in memory before spilling them to
+     *        the original database, {@code 0} meaning all objects go to the original database
+     */
+    public TransactionStagingDatabase(final StagingDatabase database, final UUID transactionId,
+            final int overlayLimit) {
+        Preconditions.checkArgument(overlayLimit >= 0, "overlayLimit must be >= 0: %s",
+                overlayLimit);
         this.database = database;
+        this.overlayLimit = overlayLimit;
+        this.overlay = new ConcurrentHashMap<ObjectId, RevObject>();
         this.txNamespace = append(
                 append(GeogitTransaction.TRANSACTIONS_NAMESPACE, transactionId.toString()),
                 "conflicts");
     }
 
+    /**
+     * @return the number of objects currently held in memory
+     */
+    public int getOverlaySize() {
+        return overlay.size();
+    }
+
+    /**
+     * Writes the objects held in memory to the given database in a single
+     * {@link ObjectDatabase#putAll(Iterator) putAll} and clears the overlay.
+     * 
+     * @param target the repository object database
+     */
+    public void writeOverlay(ObjectDatabase target) {
+        if (!overlay.isEmpty()) {
+            target.putAll(ImmutableList.copyOf(overlay.values()).iterator());
+            overlay.clear();
+        }
+    }
+
+    /**
+     * Discards the objects held in memory.
+     */
+    public void clearOverlay() {
+        overlay.clear();
+    }
+
+    /**
+     * Adds the object to the overlay if there's room for it and it doesn't exist in the original
+     * database.
+     * 
+     * @return {@code null} if the object was not added because the overlay is full, or whether it
+     *         was inserted
+     */
+    @Nullable
+    private Boolean putOverlay(final RevObject object) {
+        final ObjectId id = object.getId();
+        if (overlay.containsKey(id)) {
+            return Boolean.FALSE;
+        }
+        if (overlay.size() >= overlayLimit) {
+            return null;
+        }
+        if (database.exists(id)) {
+            return Boolean.FALSE;
+        }
+        return Boolean.valueOf(overlay.putIfAbsent(id, object) == null);
+    }
+
     /**
      * Pass through to the original {@link StagingDatabase}.
      */
@@ -82,131 +178,197 @@ public class TransactionStagingDatabase implements StagingDatabase {
     }
 
     /**
-     * Pass through to the original {@link StagingDatabase}.
+     * Looks up the in-memory overlay first, then the original {@link StagingDatabase}.
      */
     @Override
     public boolean exists(ObjectId id) {
-        return database.exists(id);
+        return overlay.containsKey(id) || database.exists(id);
     }
 
     /**
-     * Pass through to the original {@link StagingDatabase}.
+     * Looks up the in-memory overlay first, then the original {@link StagingDatabase}.
      */
     @Override
     public List<ObjectId> lookUp(String partialId) {
-        return database.lookUp(partialId);
+        List<ObjectId> found = database.lookUp(partialId);
+        if (overlay.isEmpty()) {
+            return found;
+        }
+        Set<ObjectId> lookUp = Sets.newHashSet(found);
+        for (ObjectId id : overlay.keySet()) {
+            if (id.toString().startsWith(partialId)) {
+                lookUp.add(id);
+            }
+        }
+        return Lists.newArrayList(lookUp);
     }
 
     /**
-     * Pass through to the original {@link StagingDatabase}.
+     * Looks up the in-memory overlay first, then the original {@link StagingDatabase}.
      */
     @Override
     public RevObject get(ObjectId id) throws IllegalArgumentException {
-        return database.get(id);
+        RevObject object = overlay.get(id);
+        return object == null ? database.get(id) : object;
     }
 
     /**
-     * Pass through to the original {@link StagingDatabase}.
+     * Looks up the in-memory overlay first, then the original {@link StagingDatabase}.
      */
     @Override
     public <T extends RevObject> T get(ObjectId id, Class<T> type) throws IllegalArgumentException {
-        return database.get(id, type);
+        RevObject object = overlay.get(id);
+        return object == null ? database.get(id, type) : cast(object, type);
     }
 
     /**
-     * Pass through to the original {@link StagingDatabase}.
+     * Looks up the in-memory overlay first, then the original {@link StagingDatabase}.
      */
     @Override
     public @Nullable
     RevObject getIfPresent(ObjectId id) {
-        return database.getIfPresent(id);
+        RevObject object = overlay.get(id);
+        return object == null ? database.getIfPresent(id) : object;
     }
 
     /**
-     * Pass through to the original {@link StagingDatabase}.
+     * Looks up the in-memory overlay first, then the original {@link StagingDatabase}.
      */
     @Override
     public @Nullable
     <T extends RevObject> T getIfPresent(ObjectId id, Class<T> type)
             throws IllegalArgumentException {
-        return database.getIfPresent(id, type);
+        RevObject object = overlay.get(id);
+        return object == null ? database.getIfPresent(id, type) : cast(object, type);
+    }
+
+    private static <T extends RevObject> T cast(RevObject object, Class<T> type) {
+        Preconditions.checkArgument(type.isInstance(object), "%s is not of type %s",
+                object.getId(), type.getSimpleName());
+        return type.cast(object);
     }
 
     /**
-     * Pass through to the original {@link StagingDatabase}.
+     * Looks up the in-memory overlay first, then the original {@link StagingDatabase}.
      */
     @Override
     public RevTree getTree(ObjectId id) {
-        return database.getTree(id);
+        return get(id, RevTree.class);
     }
 
     /**
-     * Pass through to the original {@link StagingDatabase}.
+     * Looks up the in-memory overlay first, then the original {@link StagingDatabase}.
      */
     @Override
     public RevFeature getFeature(ObjectId id) {
-        return database.getFeature(id);
+        return get(id, RevFeature.class);
     }
 
     /**
-     * Pass through to the original {@link StagingDatabase}.
+     * Looks up the in-memory overlay first, then the original {@link StagingDatabase}.
      */
     @Override
     public RevFeatureType getFeatureType(ObjectId id) {
-        return database.getFeatureType(id);
+        return get(id, RevFeatureType.class);
     }
 
     /**
-     * Pass through to the original {@link StagingDatabase}.
+     * Looks up the in-memory overlay first, then the original {@link StagingDatabase}.
      */
     @Override
     public RevCommit getCommit(ObjectId id) {
-        return database.getCommit(id);
+        return get(id, RevCommit.class);
     }
 
     /**
-     * Pass through to the original {@link StagingDatabase}.
+     * Looks up the in-memory overlay first, then the original {@link StagingDatabase}.
      */
     @Override
     public RevTag getTag(ObjectId id) {
-        return database.getTag(id);
+        return get(id, RevTag.class);
     }
 
     /**
-     * Pass through to the original {@link StagingDatabase}.
+     * Adds the object to the in-memory overlay, or to the original {@link StagingDatabase} if the
+     * overlay is full.
      */
     @Override
     public boolean put(RevObject object) {
-        return database.put(object);
+        Boolean inserted = putOverlay(object);
+        return inserted == null ? database.put(object) : inserted.booleanValue();
     }
 
     /**
-     * Pass through to the original {@link StagingDatabase}.
+     * @return an inserter for this database, so that inserted objects go to the overlay
      */
     @Override
     public ObjectInserter newObjectInserter() {
-        return database.newObjectInserter();
+        return new ObjectInserter(this);
     }
 
     /**
-     * Pass through to the original {@link StagingDatabase}.
+     * Deletes the object from the in-memory overlay and the original {@link StagingDatabase}.
      */
     @Override
     public boolean delete(ObjectId objectId) {
-        return database.delete(objectId);
+        boolean deleted = overlay.remove(objectId) != null;
+        return database.delete(objectId) || deleted;
     }
 
     /**
-     * Pass through to the original {@link StagingDatabase}.
+     * Adds the objects to the in-memory overlay, spilling the ones that don't fit to the original
+     * {@link StagingDatabase}.
      */
     @Override
     public void putAll(Iterator<? extends RevObject> objects, final BulkOpListener listener) {
-        database.putAll(objects, listener);
+        // objects that don't fit in the overlay are spilled to the original database
+        Iterator<? extends RevObject> spilled = Iterators.filter(objects,
+                new Predicate<RevObject>() {
+                    @Override
+                    public boolean apply(RevObject object) {
+                        Boolean inserted = putOverlay(object);
+                        if (inserted == null) {
+                            return true;
+                        }
+                        if (inserted.booleanValue()) {
+                            listener.inserted(object.getId(), null);
+                        } else {
+                            listener.found(object.getId(), null);
+                        }
+                        return false;
+                    }
+                });
+        database.putAll(spilled, listener);
     }
 
     @Override
-    public Iterator<RevObject> getAll(Iterable<ObjectId> ids, final BulkOpListener listener) {
-        return database.getAll(ids, listener);
+    public Iterator<RevObject> getAll(final Iterable<ObjectId> ids, final BulkOpListener listener) {
+        if (overlay.isEmpty()) {
+            return database.getAll(ids, listener);
+        }
+        Iterator<List<ObjectId>> batches = Iterators.partition(ids.iterator(), GET_ALL_BATCH_SIZE);
+        return Iterators.concat(Iterators.transform(batches,
+                new Function<List<ObjectId>, Iterator<RevObject>>() {
+                    @Override
+                    public Iterator<RevObject> apply(List<ObjectId> batch) {
+                        List<RevObject> found = Lists.newArrayListWithCapacity(batch.size());
+                        List<ObjectId> missing = Lists.newArrayList();
+                        for (ObjectId id : batch) {
+                            RevObject object = overlay.get(id);
+                            if (object == null) {
+                                missing.add(id);
+                            } else {
+                                listener.found(id, null);
+                                found.add(object);
+                            }
+                        }
+                        if (missing.isEmpty()) {
+                            return found.iterator();
+                        }
+                        return Iterators.concat(found.iterator(),
+                                database.getAll(missing, listener));
+                    }
+                }));
     }
 
     /**
@@ -265,7 +427,22 @@ public class TransactionStagingDatabase implements StagingDatabase {
 
     @Override
     public long deleteAll(Iterator<ObjectId> ids, final BulkOpListener listener) {
-        return database.deleteAll(ids, listener);
+        if (overlay.isEmpty()) {
+            return database.deleteAll(ids, listener);
+        }
+        final AtomicLong deleted = new AtomicLong();
+        Iterator<ObjectId> notInOverlay = Iterators.filter(ids, new Predicate<ObjectId>() {
+            @Override
+            public boolean apply(ObjectId id) {
+                if (overlay.remove(id) == null) {
+                    return true;
+                }
+                deleted.incrementAndGet();
+                listener.deleted(id);
+                return false;
+            }
+        });
+        return database.deleteAll(notInOverlay, listener) + deleted.get();
     }
 
     @Override
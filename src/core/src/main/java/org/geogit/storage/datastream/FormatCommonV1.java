@@ -295,15 +295,34 @@ public class FormatCommonV1 {
         final ImmutableList.Builder<Optional<Object>> builder = ImmutableList.builder();
 
         for (int i = 0; i < count; i++) {
-            final byte fieldTag = in.readByte();
-            final FieldType fieldType = FieldType.valueOf(fieldTag);
-            Object value = DataStreamValueSerializerV1.read(fieldType, in);
-            builder.add(Optional.fromNullable(value));
+            builder.add(readValue(in));
         }
 
         return new RevFeatureImpl(id, builder.build());
     }
 
+    /**
+     * Reads a single feature attribute value, preceded by its {@link FieldType} tag.
+     */
+    public static Optional<Object> readValue(DataInput in) throws IOException {
+        final byte fieldTag = in.readByte();
+        final FieldType fieldType = FieldType.valueOf(fieldTag);
+        Object value = DataStreamValueSerializerV1.read(fieldType, in);
+        return Optional.fromNullable(value);
+    }
+
+    /**
+     * Writes a single feature attribute value, preceded by its {@link FieldType} tag, as
+     * {@link #readValue(DataInput)} reads it.
+     */
+    public static void writeValue(Optional<Object> value, DataOutput data) throws IOException {
+        FieldType type = FieldType.forValue(value);
+        data.writeByte(type.getTag());
+        if (type != FieldType.NULL) {
+            DataStreamValueSerializerV1.write(value, data);
+        }
+    }
+
     public static RevFeatureType readFeatureType(ObjectId id, DataInput in) throws IOException {
         return readFeatureType(id, in, DEFAULT_FEATURETYPE_FACTORY);
     }
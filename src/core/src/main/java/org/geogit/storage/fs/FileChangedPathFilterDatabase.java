@@ -0,0 +1,135 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.fs;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.Platform;
+import org.geogit.api.plumbing.ResolveGeogitDir;
+import org.geogit.storage.ChangedPathFilter;
+import org.geogit.storage.ChangedPathFilterDatabase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.io.Closeables;
+import com.google.inject.Inject;
+
+/**
+ * A {@link ChangedPathFilterDatabase} that stores the filter of each commit in its own file under
+ * the {@code pathfilters} directory of the repository, using the same directory layout than
+ * {@link FileObjectDatabase}.
+ * <p>
+ * Files are written to a temporary file and then renamed, so concurrent readers never see a
+ * partially written filter. If the repository directory can't be found this database is empty and
+ * ignores any filter stored to it.
+ */
+public class FileChangedPathFilterDatabase implements ChangedPathFilterDatabase {
+
+    private static final Logger LOGGER = LoggerFactory
+            .getLogger(FileChangedPathFilterDatabase.class);
+
+    private static final String FILTERS_DIR = "pathfilters";
+
+    private final Platform platform;
+
+    private volatile File dataRoot;
+
+    @Inject
+    public FileChangedPathFilterDatabase(final Platform platform) {
+        checkNotNull(platform);
+        this.platform = platform;
+    }
+
+    @Override
+    public Optional<ChangedPathFilter> get(ObjectId commitId) {
+        final File file = filePath(commitId);
+        if (file == null || !file.exists()) {
+            return Optional.absent();
+        }
+        InputStream in = null;
+        try {
+            in = new BufferedInputStream(new FileInputStream(file));
+            return Optional.of(ChangedPathFilter.readFrom(in));
+        } catch (IOException e) {
+            LOGGER.debug("Error reading changed path filter {}", file, e);
+            return Optional.absent();
+        } finally {
+            Closeables.closeQuietly(in);
+        }
+    }
+
+    @Override
+    public void put(ObjectId commitId, ChangedPathFilter filter) {
+        final File file = filePath(commitId);
+        if (file == null) {
+            return;
+        }
+        final File parent = file.getParentFile();
+        if (!parent.exists() && !parent.mkdirs() && !parent.exists()) {
+            throw new IllegalStateException("Can't create " + parent.getAbsolutePath());
+        }
+        try {
+            File tmp = File.createTempFile(file.getName(), ".tmp", parent);
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp));
+            try {
+                filter.writeTo(out);
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                // on some platforms rename doesn't replace an existing file
+                file.delete();
+                if (!tmp.renameTo(file)) {
+                    tmp.delete();
+                }
+            }
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    @Nullable
+    private File filePath(final ObjectId commitId) {
+        final File root = dataRoot();
+        if (root == null) {
+            return null;
+        }
+        final String name = commitId.toString();
+        File dir = new File(new File(root, name.substring(0, 2)), name.substring(2, 4));
+        return new File(dir, name);
+    }
+
+    @Nullable
+    private File dataRoot() {
+        if (dataRoot == null) {
+            final Optional<URL> repoUrl = new ResolveGeogitDir(platform).call();
+            if (!repoUrl.isPresent()) {
+                return null;
+            }
+            try {
+                dataRoot = new File(new File(repoUrl.get().toURI()), FILTERS_DIR);
+            } catch (URISyntaxException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+        return dataRoot;
+    }
+}
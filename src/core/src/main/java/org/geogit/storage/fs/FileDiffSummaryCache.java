@@ -0,0 +1,251 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.fs;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.Platform;
+import org.geogit.api.plumbing.ResolveGeogitDir;
+import org.geogit.api.porcelain.ConfigException;
+import org.geogit.storage.AbstractDiffSummaryCache;
+import org.geogit.storage.ConfigDatabase;
+import org.geogit.storage.DiffSummaryCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.google.inject.Inject;
+
+/**
+ * A {@link DiffSummaryCache} that stores each summary in its own small file under the
+ * {@code diffcache} directory of the repository, using the same directory layout than
+ * {@link FileObjectDatabase}.
+ * <p>
+ * Files are written to a temporary file and then renamed, so concurrent readers never see a
+ * partially written entry. If the repository directory can't be found (e.g. the repository has not
+ * been initialized yet) this cache does nothing.
+ * <p>
+ * The number of entries is capped by the {@code diffcache.maxentries} config key, looked up in the
+ * repository and then in the global config. Once the cap is reached the least recently used
+ * entries are deleted. Recency is kept in memory and in the files' modification times, so it
+ * survives restarts.
+ */
+public class FileDiffSummaryCache extends AbstractDiffSummaryCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileDiffSummaryCache.class);
+
+    private static final String CACHE_DIR = "diffcache";
+
+    static final String MAX_ENTRIES_KEY = "diffcache.maxentries";
+
+    static final int DEFAULT_MAX_ENTRIES = 50 * 1000;
+
+    private final Platform platform;
+
+    private final Supplier<Integer> maxEntries;
+
+    private volatile File dataRoot;
+
+    /**
+     * The ids of the cached entries, least recently used first, loaded from disk on first use
+     */
+    private LinkedHashMap<ObjectId, Boolean> entries;
+
+    @Inject
+    public FileDiffSummaryCache(final Platform platform, final ConfigDatabase configDatabase) {
+        checkNotNull(platform);
+        checkNotNull(configDatabase);
+        this.platform = platform;
+        this.maxEntries = Suppliers.memoize(new Supplier<Integer>() {
+            @Override
+            public Integer get() {
+                return configuredMaxEntries(configDatabase);
+            }
+        });
+    }
+
+    @VisibleForTesting
+    FileDiffSummaryCache(final Platform platform, final int maxEntries) {
+        checkNotNull(platform);
+        checkArgument(maxEntries > 0);
+        this.platform = platform;
+        this.maxEntries = Suppliers.ofInstance(Integer.valueOf(maxEntries));
+    }
+
+    private static int configuredMaxEntries(ConfigDatabase configDatabase) {
+        Optional<Integer> configured;
+        try {
+            configured = configDatabase.get(MAX_ENTRIES_KEY, Integer.class);
+            if (!configured.isPresent()) {
+                configured = configDatabase.getGlobal(MAX_ENTRIES_KEY, Integer.class);
+            }
+        } catch (ConfigException e) {
+            // no repository or global config to read from
+            configured = Optional.absent();
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("Invalid value for {}, using {}", MAX_ENTRIES_KEY, DEFAULT_MAX_ENTRIES);
+            configured = Optional.absent();
+        }
+        if (configured.isPresent() && configured.get().intValue() < 1) {
+            LOGGER.warn("Invalid value for {}, using {}", MAX_ENTRIES_KEY, DEFAULT_MAX_ENTRIES);
+            configured = Optional.absent();
+        }
+        return configured.or(DEFAULT_MAX_ENTRIES).intValue();
+    }
+
+    @Override
+    @Nullable
+    protected byte[] getRaw(ObjectId key) {
+        final File file = filePath(key);
+        if (file == null || !file.exists()) {
+            return null;
+        }
+        final byte[] value;
+        try {
+            value = Files.toByteArray(file);
+        } catch (IOException e) {
+            LOGGER.debug("Error reading diff cache entry {}", file, e);
+            return null;
+        }
+        synchronized (this) {
+            // might have been stored by another process, index it either way
+            entries().put(key, Boolean.TRUE);
+        }
+        file.setLastModified(platform.currentTimeMillis());
+        return value;
+    }
+
+    @Override
+    protected void putRaw(ObjectId key, byte[] value) {
+        final File file = filePath(key);
+        if (file == null) {
+            return;
+        }
+        final File parent = file.getParentFile();
+        if (!parent.exists() && !parent.mkdirs() && !parent.exists()) {
+            throw new IllegalStateException("Can't create " + parent.getAbsolutePath());
+        }
+        try {
+            File tmp = File.createTempFile(file.getName(), ".tmp", parent);
+            Files.write(value, tmp);
+            if (!tmp.renameTo(file)) {
+                // someone else stored the same entry concurrently
+                tmp.delete();
+            }
+            file.setLastModified(platform.currentTimeMillis());
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        evict(key);
+    }
+
+    /**
+     * Records the given entry as the most recently used one and deletes the least recently used
+     * ones above the cap
+     */
+    private synchronized void evict(ObjectId added) {
+        final LinkedHashMap<ObjectId, Boolean> entries = entries();
+        entries.put(added, Boolean.TRUE);
+        final int maxEntries = this.maxEntries.get().intValue();
+        Iterator<ObjectId> eldest = entries.keySet().iterator();
+        while (entries.size() > maxEntries && eldest.hasNext()) {
+            File file = filePath(eldest.next());
+            eldest.remove();
+            if (file != null) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * @return the index of the cached entries, scanning the cache directory the first time,
+     *         oldest files first
+     */
+    private LinkedHashMap<ObjectId, Boolean> entries() {
+        if (entries == null) {
+            entries = new LinkedHashMap<ObjectId, Boolean>(16, 0.75f, true);
+            final File root = dataRoot();
+            if (root != null && root.isDirectory()) {
+                List<File> files = Lists.newArrayList();
+                for (File dir : listFiles(root)) {
+                    for (File subdir : listFiles(dir)) {
+                        for (File file : listFiles(subdir)) {
+                            // skip the temporary files of ongoing writes
+                            if (file.getName().length() == 2 * ObjectId.NUM_BYTES) {
+                                files.add(file);
+                            }
+                        }
+                    }
+                }
+                Collections.sort(files, new Comparator<File>() {
+                    @Override
+                    public int compare(File f1, File f2) {
+                        return Long.compare(f1.lastModified(), f2.lastModified());
+                    }
+                });
+                for (File file : files) {
+                    try {
+                        entries.put(ObjectId.valueOf(file.getName()), Boolean.TRUE);
+                    } catch (IllegalArgumentException e) {
+                        file.delete();
+                    }
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static File[] listFiles(File dir) {
+        File[] files = dir.listFiles();
+        return files == null ? new File[0] : files;
+    }
+
+    @Nullable
+    private File filePath(final ObjectId key) {
+        final File root = dataRoot();
+        if (root == null) {
+            return null;
+        }
+        final String name = key.toString();
+        File dir = new File(new File(root, name.substring(0, 2)), name.substring(2, 4));
+        return new File(dir, name);
+    }
+
+    @Nullable
+    private File dataRoot() {
+        if (dataRoot == null) {
+            final Optional<URL> repoUrl = new ResolveGeogitDir(platform).call();
+            if (!repoUrl.isPresent()) {
+                return null;
+            }
+            try {
+                dataRoot = new File(new File(repoUrl.get().toURI()), CACHE_DIR);
+            } catch (URISyntaxException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+        return dataRoot;
+    }
+}
@@ -17,7 +17,17 @@ import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.charset.Charset;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nullable;
 
 import org.geogit.api.ObjectId;
 import org.geogit.api.Platform;
@@ -26,9 +36,11 @@ import org.geogit.repository.RepositoryConnectionException;
 import org.geogit.storage.AbstractRefDatabase;
 import org.geogit.storage.ConfigDatabase;
 
+import com.google.common.base.Objects;
 import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Maps;
 import com.google.common.io.Files;
 import com.google.inject.Inject;
@@ -36,15 +48,49 @@ import com.google.inject.Inject;
 /**
  * Provides an implementation of a GeoGit ref database that utilizes the file system for the storage
  * of refs.
+ * <p>
+ * Each ref is stored as a loose file named after the ref, and the refs under the {@code refs}
+ * namespace can be {@link #packRefs() packed} into a single {@code packed-refs} file that is read
+ * in one go. Loose refs override packed ones, so a packed ref is updated by just writing its loose
+ * file. Packing is only done when explicitly asked for, reads never write.
+ * <p>
+ * Both loose and packed ref values are cached in memory and validated against the modification
+ * time and size of their files, so resolving a ref that hasn't changed is a hash lookup plus a
+ * single file attributes read, and changes made by other processes are still noticed. Files
+ * modified within {@link #TIMESTAMP_GRANULARITY_MILLIS} of being read are read again until they
+ * age, as a later change could leave their modification time unchanged.
  */
 public class FileRefDatabase extends AbstractRefDatabase {
 
     private static final Charset CHARSET = Charset.forName("UTF-8");
 
+    private static final String PACKED_REFS = "packed-refs";
+
+    private static final String PACKED_REFS_HEADER = "# geogit packed-refs";
+
+    /**
+     * Coarsest modification time granularity of the supported file systems (FAT's is 2 seconds).
+     * A cached value is only trusted if its file was last modified longer than this before it was
+     * read, as a file changed again within the same time granule would keep its modification time
+     * and possibly its size.
+     */
+    static final long TIMESTAMP_GRANULARITY_MILLIS = 2000;
+
     private final Platform platform;
 
     private final ConfigDatabase configDB;
 
+    /**
+     * Cached loose ref values, key'ed by ref name
+     */
+    private final ConcurrentMap<String, CachedRef> looseRefs = Maps.newConcurrentMap();
+
+    private volatile PackedRefs packedRefs = PackedRefs.EMPTY;
+
+    private volatile File cachedPwd;
+
+    private volatile File cachedGeogitDir;
+
     /**
      * Constructs a new {@code FileRefDatabase} with the given platform.
      * 
@@ -98,11 +144,7 @@ public class FileRefDatabase extends AbstractRefDatabase {
     @Override
     public String getRef(String name) {
         checkNotNull(name);
-        File refFile = toFile(name);
-        if (!refFile.exists() || refFile.isDirectory()) {
-            return null;
-        }
-        String value = readRef(refFile);
+        String value = resolve(name);
         if (value == null) {
             return null;
         }
@@ -121,11 +163,7 @@ public class FileRefDatabase extends AbstractRefDatabase {
     @Override
     public String getSymRef(String name) {
         checkNotNull(name);
-        File refFile = toFile(name);
-        if (!refFile.exists() || refFile.isDirectory()) {
-            return null;
-        }
-        String value = readRef(refFile);
+        String value = resolve(name);
         if (value == null) {
             return null;
         }
@@ -135,6 +173,19 @@ public class FileRefDatabase extends AbstractRefDatabase {
         return value.substring("ref: ".length());
     }
 
+    /**
+     * @return the value of the loose ref, or the packed one if there's no loose ref with that name
+     */
+    @Nullable
+    private String resolve(String name) {
+        File refFile = toFile(name);
+        String value = readLooseRef(name, refFile);
+        if (value == null && name.startsWith("refs/")) {
+            value = packedRefs().refs.get(name);
+        }
+        return value;
+    }
+
     /**
      * @param refName the name of the ref
      * @param refValue the value of the ref
@@ -185,7 +236,10 @@ public class FileRefDatabase extends AbstractRefDatabase {
         } else {
             oldRef = null;
         }
-        return oldRef;
+        looseRefs.remove(refName);
+
+        String packedRef = removePacked(refName);
+        return oldRef == null ? packedRef : oldRef;
     }
 
     /**
@@ -193,19 +247,59 @@ public class FileRefDatabase extends AbstractRefDatabase {
      * @return
      */
     private File toFile(String refPath) {
-        Optional<URL> envHome = new ResolveGeogitDir(platform).call();
-
         String[] path = refPath.split("/");
 
-        try {
-            File file = new File(envHome.get().toURI());
-            for (String subpath : path) {
-                file = new File(file, subpath);
+        File file = geogitDir();
+        for (String subpath : path) {
+            file = new File(file, subpath);
+        }
+        return file;
+    }
+
+    /**
+     * @return the repository directory, resolved only once for a given working directory
+     */
+    private File geogitDir() {
+        final File pwd = platform.pwd();
+        File geogitDir = this.cachedGeogitDir;
+        if (geogitDir == null || !Objects.equal(pwd, this.cachedPwd)) {
+            Optional<URL> envHome = new ResolveGeogitDir(platform).call();
+            try {
+                geogitDir = new File(envHome.get().toURI());
+            } catch (Exception e) {
+                throw Throwables.propagate(e);
             }
-            return file;
-        } catch (Exception e) {
-            throw Throwables.propagate(e);
+            this.cachedGeogitDir = geogitDir;
+            this.cachedPwd = pwd;
         }
+        return geogitDir;
+    }
+
+    /**
+     * Reads the loose ref, using the cached value if the ref file hasn't changed since it was
+     * last read.
+     * 
+     * @return the loose ref value, or {@code null} if there's no loose ref with that name
+     */
+    @Nullable
+    private String readLooseRef(final String refName, final File refFile) {
+        final long readTime = System.currentTimeMillis();
+        BasicFileAttributes attributes = attributes(refFile);
+        if (attributes == null || attributes.isDirectory()) {
+            looseRefs.remove(refName);
+            return null;
+        }
+        CachedRef cached = looseRefs.get(refName);
+        if (cached != null && cached.isCurrent(attributes)) {
+            return cached.value;
+        }
+        // the attributes are read before the contents, so the worst case is reading the file
+        // again if it's changed in between
+        String value = readRef(refFile);
+        if (value != null) {
+            looseRefs.put(refName, new CachedRef(attributes, readTime, value));
+        }
+        return value;
     }
 
     private String readRef(final File refFile) {
@@ -242,6 +336,13 @@ public class FileRefDatabase extends AbstractRefDatabase {
                 } finally {
                     fout.close();
                 }
+                final long readTime = System.currentTimeMillis();
+                BasicFileAttributes attributes = attributes(refFile);
+                if (attributes == null) {
+                    looseRefs.remove(refName);
+                } else {
+                    looseRefs.put(refName, new CachedRef(attributes, readTime, refValue));
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -263,18 +364,16 @@ public class FileRefDatabase extends AbstractRefDatabase {
      */
     @Override
     public Map<String, String> getAll(String namespace) {
-        File refsRoot;
-        try {
-            Optional<URL> envHome = new ResolveGeogitDir(platform).call();
-            refsRoot = new File(envHome.get().toURI());
-        } catch (Exception e) {
-            throw Throwables.propagate(e);
-        }
+        File refsRoot = geogitDir();
         if (namespace.endsWith("/")) {
             namespace = namespace.substring(0, namespace.length() - 1);
         }
         Map<String, String> refs = Maps.newTreeMap();
-        findRefs(refsRoot, namespace, refs);
+        // loose refs override packed ones
+        refs.putAll(packedRefs().under(namespace));
+        Map<String, String> loose = Maps.newTreeMap();
+        findRefs(refsRoot, namespace, loose);
+        refs.putAll(loose);
         return ImmutableMap.copyOf(refs);
     }
 
@@ -300,18 +399,202 @@ public class FileRefDatabase extends AbstractRefDatabase {
                 addAll(f, namespace, target);
             } else if (fileName.length() == 0 || fileName.charAt(0) != '.') {
                 String refName = append(prefix, fileName);
-                String refValue = readRef(f);
-                target.put(refName, refValue);
+                String refValue = readLooseRef(refName, f);
+                if (refValue != null) {
+                    target.put(refName, refValue);
+                }
             }
         }
     }
 
+    /**
+     * Moves all the loose refs under the {@code refs} namespace, except symbolic refs, to the
+     * {@code packed-refs} file.
+     * <p>
+     * The packed refs file is replaced atomically, and a loose ref is only deleted if its value
+     * didn't change while being packed.
+     */
+    @Override
+    public void packRefs() {
+        final File packedFile = packedRefsFile();
+        synchronized (lockName(packedFile)) {
+            Map<String, String> loose = Maps.newTreeMap();
+            findRefs(geogitDir(), "refs", loose);
+            Map<String, String> packed = Maps.newTreeMap(packedRefs().refs);
+            for (Entry<String, String> ref : loose.entrySet()) {
+                if (!ref.getValue().startsWith("ref: ")) {
+                    packed.put(ref.getKey(), ref.getValue());
+                }
+            }
+            writePackedRefs(packed);
+
+            for (Entry<String, String> ref : loose.entrySet()) {
+                final String refName = ref.getKey();
+                final String value = ref.getValue();
+                if (value.startsWith("ref: ")) {
+                    continue;
+                }
+                File refFile = toFile(refName);
+                synchronized (lockName(refFile)) {
+                    if (value.equals(readRef(refFile)) && !refFile.delete()) {
+                        throw new RuntimeException("Unable to delete ref file '"
+                                + refFile.getAbsolutePath() + "'");
+                    }
+                    looseRefs.remove(refName);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the packed value of the ref, or {@code null} if it was not packed
+     */
+    @Nullable
+    private String removePacked(final String refName) {
+        if (!packedRefs().refs.containsKey(refName)) {
+            return null;
+        }
+        final File packedFile = packedRefsFile();
+        synchronized (lockName(packedFile)) {
+            Map<String, String> packed = Maps.newTreeMap(packedRefs().refs);
+            String oldValue = packed.remove(refName);
+            if (oldValue != null) {
+                writePackedRefs(packed);
+            }
+            return oldValue;
+        }
+    }
+
+    /**
+     * @return the packed refs, reloading them if the {@code packed-refs} file changed since it was
+     *         last read
+     */
+    private PackedRefs packedRefs() {
+        final File packedFile = packedRefsFile();
+        BasicFileAttributes attributes = attributes(packedFile);
+        if (attributes == null) {
+            packedRefs = PackedRefs.EMPTY;
+            return PackedRefs.EMPTY;
+        }
+        PackedRefs current = this.packedRefs;
+        if (current.isCurrent(attributes)) {
+            return current;
+        }
+        synchronized (lockName(packedFile)) {
+            final long readTime = System.currentTimeMillis();
+            attributes = attributes(packedFile);
+            if (attributes == null) {
+                packedRefs = PackedRefs.EMPTY;
+                return PackedRefs.EMPTY;
+            }
+            List<String> lines;
+            try {
+                lines = Files.readLines(packedFile, CHARSET);
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+            ImmutableSortedMap.Builder<String, String> refs = ImmutableSortedMap.naturalOrder();
+            for (String line : lines) {
+                if (line.isEmpty() || line.charAt(0) == '#') {
+                    continue;
+                }
+                int separator = line.indexOf(' ');
+                checkState(separator > 0, "Invalid packed ref: '%s'", line);
+                refs.put(line.substring(separator + 1), line.substring(0, separator));
+            }
+            current = new PackedRefs(attributes, readTime, refs.build());
+            packedRefs = current;
+            return current;
+        }
+    }
+
+    /**
+     * Writes the packed refs to a temporary file and atomically moves it over the
+     * {@code packed-refs} file.
+     */
+    private void writePackedRefs(final Map<String, String> refs) {
+        final File packedFile = packedRefsFile();
+        try {
+            File tmp = File.createTempFile(PACKED_REFS, ".tmp", packedFile.getParentFile());
+            try {
+                FileOutputStream fout = new FileOutputStream(tmp);
+                try {
+                    StringBuilder sb = new StringBuilder(PACKED_REFS_HEADER).append('\n');
+                    for (Entry<String, String> ref : refs.entrySet()) {
+                        sb.append(ref.getValue()).append(' ').append(ref.getKey()).append('\n');
+                    }
+                    fout.write(sb.toString().getBytes(CHARSET));
+                    fout.flush();
+                    // force change to be persisted to disk before making it visible
+                    fout.getFD().sync();
+                } finally {
+                    fout.close();
+                }
+                java.nio.file.Files.move(tmp.toPath(), packedFile.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                if (tmp.exists()) {
+                    tmp.delete();
+                }
+            }
+            final long readTime = System.currentTimeMillis();
+            BasicFileAttributes attributes = attributes(packedFile);
+            checkState(attributes != null, "Unable to write packed refs file %s", packedFile);
+            packedRefs = new PackedRefs(attributes, readTime, ImmutableSortedMap.copyOf(refs));
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private File packedRefsFile() {
+        return new File(geogitDir(), PACKED_REFS);
+    }
+
+    private static String lockName(File file) {
+        try {
+            return file.getCanonicalPath().intern();
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * @return the file attributes, or {@code null} if the file doesn't exist
+     */
+    @Nullable
+    private static BasicFileAttributes attributes(File file) {
+        try {
+            return java.nio.file.Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
     @Override
     public Map<String, String> removeAll(String namespace) {
         final File file = toFile(namespace);
         if (file.exists() && file.isDirectory()) {
             deleteDir(file);
         }
+        if (namespace.endsWith("/")) {
+            namespace = namespace.substring(0, namespace.length() - 1);
+        }
+        final String prefix = namespace + "/";
+        for (String refName : looseRefs.keySet()) {
+            if (refName.startsWith(prefix)) {
+                looseRefs.remove(refName);
+            }
+        }
+        if (!packedRefs().under(namespace).isEmpty()) {
+            final File packedFile = packedRefsFile();
+            synchronized (lockName(packedFile)) {
+                Map<String, String> packed = Maps.newTreeMap(packedRefs().refs);
+                packed.keySet().removeAll(packedRefs().under(namespace).keySet());
+                writePackedRefs(packed);
+            }
+        }
         return null;
     }
 
@@ -353,4 +636,75 @@ public class FileRefDatabase extends AbstractRefDatabase {
         Optional<URL> envHome = new ResolveGeogitDir(platform).call();
         return String.format("%s[geogit dir: %s]", getClass().getSimpleName(), envHome.orNull());
     }
+
+    /**
+     * The attributes of a file some contents were read from, to tell whether it changed since
+     */
+    private static class CachedFile {
+
+        @Nullable
+        private final FileTime lastModified;
+
+        private final long size;
+
+        private final boolean racy;
+
+        /**
+         * @param readTime the time right before the attributes were read, and so before the
+         *        contents were
+         */
+        CachedFile(@Nullable BasicFileAttributes attributes, long readTime) {
+            this.lastModified = attributes == null ? null : attributes.lastModifiedTime();
+            this.size = attributes == null ? -1 : attributes.size();
+            this.racy = lastModified == null
+                    || readTime - lastModified.toMillis() < TIMESTAMP_GRANULARITY_MILLIS;
+        }
+
+        /**
+         * @return whether the file still has the contents read, which is only known for sure if
+         *         it was last modified before the timestamp granularity of the time it was read
+         */
+        boolean isCurrent(BasicFileAttributes attributes) {
+            return !racy && size == attributes.size()
+                    && attributes.lastModifiedTime().equals(lastModified);
+        }
+    }
+
+    /**
+     * A ref value along with the attributes of the file it was read from
+     */
+    private static class CachedRef extends CachedFile {
+
+        final String value;
+
+        CachedRef(BasicFileAttributes attributes, long readTime, String value) {
+            super(attributes, readTime);
+            this.value = value;
+        }
+    }
+
+    /**
+     * The contents of the {@code packed-refs} file, key'ed by ref name
+     */
+    private static class PackedRefs extends CachedFile {
+
+        static final PackedRefs EMPTY = new PackedRefs(null, 0,
+                ImmutableSortedMap.<String, String> of());
+
+        final ImmutableSortedMap<String, String> refs;
+
+        PackedRefs(@Nullable BasicFileAttributes attributes, long readTime,
+                ImmutableSortedMap<String, String> refs) {
+            super(attributes, readTime);
+            this.refs = refs;
+        }
+
+        /**
+         * @return the packed refs under the given namespace
+         */
+        SortedMap<String, String> under(String namespace) {
+            // '0' is the character right after '/'
+            return refs.subMap(namespace + "/", namespace + "0");
+        }
+    }
 }
@@ -13,6 +13,8 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -24,88 +26,87 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 
 /**
  * Simple implementation of an INI file parser and serializer
+ * <p>
+ * Reads are served from an immutable {@link Snapshot snapshot} of the parsed file, which is
+ * replaced when the file is written or its modification stamp changes. Snapshots are shared by
+ * all the {@code INIFile} instances for the same file, so the config databases of the different
+ * contexts for a repository parse it only once.
+ * <p>
+ * A read resolves the file through {@link #iniFile()}, then takes a cache lookup and a single read
+ * of the file attributes. A snapshot of a file modified within
+ * {@link FileRefDatabase#TIMESTAMP_GRANULARITY_MILLIS} of being read isn't trusted, and the file
+ * is parsed again until it ages, as a later change could leave its modification time and size
+ * unchanged.
  */
 public abstract class INIFile {
+
     /**
-     * Timestamp the ini file at latest read
+     * Parsed snapshots of the ini files, key'ed by file
      */
-    private long timestamp = 0;
+    private static final Cache<File, Snapshot> SNAPSHOTS = CacheBuilder.newBuilder()
+            .maximumSize(100).<File, Snapshot> build();
+
+    /**
+     * Modification stamp of the ini file at latest read
+     */
+    private Stamp stamp;
 
     /**
      * Content of the ini file
      */
     private List<Entry> data;
 
+    /**
+     * The snapshot of {@link #data} last published to {@link #SNAPSHOTS}
+     */
+    private Snapshot published;
+
     public abstract File iniFile();
 
-    public synchronized Optional<String> get(String section, String key) throws IOException {
+    public Optional<String> get(String section, String key) throws IOException {
         if (section == null || section.length() == 0) {
             throw new IllegalArgumentException("Section name required");
         }
         if (key == null || key.length() == 0) {
             throw new IllegalArgumentException("Key required");
         }
-        checkReload();
-        for (Entry e : data) {
-            Optional<String> result = e.get(section, key);
-            if (result.isPresent())
-                return result;
-        }
-        return Optional.absent();
+        ImmutableMap<String, String> values = snapshot().sections.get(section);
+        return Optional.fromNullable(values == null ? null : values.get(key));
     }
 
-    public synchronized Map<String, String> getAll() throws IOException {
-        checkReload();
-        Map<String, String> m = new HashMap<String, String>();
-        for (Entry e : data) {
-            if (e instanceof Section) {
-                Section s = (Section) e;
-                for (KeyAndValue kv : s.getValues()) {
-                    m.put(s.getHeader() + "." + kv.getKey(), kv.getValue());
-                }
-            }
-        }
-        return m;
+    public Map<String, String> getAll() throws IOException {
+        return new HashMap<String, String>(snapshot().all);
     }
 
-    public synchronized List<String> listSubsections(String section) throws IOException {
+    public List<String> listSubsections(String section) throws IOException {
         if (section == null || section.length() == 0) {
             throw new IllegalArgumentException("Section name required");
         }
-        checkReload();
         List<String> results = new ArrayList<String>();
-        for (Entry e : data) {
-            if (e instanceof Section) {
-                Section s = (Section) e;
-                if (s.getHeader().startsWith(section + ".")) {
-                    results.add(s.getHeader().substring(section.length() + 1));
-                }
+        for (String header : snapshot().headers) {
+            if (header.startsWith(section + ".")) {
+                results.add(header.substring(section.length() + 1));
             }
         }
         return results;
     }
 
-    public synchronized Map<String, String> getSection(String section) throws IOException {
+    public Map<String, String> getSection(String section) throws IOException {
         if (section == null || section.length() == 0) {
             throw new IllegalArgumentException("Section name required");
         }
-        checkReload();
-        for (Entry e : data) {
-            if (e instanceof Section) {
-                Section s = (Section) e;
-                if (s.getHeader().equals(section)) {
-                    Map<String, String> values = new HashMap<String, String>();
-                    for (KeyAndValue kv : s.getValues()) {
-                        values.put(kv.getKey(), kv.getValue());
-                    }
-                    return values;
-                }
-            }
+        ImmutableMap<String, String> values = snapshot().sections.get(section);
+        if (values == null) {
+            return new HashMap<String, String>();
         }
-        return new HashMap<String, String>();
+        return new HashMap<String, String>(values);
     }
 
     public synchronized void set(String section, String key, String value) throws IOException {
@@ -322,11 +323,148 @@ public abstract class INIFile {
     }
 
     private void checkReload() throws IOException {
-        File ini = iniFile();
-        long currentTime = ini.lastModified();
-        if (data == null || currentTime > timestamp) {
+        final File ini = iniFile();
+        final File key = ini.getAbsoluteFile();
+        Stamp currentStamp = Stamp.of(ini);
+        Snapshot shared = SNAPSHOTS.getIfPresent(key);
+        // another instance may have written the file within the stamp resolution
+        if (data == null || !stamp.isCurrent(currentStamp)
+                || (shared != null && shared != published)) {
             reload(ini);
-            timestamp = currentTime;
+            stamp = currentStamp;
+            published = new Snapshot(stamp, data);
+        }
+        // only replace the snapshot seen above, not one another instance published in between
+        if (shared == null) {
+            SNAPSHOTS.asMap().putIfAbsent(key, published);
+        } else if (shared != published) {
+            SNAPSHOTS.asMap().replace(key, shared, published);
+        }
+    }
+
+    /**
+     * @return the parsed contents of the ini file, re-reading it only if its modification stamp
+     *         changed since it was last parsed, or was too recent to tell
+     */
+    private Snapshot snapshot() throws IOException {
+        final File ini = iniFile();
+        final File key = ini.getAbsoluteFile();
+        Snapshot snapshot = SNAPSHOTS.getIfPresent(key);
+        if (snapshot != null && snapshot.stamp.isCurrent(Stamp.of(ini))) {
+            return snapshot;
+        }
+        synchronized (this) {
+            checkReload();
+            return published;
+        }
+    }
+
+    /**
+     * The modification time and size of a file, used to tell whether it changed since it was read
+     */
+    private static final class Stamp {
+
+        private final long lastModified;
+
+        private final long length;
+
+        private final boolean racy;
+
+        private Stamp(long lastModified, long length, boolean racy) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.racy = racy;
+        }
+
+        /**
+         * Reads the file attributes, to be called right before reading its contents
+         */
+        static Stamp of(File file) {
+            final long readTime = System.currentTimeMillis();
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            } catch (IOException e) {
+                // missing or unreadable, it'll be parsed as an empty file
+                return new Stamp(0L, 0L, false);
+            }
+            final long lastModified = attributes.lastModifiedTime().toMillis();
+            final long age = readTime - lastModified;
+            final boolean racy = age < FileRefDatabase.TIMESTAMP_GRANULARITY_MILLIS;
+            return new Stamp(lastModified, attributes.size(), racy);
+        }
+
+        /**
+         * @return whether the file still has the contents read with this stamp, which is only
+         *         known for sure if it was last modified before the timestamp granularity of the
+         *         time it was read
+         */
+        boolean isCurrent(Stamp current) {
+            return !racy && equals(current);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Stamp)) {
+                return false;
+            }
+            Stamp s = (Stamp) o;
+            return lastModified == s.lastModified && length == s.length;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (lastModified ^ (lastModified >>> 32)) * 31 + (int) length;
+        }
+    }
+
+    /**
+     * Immutable view of the parsed ini file contents
+     */
+    private static final class Snapshot {
+
+        final Stamp stamp;
+
+        /**
+         * Section headers in file order
+         */
+        final ImmutableList<String> headers;
+
+        /**
+         * Section values by section header, for the first section with a given header
+         */
+        final ImmutableMap<String, ImmutableMap<String, String>> sections;
+
+        /**
+         * All values, key'ed by {@code <section>.<key>}
+         */
+        final ImmutableMap<String, String> all;
+
+        Snapshot(Stamp stamp, List<Entry> data) {
+            this.stamp = stamp;
+            ImmutableList.Builder<String> headers = ImmutableList.builder();
+            Map<String, ImmutableMap<String, String>> sections;
+            sections = new HashMap<String, ImmutableMap<String, String>>();
+            Map<String, String> all = new HashMap<String, String>();
+            for (Entry e : data) {
+                if (e instanceof Section) {
+                    Section s = (Section) e;
+                    headers.add(s.getHeader());
+                    Map<String, String> values = new HashMap<String, String>();
+                    for (KeyAndValue kv : s.getValues()) {
+                        if (!values.containsKey(kv.getKey())) {
+                            values.put(kv.getKey(), kv.getValue());
+                        }
+                        all.put(s.getHeader() + "." + kv.getKey(), kv.getValue());
+                    }
+                    if (!sections.containsKey(s.getHeader())) {
+                        sections.put(s.getHeader(), ImmutableMap.copyOf(values));
+                    }
+                }
+            }
+            this.headers = headers.build();
+            this.sections = ImmutableMap.copyOf(sections);
+            this.all = ImmutableMap.copyOf(all);
         }
     }
 
@@ -391,8 +529,9 @@ public abstract class INIFile {
     }
 
     private void write() throws IOException {
+        final File ini = iniFile();
         PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
-                new FileOutputStream(iniFile()))));
+                new FileOutputStream(ini))));
         try {
             for (Entry e : data) {
                 e.write(writer);
@@ -400,6 +539,11 @@ public abstract class INIFile {
         } finally {
             writer.flush();
             writer.close();
+            // publish the new contents right away, if the write failed they'll be re-read since
+            // the file stamp won't match
+            stamp = Stamp.of(ini);
+            published = new Snapshot(stamp, data);
+            SNAPSHOTS.put(ini.getAbsoluteFile(), published);
         }
     }
 
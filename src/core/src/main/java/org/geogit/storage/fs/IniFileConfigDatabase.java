@@ -19,6 +19,7 @@ import org.geogit.api.porcelain.ConfigException.StatusCode;
 import org.geogit.storage.ConfigDatabase;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.Maps;
 import com.google.inject.Inject;
 
 public class IniFileConfigDatabase implements ConfigDatabase {
@@ -30,8 +31,21 @@ public class IniFileConfigDatabase implements ConfigDatabase {
     @Inject
     public IniFileConfigDatabase(final Platform platform) {
         this.local = new INIFile() {
+
+            /**
+             * Last working directory and the config file resolved for it
+             */
+            private volatile Map.Entry<File, File> resolved;
+
             @Override
             public File iniFile() {
+                // the repository directory is only resolved when the working directory changes
+                final File workingDir = platform.pwd();
+                final Map.Entry<File, File> resolved = this.resolved;
+                if (resolved != null && resolved.getKey().equals(workingDir)
+                        && resolved.getValue().getParentFile().exists()) {
+                    return resolved.getValue();
+                }
                 final Optional<URL> url = new ResolveGeogitDir(platform).call();
 
                 if (!url.isPresent()) {
@@ -49,10 +63,19 @@ public class IniFileConfigDatabase implements ConfigDatabase {
                     localConfigFile = new File(url.get().getPath(), "config");
                 }
 
+                if (workingDir != null) {
+                    this.resolved = Maps.immutableEntry(workingDir, localConfigFile);
+                }
                 return localConfigFile;
             }
         };
         this.global = new INIFile() {
+
+            /**
+             * Last user home directory and the global config file for it
+             */
+            private volatile Map.Entry<File, File> resolved;
+
             @Override
             public File iniFile() {
                 File home = platform.getUserHome();
@@ -60,6 +83,11 @@ public class IniFileConfigDatabase implements ConfigDatabase {
                 if (home == null) {
                     throw new ConfigException(StatusCode.USERHOME_NOT_SET);
                 }
+                final Map.Entry<File, File> resolved = this.resolved;
+                if (resolved != null && resolved.getKey().equals(home)
+                        && resolved.getValue().exists()) {
+                    return resolved.getValue();
+                }
 
                 File globalConfig = new File(home.getPath(), ".geogitconfig");
                 try {
@@ -67,6 +95,7 @@ public class IniFileConfigDatabase implements ConfigDatabase {
                 } catch (IOException e) {
                     throw new ConfigException(e, StatusCode.CANNOT_WRITE);
                 }
+                this.resolved = Maps.immutableEntry(home, globalConfig);
                 return globalConfig;
             }
         };
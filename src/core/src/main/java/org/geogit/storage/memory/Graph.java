@@ -4,8 +4,12 @@
  */
 package org.geogit.storage.memory;
 
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Map;
 
+import javax.annotation.Nullable;
+
 import org.geogit.api.ObjectId;
 
 import com.google.common.base.Optional;
@@ -15,87 +19,236 @@ import com.google.common.collect.Maps;
 /**
  * In memory directed graph implementation.
  * <p>
- * This class isn't used outside of {@link HeapGraphDatabase}. 
+ * Nodes are identified by an int index assigned in insertion order, and the only per node objects
+ * are its {@link ObjectId} and its outgoing and incoming adjacency arrays, so that traversals can
+ * be performed over plain int indexes without allocating objects per step.
+ * <p>
+ * All methods are synchronized, so the graph can be shared by several threads.
+ * <p>
+ * This class isn't used outside of {@link HeapGraphDatabase}.
  * </p>
- * 
+ *
  * @author Justin Deoliveira, Boundless
  *
  */
 class Graph {
 
-    final Map<ObjectId,Node> nodes;
-    final Map<ObjectId,ObjectId> mappings;
+    /**
+     * Index returned for nodes that are not in the graph
+     */
+    static final int NONE = -1;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final int[] NO_EDGES = new int[0];
+
+    private final Map<ObjectId, Integer> indexes;
+
+    private final Map<ObjectId, ObjectId> mappings;
+
+    /**
+     * Properties of the nodes that have any
+     */
+    private final Map<Integer, Map<String, String>> props;
+
+    private ObjectId[] ids;
+
+    private final BitSet roots;
+
+    private int[][] out;
+
+    private int[] outDegree;
+
+    private int[][] in;
+
+    private int[] inDegree;
+
+    private int size;
 
     /**
      * Creates an empty graph.
      */
     Graph() {
-        nodes = Maps.newConcurrentMap();
-        mappings = Maps.newConcurrentMap();
+        indexes = Maps.newHashMap();
+        mappings = Maps.newHashMap();
+        props = Maps.newHashMap();
+        roots = new BitSet();
+        init();
+    }
+
+    private void init() {
+        ids = new ObjectId[INITIAL_CAPACITY];
+        out = new int[INITIAL_CAPACITY][];
+        outDegree = new int[INITIAL_CAPACITY];
+        in = new int[INITIAL_CAPACITY][];
+        inDegree = new int[INITIAL_CAPACITY];
+        size = 0;
+    }
+
+    /**
+     * @return the number of nodes in the graph
+     */
+    public synchronized int size() {
+        return size;
     }
 
     /**
      * Gets a node in the graph by its object id, creating a new node if one does already exist.
      */
-    public Node getOrAdd(ObjectId id) {
-        Optional<Node> n = get(id);
-        return n.isPresent() ? n.get() : newNode(id);
+    public synchronized int getOrAdd(ObjectId id) {
+        int node = get(id);
+        return node == NONE ? newNode(id) : node;
     }
 
     /**
-     * Looks up a node in the graph by its identifier. 
+     * Looks up a node in the graph by its identifier.
+     *
+     * @return the node index, or {@link #NONE} if not found
      */
-    public Optional<Node> get(ObjectId id) {
-        return Optional.fromNullable(nodes.get(id));
+    public synchronized int get(ObjectId id) {
+        Integer node = indexes.get(id);
+        return node == null ? NONE : node.intValue();
     }
 
     /**
      * Creates a new node in the graph.
-     * 
-     * @param id The id of the new node. 
+     *
+     * @param id The id of the new node.
+     * @return the index of the new node
      */
-    public Node newNode(ObjectId id) {
+    public synchronized int newNode(ObjectId id) {
         Preconditions.checkNotNull(id);
-        Preconditions.checkState(nodes.get(id) == null);
-        Node n = new Node(id);
-        nodes.put(id, n);
-        return n;
+        Preconditions.checkState(!indexes.containsKey(id));
+        if (size == ids.length) {
+            final int capacity = 2 * size;
+            ids = Arrays.copyOf(ids, capacity);
+            out = Arrays.copyOf(out, capacity);
+            outDegree = Arrays.copyOf(outDegree, capacity);
+            in = Arrays.copyOf(in, capacity);
+            inDegree = Arrays.copyOf(inDegree, capacity);
+        }
+        final int node = size++;
+        ids[node] = id;
+        out[node] = NO_EDGES;
+        in[node] = NO_EDGES;
+        indexes.put(id, Integer.valueOf(node));
+        return node;
+    }
+
+    /**
+     * @return the id of the given node
+     */
+    public synchronized ObjectId id(int node) {
+        return ids[node];
+    }
+
+    /**
+     * Determines if the node is marked as a root node.
+     */
+    public synchronized boolean isRoot(int node) {
+        return roots.get(node);
+    }
+
+    /**
+     * Marks/unmarks a node as a root node.
+     */
+    public synchronized void setRoot(int node, boolean root) {
+        roots.set(node, root);
     }
 
     /**
      * Relates two nodes in the graph.
-     * 
+     *
      * @param src The source (origin) node.
      * @param dst The destination (end) node.
      */
-    public Edge newEdge(Node src, Node dst) {
-        Edge e = new Edge(src, dst);
-        src.out.add(e);
-        dst.in.add(e);
-        return e;
+    public synchronized void newEdge(int src, int dst) {
+        out[src] = append(out[src], outDegree[src]++, dst);
+        in[dst] = append(in[dst], inDegree[dst]++, src);
+    }
+
+    private static int[] append(int[] edges, int index, int node) {
+        int[] target = edges;
+        if (index == edges.length) {
+            target = Arrays.copyOf(edges, Math.max(2, 2 * edges.length));
+        }
+        target[index] = node;
+        return target;
+    }
+
+    /**
+     * @return the number of nodes reachable from {@code node} through an outgoing relationship
+     */
+    public synchronized int outDegree(int node) {
+        return outDegree[node];
+    }
+
+    /**
+     * @return the {@code i}th node reachable from {@code node} through an outgoing relationship
+     */
+    public synchronized int out(int node, int i) {
+        return out[node][i];
+    }
+
+    /**
+     * @return the number of nodes related to {@code node} through an incoming relationship
+     */
+    public synchronized int inDegree(int node) {
+        return inDegree[node];
+    }
+
+    /**
+     * @return the {@code i}th node related to {@code node} through an incoming relationship
+     */
+    public synchronized int in(int node, int i) {
+        return in[node][i];
+    }
+
+    /**
+     * Associates a property with the node.
+     */
+    public synchronized void put(int node, String key, String value) {
+        Map<String, String> nodeProps = props.get(Integer.valueOf(node));
+        if (nodeProps == null) {
+            nodeProps = Maps.newHashMap();
+            props.put(Integer.valueOf(node), nodeProps);
+        }
+        nodeProps.put(key, value);
+    }
+
+    /**
+     * Retrieves a property of the node.
+     */
+    public synchronized Optional<String> get(int node, String key) {
+        Map<String, String> nodeProps = props.get(Integer.valueOf(node));
+        return Optional.fromNullable(nodeProps != null ? nodeProps.get(key) : null);
     }
 
     /**
-     * Creates an mapping/alias. 
+     * Creates an mapping/alias.
      */
-    public void map(ObjectId mapped, ObjectId original) {
+    public synchronized void map(ObjectId mapped, ObjectId original) {
         mappings.put(mapped, original);
     }
 
     /**
-     * Returns a mapping, or <code>null</code> if one does not exist. 
+     * Returns a mapping, or <code>null</code> if one does not exist.
      *
      */
-    public ObjectId getMapping(ObjectId commitId) {
+    @Nullable
+    public synchronized ObjectId getMapping(ObjectId commitId) {
         return mappings.get(commitId);
     }
 
     /**
      * Clears the contents of the graph.
      */
-    public void clear() {
-        nodes.clear();
+    public synchronized void clear() {
+        indexes.clear();
         mappings.clear();
+        props.clear();
+        roots.clear();
+        init();
     }
 
 }
@@ -0,0 +1,32 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.memory;
+
+import java.util.concurrent.ConcurrentMap;
+
+import org.geogit.api.ObjectId;
+import org.geogit.storage.ChangedPathFilter;
+import org.geogit.storage.ChangedPathFilterDatabase;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Maps;
+
+/**
+ * An in memory {@link ChangedPathFilterDatabase}, useful for ephemeral repositories and testing.
+ */
+public class HeapChangedPathFilterDatabase implements ChangedPathFilterDatabase {
+
+    private final ConcurrentMap<ObjectId, ChangedPathFilter> filters = Maps.newConcurrentMap();
+
+    @Override
+    public Optional<ChangedPathFilter> get(ObjectId commitId) {
+        return Optional.fromNullable(filters.get(commitId));
+    }
+
+    @Override
+    public void put(ObjectId commitId, ChangedPathFilter filter) {
+        filters.put(commitId, filter);
+    }
+}
@@ -0,0 +1,41 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.memory;
+
+import org.geogit.api.ObjectId;
+import org.geogit.storage.AbstractDiffSummaryCache;
+import org.geogit.storage.DiffSummaryCache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * A size bounded, in memory {@link DiffSummaryCache}, useful for ephemeral repositories and
+ * testing.
+ */
+public class HeapDiffSummaryCache extends AbstractDiffSummaryCache {
+
+    private static final int DEFAULT_MAX_SIZE = 10 * 1000;
+
+    private final Cache<ObjectId, byte[]> cache;
+
+    public HeapDiffSummaryCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public HeapDiffSummaryCache(final int maxSize) {
+        this.cache = CacheBuilder.newBuilder().maximumSize(maxSize).build();
+    }
+
+    @Override
+    protected byte[] getRaw(ObjectId key) {
+        return cache.getIfPresent(key);
+    }
+
+    @Override
+    protected void putRaw(ObjectId key, byte[] value) {
+        cache.put(key, value);
+    }
+}
@@ -4,12 +4,9 @@
  */
 package org.geogit.storage.memory;
 
-import static com.google.common.collect.Iterables.filter;
-import static com.google.common.collect.Iterables.transform;
-
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
@@ -18,28 +15,21 @@ import org.geogit.api.Platform;
 import org.geogit.api.plumbing.ResolveGeogitDir;
 import org.geogit.storage.GraphDatabase;
 
-import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
-import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Iterators;
 import com.google.common.collect.Maps;
 import com.google.inject.Inject;
 
 /**
  * Provides an default in memory implementation of a GeoGit Graph Database.
+ * <p>
+ * The commit graph is held as int indexed adjacency arrays (see {@link Graph}), so depth
+ * computations and graph walks don't allocate objects per visited commit and the graph scales to
+ * millions of commits.
  */
 public class HeapGraphDatabase implements GraphDatabase {
 
-    static final Function<Node, ObjectId> NODE_TO_ID = new Function<Node, ObjectId>() {
-        @Override
-        public ObjectId apply(Node n) {
-            return n.id;
-        }
-    };
-
     static final Map<URL, Ref> graphs = Maps.newConcurrentMap();
 
     final Platform platform;
@@ -108,58 +98,69 @@ public class HeapGraphDatabase implements GraphDatabase {
 
     @Override
     public boolean exists(ObjectId commitId) {
-        return graph.get(commitId).isPresent();
+        return graph.get(commitId) != Graph.NONE;
     }
 
     @Override
     public ImmutableList<ObjectId> getParents(ObjectId commitId) throws IllegalArgumentException {
-        return graph.get(commitId).transform(new Function<Node, ImmutableList<ObjectId>>() {
-            @Override
-            public ImmutableList<ObjectId> apply(Node n) {
-                // transform outgoing nodes to id
-                // filter for null to skip fake root node
-                return new ImmutableList.Builder<ObjectId>().addAll(
-                        filter(transform(n.to(), NODE_TO_ID), Predicates.notNull())).build();
+        final Graph graph = this.graph;
+        synchronized (graph) {
+            final int node = graph.get(commitId);
+            if (node == Graph.NONE) {
+                return ImmutableList.of();
+            }
+            ImmutableList.Builder<ObjectId> parents = ImmutableList.builder();
+            for (int i = 0, degree = graph.outDegree(node); i < degree; i++) {
+                parents.add(graph.id(graph.out(node, i)));
             }
-        }).or(ImmutableList.<ObjectId> of());
+            return parents.build();
+        }
     }
 
     @Override
     public ImmutableList<ObjectId> getChildren(ObjectId commitId) throws IllegalArgumentException {
-        return graph.get(commitId).transform(new Function<Node, ImmutableList<ObjectId>>() {
-            @Override
-            public ImmutableList<ObjectId> apply(Node n) {
-                return new ImmutableList.Builder<ObjectId>()
-                        .addAll(transform(n.from(), NODE_TO_ID)).build();
+        final Graph graph = this.graph;
+        synchronized (graph) {
+            final int node = graph.get(commitId);
+            if (node == Graph.NONE) {
+                return ImmutableList.of();
+            }
+            ImmutableList.Builder<ObjectId> children = ImmutableList.builder();
+            for (int i = 0, degree = graph.inDegree(node); i < degree; i++) {
+                children.add(graph.id(graph.in(node, i)));
             }
-        }).or(ImmutableList.<ObjectId> of());
+            return children.build();
+        }
     }
 
     @Override
     public boolean put(ObjectId commitId, ImmutableList<ObjectId> parentIds) {
-        Node n = graph.getOrAdd(commitId);
-
-        if (parentIds.isEmpty()) {
-            // the root node, only update on first addition
-            if (!n.isRoot()) {
-                n.setRoot(true);
-                return true;
+        final Graph graph = this.graph;
+        synchronized (graph) {
+            final int n = graph.getOrAdd(commitId);
+
+            if (parentIds.isEmpty()) {
+                // the root node, only update on first addition
+                if (!graph.isRoot(n)) {
+                    graph.setRoot(n, true);
+                    return true;
+                }
             }
-        }
 
-        // has the node been attached to graph?
-        if (Iterables.isEmpty(n.to())) {
-            // nope, attach it
-            for (ObjectId parent : parentIds) {
-                Node p = graph.getOrAdd(parent);
-                graph.newEdge(n, p);
-            }
+            // has the node been attached to graph?
+            if (graph.outDegree(n) == 0) {
+                // nope, attach it
+                for (ObjectId parent : parentIds) {
+                    int p = graph.getOrAdd(parent);
+                    graph.newEdge(n, p);
+                }
 
-            // only mark as updated if it is actually attached
-            boolean added = !Iterables.isEmpty(n.to());
-            return added;
+                // only mark as updated if it is actually attached
+                boolean added = graph.outDegree(n) > 0;
+                return added;
+            }
+            return false;
         }
-        return false;
     }
 
     @Override
@@ -175,27 +176,33 @@ public class HeapGraphDatabase implements GraphDatabase {
     @Override
     public int getDepth(ObjectId commitId) {
         Preconditions.checkNotNull(commitId);
-        Optional<Node> nodeOpt = graph.get(commitId);
-        Preconditions.checkArgument(nodeOpt.isPresent(), "No graph entry for commit %s on %s",
-                commitId, this.toString());
-        Node node = nodeOpt.get();
-        PathToRootWalker walker = new PathToRootWalker(node);
-        int depth = 0;
-        O: while (walker.hasNext()) {
-            for (Node n : walker.next()) {
-                if (Iterables.size(n.to()) == 0) {
-                    break O;
+        final Graph graph = this.graph;
+        synchronized (graph) {
+            final int node = graph.get(commitId);
+            Preconditions.checkArgument(node != Graph.NONE, "No graph entry for commit %s on %s",
+                    commitId, this.toString());
+            PathToRootWalker walker = new PathToRootWalker(graph, node);
+            int depth = 0;
+            O: while (walker.hasNext()) {
+                for (int i = 0, size = walker.next(); i < size; i++) {
+                    if (graph.outDegree(walker.node(i)) == 0) {
+                        break O;
+                    }
                 }
+                depth++;
             }
-            depth++;
+            return depth;
         }
-        return depth;
     }
 
     @Override
     public void setProperty(ObjectId commitId, String propertyName, String propertyValue) {
-        graph.get(commitId).get().put(propertyName, propertyValue);
-        ;
+        final Graph graph = this.graph;
+        synchronized (graph) {
+            final int node = graph.get(commitId);
+            Preconditions.checkState(node != Graph.NONE, "No graph entry for commit %s", commitId);
+            graph.put(node, propertyName, propertyValue);
+        }
     }
 
     @Override
@@ -230,48 +237,47 @@ public class HeapGraphDatabase implements GraphDatabase {
 
     protected class HeapGraphNode extends GraphNode {
 
-        Node node;
+        final int node;
 
-        public HeapGraphNode(Node node) {
+        public HeapGraphNode(int node) {
             this.node = node;
         }
 
         @Override
         public ObjectId getIdentifier() {
-            return node.id;
+            return graph.id(node);
         }
 
         @Override
         public Iterator<GraphEdge> getEdges(final Direction direction) {
-            Iterator<Edge> nodeEdges;
-            switch (direction) {
-            case OUT:
-                nodeEdges = node.out.iterator();
-                break;
-            case IN:
-                nodeEdges = node.in.iterator();
-                break;
-            default:
-                nodeEdges = Iterators.concat(node.in.iterator(), node.out.iterator());
-            }
-            List<GraphEdge> edges = new LinkedList<GraphEdge>();
-            while (nodeEdges.hasNext()) {
-                Edge nodeEdge = nodeEdges.next();
-                edges.add(new GraphEdge(new HeapGraphNode(nodeEdge.src), new HeapGraphNode(
-                        nodeEdge.dst)));
+            final Graph graph = HeapGraphDatabase.this.graph;
+            List<GraphEdge> edges = new ArrayList<GraphEdge>();
+            synchronized (graph) {
+                if (direction != Direction.OUT) {
+                    for (int i = 0, degree = graph.inDegree(node); i < degree; i++) {
+                        edges.add(new GraphEdge(new HeapGraphNode(graph.in(node, i)), this));
+                    }
+                }
+                if (direction != Direction.IN) {
+                    for (int i = 0, degree = graph.outDegree(node); i < degree; i++) {
+                        edges.add(new GraphEdge(this, new HeapGraphNode(graph.out(node, i))));
+                    }
+                }
             }
             return edges.iterator();
         }
 
         @Override
         public boolean isSparse() {
-            return node.props != null && node.props.containsKey(SPARSE_FLAG)
-                    && Boolean.valueOf(node.props.get(SPARSE_FLAG));
+            Optional<String> sparse = graph.get(node, SPARSE_FLAG);
+            return sparse.isPresent() && Boolean.valueOf(sparse.get());
         }
     }
 
     @Override
     public GraphNode getNode(ObjectId id) {
-        return new HeapGraphNode(graph.get(id).get());
+        final int node = graph.get(id);
+        Preconditions.checkArgument(node != Graph.NONE, "No graph entry for commit %s", id);
+        return new HeapGraphNode(node);
     }
 }
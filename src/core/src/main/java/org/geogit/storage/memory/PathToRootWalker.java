@@ -4,69 +4,87 @@
  */
 package org.geogit.storage.memory;
 
-import java.util.Iterator;
-import java.util.List;
-import java.util.Queue;
-import java.util.Set;
-
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
+import java.util.Arrays;
+import java.util.BitSet;
 
 /**
  * Walks a path from the specified node to a root, bifurcating along the way in cases where a node
- * has multiple parents. 
+ * has multiple parents.
+ * <p>
+ * Each call to {@link #next()} advances one level, that is, to the nodes reachable from the
+ * previous level's nodes through an outgoing relationship that haven't been visited yet. The nodes
+ * of the current level are accessed through {@link #node(int)}, and the walk is performed without
+ * allocating objects per step.
  *
  * @author Justin Deoliveira, Boundless
  *
  */
-public class PathToRootWalker implements Iterator<List<Node>> {
+public class PathToRootWalker {
+
+    private final Graph graph;
 
     /**
-     * node queue
+     * current level nodes, then next level nodes
      */
-    Queue<Node> q;
+    private int[] curr, next;
+
+    private int currSize, nextSize;
 
     /**
      * visited nodes
      */
-    Set<Node> seen;
+    private final BitSet seen;
 
-    public PathToRootWalker(Node start) {
-        q = Lists.newLinkedList();
-        q.add(start);
-
-        seen = Sets.newHashSet();
+    PathToRootWalker(Graph graph, int start) {
+        this.graph = graph;
+        this.curr = new int[16];
+        this.next = new int[16];
+        this.seen = new BitSet(graph.size());
+        next[nextSize++] = start;
+        seen.set(start);
     }
 
-    @Override
     public boolean hasNext() {
-        return !q.isEmpty();
+        return nextSize > 0;
     }
 
-    @Override
-    public List<Node> next() {
-        List<Node> curr = Lists.newArrayList();
-        List<Node> next = Lists.newArrayList();
-
-        while (!q.isEmpty()) {
-            Node node = q.poll();
-            curr.add(node);
+    /**
+     * Advances to the next level
+     *
+     * @return the number of nodes in the new current level
+     */
+    public int next() {
+        int[] tmp = curr;
+        curr = next;
+        currSize = nextSize;
+        next = tmp;
+        nextSize = 0;
 
-            Iterables.addAll(next, node.to());
+        for (int i = 0; i < currSize; i++) {
+            final int node = curr[i];
+            final int degree = graph.outDegree(node);
+            for (int j = 0; j < degree; j++) {
+                final int parent = graph.out(node, j);
+                if (!seen.get(parent)) {
+                    seen.set(parent);
+                    if (nextSize == next.length) {
+                        next = Arrays.copyOf(next, 2 * nextSize);
+                    }
+                    next[nextSize++] = parent;
+                }
+            }
         }
-
-        seen.addAll(curr);
-        q.addAll(next);
-        return curr;
+        return currSize;
     }
 
-    public boolean seen(Node node) {
-        return seen.contains(node);
+    /**
+     * @return the {@code i}th node of the current level
+     */
+    public int node(int i) {
+        return curr[i];
     }
 
-    @Override
-    public void remove() {
-        throw new UnsupportedOperationException();
+    public boolean seen(int node) {
+        return seen.get(node);
     }
 }
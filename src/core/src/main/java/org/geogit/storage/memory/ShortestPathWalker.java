@@ -4,90 +4,101 @@
  */
 package org.geogit.storage.memory;
 
-import java.util.Comparator;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.PriorityQueue;
-
-import com.google.common.collect.Maps;
+import java.util.Arrays;
+import java.util.BitSet;
 
 /**
- * Walks a shortest path between two nodes applying Dijkstra's algorithm.
- * 
+ * Walks the nodes reachable from a start node in order of increasing path length, until the end
+ * node is reached.
+ * <p>
+ * All edges have the same cost, so Dijkstra's algorithm reduces to a breadth first traversal,
+ * which is performed over an int queue without allocating objects per step.
+ *
  * @author Justin Deoliveira, Boundless
  */
-public class ShortestPathWalker implements Iterator<Node> {
+public class ShortestPathWalker {
 
-    final Node start;
-    final Node end;
+    private final Graph graph;
 
-    final Map<Node,CostNode> nodes;
-    final PriorityQueue<CostNode> q;
+    private final int end;
 
-    ShortestPathWalker(Node start, Node end) {
-        this.start = start;
-        this.end = end;
+    private final BitSet seen;
 
-        nodes = Maps.newHashMap();
-        q = new PriorityQueue<CostNode>(100, new Comparator<CostNode>() {
-            @Override
-            public int compare(CostNode o1, CostNode o2) {
-                return o1.cost.compareTo(o2.cost);
-            }
-        });
-        q.offer(newNode(start, 0d));
-    }
+    /**
+     * nodes pending to be visited, from {@code head} (inclusive) to {@code tail} (exclusive)
+     */
+    private int[] queue;
 
-    CostNode newNode(Node n, Double cost) {
-        CostNode node = new CostNode(n, cost); 
-        nodes.put(n, node);
-        return node;
+    private int head, tail;
+
+    /**
+     * index in the queue where the next level (cost increment) starts
+     */
+    private int levelEnd;
+
+    private int cost;
+
+    private boolean endReached;
+
+    ShortestPathWalker(Graph graph, int start, int end) {
+        this.graph = graph;
+        this.end = end;
+        this.seen = new BitSet(graph.size());
+        this.queue = new int[16];
+        queue[tail++] = start;
+        seen.set(start);
+        levelEnd = tail;
+        cost = 0;
     }
 
-    @Override
     public boolean hasNext() {
-        return !q.isEmpty();
+        return !endReached && head < tail;
     }
 
-    @Override
-    public Node next() {
-        // grab next node
-        CostNode n = q.poll();
-
-        // update the adjacent nodes
-        for (Node adj : n.node.to()) {
-            CostNode m = nodes.get(adj);
-            Double cost = n.cost + 1;
-
-            if (m == null) {
-                m = newNode(adj, cost);
-                q.offer(m);
-            }
-            else {
-                if (cost < m.cost) {
-                    // update the node
-                    m.cost = cost;
-                    q.remove(m);
-                    q.offer(m);
+    /**
+     * @return the next node in order of path length from the start node
+     */
+    public int next() {
+        if (head == levelEnd) {
+            cost++;
+            levelEnd = tail;
+        }
+        final int node = queue[head++];
+        if (node == end) {
+            endReached = true;
+            return node;
+        }
+        final int degree = graph.outDegree(node);
+        for (int i = 0; i < degree; i++) {
+            final int adj = graph.out(node, i);
+            if (!seen.get(adj)) {
+                seen.set(adj);
+                if (tail == queue.length) {
+                    compact();
                 }
+                queue[tail++] = adj;
             }
         }
-
-        return n.node;
+        return node;
     }
 
-    @Override
-    public void remove() {
-        throw new UnsupportedOperationException();
+    /**
+     * @return the length of the shortest path from the start node to the node last returned by
+     *         {@link #next()}
+     */
+    public int cost() {
+        return cost;
     }
 
-    static class CostNode {
-        Node node;
-        Double cost = Double.MAX_VALUE;
-
-        CostNode(Node node, Double cost) {
-            this.node = node;
-            this.cost = cost;
+    private void compact() {
+        final int pending = tail - head;
+        if (head > queue.length / 2) {
+            System.arraycopy(queue, head, queue, 0, pending);
+        } else {
+            queue = Arrays.copyOfRange(queue, head, 2 * queue.length);
         }
+        levelEnd -= head;
+        tail = pending;
+        head = 0;
     }
 }
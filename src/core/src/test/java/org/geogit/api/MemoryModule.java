@@ -5,10 +5,14 @@
 
 package org.geogit.api;
 
+import org.geogit.storage.ChangedPathFilterDatabase;
+import org.geogit.storage.DiffSummaryCache;
 import org.geogit.storage.GraphDatabase;
 import org.geogit.storage.ObjectDatabase;
 import org.geogit.storage.RefDatabase;
 import org.geogit.storage.StagingDatabase;
+import org.geogit.storage.memory.HeapChangedPathFilterDatabase;
+import org.geogit.storage.memory.HeapDiffSummaryCache;
 import org.geogit.storage.memory.HeapGraphDatabase;
 import org.geogit.storage.memory.HeapObjectDatabse;
 import org.geogit.storage.memory.HeapRefDatabase;
@@ -22,6 +26,8 @@ import com.google.inject.Scopes;
  * @see HeapStagingDatabase
  * @see HeapRefDatabase
  * @see HeapGraphDatabase
+ * @see HeapDiffSummaryCache
+ * @see HeapChangedPathFilterDatabase
  */
 public class MemoryModule extends AbstractModule {
 
@@ -43,6 +49,9 @@ public class MemoryModule extends AbstractModule {
         bind(StagingDatabase.class).to(HeapStagingDatabase.class).in(Scopes.SINGLETON);
         bind(RefDatabase.class).to(HeapRefDatabase.class).in(Scopes.SINGLETON);
         bind(GraphDatabase.class).to(HeapGraphDatabase.class).in(Scopes.SINGLETON);
+        bind(DiffSummaryCache.class).to(HeapDiffSummaryCache.class).in(Scopes.SINGLETON);
+        bind(ChangedPathFilterDatabase.class).to(HeapChangedPathFilterDatabase.class).in(
+                Scopes.SINGLETON);
     }
 
 }
@@ -0,0 +1,119 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.api.plumbing;
+
+import java.util.List;
+
+import org.geogit.api.Bucket;
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevFeatureBuilder;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.StagingDatabase;
+import org.geogit.test.integration.RepositoryTestCase;
+import org.junit.Test;
+import org.opengis.feature.Feature;
+
+import com.google.common.base.Suppliers;
+import com.google.common.collect.Lists;
+import com.vividsolutions.jts.geom.Envelope;
+
+public class DeepMoveTest extends RepositoryTestCase {
+
+    private StagingDatabase indexDb;
+
+    private ObjectDatabase objectDb;
+
+    @Override
+    protected void setUpInternal() throws Exception {
+        indexDb = repo.stagingDatabase();
+        objectDb = repo.objectDatabase();
+    }
+
+    /**
+     * Moves a bucket tree with more features than a single pipeline batch, and a nested subtree
+     */
+    @Test
+    public void testMoveTree() throws Exception {
+        List<ObjectId> featureIds = Lists.newArrayList();
+
+        RevTreeBuilder subtreeBuilder = new RevTreeBuilder(indexDb);
+        for (int i = 0; i < 10; i++) {
+            subtreeBuilder.put(featureNode("highways." + i, i, featureIds));
+        }
+        RevTree subtree = subtreeBuilder.build();
+        indexDb.put(subtree);
+
+        RevTreeBuilder treeBuilder = new RevTreeBuilder(indexDb);
+        for (int i = 0; i < 12 * 1000; i++) {
+            treeBuilder.put(featureNode("roads." + i, i, featureIds));
+        }
+        treeBuilder.put(Node.tree("highways", subtree.getId(), ObjectId.NULL));
+        RevTree tree = treeBuilder.build();
+        indexDb.put(tree);
+        assertTrue(tree.buckets().isPresent());
+
+        geogit.command(DeepMove.class)
+                .setObjectRef(Suppliers.ofInstance(Node.tree("roads", tree.getId(), ObjectId.NULL)))
+                .call();
+
+        assertMoved(tree.getId());
+        assertMoved(subtree.getId());
+        for (Bucket bucket : tree.buckets().get().values()) {
+            assertMoved(bucket.id());
+        }
+        for (ObjectId featureId : featureIds) {
+            assertMoved(featureId);
+        }
+    }
+
+    /**
+     * Moves a tree the target database already has, along with some of its features
+     */
+    @Test
+    public void testMoveTreeAlreadyInTarget() throws Exception {
+        List<ObjectId> featureIds = Lists.newArrayList();
+        RevTreeBuilder treeBuilder = new RevTreeBuilder(indexDb);
+        for (int i = 0; i < 100; i++) {
+            treeBuilder.put(featureNode("roads." + i, i, featureIds));
+        }
+        RevTree tree = treeBuilder.build();
+        indexDb.put(tree);
+        objectDb.put(tree);
+        for (ObjectId featureId : featureIds.subList(0, 50)) {
+            objectDb.put(indexDb.getFeature(featureId));
+        }
+
+        geogit.command(DeepMove.class)
+                .setObjectRef(Suppliers.ofInstance(Node.tree("roads", tree.getId(), ObjectId.NULL)))
+                .call();
+
+        List<ObjectId> ids = Lists.newArrayList(featureIds);
+        ids.add(tree.getId());
+        for (ObjectId id : ids) {
+            assertMoved(id);
+        }
+        // nothing is left behind in the staging database, whether written or found in the target
+        assertEquals(0, indexDb.deleteAll(ids.iterator()));
+    }
+
+    private void assertMoved(ObjectId id) {
+        // the staging database falls back to the object database, so only check the target
+        assertTrue(id.toString(), objectDb.exists(id));
+    }
+
+    private Node featureNode(String id, int index, List<ObjectId> featureIds) throws Exception {
+        Feature feature = feature(pointsType, id, id, index, "POINT(" + index + " " + index + ")");
+        RevFeature revFeature = RevFeatureBuilder.build(feature);
+        indexDb.put(revFeature);
+        featureIds.add(revFeature.getId());
+        Envelope bounds = (Envelope) feature.getBounds();
+        return Node.create(id, revFeature.getId(), ObjectId.NULL, TYPE.FEATURE, bounds);
+    }
+}
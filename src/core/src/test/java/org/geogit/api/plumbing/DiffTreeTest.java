@@ -7,16 +7,23 @@ package org.geogit.api.plumbing;
 
 import java.io.File;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import org.geogit.api.Context;
 import org.geogit.api.GeoGIT;
 import org.geogit.api.MemoryModule;
+import org.geogit.api.Node;
 import org.geogit.api.ObjectId;
 import org.geogit.api.Platform;
 import org.geogit.api.Ref;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
 import org.geogit.api.TestPlatform;
 import org.geogit.api.plumbing.diff.DiffEntry;
 import org.geogit.di.GeogitModule;
+import org.geogit.storage.ObjectDatabase;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
@@ -24,6 +31,8 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.junit.rules.TemporaryFolder;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.inject.Guice;
 import com.google.inject.util.Modules;
 
@@ -92,4 +101,50 @@ public class DiffTreeTest extends Assert {
     public void testNoCommitsYet() {
         assertFalse(command.setOldVersion(Ref.HEAD).setNewVersion(Ref.HEAD).call().hasNext());
     }
+
+    @Test
+    public void testParallelDiff() {
+        ObjectDatabase db = fakeGeogit.getRepository().objectDatabase();
+        RevTreeBuilder oldTree = new RevTreeBuilder(db);
+        RevTreeBuilder newTree = new RevTreeBuilder(db);
+        for (int i = 0; i < 2000; i++) {
+            String name = String.valueOf(i);
+            oldTree.put(Node.create(name, ObjectId.forString(name), ObjectId.NULL, TYPE.FEATURE,
+                    null));
+            if (i % 5 != 0) {
+                ObjectId id = ObjectId.forString(i % 3 == 0 ? name + "_changed" : name);
+                newTree.put(Node.create(name, id, ObjectId.NULL, TYPE.FEATURE, null));
+            }
+        }
+        ObjectId oldRoot = putRoot(db, oldTree);
+        ObjectId newRoot = putRoot(db, newTree);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (List<String> filter : ImmutableList.of(ImmutableList.<String> of(),
+                    ImmutableList.of("points"), ImmutableList.of("points/15", "points/33"))) {
+                List<DiffEntry> sequential = ImmutableList.copyOf(fakeGeogit
+                        .command(DiffTree.class).setOldTree(oldRoot).setNewTree(newRoot)
+                        .setFilter(filter).setReportTrees(true).call());
+                List<DiffEntry> parallel = ImmutableList.copyOf(fakeGeogit
+                        .command(DiffTree.class).setOldTree(oldRoot).setNewTree(newRoot)
+                        .setFilter(filter).setReportTrees(true).setForkJoinPool(pool).call());
+                assertFalse(sequential.isEmpty());
+                assertEquals(ImmutableSet.copyOf(sequential), ImmutableSet.copyOf(parallel));
+                assertEquals(sequential.size(), parallel.size());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static ObjectId putRoot(ObjectDatabase db, RevTreeBuilder featuresTree) {
+        RevTree tree = featuresTree.build();
+        db.put(tree);
+        RevTreeBuilder root = new RevTreeBuilder(db);
+        root.put(Node.create("points", tree.getId(), ObjectId.NULL, TYPE.TREE, null));
+        RevTree rootTree = root.build();
+        db.put(rootTree);
+        return rootTree.getId();
+    }
 }
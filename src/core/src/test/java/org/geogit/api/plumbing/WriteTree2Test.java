@@ -308,6 +308,33 @@ public class WriteTree2Test extends RepositoryTestCase {
         assertEquals(expected, actual);
     }
 
+    @Test
+    public void testManyChangedTrees() {
+        final int numTrees = 16;
+        NodeRef[] left = new NodeRef[numTrees];
+        NodeRef[] right = new NodeRef[numTrees];
+        Set<String> expected = Sets.newHashSet();
+        for (int i = 0; i < numTrees; i++) {
+            String path = "layer" + i;
+            left[i] = repoTree(path, "b" + Integer.toHexString(i), "d1", 1);
+            right[i] = indexTree(path, "c" + Integer.toHexString(i), "d1", 3);
+            expected.add(path);
+            for (int f = 0; f < 3; f++) {
+                expected.add(path + "/" + path + "." + f);
+            }
+        }
+        leftTree = createHeadTree(left);
+        rightTree = createStageHeadTree(right);
+
+        final ObjectId newRepoRoot = command.call();
+        assertNotNull(newRepoRoot);
+        // check all blobs have been moved from the index to the object database
+        verifyRepositoryTree(NodeRef.ROOT, newRepoRoot);
+
+        ImmutableMap<String, NodeRef> refsByPath = getRefsByPath(newRepoRoot, true);
+        assertEquals(expected, refsByPath.keySet());
+    }
+
     @Test
     public void testAllKindsOfChanges() {
         leftTree = createHeadTree(//
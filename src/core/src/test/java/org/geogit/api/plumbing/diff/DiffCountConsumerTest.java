@@ -5,6 +5,10 @@
 
 package org.geogit.api.plumbing.diff;
 
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.geogit.api.Bucket;
 import org.geogit.api.Node;
 import org.geogit.api.NodeRef;
@@ -13,11 +17,16 @@ import org.geogit.api.RevObject.TYPE;
 import org.geogit.api.RevTree;
 import org.geogit.api.RevTreeBuilder;
 import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.memory.HeapDiffSummaryCache;
 import org.geogit.storage.memory.HeapObjectDatabse;
+import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+
 /**
  *
  */
@@ -37,6 +46,8 @@ public class DiffCountConsumerTest extends Assert {
 
     private ObjectDatabase odb;
 
+    private ForkJoinPool pool;
+
     private RevTree childrenFeatureTree;
 
     /** single level tree with 2 * {@link RevTree#NORMALIZED_SIZE_LIMIT} feature references */
@@ -52,6 +63,7 @@ public class DiffCountConsumerTest extends Assert {
     public void setUp() {
         odb = new HeapObjectDatabse();
         odb.open();
+        pool = new ForkJoinPool(4);
         {
             RevTreeBuilder builder = createFeaturesTree("", 10);
             this.childrenFeatureTree = builder.build();
@@ -72,6 +84,11 @@ public class DiffCountConsumerTest extends Assert {
         }
     }
 
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
     private void createFeatureTypesTree(RevTreeBuilder rootBuilder, String treePath,
             RevTreeBuilder childBuilder) {
         RevTree childTree = childBuilder.build();
@@ -85,6 +102,17 @@ public class DiffCountConsumerTest extends Assert {
         DiffCountConsumer consumer = new DiffCountConsumer(odb);
         visitor.walk(consumer);
         DiffObjectCount count = consumer.get();
+
+        // the parallel traversal shall always produce the same results
+        DiffCountConsumer parallelConsumer = new DiffCountConsumer(odb);
+        visitor.walk(parallelConsumer, pool);
+        DiffObjectCount parallelCount = parallelConsumer.get();
+        assertEquals(count.getFeaturesAdded(), parallelCount.getFeaturesAdded());
+        assertEquals(count.getFeaturesRemoved(), parallelCount.getFeaturesRemoved());
+        assertEquals(count.getFeaturesChanged(), parallelCount.getFeaturesChanged());
+        assertEquals(count.getTreesAdded(), parallelCount.getTreesAdded());
+        assertEquals(count.getTreesRemoved(), parallelCount.getTreesRemoved());
+        assertEquals(count.getTreesChanged(), parallelCount.getTreesChanged());
         return count;
     }
 
@@ -283,6 +311,57 @@ public class DiffCountConsumerTest extends Assert {
         assertEquals(expected, count(changed, deepTree).featureCount());
     }
 
+    @Test
+    public void testMemoizesBucketPairs() {
+        final int size = 48 * 1000;
+        final RevTree original = createFeaturesTree("", size).build();
+        RevTreeBuilder builder = new RevTreeBuilder(odb, original);
+        for (int i = 0; i < size; i++) {
+            builder.put(Node.create(String.valueOf(i), FAKE_FEATURE_ID_CHANGED, ObjectId.NULL,
+                    TYPE.FEATURE, null));
+        }
+        final RevTree changed = builder.build();
+
+        final AtomicInteger hits = new AtomicInteger();
+        HeapDiffSummaryCache cache = new HeapDiffSummaryCache() {
+            @Override
+            public Optional<DiffObjectCount> getCount(ObjectId leftTree, ObjectId rightTree,
+                    List<String> pathFilters) {
+                Optional<DiffObjectCount> count = super.getCount(leftTree, rightTree,
+                        pathFilters);
+                if (count.isPresent()) {
+                    hits.incrementAndGet();
+                }
+                return count;
+            }
+        };
+        DiffCountConsumer consumer = new DiffCountConsumer(odb, cache);
+        new DiffTreeVisitor(original, changed, odb, odb).walk(consumer);
+        assertEquals(size, consumer.get().getFeaturesChanged());
+        assertEquals(0, hits.get());
+
+        // the top level bucket pairs hold more than enough features to be memoized
+        final int buckets = original.buckets().get().size();
+        for (Integer index : original.buckets().get().keySet()) {
+            Optional<DiffObjectCount> count = cache.getCount(original.buckets().get().get(index)
+                    .id(), changed.buckets().get().get(index).id(), ImmutableList.<String> of());
+            assertTrue(count.isPresent());
+        }
+        hits.set(0);
+
+        // an overlapping diff within the same tree only traverses the bucket it changed
+        RevTree removed = new RevTreeBuilder(odb, changed).remove("0").build();
+        consumer = new DiffCountConsumer(odb, cache);
+        new DiffTreeVisitor(original, removed, odb, odb).walk(consumer, pool);
+        assertEquals(buckets - 1, hits.get());
+        DiffObjectCount expected = count(original, removed);
+        assertEquals(size - 1, expected.getFeaturesChanged());
+        assertEquals(1, expected.getFeaturesRemoved());
+        assertEquals(expected.getFeaturesChanged(), consumer.get().getFeaturesChanged());
+        assertEquals(expected.getFeaturesRemoved(), consumer.get().getFeaturesRemoved());
+        assertEquals(expected.getFeaturesAdded(), consumer.get().getFeaturesAdded());
+    }
+
     private int depth(RevTree deepTree, int currDepth) {
         if (!deepTree.buckets().isPresent()) {
             return currDepth;
@@ -0,0 +1,171 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.api.plumbing.diff;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.geogit.api.Node;
+import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+
+public class DiffEntryListConsumerTest extends Assert {
+
+    private static final ObjectId METADATA_ID = ObjectId
+            .forString("3300000000000000000000000000000000000000");
+
+    private ObjectDatabase odb;
+
+    private ForkJoinPool pool;
+
+    private RevTree left;
+
+    private RevTree right;
+
+    @Before
+    public void setUp() {
+        odb = new HeapObjectDatabse();
+        odb.open();
+        pool = new ForkJoinPool(4);
+
+        RevTreeBuilder leftRoot = new RevTreeBuilder(odb);
+        putTree(leftRoot, "tree1", featuresTree("tree1", 0, 2000, 0));
+        putTree(leftRoot, "tree2", featuresTree("tree2", 0, 10, 0));
+        putTree(leftRoot, "tree3", featuresTree("tree3", 0, 100, 0));
+        left = leftRoot.build();
+        odb.put(left);
+
+        RevTreeBuilder rightRoot = new RevTreeBuilder(odb);
+        // some features changed, some removed and some added
+        RevTreeBuilder tree1 = featuresTree("tree1", 0, 2000, 0);
+        for (int i = 0; i < 2000; i += 3) {
+            tree1.put(feature("tree1", i, 1));
+        }
+        for (int i = 1; i < 2000; i += 7) {
+            tree1.remove(String.valueOf(i));
+        }
+        tree1.put(feature("tree1", 2000, 0));
+        putTree(rightRoot, "tree1", tree1);
+        putTree(rightRoot, "tree2", featuresTree("tree2", 0, 10, 0));
+        putTree(rightRoot, "tree4", featuresTree("tree4", 0, 1000, 0));
+        right = rightRoot.build();
+        odb.put(right);
+        assertTrue(odb.getTree(right.trees().get().get(0).getObjectId()).buckets().isPresent());
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    private void putTree(RevTreeBuilder rootBuilder, String path, RevTreeBuilder childBuilder) {
+        RevTree childTree = childBuilder.build();
+        odb.put(childTree);
+        rootBuilder.put(Node.create(path, childTree.getId(), METADATA_ID, TYPE.TREE, null));
+    }
+
+    private RevTreeBuilder featuresTree(String parentPath, int from, int to, int version) {
+        RevTreeBuilder tree = new RevTreeBuilder(odb);
+        for (int i = from; i < to; i++) {
+            tree.put(feature(parentPath, i, version));
+        }
+        return tree;
+    }
+
+    private static Node feature(String parentPath, int i, int version) {
+        ObjectId id = ObjectId.forString(NodeRef.appendChild(parentPath, i + "_" + version));
+        return Node.create(String.valueOf(i), id, ObjectId.NULL, TYPE.FEATURE, null);
+    }
+
+    /**
+     * @return the entries collected by a parallel traversal, checking they're the same and in the
+     *         same order than the ones of a sequential traversal
+     */
+    private List<DiffEntry> entries(boolean reportTrees, boolean recursive) {
+        DiffTreeVisitor visitor = new DiffTreeVisitor(left, right, odb, odb);
+        DiffEntryListConsumer consumer = new DiffEntryListConsumer(reportTrees, recursive);
+        visitor.walk(consumer);
+
+        DiffEntryListConsumer parallelConsumer = new DiffEntryListConsumer(reportTrees, recursive);
+        visitor.walk(parallelConsumer, pool);
+        assertEquals(consumer.getEntries(), parallelConsumer.getEntries());
+        return parallelConsumer.getEntries();
+    }
+
+    private void assertSameAsTreeWalk(List<DiffEntry> entries, boolean reportTrees,
+            boolean recursive) {
+        DiffTreeWalk walk = new DiffTreeWalk(odb, left, right);
+        walk.setReportTrees(reportTrees);
+        walk.setRecursive(recursive);
+        assertEquals(ImmutableSet.copyOf(walk.get()), ImmutableSet.copyOf(entries));
+    }
+
+    @Test
+    public void testRecursive() {
+        List<DiffEntry> entries = entries(false, true);
+        for (DiffEntry entry : entries) {
+            NodeRef ref = entry.getNewObject() == null ? entry.getOldObject() : entry
+                    .getNewObject();
+            assertEquals(TYPE.FEATURE, ref.getType());
+            // the features inherit the metadata id of their tree
+            assertEquals(METADATA_ID, ref.getMetadataId());
+        }
+        // the changes to tree1, all of tree3 removed and all of tree4 added
+        assertEquals(2000 / 3 + 1 + 2000 / 7 + 1 + 1 + 100 + 1000 - overlap(), entries.size());
+        assertSameAsTreeWalk(entries, false, true);
+    }
+
+    /**
+     * @return the number of features both changed and removed, that are only reported once
+     */
+    private static int overlap() {
+        int overlap = 0;
+        for (int i = 1; i < 2000; i += 7) {
+            if (i % 3 == 0) {
+                overlap++;
+            }
+        }
+        return overlap;
+    }
+
+    @Test
+    public void testRecursiveReportingTrees() {
+        List<DiffEntry> entries = entries(true, true);
+        int trees = 0;
+        for (DiffEntry entry : entries) {
+            NodeRef ref = entry.getNewObject() == null ? entry.getOldObject() : entry
+                    .getNewObject();
+            if (TYPE.TREE.equals(ref.getType())) {
+                trees++;
+            }
+        }
+        // tree1 changed, tree3 removed and tree4 added
+        assertEquals(3, trees);
+        assertSameAsTreeWalk(entries, true, true);
+    }
+
+    @Test
+    public void testNotRecursive() {
+        List<DiffEntry> entries = entries(true, false);
+        assertEquals(3, entries.size());
+        for (DiffEntry entry : entries) {
+            NodeRef ref = entry.getNewObject() == null ? entry.getOldObject() : entry
+                    .getNewObject();
+            assertEquals(TYPE.TREE, ref.getType());
+        }
+        assertSameAsTreeWalk(entries, true, false);
+    }
+}
@@ -0,0 +1,80 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.remote;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevCommit;
+import org.geogit.api.plumbing.diff.DiffEntry;
+import org.geogit.api.porcelain.DiffOp;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.test.integration.RepositoryTestCase;
+import org.junit.Test;
+import org.opengis.feature.Feature;
+
+import com.google.common.collect.ImmutableList;
+
+public class BinaryPackedChangesTest extends RepositoryTestCase {
+
+    private List<DiffEntry> changes;
+
+    @Override
+    protected void setUpInternal() throws Exception {
+        RevCommit first = populate(true, points1).get(0);
+        // enough changes for several batches
+        List<Feature> features = new ArrayList<Feature>();
+        for (int i = 0; i < 600; i++) {
+            features.add(feature(pointsType, "Points.b" + i, "StringProp1_" + i,
+                    Integer.valueOf(i), "POINT(" + i + " " + i + ")"));
+        }
+        RevCommit second = populate(false, features).get(0);
+        changes = ImmutableList.copyOf(geogit.command(DiffOp.class)
+                .setOldVersion(first.getId()).setNewVersion(second.getId()).call());
+        assertEquals(features.size(), changes.size());
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        assertRoundTrip(false);
+    }
+
+    @Test
+    public void testBatchedRoundTrip() throws Exception {
+        assertRoundTrip(true);
+    }
+
+    private void assertRoundTrip(boolean batched) throws Exception {
+        BinaryPackedChanges packer = new BinaryPackedChanges(getRepository());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long written = packer.write(out, changes.iterator(), Collections.<ObjectId> emptySet(),
+                batched);
+        // the features and their feature type
+        assertEquals(changes.size() + 1, written);
+
+        ObjectDatabase database = getRepository().objectDatabase();
+        for (DiffEntry diff : changes) {
+            database.delete(diff.newObjectId());
+        }
+
+        final List<DiffEntry> ingested = new ArrayList<DiffEntry>();
+        packer.ingest(new ByteArrayInputStream(out.toByteArray()),
+                new BinaryPackedChanges.Callback() {
+                    @Override
+                    public void callback(DiffEntry diff) {
+                        ingested.add(diff);
+                    }
+                });
+        assertEquals(changes, ingested);
+        for (DiffEntry diff : changes) {
+            assertTrue(database.exists(diff.newObjectId()));
+        }
+        assertFalse(packer.wasFiltered());
+    }
+}
@@ -0,0 +1,93 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.remote;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevCommit;
+import org.geogit.api.porcelain.BranchCreateOp;
+import org.geogit.api.porcelain.CheckoutOp;
+import org.geogit.test.integration.RepositoryTestCase;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class CommitSketchTest extends RepositoryTestCase {
+
+    @Override
+    protected void setUpInternal() throws Exception {
+    }
+
+    @Test
+    public void testCreate() throws Exception {
+        ObjectId id1 = ObjectId.forString("commit1");
+        ObjectId id2 = ObjectId.forString("commit2");
+        CommitSketch sketch = CommitSketch.create(ImmutableList.of(id1, id2));
+        assertTrue(sketch.mightContain(id1));
+        assertTrue(sketch.mightContain(id2));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        sketch.writeTo(out);
+        CommitSketch read = CommitSketch.readFrom(new ByteArrayInputStream(out.toByteArray()));
+        assertTrue(read.mightContain(id1));
+        assertTrue(read.mightContain(id2));
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        CommitSketch sketch = CommitSketch.create(ImmutableList.<ObjectId> of());
+        assertFalse(sketch.mightContain(ObjectId.forString("commit1")));
+    }
+
+    @Test
+    public void testOfRepository() throws Exception {
+        List<RevCommit> master = populate(true, points1, points2);
+        geogit.command(BranchCreateOp.class).setName("branch1").call();
+        geogit.command(CheckoutOp.class).setSource("branch1").call();
+        List<RevCommit> branch = populate(true, lines1);
+
+        CommitSketch sketch = CommitSketch.of(getRepository());
+        for (RevCommit commit : master) {
+            assertTrue(sketch.mightContain(commit.getId()));
+        }
+        for (RevCommit commit : branch) {
+            assertTrue(sketch.mightContain(commit.getId()));
+        }
+    }
+
+    @Test
+    public void testReadRejectsOversizedSketch() throws Exception {
+        // claims 2^31 - 1 longs of data and sends none
+        assertUnreadable(1, 7, Integer.MAX_VALUE);
+        assertUnreadable(1, 7, -1);
+    }
+
+    @Test
+    public void testReadRejectsTooManyHashFunctions() throws Exception {
+        assertUnreadable(1, 255, 8);
+        assertUnreadable(1, 0, 8);
+    }
+
+    private void assertUnreadable(int strategy, int numHashFunctions, int dataLength)
+            throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeByte(strategy);
+        data.writeByte(numHashFunctions);
+        data.writeInt(dataLength);
+        data.flush();
+        try {
+            CommitSketch.readFrom(new ByteArrayInputStream(out.toByteArray()));
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Invalid commit sketch"));
+        }
+    }
+}
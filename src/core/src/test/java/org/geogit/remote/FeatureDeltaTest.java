@@ -0,0 +1,75 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.remote;
+
+import org.geogit.api.RevFeature;
+import org.geogit.api.RevFeatureBuilder;
+import org.geogit.test.integration.RepositoryTestCase;
+import org.junit.Test;
+
+import com.google.common.io.ByteStreams;
+
+public class FeatureDeltaTest extends RepositoryTestCase {
+
+    @Override
+    protected void setUpInternal() throws Exception {
+    }
+
+    @Test
+    public void testAttributeChange() throws Exception {
+        RevFeature base = RevFeatureBuilder.build(points1);
+        RevFeature feature = RevFeatureBuilder.build(points1_modified);
+        assertRoundTrip(base, feature);
+    }
+
+    @Test
+    public void testCoordinateChange() throws Exception {
+        RevFeature base = RevFeatureBuilder.build(lines1);
+        RevFeature feature = RevFeatureBuilder.build(feature(linesType, idL1, "StringProp2_1",
+                new Integer(1000), "LINESTRING (1 1, 2 2.5, 3 3)"));
+        RevFeature longer = RevFeatureBuilder.build(feature(linesType, idL1, "StringProp2_1",
+                new Integer(1000), "LINESTRING (1 1, 2 2, 3 3)"));
+        assertRoundTrip(longer, feature);
+        // different number of coordinates, sent in full
+        assertRoundTrip(base, feature);
+    }
+
+    @Test
+    public void testUnchanged() throws Exception {
+        RevFeature base = RevFeatureBuilder.build(lines1);
+        assertRoundTrip(base, base);
+    }
+
+    @Test
+    public void testDifferentValueCount() throws Exception {
+        RevFeature base = RevFeatureBuilder.build(points1);
+        RevFeature feature = RevFeatureBuilder.build(points1B);
+        assertNull(FeatureDelta.encode(base, feature));
+    }
+
+    @Test
+    public void testWrongBase() throws Exception {
+        RevFeature base = RevFeatureBuilder.build(lines1);
+        RevFeature feature = RevFeatureBuilder.build(feature(linesType, idL1, "StringProp2_1",
+                new Integer(1000), "LINESTRING (1 1, 2 3)"));
+        byte[] delta = FeatureDelta.encode(base, feature);
+        try {
+            FeatureDelta.decode(feature.getId(), RevFeatureBuilder.build(lines2),
+                    ByteStreams.newDataInput(delta));
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("rebuilt feature"));
+        }
+    }
+
+    private void assertRoundTrip(RevFeature base, RevFeature feature) throws Exception {
+        byte[] delta = FeatureDelta.encode(base, feature);
+        assertNotNull(delta);
+        RevFeature decoded = FeatureDelta.decode(feature.getId(), base,
+                ByteStreams.newDataInput(delta));
+        assertEquals(feature.getId(), decoded.getId());
+        assertEquals(feature.getValues(), decoded.getValues());
+    }
+}
@@ -0,0 +1,208 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.remote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevCommit;
+import org.geogit.api.porcelain.CommitOp;
+import org.geogit.repository.Repository;
+import org.geogit.storage.memory.HeapDeduplicationService;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Runs the parallel fetch of {@link HttpRemoteRepo} against an in-process HTTP server answering
+ * for the remote repository.
+ */
+public class HttpRemoteRepoTest extends RemoteRepositoryTestCase {
+
+    private static final int COMMITS = 120;
+
+    private HttpServer server;
+
+    private URL baseURL;
+
+    private List<ObjectId> commits;
+
+    /**
+     * Requests whose want list contains this commit are rejected
+     */
+    private volatile ObjectId failing;
+
+    /**
+     * Whether only the first request containing {@link #failing} is rejected
+     */
+    private volatile boolean failOnce;
+
+    private final AtomicInteger failures = new AtomicInteger();
+
+    @Override
+    protected void setUpInternal() throws Exception {
+        commits = new ArrayList<ObjectId>();
+        for (int i = 0; i < COMMITS; i++) {
+            insertAndAdd(remoteGeogit.geogit, feature(pointsType, "Points." + i, "StringProp1_"
+                    + i, Integer.valueOf(i), "POINT(" + i + " " + i + ")"));
+            commits.add(remoteGeogit.geogit.command(CommitOp.class).call().getId());
+        }
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/repo/batchobjects", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                JsonObject message = new JsonParser().parse(
+                        new InputStreamReader(exchange.getRequestBody(), Charsets.UTF_8))
+                        .getAsJsonObject();
+                List<ObjectId> want = ids(message, "want");
+                List<ObjectId> have = ids(message, "have");
+                if (want.contains(failing)) {
+                    failures.incrementAndGet();
+                    if (failOnce) {
+                        failing = null;
+                    }
+                    exchange.sendResponseHeaders(500, -1);
+                    exchange.close();
+                    return;
+                }
+                exchange.sendResponseHeaders(200, 0);
+                OutputStream out = exchange.getResponseBody();
+                new BinaryPackedObjects(remoteGeogit.repo.objectDatabase()).write(out, want,
+                        have, false, new HeapDeduplicationService().createDeduplicator(),
+                        message.get("packVersion").getAsInt());
+                out.close();
+            }
+        });
+        server.start();
+        baseURL = new URL("http://localhost:" + server.getAddress().getPort());
+    }
+
+    @Override
+    protected void tearDownInternal() throws Exception {
+        server.stop(0);
+        HttpTransport.reset(baseURL);
+    }
+
+    private static List<ObjectId> ids(JsonObject message, String name) {
+        List<ObjectId> ids = new ArrayList<ObjectId>();
+        for (JsonElement id : message.get(name).getAsJsonArray()) {
+            ids.add(ObjectId.valueOf(id.getAsString()));
+        }
+        return ids;
+    }
+
+    @Test
+    public void testCommitRanges() {
+        List<List<ObjectId>> ranges = HttpRemoteRepo.commitRanges(commits, 4);
+        // at least 50 commits per range
+        assertEquals(2, ranges.size());
+        assertEquals(60, ranges.get(0).size());
+        assertEquals(60, ranges.get(1).size());
+        assertEquals(commits, ImmutableList.copyOf(Iterables.concat(ranges)));
+
+        assertEquals(1, HttpRemoteRepo.commitRanges(commits.subList(0, 99), 4).size());
+        assertEquals(1, HttpRemoteRepo.commitRanges(commits, 1).size());
+    }
+
+    @Test
+    public void testFetchInParallel() {
+        List<ObjectId> want = new LinkedList<ObjectId>(commits);
+        Set<ObjectId> have = new HashSet<ObjectId>();
+        fetcher().fetchInParallel(HttpRemoteRepo.commitRanges(commits, 2), want, have);
+
+        assertTrue(want.isEmpty());
+        assertEquals(ImmutableList.of(Iterables.getLast(commits)), ImmutableList.copyOf(have));
+        Repository local = localGeogit.repo;
+        for (ObjectId commitId : commits) {
+            RevCommit commit = local.objectDatabase().getCommit(commitId);
+            assertTrue(local.objectDatabase().exists(commit.getTreeId()));
+            assertTrue(local.graphDatabase().exists(commitId));
+        }
+    }
+
+    @Test
+    public void testFailedStreamDropsCommitsOfLaterRanges() {
+        List<List<ObjectId>> ranges = HttpRemoteRepo.commitRanges(commits, 2);
+        failing = ranges.get(0).get(0);
+        List<ObjectId> want = new LinkedList<ObjectId>(commits);
+        Set<ObjectId> have = new HashSet<ObjectId>();
+        // the failure is left for the sequential fetch to retry
+        fetcher().fetchInParallel(ranges, want, have);
+        assertEquals(1, failures.get());
+
+        // the second stream completed, but its commits must not be stored before the first's
+        Repository local = localGeogit.repo;
+        for (ObjectId commitId : commits) {
+            assertFalse(local.objectDatabase().exists(commitId));
+            assertFalse(local.graphDatabase().exists(commitId));
+        }
+        assertEquals(commits, want);
+        assertTrue(have.isEmpty());
+    }
+
+    @Test
+    public void testFailedStreamFetchedSequentially() {
+        List<List<ObjectId>> ranges = HttpRemoteRepo.commitRanges(commits, 2);
+        failing = ranges.get(1).get(0);
+        failOnce = true;
+        List<ObjectId> want = new LinkedList<ObjectId>(commits);
+        Set<ObjectId> have = new HashSet<ObjectId>();
+        fetcher().fetchCommits(want, have, 2);
+        assertEquals(1, failures.get());
+
+        assertTrue(want.isEmpty());
+        assertEquals(ImmutableList.of(Iterables.getLast(commits)), ImmutableList.copyOf(have));
+        Repository local = localGeogit.repo;
+        for (ObjectId commitId : commits) {
+            RevCommit commit = local.objectDatabase().getCommit(commitId);
+            assertTrue(local.objectDatabase().exists(commit.getTreeId()));
+            assertTrue(local.graphDatabase().exists(commitId));
+        }
+    }
+
+    @Test
+    public void testSequentialFetchFailure() {
+        failing = commits.get(0);
+        List<ObjectId> want = new LinkedList<ObjectId>(commits);
+        Set<ObjectId> have = new HashSet<ObjectId>();
+        try {
+            fetcher().fetchCommits(want, have, 2);
+            fail("Expected the failure of the sequential fetch");
+        } catch (RuntimeException e) {
+            // expected
+        }
+        // once by the first stream, once by the sequential fetch
+        assertEquals(2, failures.get());
+        assertFalse(localGeogit.repo.objectDatabase().exists(commits.get(0)));
+    }
+
+    private HttpRemoteRepo fetcher() {
+        return new HttpRemoteRepo(baseURL, localGeogit.repo, new HeapDeduplicationService());
+    }
+}
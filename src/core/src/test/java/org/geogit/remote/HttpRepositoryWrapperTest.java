@@ -0,0 +1,295 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.remote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevCommit;
+import org.geogit.api.porcelain.CloneOp;
+import org.geogit.api.porcelain.CommitOp;
+import org.geogit.storage.GraphDatabase;
+import org.junit.Test;
+import org.opengis.feature.Feature;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multiset;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Runs {@link HttpRepositoryWrapper} against an in-process HTTP server answering for the remote
+ * repository, with and without support for negotiating the commit graph.
+ */
+public class HttpRepositoryWrapperTest extends RemoteRepositoryTestCase {
+
+    private HttpServer server;
+
+    private URL baseURL;
+
+    private Multiset<String> requests;
+
+    private volatile boolean negotiate;
+
+    private volatile boolean commitInfo;
+
+    private List<RevCommit> added;
+
+    @Override
+    protected void setUpInternal() throws Exception {
+        commit(points1, lines1);
+        CloneOp clone = clone();
+        clone.setDepth(0);
+        clone.setRepositoryURL(remoteGeogit.envHome.getCanonicalPath()).call();
+        added = commit(points2, lines2, points3);
+
+        requests = ConcurrentHashMultiset.create();
+        negotiate = true;
+        commitInfo = false;
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/repo/negotiate", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.add("negotiate");
+                if (!negotiate) {
+                    exchange.sendResponseHeaders(404, -1);
+                    exchange.close();
+                    return;
+                }
+                ParentsNegotiation negotiation = ParentsNegotiation.readRequest(exchange
+                        .getRequestBody());
+                exchange.sendResponseHeaders(200, 0);
+                OutputStream out = exchange.getResponseBody();
+                negotiation.writeParents(remoteGeogit.repo.graphDatabase(), out);
+                out.close();
+            }
+        });
+        server.createContext("/repo/commitinfo", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.add("commitinfo");
+                if (!commitInfo) {
+                    exchange.sendResponseHeaders(404, -1);
+                    exchange.close();
+                    return;
+                }
+                CommitInfoBatch batch = CommitInfoBatch.readRequest(exchange.getRequestBody());
+                exchange.sendResponseHeaders(200, 0);
+                OutputStream out = exchange.getResponseBody();
+                batch.writeInfo(remoteGeogit.repo, out);
+                out.close();
+            }
+        });
+        server.createContext("/repo/getdepth", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.add("getdepth");
+                String query = exchange.getRequestURI().getQuery();
+                ObjectId commit = ObjectId.valueOf(query.substring(query.indexOf('=') + 1));
+                int depth = remoteGeogit.repo.graphDatabase().getDepth(commit);
+                respond(exchange, String.valueOf(depth) + '\n');
+            }
+        });
+        server.createContext("/repo/getparents", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.add("getparents");
+                String query = exchange.getRequestURI().getQuery();
+                ObjectId commit = ObjectId.valueOf(query.substring(query.indexOf('=') + 1));
+                StringBuilder body = new StringBuilder();
+                for (ObjectId parent : remoteGeogit.repo.graphDatabase().getParents(commit)) {
+                    body.append(parent.toString()).append('\n');
+                }
+                respond(exchange, body.toString());
+            }
+        });
+        server.start();
+        baseURL = new URL("http://localhost:" + server.getAddress().getPort());
+    }
+
+    @Override
+    protected void tearDownInternal() throws Exception {
+        server.stop(0);
+        HttpTransport.reset(baseURL);
+    }
+
+    private static void respond(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes(Charsets.UTF_8);
+        exchange.sendResponseHeaders(200, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    private List<RevCommit> commit(Feature... features) throws Exception {
+        List<RevCommit> commits = Lists.newArrayList();
+        for (Feature f : features) {
+            insertAndAdd(remoteGeogit.geogit, f);
+            commits.add(remoteGeogit.geogit.command(CommitOp.class).call());
+        }
+        return commits;
+    }
+
+    @Test
+    public void testWalkStopsAtLocalCommits() throws Exception {
+        ObjectId tip = added.get(added.size() - 1).getId();
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        ParentsNegotiation.writeRequest(request, tip, CommitSketch.of(localGeogit.repo));
+
+        ParentsNegotiation negotiation = ParentsNegotiation
+                .readRequest(new ByteArrayInputStream(request.toByteArray()));
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        negotiation.writeParents(remoteGeogit.repo.graphDatabase(), response);
+        Map<ObjectId, ImmutableList<ObjectId>> parents = ParentsNegotiation
+                .readParents(new ByteArrayInputStream(response.toByteArray()));
+
+        ImmutableSet.Builder<ObjectId> expected = ImmutableSet.builder();
+        for (RevCommit commit : added) {
+            expected.add(commit.getId());
+        }
+        assertEquals(expected.build(), parents.keySet());
+        for (RevCommit commit : added) {
+            assertEquals(commit.getParentIds(), parents.get(commit.getId()));
+        }
+    }
+
+    @Test
+    public void testReadRequestRejectsOversizedSketch() throws Exception {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        request.write(ObjectId.forString("commit").getRawValue());
+        // strategy, hash functions and the number of longs of data, far more than allowed
+        request.write(new byte[] { 1, 7, 0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xff });
+        try {
+            ParentsNegotiation.readRequest(new ByteArrayInputStream(request.toByteArray()));
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertEquals(0, e.getMessage().indexOf("Invalid commit sketch"));
+        }
+    }
+
+    @Test
+    public void testNegotiatesParents() throws Exception {
+        HttpRepositoryWrapper wrapper = new HttpRepositoryWrapper(baseURL, localGeogit.repo);
+        assertParents(wrapper);
+        assertEquals(1, requests.count("negotiate"));
+        assertEquals(0, requests.count("commitinfo"));
+        assertEquals(0, requests.count("getparents"));
+    }
+
+    @Test
+    public void testFallsBackWithoutNegotiation() throws Exception {
+        negotiate = false;
+        HttpRepositoryWrapper wrapper = new HttpRepositoryWrapper(baseURL, localGeogit.repo);
+        assertParents(wrapper);
+        // each unsupported request is only tried once
+        assertEquals(1, requests.count("negotiate"));
+        assertEquals(1, requests.count("commitinfo"));
+        assertEquals(added.size(), requests.count("getparents"));
+    }
+
+    @Test
+    public void testCommitInfoDepthOfListedCommitsOnly() throws Exception {
+        ObjectId tip = added.get(added.size() - 1).getId();
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        CommitInfoBatch.writeRequest(request, ImmutableList.of(tip), 100, true, false);
+
+        CommitInfoBatch batch = CommitInfoBatch.readRequest(new ByteArrayInputStream(request
+                .toByteArray()));
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        batch.writeInfo(remoteGeogit.repo, response);
+        Map<ObjectId, HttpUtils.CommitInfo> info = CommitInfoBatch.readInfo(
+                new ByteArrayInputStream(response.toByteArray()), false);
+
+        GraphDatabase graph = remoteGeogit.repo.graphDatabase();
+        // the three added commits and the two the local repository has
+        assertEquals(5, info.size());
+        for (Map.Entry<ObjectId, HttpUtils.CommitInfo> entry : info.entrySet()) {
+            ObjectId commit = entry.getKey();
+            assertEquals(graph.getParents(commit), entry.getValue().getParents());
+            assertNull(entry.getValue().getAffectedFeatures());
+            if (commit.equals(tip)) {
+                assertEquals(Optional.of(graph.getDepth(tip)), entry.getValue().getDepth());
+            } else {
+                assertFalse(entry.getValue().getDepth().isPresent());
+            }
+        }
+    }
+
+    @Test
+    public void testCommitInfoRejectsDepthOfTooManyCommits() throws Exception {
+        List<ObjectId> commits = Lists.newArrayList();
+        for (int i = 0; i < 17; i++) {
+            commits.add(ObjectId.forString("commit" + i));
+        }
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        CommitInfoBatch.writeRequest(request, commits, 0, true, false);
+        try {
+            CommitInfoBatch.readRequest(new ByteArrayInputStream(request.toByteArray()));
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertEquals(0, e.getMessage().indexOf("Can't compute the depth"));
+        }
+        // without the depth they can be answered for
+        request.reset();
+        CommitInfoBatch.writeRequest(request, commits, 0, false, false);
+        CommitInfoBatch.readRequest(new ByteArrayInputStream(request.toByteArray()));
+    }
+
+    @Test
+    public void testCommitInfoWithoutLocalRepository() throws Exception {
+        commitInfo = true;
+        HttpRepositoryWrapper wrapper = new HttpRepositoryWrapper(baseURL);
+        GraphDatabase graph = remoteGeogit.repo.graphDatabase();
+        ObjectId tip = added.get(added.size() - 1).getId();
+        assertEquals(graph.getDepth(tip), wrapper.getDepth(tip));
+        assertParents(wrapper);
+        assertEquals(1, requests.count("commitinfo"));
+
+        // the depths of the ancestors weren't computed along with that of the tip
+        ObjectId first = added.get(0).getId();
+        assertEquals(graph.getDepth(first), wrapper.getDepth(first));
+        assertEquals(2, requests.count("commitinfo"));
+        assertEquals(0, requests.count("getdepth"));
+        assertEquals(0, requests.count("getparents"));
+    }
+
+    @Test
+    public void testFallsBackWithoutCommitInfo() throws Exception {
+        HttpRepositoryWrapper wrapper = new HttpRepositoryWrapper(baseURL);
+        GraphDatabase graph = remoteGeogit.repo.graphDatabase();
+        ObjectId tip = added.get(added.size() - 1).getId();
+        assertEquals(graph.getDepth(tip), wrapper.getDepth(tip));
+        assertParents(wrapper);
+        assertEquals(1, requests.count("commitinfo"));
+        assertEquals(1, requests.count("getdepth"));
+        assertEquals(added.size(), requests.count("getparents"));
+    }
+
+    private void assertParents(HttpRepositoryWrapper wrapper) {
+        GraphDatabase graph = remoteGeogit.repo.graphDatabase();
+        for (RevCommit commit : Lists.reverse(added)) {
+            assertEquals(graph.getParents(commit.getId()), wrapper.getParents(commit.getId()));
+            assertEquals(commit.getParentIds(), wrapper.getParents(commit.getId()));
+        }
+    }
+}
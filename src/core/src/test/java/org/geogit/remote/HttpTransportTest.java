@@ -0,0 +1,207 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.remote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+
+import org.geogit.storage.ConfigDatabase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Runs {@link HttpTransport} against an in-process HTTP server.
+ */
+public class HttpTransportTest {
+
+    private HttpServer server;
+
+    private URL baseURL;
+
+    private Set<Integer> clientPorts;
+
+    @Before
+    public void setUp() throws Exception {
+        clientPorts = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/repo/manifest", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                byte[] body = "HEAD refs/heads/master 0123456789012345678901234567890123456789\n"
+                        .getBytes(Charsets.UTF_8);
+                String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                    exchange.sendResponseHeaders(200, 0);
+                    GZIPOutputStream out = new GZIPOutputStream(exchange.getResponseBody());
+                    out.write(body);
+                    out.close();
+                } else {
+                    exchange.sendResponseHeaders(200, body.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(body);
+                    out.close();
+                }
+            }
+        });
+        server.createContext("/repo/redirect", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                // same server, different authority
+                exchange.getResponseHeaders().set("Location",
+                        "http://127.0.0.1:" + server.getAddress().getPort() + "/repo/manifest");
+                exchange.sendResponseHeaders(302, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        baseURL = new URL("http://localhost:" + server.getAddress().getPort());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop(0);
+        HttpTransport.reset(baseURL);
+        HttpTransport.reset(new URL("http://127.0.0.1:" + baseURL.getPort()));
+    }
+
+    @Test
+    public void testConnectionsReused() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            assertTrue(getManifest().startsWith("HEAD refs/heads/master"));
+        }
+        assertEquals(1, clientPorts.size());
+        assertEquals(0, HttpTransport.forUrl(baseURL).inFlight());
+    }
+
+    @Test
+    public void testGzip() throws Exception {
+        HttpURLConnection connection = HttpUtils.connect(baseURL + "/repo/manifest");
+        try {
+            HttpUtils.ReportingInputStream in = HttpUtils.getResponseStream(connection);
+            assertTrue(in.isCompressed());
+            HttpUtils.consumeAndCloseStream(in);
+        } finally {
+            HttpUtils.consumeErrStreamAndCloseConnection(connection);
+        }
+    }
+
+    @Test
+    public void testMaxConnections() throws Exception {
+        HttpTransport.configure(baseURL, singleConnectionConfig(), "origin");
+
+        HttpURLConnection connection = HttpUtils.connect(baseURL + "/repo/manifest");
+        try {
+            HttpUtils.connect(baseURL + "/repo/manifest");
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("Timed out waiting"));
+        } finally {
+            HttpUtils.consumeAndCloseStream(HttpUtils.getResponseStream(connection));
+            HttpUtils.consumeErrStreamAndCloseConnection(connection);
+        }
+        // the connection is available again
+        assertTrue(getManifest().startsWith("HEAD"));
+    }
+
+    @Test
+    public void testReleaseAfterRedirect() throws Exception {
+        HttpTransport.configure(baseURL, singleConnectionConfig(), "origin");
+        for (int i = 0; i < 3; i++) {
+            HttpURLConnection connection = HttpUtils.connect(baseURL + "/repo/redirect");
+            try {
+                assertEquals(baseURL.getPort(), connection.getURL().getPort());
+                assertEquals("127.0.0.1", connection.getURL().getHost());
+                HttpUtils.consumeAndCloseStream(HttpUtils.getResponseStream(connection));
+            } finally {
+                HttpUtils.consumeErrStreamAndCloseConnection(connection);
+            }
+            // the single connection went back to the transport it was taken from
+            assertEquals(0, HttpTransport.forUrl(baseURL).inFlight());
+        }
+    }
+
+    @Test
+    public void testConfigureKeepsTransportInUse() throws Exception {
+        ConfigDatabase config = singleConnectionConfig();
+        HttpTransport.configure(baseURL, config, "origin");
+        HttpTransport transport = HttpTransport.forUrl(new URL(baseURL + "/repo/manifest"));
+        HttpURLConnection connection = HttpUtils.connect(baseURL + "/repo/manifest");
+        try {
+            HttpTransport.configure(new URL(baseURL + "/"), config, "origin");
+            assertSame(transport, HttpTransport.forUrl(new URL(baseURL + "/repo/manifest")));
+            assertEquals(1, transport.inFlight());
+        } finally {
+            HttpUtils.consumeAndCloseStream(HttpUtils.getResponseStream(connection));
+            HttpUtils.consumeErrStreamAndCloseConnection(connection);
+        }
+        assertEquals(0, transport.inFlight());
+    }
+
+    @Test
+    public void testConfiguredPerRemote() throws Exception {
+        URL remote = new URL(baseURL + "/repo");
+        HttpTransport.configure(remote, singleConnectionConfig(), "origin");
+        try {
+            HttpTransport configured = HttpTransport.forUrl(new URL(remote + "/manifest"));
+            assertSame(configured, HttpTransport.forUrl(remote));
+            assertNotSame(configured, HttpTransport.forUrl(new URL(baseURL + "/repository")));
+            assertNotSame(configured, HttpTransport.forUrl(baseURL));
+        } finally {
+            HttpTransport.reset(remote);
+        }
+    }
+
+    private ConfigDatabase singleConnectionConfig() {
+        ConfigDatabase config = mock(ConfigDatabase.class);
+        when(config.get("remote.origin.connectTimeout", Integer.class)).thenReturn(
+                Optional.of(1));
+        when(config.get("remote.origin.readTimeout", Integer.class)).thenReturn(
+                Optional.<Integer> absent());
+        when(config.get("remote.origin.maxConnections", Integer.class)).thenReturn(
+                Optional.of(1));
+        return config;
+    }
+
+    private String getManifest() throws IOException {
+        HttpURLConnection connection = HttpUtils.connect(baseURL + "/repo/manifest");
+        try {
+            InputStream in = HttpUtils.getResponseStream(connection);
+            try {
+                return new BufferedReader(new InputStreamReader(in, Charsets.UTF_8)).readLine();
+            } finally {
+                HttpUtils.consumeAndCloseStream(in);
+            }
+        } finally {
+            HttpUtils.consumeErrStreamAndCloseConnection(connection);
+        }
+    }
+}
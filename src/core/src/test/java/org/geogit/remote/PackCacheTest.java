@@ -0,0 +1,152 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.remote;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+
+import org.geogit.api.ObjectId;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+public class PackCacheTest {
+
+    private static final long MAX_SIZE = 1000;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File directory;
+
+    private PackCache cache;
+
+    private final ObjectId a = ObjectId.forString("a");
+
+    private final ObjectId b = ObjectId.forString("b");
+
+    private final ObjectId c = ObjectId.forString("c");
+
+    @Before
+    public void setUp() throws Exception {
+        directory = tempFolder.newFolder("packcache");
+        cache = PackCache.open(directory, MAX_SIZE);
+    }
+
+    private byte[] store(List<ObjectId> want, List<ObjectId> have, int size) throws Exception {
+        byte[] pack = new byte[size];
+        Arrays.fill(pack, (byte) size);
+        ByteArrayOutputStream client = new ByteArrayOutputStream();
+        PackCache.CachingOutputStream out = cache.store(1, want, have, client);
+        out.write(pack, 0, pack.length);
+        out.flush();
+        out.commit();
+        assertArrayEquals(pack, client.toByteArray());
+        return pack;
+    }
+
+    private Optional<byte[]> find(List<ObjectId> want, List<ObjectId> have) throws Exception {
+        Optional<FileChannel> channel = cache.find(1, want, have);
+        if (!channel.isPresent()) {
+            return Optional.absent();
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PackCache.transfer(channel.get(), out);
+        return Optional.of(out.toByteArray());
+    }
+
+    @Test
+    public void testHit() throws Exception {
+        byte[] pack = store(ImmutableList.of(a, b), ImmutableList.of(c), 100);
+        // the order of the ids doesn't matter
+        Optional<byte[]> cached = find(ImmutableList.of(b, a), ImmutableList.of(c));
+        assertTrue(cached.isPresent());
+        assertArrayEquals(pack, cached.get());
+        assertFalse(cache.find(2, ImmutableList.of(a, b), ImmutableList.of(c)).isPresent());
+    }
+
+    @Test
+    public void testOnlyServesTheSameSets() throws Exception {
+        store(ImmutableList.of(a, b), ImmutableList.<ObjectId> of(), 100);
+        // a pack for more wants or fewer haves has objects the client didn't ask for
+        assertFalse(find(ImmutableList.of(a), ImmutableList.<ObjectId> of()).isPresent());
+        assertFalse(find(ImmutableList.of(a, b), ImmutableList.of(c)).isPresent());
+        assertTrue(find(ImmutableList.of(a, b), ImmutableList.<ObjectId> of()).isPresent());
+    }
+
+    @Test
+    public void testDiscardedNotCached() throws Exception {
+        PackCache.CachingOutputStream out = cache.store(1, ImmutableList.of(a),
+                ImmutableList.<ObjectId> of(), new ByteArrayOutputStream());
+        out.write(new byte[10], 0, 10);
+        out.discard();
+        assertFalse(find(ImmutableList.of(a), ImmutableList.<ObjectId> of()).isPresent());
+        assertEquals(0, directory.list().length);
+    }
+
+    @Test
+    public void testTooBigNotCached() throws Exception {
+        ByteArrayOutputStream client = new ByteArrayOutputStream();
+        PackCache.CachingOutputStream out = cache.store(1, ImmutableList.of(a),
+                ImmutableList.<ObjectId> of(), client);
+        byte[] pack = new byte[(int) MAX_SIZE + 1];
+        out.write(pack, 0, pack.length);
+        out.commit();
+        // the client still gets the whole pack
+        assertEquals(pack.length, client.size());
+        assertFalse(find(ImmutableList.of(a), ImmutableList.<ObjectId> of()).isPresent());
+        assertEquals(0, directory.list().length);
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyServed() throws Exception {
+        ImmutableList<ObjectId> none = ImmutableList.<ObjectId> of();
+        store(ImmutableList.of(a), none, 400);
+        store(ImmutableList.of(b), none, 400);
+        assertTrue(find(ImmutableList.of(a), none).isPresent());
+        store(ImmutableList.of(c), none, 400);
+
+        assertTrue(find(ImmutableList.of(a), none).isPresent());
+        assertFalse(find(ImmutableList.of(b), none).isPresent());
+        assertTrue(find(ImmutableList.of(c), none).isPresent());
+        // the pack and refs files of the two remaining packs
+        assertEquals(4, directory.list().length);
+    }
+
+    @Test
+    public void testReloadAfterRestart() throws Exception {
+        ImmutableList<ObjectId> none = ImmutableList.<ObjectId> of();
+        byte[] pack = store(ImmutableList.of(a), ImmutableList.of(b), 100);
+        store(ImmutableList.of(c), none, 100);
+        // a pack whose sets can't be read is discarded
+        for (File refs : directory.listFiles()) {
+            if (refs.getName().endsWith(".refs")
+                    && Files.toString(refs, Charsets.UTF_8).contains("want " + c)) {
+                Files.write("garbage", refs, Charsets.UTF_8);
+            }
+        }
+
+        cache = PackCache.open(directory, MAX_SIZE);
+        Optional<byte[]> cached = find(ImmutableList.of(a), ImmutableList.of(b));
+        assertTrue(cached.isPresent());
+        assertArrayEquals(pack, cached.get());
+        assertFalse(find(ImmutableList.of(c), none).isPresent());
+        assertEquals(2, directory.list().length);
+    }
+}
@@ -0,0 +1,193 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+
+import org.geogit.api.Platform;
+import org.geogit.repository.ExecutionService.Lane;
+import org.geogit.repository.ExecutionService.LaneStats;
+import org.geogit.storage.ConfigDatabase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+
+public class ExecutionServiceTest {
+
+    private ConfigDatabase config;
+
+    private ExecutionService service;
+
+    @Before
+    public void setUp() {
+        config = mock(ConfigDatabase.class);
+        when(config.get(Lane.CPU.configKey(), Integer.class)).thenReturn(Optional.of(3));
+        when(config.get(Lane.IO.configKey(), Integer.class)).thenReturn(
+                Optional.<Integer> absent());
+        when(config.getGlobal(Lane.IO.configKey(), Integer.class)).thenReturn(
+                Optional.<Integer> absent());
+        Platform platform = mock(Platform.class);
+        when(platform.availableProcessors()).thenReturn(4);
+        service = new ExecutionService(config, platform);
+    }
+
+    @After
+    public void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    public void testParallelism() {
+        assertEquals(3, service.getParallelism(Lane.CPU));
+        assertEquals(8, service.getParallelism(Lane.IO));
+    }
+
+    @Test
+    public void testInvalidConfig() {
+        when(config.get(Lane.CPU.configKey(), Integer.class)).thenReturn(Optional.of(0));
+        when(config.getGlobal(Lane.CPU.configKey(), Integer.class)).thenReturn(
+                Optional.<Integer> absent());
+        assertEquals(4, service.getParallelism(Lane.CPU));
+    }
+
+    @Test
+    public void testSharedExecutor() throws Exception {
+        ExecutorService executor = service.getExecutor(Lane.CPU);
+        assertSame(executor, service.getExecutor(Lane.CPU));
+
+        Integer result = executor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return 42;
+            }
+        }).get();
+        assertEquals(42, result.intValue());
+
+        try {
+            executor.shutdown();
+            fail("Expected UOE");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+
+        LaneStats stats = service.getStats(Lane.CPU);
+        assertEquals(3, stats.getParallelism());
+        assertEquals(0, service.getStats(Lane.IO).getParallelism());
+    }
+
+    @Test
+    public void testSharedForkJoinPool() {
+        ForkJoinPool pool = service.getForkJoinPool();
+        assertSame(pool, service.getForkJoinPool());
+        assertEquals(3, pool.getParallelism());
+        assertEquals(Integer.valueOf(42), pool.invoke(new Answer()));
+
+        try {
+            pool.shutdown();
+            fail("Expected UOE");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            pool.shutdownNow();
+            fail("Expected UOE");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        assertFalse(pool.isShutdown());
+
+        service.shutdown();
+        assertTrue(pool.isShutdown());
+        ForkJoinPool reopened = service.getForkJoinPool();
+        assertNotSame(pool, reopened);
+        assertEquals(Integer.valueOf(42), reopened.invoke(new Answer()));
+    }
+
+    private static class Answer extends RecursiveTask<Integer> {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected Integer compute() {
+            return 42;
+        }
+    }
+
+    @Test
+    public void testStatsWhileTasksQueued() throws Exception {
+        final ExecutorService executor = service.getExecutor(Lane.CPU);
+        final CountDownLatch started = new CountDownLatch(3);
+        final CountDownLatch release = new CountDownLatch(1);
+        List<Future<?>> futures = Lists.newArrayList();
+        for (int i = 0; i < 5; i++) {
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }));
+        }
+        try {
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            LaneStats stats = service.getStats(Lane.CPU);
+            assertEquals(3, stats.getParallelism());
+            assertEquals(3, stats.getThreads());
+            assertEquals(3, stats.getActiveTasks());
+            assertEquals(2, stats.getQueuedTasks());
+            assertEquals(0, stats.getCompletedTasks());
+        } finally {
+            release.countDown();
+        }
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        LaneStats stats = service.getStats(Lane.CPU);
+        assertEquals(0, stats.getQueuedTasks());
+        assertEquals(0, service.getStats(Lane.IO).getThreads());
+    }
+
+    @Test
+    public void testReusableAfterShutdown() throws Exception {
+        ExecutorService executor = service.getExecutor(Lane.IO);
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get();
+        service.shutdown();
+
+        assertEquals(0, service.getStats(Lane.IO).getParallelism());
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get();
+        assertEquals(8, service.getStats(Lane.IO).getParallelism());
+    }
+}
@@ -4,9 +4,26 @@
  */
 package org.geogit.repository;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
 import org.geogit.api.Platform;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.TestPlatform;
+import org.geogit.storage.NodeStorageOrder;
+import org.junit.Test;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.vividsolutions.jts.geom.Envelope;
 
 public class FileNodeIndexTest extends AbstractNodeIndexTest {
 
@@ -15,4 +32,86 @@ public class FileNodeIndexTest extends AbstractNodeIndexTest {
         return new FileNodeIndex(platform, executorService);
     }
 
+    /**
+     * Uses a tiny partition budget so that the number of spilled runs exceeds
+     * {@link FileNodeIndex#MAX_MERGE_RUNS} and intermediate merges are performed
+     */
+    @Test
+    public void testManyRuns() throws Exception {
+        File workingDirectory = tempFolder.newFolder("manyruns");
+        Platform platform = new TestPlatform(workingDirectory);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        FileNodeIndex index = new FileNodeIndex(platform, executor, 16 * 1024);
+        try {
+            final int count = 100 * 1000;
+            List<Node> expected = new ArrayList<Node>(count);
+            for (int i = 0; i < count; i++) {
+                Node node = node(String.valueOf(i), i);
+                index.add(node);
+                expected.add(node);
+            }
+            Collections.sort(expected, new NodeStorageOrder());
+
+            List<Node> actual = Lists.newArrayList(index.nodes());
+            assertEquals(expected, actual);
+        } finally {
+            index.close();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testDuplicateNamesKeepInsertionOrder() throws Exception {
+        File workingDirectory = tempFolder.newFolder("duplicates");
+        Platform platform = new TestPlatform(workingDirectory);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        FileNodeIndex index = new FileNodeIndex(platform, executor, 1024);
+        try {
+            final int count = 1000;
+            ListMultimap<String, ObjectId> expected = ArrayListMultimap.create();
+            for (int i = 0; i < count; i++) {
+                Node node = node("n" + (i % 10), i);
+                index.add(node);
+                expected.put(node.getName(), node.getObjectId());
+            }
+            ListMultimap<String, ObjectId> actual = ArrayListMultimap.create();
+            Iterator<Node> nodes = index.nodes();
+            while (nodes.hasNext()) {
+                Node node = nodes.next();
+                actual.put(node.getName(), node.getObjectId());
+            }
+            assertEquals(expected, actual);
+        } finally {
+            index.close();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testNodesCalledOnce() throws Exception {
+        File workingDirectory = tempFolder.newFolder("once");
+        Platform platform = new TestPlatform(workingDirectory);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        FileNodeIndex index = new FileNodeIndex(platform, executor, 1024);
+        try {
+            for (int i = 0; i < 1000; i++) {
+                index.add(node(String.valueOf(i), i));
+            }
+            assertEquals(1000, Lists.newArrayList(index.nodes()).size());
+            try {
+                index.nodes();
+                fail("Expected ISE");
+            } catch (IllegalStateException e) {
+                assertTrue(e.getMessage().contains("once"));
+            }
+        } finally {
+            index.close();
+            executor.shutdownNow();
+        }
+    }
+
+    private Node node(String name, int i) {
+        return Node.create(name, ObjectId.forString(name + i), ObjectId.NULL, TYPE.FEATURE,
+                new Envelope(i, i + 1, i, i + 1));
+    }
 }
@@ -0,0 +1,173 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.repository;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.geogit.api.Bucket;
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.Platform;
+import org.geogit.api.RevObject;
+import org.geogit.api.RevObject.TYPE;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeBuilder;
+import org.geogit.api.TestPlatform;
+import org.geogit.storage.BulkOpListener;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.Lists;
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Checks that the concurrent {@link RevTreeBuilder2} builds the same trees as the sequential
+ * {@link RevTreeBuilder}.
+ */
+public class RevTreeBuilder2Test extends Assert {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Platform platform;
+
+    private ExecutorService executorService;
+
+    private ObjectDatabase db;
+
+    @Before
+    public void setUp() throws Exception {
+        tempFolder.newFolder(".geogit");
+        platform = new TestPlatform(tempFolder.getRoot());
+        executorService = Executors.newFixedThreadPool(4);
+        db = new HeapObjectDatabse();
+        db.open();
+    }
+
+    @After
+    public void tearDown() {
+        executorService.shutdownNow();
+        db.close();
+    }
+
+    private static Node node(int i, int version) {
+        ObjectId id = ObjectId.forString("feature" + i + "_" + version);
+        return Node.create("Points." + i, id, ObjectId.NULL, TYPE.FEATURE, new Envelope(i, i + 1,
+                i, i + 1));
+    }
+
+    private static Node removal(int i) {
+        return Node.create("Points." + i, ObjectId.NULL, ObjectId.NULL, TYPE.FEATURE, null);
+    }
+
+    private RevTree original(int size) {
+        RevTreeBuilder builder = new RevTreeBuilder(db);
+        for (int i = 0; i < size; i++) {
+            builder.put(node(i, 0));
+        }
+        RevTree tree = builder.build();
+        db.put(tree);
+        return tree;
+    }
+
+    /**
+     * Builds the changes with both builders, asserting they produce the same tree
+     */
+    private RevTree assertBuildsSame(ObjectDatabase database, RevTree original,
+            List<Node> changes) {
+        RevTreeBuilder sequential = new RevTreeBuilder(db, original);
+        RevTreeBuilder2 concurrent = new RevTreeBuilder2(database, original, ObjectId.NULL,
+                platform, executorService);
+        for (Node node : changes) {
+            if (node.getObjectId().isNull()) {
+                sequential.remove(node.getName());
+            } else {
+                sequential.put(node);
+            }
+            concurrent.put(node);
+        }
+        RevTree expected = sequential.build();
+        RevTree actual = concurrent.build();
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.numTrees(), actual.numTrees());
+        assertEquals(expected.buckets().isPresent(), actual.buckets().isPresent());
+        return actual;
+    }
+
+    @Test
+    public void testNewTree() {
+        List<Node> changes = Lists.newArrayList();
+        for (int i = 0; i < 2000; i++) {
+            changes.add(node(i, 0));
+        }
+        RevTree tree = assertBuildsSame(db, null, changes);
+        assertTrue(tree.buckets().isPresent());
+        // the bucket trees are saved
+        for (Bucket bucket : tree.buckets().get().values()) {
+            assertTrue(db.exists(bucket.id()));
+        }
+    }
+
+    @Test
+    public void testChangeBucketsTree() {
+        RevTree original = original(2000);
+        List<Node> changes = Lists.newArrayList();
+        for (int i = 0; i < 2000; i += 3) {
+            changes.add(node(i, 1));
+        }
+        for (int i = 1; i < 2000; i += 7) {
+            changes.add(removal(i));
+        }
+        for (int i = 2000; i < 2500; i++) {
+            changes.add(node(i, 0));
+        }
+        assertTrue(assertBuildsSame(db, original, changes).buckets().isPresent());
+    }
+
+    @Test
+    public void testGrowLeafTree() {
+        RevTree original = original(300);
+        assertFalse(original.buckets().isPresent());
+        List<Node> changes = Lists.newArrayList();
+        for (int i = 0; i < 1000; i += 2) {
+            changes.add(node(i, 1));
+        }
+        assertTrue(assertBuildsSame(db, original, changes).buckets().isPresent());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testCollapseToLeafTree() {
+        RevTree original = original(1000);
+        assertTrue(original.buckets().isPresent());
+        List<Node> changes = Lists.newArrayList();
+        for (int i = 0; i < 900; i++) {
+            changes.add(removal(i));
+        }
+        changes.add(node(950, 1));
+        ObjectDatabase database = spy(db);
+        RevTree tree = assertBuildsSame(database, original, changes);
+        assertFalse(tree.buckets().isPresent());
+        // the leaf tree doesn't reference the new bucket trees, so they're not saved
+        verify(database, never()).putAll(any(Iterator.class));
+        verify(database, never()).putAll(any(Iterator.class), any(BulkOpListener.class));
+        verify(database, never()).put(any(RevObject.class));
+    }
+}
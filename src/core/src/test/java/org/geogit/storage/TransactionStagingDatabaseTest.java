@@ -0,0 +1,118 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+
+import org.geogit.api.Node;
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevObject;
+import org.geogit.api.RevTree;
+import org.geogit.api.RevTreeImpl;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+
+public class TransactionStagingDatabaseTest {
+
+    private StagingDatabase database;
+
+    private TransactionStagingDatabase txDatabase;
+
+    @Before
+    public void setUp() {
+        database = mock(StagingDatabase.class);
+        txDatabase = new TransactionStagingDatabase(database, UUID.randomUUID(), 2);
+    }
+
+    @Test
+    public void testPutHoldsObjectInMemory() {
+        RevTree tree = tree("tree1");
+        assertTrue(txDatabase.put(tree));
+        assertFalse(txDatabase.put(tree));
+        verify(database, never()).put(any(RevObject.class));
+
+        assertEquals(1, txDatabase.getOverlaySize());
+        assertTrue(txDatabase.exists(tree.getId()));
+        assertSame(tree, txDatabase.get(tree.getId()));
+        assertSame(tree, txDatabase.getTree(tree.getId()));
+    }
+
+    @Test
+    public void testSpillPastLimit() {
+        RevTree tree1 = tree("tree1");
+        RevTree tree2 = tree("tree2");
+        RevTree tree3 = tree("tree3");
+        txDatabase.put(tree1);
+        txDatabase.put(tree2);
+        txDatabase.put(tree3);
+
+        assertEquals(2, txDatabase.getOverlaySize());
+        verify(database, never()).put(tree1);
+        verify(database, never()).put(tree2);
+        verify(database).put(tree3);
+    }
+
+    @Test
+    public void testDeleteAll() {
+        RevTree tree1 = tree("tree1");
+        RevTree tree2 = tree("tree2");
+        txDatabase.putAll(ImmutableList.of(tree1, tree2).iterator());
+        assertEquals(2, txDatabase.getOverlaySize());
+
+        txDatabase.deleteAll(ImmutableList.of(tree1.getId()).iterator());
+        assertEquals(1, txDatabase.getOverlaySize());
+        assertFalse(txDatabase.exists(tree1.getId()));
+        assertTrue(txDatabase.exists(tree2.getId()));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testWriteOverlay() {
+        RevTree tree1 = tree("tree1");
+        RevTree tree2 = tree("tree2");
+        txDatabase.put(tree1);
+        txDatabase.put(tree2);
+
+        final List<RevObject> written = Lists.newArrayList();
+        ObjectDatabase target = mock(ObjectDatabase.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                Iterator<RevObject> objects = (Iterator<RevObject>) invocation.getArguments()[0];
+                Iterators.addAll(written, objects);
+                return null;
+            }
+        }).when(target).putAll(any(Iterator.class));
+
+        txDatabase.writeOverlay(target);
+        assertEquals(2, written.size());
+        assertTrue(written.contains(tree1));
+        assertTrue(written.contains(tree2));
+        assertEquals(0, txDatabase.getOverlaySize());
+    }
+
+    private static RevTree tree(String name) {
+        return RevTreeImpl.createLeafTree(ObjectId.forString(name), 0L, ImmutableList.<Node> of(),
+                ImmutableList.<Node> of());
+    }
+}
@@ -0,0 +1,121 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.Platform;
+import org.geogit.api.TestPlatform;
+import org.geogit.api.plumbing.diff.DiffObjectCount;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+public class FileDiffSummaryCacheTest {
+
+    private static final List<String> NO_FILTERS = ImmutableList.of();
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Platform platform;
+
+    private long currentTime = 1000;
+
+    private final ObjectId right = ObjectId.forString("right tree");
+
+    @Before
+    public void setUp() throws Exception {
+        tempFolder.newFolder(".geogit");
+        platform = new TestPlatform(tempFolder.getRoot()) {
+            @Override
+            public long currentTimeMillis() {
+                return currentTime;
+            }
+        };
+    }
+
+    private static ObjectId left(int i) {
+        return ObjectId.forString("left tree " + i);
+    }
+
+    private void put(FileDiffSummaryCache cache, int i) {
+        currentTime += 1000;
+        cache.putCount(left(i), right, NO_FILTERS, new DiffObjectCount(i, 0, 0, 0, 0, 0));
+    }
+
+    private boolean isCached(FileDiffSummaryCache cache, int i) {
+        currentTime += 1000;
+        Optional<DiffObjectCount> count = cache.getCount(left(i), right, NO_FILTERS);
+        assertTrue(!count.isPresent() || count.get().getFeaturesAdded() == i);
+        return count.isPresent();
+    }
+
+    private int entryFiles() {
+        File root = new File(new File(tempFolder.getRoot(), ".geogit"), "diffcache");
+        int count = 0;
+        for (File file : Files.fileTreeTraverser().preOrderTraversal(root)) {
+            if (file.isFile()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testCount() {
+        FileDiffSummaryCache cache = new FileDiffSummaryCache(platform, 10);
+        assertFalse(isCached(cache, 1));
+        put(cache, 1);
+        assertTrue(isCached(cache, 1));
+        // stored on disk
+        assertTrue(isCached(new FileDiffSummaryCache(platform, 10), 1));
+        assertEquals(1, entryFiles());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        FileDiffSummaryCache cache = new FileDiffSummaryCache(platform, 2);
+        put(cache, 1);
+        put(cache, 2);
+        assertTrue(isCached(cache, 1));
+        put(cache, 3);
+
+        assertTrue(isCached(cache, 1));
+        assertFalse(isCached(cache, 2));
+        assertTrue(isCached(cache, 3));
+        assertEquals(2, entryFiles());
+    }
+
+    @Test
+    public void testEvictsEntriesOfPreviousRuns() {
+        FileDiffSummaryCache cache = new FileDiffSummaryCache(platform, 10);
+        put(cache, 1);
+        put(cache, 2);
+        put(cache, 3);
+        assertTrue(isCached(cache, 1));
+        assertEquals(3, entryFiles());
+
+        // the recency of the entries is recovered from disk
+        cache = new FileDiffSummaryCache(platform, 2);
+        put(cache, 4);
+        assertTrue(isCached(cache, 1));
+        assertFalse(isCached(cache, 2));
+        assertFalse(isCached(cache, 3));
+        assertTrue(isCached(cache, 4));
+        assertEquals(2, entryFiles());
+    }
+}
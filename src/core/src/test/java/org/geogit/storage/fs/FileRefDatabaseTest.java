@@ -0,0 +1,153 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.Map;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.Platform;
+import org.geogit.api.Ref;
+import org.geogit.storage.ConfigDatabase;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+public class FileRefDatabaseTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Platform platform;
+
+    private File geogitDir;
+
+    private FileRefDatabase refDb;
+
+    @Before
+    public void setUp() {
+        final File workingDir = tempFolder.newFolder("mockWorkingDir");
+        geogitDir = tempFolder.newFolder("mockWorkingDir/.geogit");
+
+        platform = mock(Platform.class);
+        when(platform.pwd()).thenReturn(workingDir);
+
+        refDb = new FileRefDatabase(platform, mock(ConfigDatabase.class));
+        refDb.create();
+    }
+
+    @Test
+    public void testPackRefs() {
+        ObjectId id1 = ObjectId.forString("1");
+        ObjectId id2 = ObjectId.forString("2");
+        refDb.putRef(Ref.MASTER, id1.toString());
+        refDb.putRef("refs/tags/tag1", id2.toString());
+        refDb.putSymRef(Ref.HEAD, Ref.MASTER);
+
+        refDb.packRefs();
+
+        assertTrue(new File(geogitDir, "packed-refs").exists());
+        assertFalse(new File(geogitDir, "refs/heads/master").exists());
+        assertEquals(id1.toString(), refDb.getRef(Ref.MASTER));
+        assertEquals(id2.toString(), refDb.getRef("refs/tags/tag1"));
+        assertEquals(Ref.MASTER, refDb.getSymRef(Ref.HEAD));
+
+        // a new instance reads the packed refs from disk
+        FileRefDatabase other = new FileRefDatabase(platform, mock(ConfigDatabase.class));
+        assertEquals(id1.toString(), other.getRef(Ref.MASTER));
+
+        Map<String, String> all = other.getAll();
+        assertEquals(2, all.size());
+        assertEquals(id1.toString(), all.get(Ref.MASTER));
+        assertEquals(id2.toString(), all.get("refs/tags/tag1"));
+    }
+
+    @Test
+    public void testLooseRefOverridesPacked() {
+        ObjectId id1 = ObjectId.forString("1");
+        ObjectId id2 = ObjectId.forString("2");
+        refDb.putRef(Ref.MASTER, id1.toString());
+        refDb.packRefs();
+
+        refDb.putRef(Ref.MASTER, id2.toString());
+        assertEquals(id2.toString(), refDb.getRef(Ref.MASTER));
+        assertEquals(id2.toString(), refDb.getAll().get(Ref.MASTER));
+
+        assertEquals(id2.toString(), refDb.remove(Ref.MASTER));
+        assertNull(refDb.getRef(Ref.MASTER));
+        assertTrue(refDb.getAll().isEmpty());
+    }
+
+    @Test
+    public void testChangesFromOtherInstances() {
+        ObjectId id1 = ObjectId.forString("1");
+        ObjectId id2 = ObjectId.forString("2");
+        FileRefDatabase other = new FileRefDatabase(platform, mock(ConfigDatabase.class));
+
+        refDb.putRef(Ref.MASTER, id1.toString());
+        assertEquals(id1.toString(), other.getRef(Ref.MASTER));
+
+        refDb.putRef(Ref.MASTER, id2.toString());
+        assertEquals(id2.toString(), other.getRef(Ref.MASTER));
+
+        refDb.packRefs();
+        assertEquals(id2.toString(), other.getRef(Ref.MASTER));
+
+        refDb.remove(Ref.MASTER);
+        assertNull(other.getRef(Ref.MASTER));
+    }
+
+    @Test
+    public void testRemoveAllPacked() {
+        refDb.putRef("refs/remotes/origin/master", ObjectId.forString("1").toString());
+        refDb.putRef("refs/remotes/origin/branch1", ObjectId.forString("2").toString());
+        refDb.putRef(Ref.MASTER, ObjectId.forString("3").toString());
+        refDb.packRefs();
+
+        assertEquals(2, refDb.getAll("refs/remotes/origin").size());
+        refDb.removeAll("refs/remotes/origin");
+        assertTrue(refDb.getAll("refs/remotes/origin").isEmpty());
+        assertNull(refDb.getRef("refs/remotes/origin/master"));
+        assertEquals(ObjectId.forString("3").toString(), refDb.getRef(Ref.MASTER));
+    }
+
+    @Test
+    public void testRacyChangeNoticed() throws Exception {
+        ObjectId id1 = ObjectId.forString("1");
+        ObjectId id2 = ObjectId.forString("2");
+        refDb.putRef(Ref.MASTER, id1.toString());
+        assertEquals(id1.toString(), refDb.getRef(Ref.MASTER));
+
+        // another process changes the ref within the same timestamp granule, keeping its size
+        File refFile = new File(geogitDir, "refs/heads/master");
+        final long lastModified = refFile.lastModified();
+        Files.write(id2.toString() + "\n", refFile, Charsets.UTF_8);
+        assertTrue(refFile.setLastModified(lastModified));
+
+        assertEquals(id2.toString(), refDb.getRef(Ref.MASTER));
+        assertEquals(id2.toString(), refDb.getAll().get(Ref.MASTER));
+    }
+
+    @Test
+    public void testReadsDontPack() {
+        for (int i = 0; i < 1100; i++) {
+            refDb.putRef("refs/heads/branch" + i, ObjectId.forString("" + i).toString());
+        }
+        assertEquals(1100, refDb.getAll().size());
+        assertFalse(new File(geogitDir, "packed-refs").exists());
+        assertTrue(new File(geogitDir, "refs/heads/branch0").exists());
+    }
+}
@@ -6,6 +6,7 @@ package org.geogit.storage.fs;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -21,7 +22,9 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.junit.rules.TemporaryFolder;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
+import com.google.common.io.Files;
 
 // TODO: Not sure if this belongs in porcelain or integration
 
@@ -217,4 +220,56 @@ public class IniFileConfigDatabaseTest {
         Optional<String> str = ini.get("doesnt.exist");
         assertFalse(str.isPresent());
     }
+
+    @Test
+    public void testChangesSeenByOtherInstances() throws Exception {
+        final File workingDir = tempFolder.newFolder("mockWorkingDir");
+        tempFolder.newFolder("mockWorkingDir/.geogit");
+
+        final Platform platform = mock(Platform.class);
+        when(platform.pwd()).thenReturn(workingDir);
+
+        final ConfigDatabase ini1 = new IniFileConfigDatabase(platform);
+        final ConfigDatabase ini2 = new IniFileConfigDatabase(platform);
+
+        ini1.put("section.key", "1");
+        assertEquals("1", ini2.get("section.key").get());
+
+        // same length and likely the same modification time
+        ini1.put("section.key", "2");
+        assertEquals("2", ini2.get("section.key").get());
+
+        ini2.put("section.other", "3");
+        assertEquals("2", ini1.get("section.key").get());
+        assertEquals("3", ini1.get("section.other").get());
+
+        // changes made outside of the config database
+        File config = new File(workingDir, ".geogit/config");
+        Files.write("[section]\nkey = changed\n", config, Charsets.UTF_8);
+        config.setLastModified(config.lastModified() + 2000);
+        assertEquals("changed", ini1.get("section.key").get());
+        assertFalse(ini2.get("section.other").isPresent());
+    }
+
+    @Test
+    public void testRacyChangeNoticed() throws Exception {
+        final File workingDir = tempFolder.newFolder("mockWorkingDir");
+        tempFolder.newFolder("mockWorkingDir/.geogit");
+
+        final Platform platform = mock(Platform.class);
+        when(platform.pwd()).thenReturn(workingDir);
+
+        final ConfigDatabase ini = new IniFileConfigDatabase(platform);
+        ini.put("section.key", "1");
+        assertEquals("1", ini.get("section.key").get());
+
+        // another process changes the file within the same timestamp granule, keeping its size
+        File config = new File(workingDir, ".geogit/config");
+        final long lastModified = config.lastModified();
+        Files.write("[section]\nkey = 2\n", config, Charsets.UTF_8);
+        assertTrue(config.setLastModified(lastModified));
+
+        assertEquals("2", ini.get("section.key").get());
+        assertEquals("2", ini.getAll().get("section.key"));
+    }
 }
@@ -0,0 +1,90 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.storage.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.plumbing.diff.DiffObjectCount;
+import org.geogit.api.plumbing.diff.DiffSummary;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.geometry.BoundingBox;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+
+public class HeapDiffSummaryCacheTest {
+
+    private static final List<String> NO_FILTERS = ImmutableList.of();
+
+    private HeapDiffSummaryCache cache;
+
+    private ObjectId left, right;
+
+    @Before
+    public void setUp() {
+        cache = new HeapDiffSummaryCache();
+        left = ObjectId.forString("left tree");
+        right = ObjectId.forString("right tree");
+    }
+
+    @Test
+    public void testCount() {
+        assertFalse(cache.getCount(left, right, NO_FILTERS).isPresent());
+
+        cache.putCount(left, right, NO_FILTERS, new DiffObjectCount(1, 2, 3, 4, 5, 6));
+
+        Optional<DiffObjectCount> cached = cache.getCount(left, right, NO_FILTERS);
+        assertTrue(cached.isPresent());
+        assertEquals(1, cached.get().getFeaturesAdded());
+        assertEquals(2, cached.get().getFeaturesRemoved());
+        assertEquals(3, cached.get().getFeaturesChanged());
+        assertEquals(4, cached.get().getTreesAdded());
+        assertEquals(5, cached.get().getTreesRemoved());
+        assertEquals(6, cached.get().getTreesChanged());
+
+        // the key is not symmetric
+        assertFalse(cache.getCount(right, left, NO_FILTERS).isPresent());
+    }
+
+    @Test
+    public void testCountPathFilters() {
+        cache.putCount(left, right, ImmutableList.of("roads", "buildings"), new DiffObjectCount(
+                1, 0, 0, 0, 0, 0));
+
+        assertFalse(cache.getCount(left, right, NO_FILTERS).isPresent());
+        assertFalse(cache.getCount(left, right, ImmutableList.of("roads")).isPresent());
+        // filter order doesn't matter
+        assertTrue(cache.getCount(left, right, ImmutableList.of("buildings", "roads"))
+                .isPresent());
+    }
+
+    @Test
+    public void testBounds() {
+        CoordinateReferenceSystem crs = DefaultGeographicCRS.WGS84;
+        assertFalse(cache.getBounds(left, right, NO_FILTERS, crs).isPresent());
+
+        BoundingBox leftBounds = new ReferencedEnvelope(0, 10, 0, 10, crs);
+        BoundingBox rightBounds = new ReferencedEnvelope(crs);
+        BoundingBox merged = new ReferencedEnvelope(0, 10, 0, 10, crs);
+        cache.putBounds(left, right, NO_FILTERS, crs, new DiffSummary<BoundingBox, BoundingBox>(
+                leftBounds, rightBounds, merged));
+
+        Optional<DiffSummary<BoundingBox, BoundingBox>> cached = cache.getBounds(left, right,
+                NO_FILTERS, crs);
+        assertTrue(cached.isPresent());
+        assertEquals(leftBounds, cached.get().getLeft());
+        assertTrue(cached.get().getRight().isEmpty());
+        assertEquals(merged, cached.get().getMergedResult().get());
+    }
+}
@@ -4,8 +4,23 @@
  */
 package org.geogit.storage.memory;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+import java.util.List;
+
+import org.geogit.api.ObjectId;
 import org.geogit.api.Platform;
+import org.geogit.storage.GraphDatabase.Direction;
+import org.geogit.storage.GraphDatabase.GraphEdge;
+import org.geogit.storage.GraphDatabase.GraphNode;
 import org.geogit.storage.GraphDatabaseTest;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 
 public class HeapGraphDatabaseTest extends GraphDatabaseTest {
 
@@ -14,4 +29,111 @@ public class HeapGraphDatabaseTest extends GraphDatabaseTest {
         return new HeapGraphDatabase(platform);
     }
 
+    private static ObjectId id(String name) {
+        return ObjectId.forString(name);
+    }
+
+    @Test
+    public void testMergeCommitParents() {
+        ObjectId root = id("root");
+        ObjectId left = id("left");
+        ObjectId middle = id("middle");
+        ObjectId right = id("right");
+        ObjectId merge = id("merge");
+        // the merge commit is added before its parents, as when fetching history newest first
+        assertTrue(database.put(merge, ImmutableList.of(left, middle, right)));
+        assertTrue(database.put(left, ImmutableList.of(root)));
+        assertTrue(database.put(middle, ImmutableList.of(root)));
+        assertTrue(database.put(right, ImmutableList.of(root)));
+        assertTrue(database.put(root, ImmutableList.<ObjectId> of()));
+
+        // parents keep their order, and adding the commit again doesn't change them
+        assertEquals(ImmutableList.of(left, middle, right), database.getParents(merge));
+        assertFalse(database.put(merge, ImmutableList.of(right, left)));
+        assertEquals(ImmutableList.of(left, middle, right), database.getParents(merge));
+
+        assertEquals(ImmutableList.of(merge), database.getChildren(left));
+        assertEquals(ImmutableList.of(merge), database.getChildren(right));
+        assertEquals(ImmutableList.of(left, middle, right), database.getChildren(root));
+
+        List<ObjectId> edges = Lists.newArrayList();
+        GraphNode node = database.getNode(merge);
+        for (Iterator<GraphEdge> it = node.getEdges(Direction.OUT); it.hasNext();) {
+            GraphEdge edge = it.next();
+            assertEquals(merge, edge.getFromNode().getIdentifier());
+            edges.add(edge.getToNode().getIdentifier());
+        }
+        assertEquals(ImmutableList.of(left, middle, right), edges);
+        assertFalse(database.getNode(root).getEdges(Direction.OUT).hasNext());
+        assertEquals(3, Lists.newArrayList(database.getNode(root).getEdges(Direction.IN)).size());
+        assertEquals(2, Lists.newArrayList(database.getNode(left).getEdges(Direction.BOTH))
+                .size());
+    }
+
+    @Test
+    public void testDepthOfMergeCommits() {
+        // a long history grows the adjacency arrays past their initial capacity
+        final int length = 3000;
+        ObjectId root = id("root");
+        database.put(root, ImmutableList.<ObjectId> of());
+        ObjectId tip = root;
+        for (int i = 1; i <= length; i++) {
+            ObjectId commit = id("commit" + i);
+            database.put(commit, ImmutableList.of(tip));
+            tip = commit;
+        }
+        assertEquals(length, database.getDepth(tip));
+
+        // the depth of a merge is the shortest path to a root, whatever the parent order
+        ObjectId branch = id("branch");
+        database.put(branch, ImmutableList.of(root));
+        ObjectId merge1 = id("merge1");
+        database.put(merge1, ImmutableList.of(tip, branch));
+        ObjectId merge2 = id("merge2");
+        database.put(merge2, ImmutableList.of(branch, tip));
+        assertEquals(2, database.getDepth(merge1));
+        assertEquals(2, database.getDepth(merge2));
+
+        // a merge with an unrelated history reaches its root first
+        ObjectId otherRoot = id("otherRoot");
+        database.put(otherRoot, ImmutableList.<ObjectId> of());
+        ObjectId merge3 = id("merge3");
+        database.put(merge3, ImmutableList.of(merge1, otherRoot));
+        assertEquals(1, database.getDepth(merge3));
+    }
+
+    @Test
+    public void testDepthOfShallowHistory() {
+        // the parents of a shallow clone's oldest commit are known but never added
+        ObjectId missing1 = id("missing1");
+        ObjectId missing2 = id("missing2");
+        ObjectId commit1 = id("commit1");
+        ObjectId commit2 = id("commit2");
+        database.put(commit1, ImmutableList.of(missing1, missing2));
+        database.put(commit2, ImmutableList.of(commit1));
+        assertTrue(database.exists(missing1));
+        assertTrue(database.getParents(missing1).isEmpty());
+        assertEquals(0, database.getDepth(missing2));
+        assertEquals(1, database.getDepth(commit1));
+        assertEquals(2, database.getDepth(commit2));
+    }
+
+    @Test
+    public void testMappings() {
+        ObjectId commit = id("commit");
+        ObjectId mapped = id("mapped");
+        ObjectId unmapped = id("unmapped");
+        database.put(commit, ImmutableList.<ObjectId> of());
+        // mappings don't require the commits to be in the graph
+        database.map(mapped, commit);
+        database.map(commit, mapped);
+        assertEquals(commit, database.getMapping(mapped));
+        assertEquals(mapped, database.getMapping(commit));
+        assertEquals(ObjectId.NULL, database.getMapping(unmapped));
+        assertFalse(database.exists(mapped));
+
+        database.truncate();
+        assertEquals(ObjectId.NULL, database.getMapping(mapped));
+        assertFalse(database.exists(commit));
+    }
 }
@@ -0,0 +1,226 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.test.integration;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevCommit;
+import org.geogit.api.RevObject;
+import org.geogit.api.plumbing.CreateDeduplicator;
+import org.geogit.api.porcelain.CommitOp;
+import org.geogit.remote.BinaryPackedObjects;
+import org.geogit.remote.BinaryPackedObjects.IngestResults;
+import org.geogit.storage.ObjectDatabase;
+import org.geogit.storage.memory.HeapObjectDatabse;
+import org.junit.Test;
+import org.opengis.feature.Feature;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+
+public class BinaryPackedObjectsTest extends RepositoryTestCase {
+
+    private RevCommit commit;
+
+    @Override
+    protected void setUpInternal() throws Exception {
+        List<RevCommit> commits = populate(true, points1, points2, points3, lines1, lines2);
+        commit = commits.get(commits.size() - 1);
+    }
+
+    @Test
+    public void testVersion1RoundTrip() throws Exception {
+        assertRoundTrip(BinaryPackedObjects.VERSION_1);
+    }
+
+    @Test
+    public void testVersion2RoundTrip() throws Exception {
+        assertRoundTrip(BinaryPackedObjects.VERSION_2);
+    }
+
+    @Test
+    public void testVersion3RoundTrip() throws Exception {
+        assertRoundTrip(BinaryPackedObjects.VERSION_3);
+    }
+
+    @Test
+    public void testVersion3Deltas() throws Exception {
+        ObjectDatabase target = new HeapObjectDatabse();
+        target.open();
+        BinaryPackedObjects unpacker = new BinaryPackedObjects(target,
+                getRepository().executionService());
+        unpacker.ingest(new ByteArrayInputStream(pack(BinaryPackedObjects.VERSION_1)));
+
+        Feature modified = feature(linesType, idL1, "StringProp2_1", new Integer(1000),
+                "LINESTRING (1 1, 2 3)");
+        ObjectId modifiedId = insertAndAdd(modified);
+        RevCommit next = geogit.command(CommitOp.class).call();
+
+        byte[] pack = pack(BinaryPackedObjects.VERSION_3, next.getId(), commit.getId());
+        IngestResults results = unpacker.ingest(new ByteArrayInputStream(pack));
+
+        assertTrue(results.getInserted() > 0);
+        assertEquals(getRepository().getFeature(modifiedId), target.getFeature(modifiedId));
+        assertEquals(next, target.getCommit(next.getId()));
+    }
+
+    @Test
+    public void testVersion3DeltasOverSeveralCommits() throws Exception {
+        ObjectDatabase target = new HeapObjectDatabse();
+        target.open();
+        BinaryPackedObjects unpacker = new BinaryPackedObjects(target,
+                getRepository().executionService());
+        unpacker.ingest(new ByteArrayInputStream(pack(BinaryPackedObjects.VERSION_1)));
+
+        // the same feature changed by each commit of a first parent chain
+        List<ObjectId> modifiedIds = new ArrayList<ObjectId>();
+        List<RevCommit> next = new ArrayList<RevCommit>();
+        for (int i = 0; i < 3; i++) {
+            Feature modified = feature(linesType, idL1, "StringProp2_1", new Integer(1000 + i),
+                    "LINESTRING (1 1, 2 " + (3 + i) + ")");
+            modifiedIds.add(insertAndAdd(modified));
+            next.add(geogit.command(CommitOp.class).call());
+        }
+        RevCommit last = next.get(next.size() - 1);
+
+        byte[] pack = pack(BinaryPackedObjects.VERSION_3, last.getId(), commit.getId());
+        unpacker.ingest(new ByteArrayInputStream(pack));
+
+        for (ObjectId modifiedId : modifiedIds) {
+            assertEquals(getRepository().getFeature(modifiedId), target.getFeature(modifiedId));
+        }
+        for (RevCommit c : next) {
+            assertEquals(c, target.getCommit(c.getId()));
+        }
+    }
+
+    @Test
+    public void testVersion2Truncated() throws Exception {
+        byte[] pack = pack(BinaryPackedObjects.VERSION_2);
+        byte[] truncated = Arrays.copyOf(pack, pack.length - 6);
+
+        ObjectDatabase target = new HeapObjectDatabse();
+        target.open();
+        try {
+            new BinaryPackedObjects(target).ingest(new ByteArrayInputStream(truncated));
+            fail("Expected EOF");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof EOFException);
+        }
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        List<ObjectId> ids = traversal();
+        final int skip = ids.size() / 2;
+        assertResume(ids, skip, ids.get(skip - 1), ids.size() - skip);
+    }
+
+    @Test
+    public void testResumeMismatch() throws Exception {
+        List<ObjectId> ids = traversal();
+        final int skip = ids.size() / 2;
+        // not the object at that position, all objects are sent again
+        assertResume(ids, skip, ids.get(skip), ids.size());
+    }
+
+    private void assertResume(List<ObjectId> ids, long resumeFrom, ObjectId resumeAfter,
+            long expectedWritten) throws IOException {
+        BinaryPackedObjects packer = new BinaryPackedObjects(getRepository().objectDatabase(),
+                getRepository().executionService());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long written = packer.write(out, ImmutableList.of(commit.getId()),
+                ImmutableList.<ObjectId> of(), false,
+                geogit.command(CreateDeduplicator.class).call(), BinaryPackedObjects.VERSION_2,
+                resumeFrom, resumeAfter);
+        assertEquals(expectedWritten, written);
+
+        ObjectDatabase target = new HeapObjectDatabse();
+        target.open();
+        final List<Long> checkpoints = new ArrayList<Long>();
+        BinaryPackedObjects.CheckpointListener listener;
+        listener = new BinaryPackedObjects.CheckpointListener() {
+            @Override
+            public void checkpoint(long objectCount, ObjectId lastObjectId) {
+                checkpoints.add(objectCount);
+            }
+        };
+        new BinaryPackedObjects(target).ingest(new ByteArrayInputStream(out.toByteArray()),
+                new BinaryPackedObjects.Callback() {
+                    @Override
+                    public void callback(Supplier<RevObject> object) {
+                        // not needed
+                    }
+                }, listener);
+        assertEquals(Long.valueOf(ids.size()), checkpoints.get(checkpoints.size() - 1));
+        assertTrue(target.exists(commit.getId()));
+    }
+
+    /**
+     * @return the ids of the objects sent for {@link #commit}, in the order they're sent
+     */
+    private List<ObjectId> traversal() throws IOException {
+        ObjectDatabase target = new HeapObjectDatabse();
+        target.open();
+        final List<ObjectId> ids = new ArrayList<ObjectId>();
+        new BinaryPackedObjects(target).ingest(
+                new ByteArrayInputStream(pack(BinaryPackedObjects.VERSION_1)),
+                new BinaryPackedObjects.Callback() {
+                    @Override
+                    public void callback(Supplier<RevObject> object) {
+                        ids.add(object.get().getId());
+                    }
+                });
+        assertTrue(ids.size() > 2);
+        return ids;
+    }
+
+    private void assertRoundTrip(int version) throws IOException {
+        byte[] pack = pack(version);
+
+        ObjectDatabase target = new HeapObjectDatabse();
+        target.open();
+        BinaryPackedObjects unpacker = new BinaryPackedObjects(target,
+                getRepository().executionService());
+        IngestResults results = unpacker.ingest(new ByteArrayInputStream(pack));
+
+        assertTrue(results.getInserted() > 0);
+        assertEquals(0, results.getExisting());
+        assertEquals(commit, target.getCommit(commit.getId()));
+        assertEquals(getRepository().getTree(commit.getTreeId()),
+                target.getTree(commit.getTreeId()));
+        assertTrue(target.exists(points1Id()));
+    }
+
+    private ObjectId points1Id() {
+        return getRepository().getRootTreeChild(pointsName + "/" + idP1).get().getObjectId();
+    }
+
+    private byte[] pack(int version) throws IOException {
+        List<ObjectId> have = ImmutableList.of();
+        return pack(version, ImmutableList.of(commit.getId()), have);
+    }
+
+    private byte[] pack(int version, ObjectId want, ObjectId have) throws IOException {
+        return pack(version, ImmutableList.of(want), ImmutableList.of(have));
+    }
+
+    private byte[] pack(int version, List<ObjectId> want, List<ObjectId> have)
+            throws IOException {
+        BinaryPackedObjects packer = new BinaryPackedObjects(getRepository().objectDatabase(),
+                getRepository().executionService());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        packer.write(out, want, have, false, geogit.command(CreateDeduplicator.class).call(),
+                version);
+        return out.toByteArray();
+    }
+}
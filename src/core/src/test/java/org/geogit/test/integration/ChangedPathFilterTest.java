@@ -0,0 +1,183 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.test.integration;
+
+import java.util.Iterator;
+import java.util.Set;
+
+import org.geogit.api.CommitBuilder;
+import org.geogit.api.NodeRef;
+import org.geogit.api.ObjectId;
+import org.geogit.api.Ref;
+import org.geogit.api.RevCommit;
+import org.geogit.api.RevTree;
+import org.geogit.api.plumbing.BuildChangedPathFilter;
+import org.geogit.api.plumbing.RebuildChangedPathFiltersOp;
+import org.geogit.api.plumbing.RefParse;
+import org.geogit.api.plumbing.UpdateRef;
+import org.geogit.api.plumbing.WriteTree2;
+import org.geogit.api.porcelain.BranchCreateOp;
+import org.geogit.api.porcelain.CheckoutOp;
+import org.geogit.api.porcelain.CommitOp;
+import org.geogit.api.porcelain.ConfigOp;
+import org.geogit.api.porcelain.ConfigOp.ConfigAction;
+import org.geogit.api.porcelain.LogOp;
+import org.geogit.api.porcelain.MergeOp;
+import org.geogit.api.porcelain.MergeOp.MergeReport;
+import org.geogit.api.porcelain.RevertOp;
+import org.geogit.storage.ChangedPathFilter;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+
+public class ChangedPathFilterTest extends RepositoryTestCase {
+
+    @Override
+    protected void setUpInternal() throws Exception {
+        repo.command(ConfigOp.class).setAction(ConfigAction.CONFIG_SET).setName("user.name")
+                .setValue("groldan").call();
+        repo.command(ConfigOp.class).setAction(ConfigAction.CONFIG_SET).setName("user.email")
+                .setValue("groldan@opengeo.org").call();
+    }
+
+    @Test
+    public void testFilterBuiltAtCommit() throws Exception {
+        insertAndAdd(points1);
+        final RevCommit c1 = geogit.command(CommitOp.class).setMessage("commit for " + idP1).call();
+        insertAndAdd(lines1);
+        final RevCommit c2 = geogit.command(CommitOp.class).setMessage("commit for " + idL1).call();
+
+        // returns the filters built by CommitOp
+        Optional<ChangedPathFilter> filter1 = geogit.command(BuildChangedPathFilter.class)
+                .setCommit(c1).call();
+        assertTrue(filter1.isPresent());
+        assertTrue(filter1.get().mightContain(pointsName));
+        assertTrue(filter1.get().mightContain(NodeRef.appendChild(pointsName, idP1)));
+
+        Optional<ChangedPathFilter> filter2 = geogit.command(BuildChangedPathFilter.class)
+                .setCommit(c2).call();
+        assertTrue(filter2.isPresent());
+        assertTrue(filter2.get().mightContain(linesName));
+        assertTrue(filter2.get().mightContain(NodeRef.appendChild(linesName, idL1)));
+
+        // all filters are already built
+        ImmutableList<ObjectId> updated = geogit.command(RebuildChangedPathFiltersOp.class)
+                .call();
+        assertTrue(updated.isEmpty());
+    }
+
+    @Test
+    public void testLogByPath() throws Exception {
+        insertAndAdd(points1);
+        final RevCommit c1 = geogit.command(CommitOp.class).setMessage("commit for " + idP1).call();
+        insertAndAdd(lines1);
+        final RevCommit c2 = geogit.command(CommitOp.class).setMessage("commit for " + idL1).call();
+        insertAndAdd(points2);
+        final RevCommit c3 = geogit.command(CommitOp.class).setMessage("commit for " + idP2).call();
+
+        Iterator<RevCommit> log = geogit.command(LogOp.class).addPath(pointsName).call();
+        assertEquals(ImmutableList.of(c3, c1), Lists.newArrayList(log));
+
+        log = geogit.command(LogOp.class).addPath(NodeRef.appendChild(linesName, idL1)).call();
+        assertEquals(ImmutableList.of(c2), Lists.newArrayList(log));
+    }
+
+    @Test
+    public void testNonMatchingPathSkipsCommit() throws Exception {
+        insertAndAdd(points1);
+        final RevCommit c1 = geogit.command(CommitOp.class).setMessage("commit for " + idP1).call();
+        insertAndAdd(lines1);
+        final RevCommit c2 = geogit.command(CommitOp.class).setMessage("commit for " + idL1).call();
+
+        // comparing c2 with its parent is no longer possible, its filter must be enough to tell it
+        // didn't touch the points
+        assertTrue(repo.objectDatabase().delete(c2.getTreeId()));
+        Iterator<RevCommit> log = geogit.command(LogOp.class).addPath(pointsName).call();
+        assertEquals(ImmutableList.of(c1), Lists.newArrayList(log));
+    }
+
+    @Test
+    public void testWriteTreeChangedPaths() throws Exception {
+        insertAndAdd(points1, points2);
+        geogit.command(CommitOp.class).setMessage("points").call();
+        insertAndAdd(points3);
+        deleteAndAdd(points1);
+
+        final RevTree head = repo.getTree(repo.getCommit(repo.getHead().get().getObjectId())
+                .getTreeId());
+        WriteTree2 writeTree = geogit.command(WriteTree2.class).setOldRoot(
+                Suppliers.ofInstance(head));
+        writeTree.call();
+        Optional<Set<String>> changedPaths = writeTree.getChangedPaths();
+        assertTrue(changedPaths.isPresent());
+        assertEquals(ImmutableSet.of(pointsName, NodeRef.appendChild(pointsName, idP1),
+                NodeRef.appendChild(pointsName, idP3)), changedPaths.get());
+
+        // a new tree is moved as a whole, its paths aren't known
+        insertAndAdd(lines1);
+        writeTree = geogit.command(WriteTree2.class).setOldRoot(Suppliers.ofInstance(head));
+        writeTree.call();
+        assertFalse(writeTree.getChangedPaths().isPresent());
+    }
+
+    @Test
+    public void testFilterBuiltForMergeCommit() throws Exception {
+        insertAndAdd(points1);
+        geogit.command(CommitOp.class).setMessage("commit for " + idP1).call();
+        geogit.command(BranchCreateOp.class).setAutoCheckout(true).setName("branch1").call();
+        insertAndAdd(points2);
+        geogit.command(CommitOp.class).setMessage("commit for " + idP2).call();
+        geogit.command(CheckoutOp.class).setSource("master").call();
+        insertAndAdd(lines1);
+        geogit.command(CommitOp.class).setMessage("commit for " + idL1).call();
+
+        Ref branch1 = geogit.command(RefParse.class).setName("branch1").call().get();
+        MergeReport report = geogit.command(MergeOp.class)
+                .addCommit(Suppliers.ofInstance(branch1.getObjectId())).setMessage("merge").call();
+
+        // the merge commit got its filter when it was committed
+        ImmutableList<ObjectId> updated = geogit.command(RebuildChangedPathFiltersOp.class)
+                .call();
+        assertTrue(updated.isEmpty());
+
+        // it holds the changes with respect to both parents
+        ChangedPathFilter filter = geogit.command(BuildChangedPathFilter.class)
+                .setCommit(report.getMergeCommit()).call().get();
+        assertTrue(filter.mightContain(NodeRef.appendChild(pointsName, idP2)));
+        assertTrue(filter.mightContain(NodeRef.appendChild(linesName, idL1)));
+
+        Iterator<RevCommit> log = geogit.command(LogOp.class)
+                .addPath(NodeRef.appendChild(pointsName, idP2)).call();
+        assertEquals(report.getMergeCommit(), log.next());
+    }
+
+    @Test
+    public void testStoredCommitsLeftToRebuild() throws Exception {
+        insertAndAdd(points1);
+        final RevCommit c1 = geogit.command(CommitOp.class).setMessage("commit for " + idP1).call();
+        insertAndAdd(lines1);
+        final RevCommit c2 = geogit.command(CommitOp.class).setMessage("commit for " + idL1).call();
+
+        // commits created by other commands than CommitOp get their filters too
+        geogit.command(RevertOp.class).addCommit(Suppliers.ofInstance(c2.getId())).call();
+        assertTrue(geogit.command(RebuildChangedPathFiltersOp.class).call().isEmpty());
+
+        // but not the ones just stored, as when fetched
+        CommitBuilder builder = new CommitBuilder(c2);
+        builder.setParentIds(ImmutableList.of(c1.getId()));
+        builder.setMessage("stored");
+        RevCommit stored = builder.build();
+        repo.objectDatabase().putAll(Iterators.singletonIterator(stored));
+        geogit.command(UpdateRef.class).setName("refs/heads/stored")
+                .setNewValue(stored.getId()).call();
+        assertEquals(ImmutableList.of(stored.getId()),
+                geogit.command(RebuildChangedPathFiltersOp.class).call());
+    }
+}
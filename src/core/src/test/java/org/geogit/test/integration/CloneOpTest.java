@@ -93,6 +93,30 @@ public class CloneOpTest extends RemoteRepositoryTestCase {
         assertEquals(expected, logged);
     }
 
+    @Test
+    public void testCloneCopiesContentsAndGraph() throws Exception {
+        List<Feature> features = Arrays.asList(points1, lines1, points2, lines2);
+        List<ObjectId> featureIds = new ArrayList<ObjectId>();
+        List<RevCommit> commits = new ArrayList<RevCommit>();
+        for (Feature f : features) {
+            featureIds.add(insertAndAdd(remoteGeogit.geogit, f));
+            commits.add(remoteGeogit.geogit.command(CommitOp.class).call());
+        }
+
+        CloneOp clone = clone();
+        clone.setDepth(0);
+        clone.setRepositoryURL(remoteGeogit.envHome.getCanonicalPath()).call();
+
+        for (ObjectId featureId : featureIds) {
+            assertTrue(localGeogit.repo.objectDatabase().exists(featureId));
+        }
+        for (RevCommit commit : commits) {
+            assertTrue(localGeogit.repo.objectDatabase().exists(commit.getTreeId()));
+            assertEquals(commit.getParentIds(),
+                    localGeogit.repo.graphDatabase().getParents(commit.getId()));
+        }
+    }
+
     @Test
     public void testCloneWithTags() throws Exception {
         // Commit several features to the remote
@@ -0,0 +1,90 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.test.integration;
+
+import org.geogit.api.ObjectId;
+import org.geogit.api.RevCommit;
+import org.geogit.api.TestPlatform;
+import org.geogit.api.porcelain.BranchCreateOp;
+import org.geogit.api.porcelain.CheckoutOp;
+import org.geogit.api.porcelain.CommitOp;
+import org.geogit.api.porcelain.MergeOp;
+import org.geogit.storage.CommitGraph;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Suppliers;
+
+public class CommitGraphTest extends RepositoryTestCase {
+
+    private RevCommit c1, c2, c3, c4, merge;
+
+    @Override
+    protected void setUpInternal() throws Exception {
+        // o - c1 - Points 1 added
+        // |\
+        // | o - c2 - branch1 - Points 2 added
+        // |
+        // o - c3 - Points 3 added
+        // |
+        // o - c4 - Lines 1 added
+        // |
+        // o - master - HEAD - merge of branch1
+        insertAndAdd(points1);
+        c1 = geogit.command(CommitOp.class).setMessage("commit for " + idP1).call();
+        geogit.command(BranchCreateOp.class).setAutoCheckout(true).setName("branch1").call();
+        insertAndAdd(points2);
+        c2 = geogit.command(CommitOp.class).setMessage("commit for " + idP2).call();
+        geogit.command(CheckoutOp.class).setSource("master").call();
+        insertAndAdd(points3);
+        c3 = geogit.command(CommitOp.class).setMessage("commit for " + idP3).call();
+        insertAndAdd(lines1);
+        c4 = geogit.command(CommitOp.class).setMessage("commit for " + idL1).call();
+        merge = geogit.command(MergeOp.class).addCommit(Suppliers.ofInstance(c2.getId())).call()
+                .getMergeCommit();
+    }
+
+    @Test
+    public void testGenerationNumbers() {
+        CommitGraph graph = newGraph();
+        assertTrue(graph.index(repo.objectDatabase(), merge.getId()));
+        assertEquals(1, graph.getGeneration(c1.getId()));
+        assertEquals(2, graph.getGeneration(c2.getId()));
+        assertEquals(2, graph.getGeneration(c3.getId()));
+        assertEquals(3, graph.getGeneration(c4.getId()));
+        assertEquals(4, graph.getGeneration(merge.getId()));
+    }
+
+    @Test
+    public void testAncestry() {
+        CommitGraph graph = newGraph();
+        assertTrue(graph.index(repo.objectDatabase(), merge.getId()));
+        assertTrue(graph.isAncestor(c1.getId(), merge.getId()));
+        assertTrue(graph.isAncestor(c2.getId(), merge.getId()));
+        assertTrue(graph.isAncestor(c4.getId(), c4.getId()));
+        assertFalse(graph.isAncestor(c2.getId(), c4.getId()));
+        assertFalse(graph.isAncestor(merge.getId(), c1.getId()));
+
+        Optional<ObjectId> ancestor = graph.findLowestCommonAncestor(c2.getId(), c4.getId());
+        assertEquals(c1.getId(), ancestor.get());
+        ancestor = graph.findLowestCommonAncestor(merge.getId(), c2.getId());
+        assertEquals(c2.getId(), ancestor.get());
+    }
+
+    @Test
+    public void testPersistence() {
+        CommitGraph graph = newGraph();
+        assertTrue(graph.index(repo.objectDatabase(), merge.getId()));
+
+        // a new instance reads the commits from the commit graph file
+        CommitGraph reloaded = newGraph();
+        assertEquals(4, reloaded.getGeneration(merge.getId()));
+        assertTrue(reloaded.isAncestor(c3.getId(), merge.getId()));
+    }
+
+    private CommitGraph newGraph() {
+        return new CommitGraph(new TestPlatform(envHome));
+    }
+}
@@ -13,11 +13,13 @@ import org.geogit.api.NodeRef;
 import org.geogit.api.ObjectId;
 import org.geogit.api.Ref;
 import org.geogit.api.RevCommit;
+import org.geogit.api.plumbing.DiffCount;
 import org.geogit.api.plumbing.DiffIndex;
 import org.geogit.api.plumbing.DiffTree;
 import org.geogit.api.plumbing.DiffWorkTree;
 import org.geogit.api.plumbing.diff.DiffEntry;
 import org.geogit.api.plumbing.diff.DiffEntry.ChangeType;
+import org.geogit.api.plumbing.diff.DiffObjectCount;
 import org.geogit.api.plumbing.diff.DiffTreeWalk;
 import org.geogit.api.porcelain.AddOp;
 import org.geogit.api.porcelain.CommitOp;
@@ -584,4 +586,43 @@ public class DiffOpTest extends RepositoryTestCase {
 
     }
 
+    /**
+     * The web API log and statistics commands count the changes with {@link DiffCount} instead of
+     * iterating a {@link DiffOp}, make sure both apply a single path filter the same way
+     */
+    @Test
+    public void testFilteredCountMatchesDiffOp() throws Exception {
+        insertAndAdd(points1, points2, lines1);
+        final RevCommit commit1 = geogit.command(CommitOp.class).call();
+        insertAndAdd(points1_modified, points3);
+        deleteAndAdd(points2);
+        deleteAndAdd(lines1);
+        final RevCommit commit2 = geogit.command(CommitOp.class).call();
+
+        for (String filter : new String[] { null, pointsName, linesName,
+                NodeRef.appendChild(pointsName, idP1), NodeRef.appendChild(pointsName, idP2),
+                pointsName.substring(0, 3), "nonexistent" }) {
+            int added = 0, modified = 0, removed = 0;
+            Iterator<DiffEntry> diff = geogit.command(DiffOp.class)
+                    .setOldVersion(commit1.getId()).setNewVersion(commit2.getId())
+                    .setFilter(filter).call();
+            while (diff.hasNext()) {
+                ChangeType type = diff.next().changeType();
+                if (type == ChangeType.ADDED) {
+                    added++;
+                } else if (type == ChangeType.MODIFIED) {
+                    modified++;
+                } else {
+                    removed++;
+                }
+            }
+            DiffObjectCount count = geogit.command(DiffCount.class)
+                    .setOldVersion(commit1.getId().toString())
+                    .setNewVersion(commit2.getId().toString()).addFilter(filter).call();
+            assertEquals(filter, added, count.getFeaturesAdded());
+            assertEquals(filter, modified, count.getFeaturesChanged());
+            assertEquals(filter, removed, count.getFeaturesRemoved());
+        }
+    }
+
 }
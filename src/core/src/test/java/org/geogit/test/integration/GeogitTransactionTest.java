@@ -4,13 +4,27 @@
  */
 package org.geogit.test.integration;
 
+import static org.mockito.AdditionalAnswers.delegatesTo;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 
+import org.geogit.api.Context;
 import org.geogit.api.GeogitTransaction;
+import org.geogit.api.NodeRef;
+import org.geogit.api.Ref;
 import org.geogit.api.RevCommit;
+import org.geogit.api.RevTree;
+import org.geogit.api.plumbing.FindTreeChild;
 import org.geogit.api.plumbing.TransactionBegin;
 import org.geogit.api.plumbing.TransactionEnd;
 import org.geogit.api.plumbing.merge.Conflict;
@@ -20,10 +34,14 @@ import org.geogit.api.porcelain.CheckoutOp;
 import org.geogit.api.porcelain.CommitOp;
 import org.geogit.api.porcelain.LogOp;
 import org.geogit.api.porcelain.MergeOp;
+import org.geogit.storage.RefDatabase;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import com.google.common.base.Optional;
 import com.google.common.base.Suppliers;
 
 public class GeogitTransactionTest extends RepositoryTestCase {
@@ -282,6 +300,112 @@ public class GeogitTransactionTest extends RepositoryTestCase {
 
     }
 
+    @Test
+    public void testMultipleTransactionDisjointTrees() throws Exception {
+
+        // make a commit
+        insertAndAdd(points1);
+        RevCommit mainCommit = geogit.command(CommitOp.class).setMessage("Commit1").call();
+
+        // start both transactions
+        GeogitTransaction transaction1 = geogit.command(TransactionBegin.class).call();
+        GeogitTransaction transaction2 = geogit.command(TransactionBegin.class).call();
+
+        // change the points tree in the first one and the lines tree in the second one
+        insertAndAdd(transaction1, points2);
+        RevCommit transaction1Commit = transaction1.command(CommitOp.class).setMessage("Commit2")
+                .call();
+        insertAndAdd(transaction2, lines1);
+        RevCommit transaction2Commit = transaction2.command(CommitOp.class).setMessage("Commit3")
+                .call();
+
+        geogit.command(TransactionEnd.class).setTransaction(transaction1).setRebase(true).call();
+        geogit.command(TransactionEnd.class).setTransaction(transaction2).setRebase(true).call();
+
+        // Verify that the second transaction commit was replayed on top of the first one
+        Iterator<RevCommit> logs = geogit.command(LogOp.class).call();
+        RevCommit lastCommit = logs.next();
+        assertFalse(lastCommit.equals(transaction2Commit));
+        assertEquals(transaction2Commit.getMessage(), lastCommit.getMessage());
+        assertEquals(transaction2Commit.getAuthor(), lastCommit.getAuthor());
+        assertEquals(transaction1Commit, logs.next());
+        assertEquals(mainCommit, logs.next());
+        assertFalse(logs.hasNext());
+
+        // and that it has the changes from both transactions
+        RevTree tree = geogit.getRepository().getTree(lastCommit.getTreeId());
+        for (String path : new String[] { NodeRef.appendChild(pointsName, idP1),
+                NodeRef.appendChild(pointsName, idP2), NodeRef.appendChild(linesName, idL1) }) {
+            Optional<NodeRef> ref = geogit.command(FindTreeChild.class).setParent(tree)
+                    .setChildPath(path).call();
+            assertTrue(path, ref.isPresent());
+        }
+    }
+
+    @Test
+    public void testRefMovedWhileEndingTransaction() throws Exception {
+
+        // make a commit
+        insertAndAdd(points1);
+        RevCommit mainCommit = geogit.command(CommitOp.class).setMessage("Commit1").call();
+
+        // start both transactions, changing the points tree in the first one and the lines tree
+        // in the second one
+        GeogitTransaction transaction1 = geogit.command(TransactionBegin.class).call();
+        final GeogitTransaction transaction2 = geogit.command(TransactionBegin.class).call();
+        insertAndAdd(transaction1, points2);
+        RevCommit transaction1Commit = transaction1.command(CommitOp.class).setMessage("Commit2")
+                .call();
+        insertAndAdd(transaction2, lines1);
+        RevCommit transaction2Commit = transaction2.command(CommitOp.class).setMessage("Commit3")
+                .call();
+
+        // end the second transaction right before the first one updates master, as if both
+        // were ended concurrently
+        final RefDatabase refDb = injector.refDatabase();
+        RefDatabase racingRefDb = mock(RefDatabase.class, delegatesTo(refDb));
+        doAnswer(new Answer<Boolean>() {
+            private boolean moved;
+
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                if (!moved) {
+                    moved = true;
+                    geogit.command(TransactionEnd.class).setTransaction(transaction2)
+                            .setRebase(true).call();
+                }
+                Object[] args = invocation.getArguments();
+                return refDb.compareAndPut((String) args[0], (String) args[1], (String) args[2]);
+            }
+        }).when(racingRefDb).compareAndPut(eq(Ref.MASTER), anyString(), anyString());
+        Context context = mock(Context.class, delegatesTo(injector));
+        doReturn(racingRefDb).when(context).refDatabase();
+
+        TransactionEnd transactionEnd = geogit.command(TransactionEnd.class);
+        transactionEnd.setContext(context);
+        transactionEnd.setTransaction(transaction1).setRebase(true).call();
+
+        // the first attempt failed as master had moved, the second one rebased on top of it
+        verify(racingRefDb, times(2)).compareAndPut(eq(Ref.MASTER), anyString(), anyString());
+        Iterator<RevCommit> logs = geogit.command(LogOp.class).call();
+        RevCommit lastCommit = logs.next();
+        assertFalse(lastCommit.equals(transaction1Commit));
+        assertEquals(transaction1Commit.getMessage(), lastCommit.getMessage());
+        assertEquals(transaction1Commit.getAuthor(), lastCommit.getAuthor());
+        assertEquals(transaction2Commit.getId(), lastCommit.getParentIds().get(0));
+        assertEquals(transaction2Commit, logs.next());
+        assertEquals(mainCommit, logs.next());
+        assertFalse(logs.hasNext());
+
+        RevTree tree = geogit.getRepository().getTree(lastCommit.getTreeId());
+        for (String path : new String[] { NodeRef.appendChild(pointsName, idP1),
+                NodeRef.appendChild(pointsName, idP2), NodeRef.appendChild(linesName, idL1) }) {
+            Optional<NodeRef> ref = geogit.command(FindTreeChild.class).setParent(tree)
+                    .setChildPath(path).call();
+            assertTrue(path, ref.isPresent());
+        }
+    }
+
     @Test
     public void testConflictIsolation() throws Exception {
         insertAndAdd(points2);
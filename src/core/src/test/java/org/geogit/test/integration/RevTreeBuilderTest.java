@@ -376,6 +376,35 @@ public class RevTreeBuilderTest extends RepositoryTestCase {
         checkTreeBounds(100 * 1000);
     }
 
+    @Test
+    public void testBoundedBuilderEquality() throws Exception {
+        final int numEntries = 10 * 1000;
+        final int maxPendingChanges = 1000;
+        RevTree expected = tree(numEntries).build();
+
+        RevTreeBuilder bounded = RevTreeBuilder.bounded(odb, null, maxPendingChanges);
+        for (Node n : nodes(numEntries)) {
+            bounded.put(n);
+        }
+        RevTree actual = bounded.build();
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(numEntries, actual.size());
+
+        // remove every other node, spilling the removes as well
+        RevTreeBuilder unbounded = expected.builder(odb);
+        bounded = RevTreeBuilder.bounded(odb, actual, maxPendingChanges);
+        for (int i = 0; i < numEntries; i += 2) {
+            unbounded.remove(String.valueOf(i));
+            bounded.remove(String.valueOf(i));
+        }
+        expected = unbounded.build();
+        actual = bounded.build();
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(numEntries / 2, actual.size());
+        odb.put(actual);
+        assertEquals(numEntries / 2, lstree(actual).size());
+    }
+
     private void checkTreeBounds(int size) {
         RevTree tree;
         Envelope bounds;
@@ -51,4 +51,23 @@ public class RefDatabaseTest extends RepositoryTestCase {
 
         assertEquals(branch, refDb.getSymRef(Ref.HEAD));
     }
+
+    @Test
+    public void testCompareAndPut() {
+        byte[] raw = new byte[20];
+        Arrays.fill(raw, (byte) 1);
+        ObjectId oid = new ObjectId(raw);
+        String branch = "refs/heads/branch";
+
+        assertFalse(refDb.compareAndPut(Ref.MASTER, oid.toString(), oid.toString()));
+        assertEquals(ObjectId.NULL.toString(), refDb.getRef(Ref.MASTER));
+
+        assertTrue(refDb.compareAndPut(Ref.MASTER, ObjectId.NULL.toString(), oid.toString()));
+        assertEquals(oid.toString(), refDb.getRef(Ref.MASTER));
+
+        assertFalse(refDb.compareAndPut(branch, ObjectId.NULL.toString(), oid.toString()));
+        assertNull(refDb.getRef(branch));
+        assertTrue(refDb.compareAndPut(branch, null, oid.toString()));
+        assertEquals(oid.toString(), refDb.getRef(branch));
+    }
 }
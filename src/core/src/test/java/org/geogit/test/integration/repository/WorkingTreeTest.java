@@ -9,6 +9,8 @@ import static org.geogit.api.NodeRef.appendChild;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.io.File;
+import java.io.FilenameFilter;
 import java.io.IOException;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -44,6 +46,7 @@ import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.type.Name;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
 
 /**
@@ -109,6 +112,35 @@ public class WorkingTreeTest extends RepositoryTestCase {
                 .getObjectId());
     }
 
+    @Test
+    public void testInsertCollectionFailureDiscardsIndex() throws Exception {
+        final Iterator<Feature> features = ImmutableList.<Feature> of(points1, points2).iterator();
+        Iterator<Feature> failing = new AbstractIterator<Feature>() {
+            @Override
+            protected Feature computeNext() {
+                if (features.hasNext()) {
+                    return features.next();
+                }
+                throw new IllegalStateException("source failed");
+            }
+        };
+        try {
+            workTree.insert(pointsName, failing, LISTENER, null, 3);
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertEquals("source failed", e.getMessage());
+        }
+        assertFalse(workTree.findUnstaged(appendChild(pointsName, idP1)).isPresent());
+        // the node index of the tree that wasn't built is gone
+        String[] indexes = geogit.getPlatform().getTempDir().list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith("nodeindex");
+            }
+        });
+        assertEquals(0, indexes.length);
+    }
+
     @Test
     public void testInsertIncludingFeatureToDelete() throws Exception {
         List<Feature> featureList = new LinkedList<Feature>();
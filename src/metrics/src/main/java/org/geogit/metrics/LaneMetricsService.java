@@ -0,0 +1,78 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.geogit.api.Platform;
+import org.geogit.api.porcelain.ConfigException;
+import org.geogit.repository.ExecutionService;
+import org.geogit.repository.ExecutionService.Lane;
+import org.geogit.repository.ExecutionService.LaneStats;
+import org.geogit.storage.ConfigDatabase;
+
+import com.google.common.util.concurrent.AbstractScheduledService;
+import com.google.inject.Provider;
+
+/**
+ * Samples the utilization of the {@link ExecutionService} lanes while the repository is open, so
+ * that saturated lanes (tasks queued waiting for a thread) show up while the work is running.
+ */
+class LaneMetricsService extends AbstractScheduledService {
+
+    private Provider<Platform> platform;
+
+    private Provider<ConfigDatabase> configDb;
+
+    private Provider<ExecutionService> executionService;
+
+    // track the lanes that were busy in the last run to log once when they become idle, instead of
+    // flooding the log file while the repository is not being used
+    private Map<Lane, Boolean> lastBusy = new EnumMap<Lane, Boolean>(Lane.class);
+
+    public LaneMetricsService(final Provider<Platform> platform,
+            final Provider<ConfigDatabase> configDb,
+            final Provider<ExecutionService> executionService) {
+        this.platform = platform;
+        this.configDb = configDb;
+        this.executionService = executionService;
+    }
+
+    @Override
+    protected void runOneIteration() {
+        try {
+            Boolean enabled = configDb.get().get(MetricsModule.METRICS_ENABLED, Boolean.class)
+                    .or(Boolean.FALSE);
+            if (!enabled.booleanValue()) {
+                return;
+            }
+        } catch (ConfigException e) {
+            return;// not in a geogit repository
+        }
+
+        final long timestamp = platform.get().currentTimeMillis();
+        for (Lane lane : Lane.values()) {
+            LaneStats stats = executionService.get().getStats(lane);
+            boolean busy = stats.getActiveTasks() > 0 || stats.getQueuedTasks() > 0;
+            if (busy || Boolean.TRUE.equals(lastBusy.get(lane))) {
+                MetricsModule.LANES_LOGGER.info("{},{},{},{},{},{},{}", timestamp, lane,
+                        stats.getParallelism(), stats.getThreads(), stats.getActiveTasks(),
+                        stats.getQueuedTasks(), stats.getCompletedTasks());
+            }
+            lastBusy.put(lane, Boolean.valueOf(busy));
+        }
+    }
+
+    @Override
+    protected Scheduler scheduler() {
+        final long initialDelay = 5;
+        final long period = 2;
+        final TimeUnit unit = TimeUnit.SECONDS;
+        return Scheduler.newFixedRateSchedule(initialDelay, period, unit);
+    }
+
+}
@@ -8,6 +8,7 @@ import java.lang.management.ManagementFactory;
 
 import org.geogit.api.Platform;
 import org.geogit.di.GeogitModule;
+import org.geogit.repository.ExecutionService;
 import org.geogit.storage.ConfigDatabase;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,6 +44,11 @@ import com.google.inject.AbstractModule;
  * seconds, in the format
  * {@code <timestamp>,<heap memory usage in MB>,<non heap mem usage in MB>,<estimated number of objects pending finalization> }
  * 
+ * <li>{@code org.geogit.metrics.lanes}: used to log the utilization of each
+ * {@link ExecutionService} lane, every two seconds while the lane has tasks running or queued, in
+ * the format
+ * {@code <timestamp>,<lane>,<max threads>,<live threads>,<active tasks>,<queued tasks>,<completed tasks>}
+ * 
  * </ul>
  * 
  */
@@ -55,6 +61,8 @@ public class MetricsModule extends AbstractModule {
 
     public static final Logger MEMORY_LOGGER = LoggerFactory.getLogger("org.geogit.metrics.memory");
 
+    public static final Logger LANES_LOGGER = LoggerFactory.getLogger("org.geogit.metrics.lanes");
+
     public static final String METRICS_ENABLED = "metrics.enabled";
 
     public static final long startTimeSecs = ManagementFactory.getRuntimeMXBean().getStartTime() / 1000;
@@ -87,7 +95,13 @@ public class MetricsModule extends AbstractModule {
         final HeapMemoryMetricsService jvmMetricsService = new HeapMemoryMetricsService(
                 getProvider(Platform.class), getProvider(ConfigDatabase.class));
 
-        GeogitModule.bindDecorator(binder(), new RepositoryDecorator(jvmMetricsService));
+        // sample the execution lanes' utilization while the repository is open
+        final LaneMetricsService laneMetricsService = new LaneMetricsService(
+                getProvider(Platform.class), getProvider(ConfigDatabase.class),
+                getProvider(ExecutionService.class));
+
+        GeogitModule.bindDecorator(binder(), new RepositoryDecorator(jvmMetricsService,
+                laneMetricsService));
     }
 
 }
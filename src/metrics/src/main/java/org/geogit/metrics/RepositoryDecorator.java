@@ -4,21 +4,27 @@
  */
 package org.geogit.metrics;
 
+import java.util.List;
+
 import org.geogit.di.Decorator;
 import org.geogit.repository.Repository;
 import org.geogit.repository.Repository.RepositoryListener;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Service;
+
 /**
- * Shuts down the metrics service at repository close() event
+ * Starts the metrics services when the repository is opened and shuts them down at repository
+ * close() event
  */
 class RepositoryDecorator implements Decorator {
 
-    private HeapMemoryMetricsService service;
+    private List<Service> services;
 
     private RepositoryListener listener;
 
-    public RepositoryDecorator(HeapMemoryMetricsService service) {
-        this.service = service;
+    public RepositoryDecorator(Service... services) {
+        this.services = ImmutableList.copyOf(services);
     }
 
     @Override
@@ -33,12 +39,16 @@ class RepositoryDecorator implements Decorator {
 
                 @Override
                 public void opened(Repository repo) {
-                    service.startAsync().awaitRunning();
+                    for (Service service : services) {
+                        service.startAsync().awaitRunning();
+                    }
                 }
 
                 @Override
                 public void closed() {
-                    service.stopAsync();
+                    for (Service service : services) {
+                        service.stopAsync();
+                    }
                 }
             };
             ((Repository) subject).addListener(listener);
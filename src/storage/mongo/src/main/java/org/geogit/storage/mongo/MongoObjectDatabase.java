@@ -12,7 +12,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.geogit.api.ObjectId;
@@ -22,6 +22,7 @@ import org.geogit.api.RevFeatureType;
 import org.geogit.api.RevObject;
 import org.geogit.api.RevTag;
 import org.geogit.api.RevTree;
+import org.geogit.repository.ExecutionService;
 import org.geogit.repository.RepositoryConnectionException;
 import org.geogit.storage.BulkOpListener;
 import org.geogit.storage.ConfigDatabase;
@@ -313,7 +314,7 @@ public class MongoObjectDatabase implements ObjectDatabase {
         final AtomicBoolean cancelCondition = new AtomicBoolean();
 
         List<ObjectId> ids = Lists.newArrayListWithCapacity(bulkSize);
-        List<Future<?>> runningTasks = new ArrayList<Future<?>>(maxRunningTasks);
+        List<FutureTask<Void>> runningTasks = new ArrayList<FutureTask<Void>>(maxRunningTasks);
 
         BulkWriteOperation bulkOperation = collection.initializeOrderedBulkOperation();
         try {
@@ -325,7 +326,9 @@ public class MongoObjectDatabase implements ObjectDatabase {
 
                 if (ids.size() == bulkSize || !objects.hasNext()) {
                     InsertTask task = new InsertTask(bulkOperation, listener, ids, cancelCondition);
-                    runningTasks.add(executor.submit(task));
+                    FutureTask<Void> future = new FutureTask<Void>(task, null);
+                    executor.execute(future);
+                    runningTasks.add(future);
 
                     if (objects.hasNext()) {
                         bulkOperation = collection.initializeOrderedBulkOperation();
@@ -343,14 +346,14 @@ public class MongoObjectDatabase implements ObjectDatabase {
         }
     }
 
-    private void waitForTasks(List<Future<?>> runningTasks) {
-        // wait...
-        for (Future<?> f : runningTasks) {
-            try {
-                f.get();
-            } catch (Exception e) {
-                throw Throwables.propagate(e);
-            }
+    /**
+     * Waits for the insert tasks, running the ones no thread picked up yet in the calling thread,
+     * so that a {@code putAll} called from a task of the same shared executor can't deadlock
+     * waiting for a thread.
+     */
+    private void waitForTasks(List<FutureTask<Void>> runningTasks) {
+        for (FutureTask<Void> f : runningTasks) {
+            ExecutionService.await(f);
         }
         runningTasks.clear();
     }
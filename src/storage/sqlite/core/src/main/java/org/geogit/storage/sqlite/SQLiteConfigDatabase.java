@@ -9,6 +9,8 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.geogit.api.Platform;
 import org.geogit.api.plumbing.ResolveGeogitDir;
@@ -17,15 +19,37 @@ import org.geogit.api.porcelain.ConfigException.StatusCode;
 import org.geogit.storage.ConfigDatabase;
 
 import com.google.common.base.Optional;
+import com.google.common.base.Predicates;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
 
 /**
  * Base class for SQLite based config database.
+ * <p>
+ * Single value lookups and {@link #getAll()} are served from an immutable snapshot of all the
+ * config values, which is replaced when the config is changed through this class or the database
+ * file modification stamp changes. Snapshots are shared by all the instances for the same database
+ * file.
  * 
  * @author Justin Deoliveira, Boundless
  * 
  */
 public abstract class SQLiteConfigDatabase implements ConfigDatabase {
 
+    /**
+     * Snapshots of the config values, key'ed by database file
+     */
+    private static final Cache<File, Snapshot> SNAPSHOTS = CacheBuilder.newBuilder()
+            .maximumSize(100).<File, Snapshot> build();
+
+    /**
+     * Number of changes made through this class to each database file, a snapshot is only valid
+     * for the generation it was read at
+     */
+    private static final ConcurrentMap<File, AtomicLong> GENERATIONS = Maps.newConcurrentMap();
+
     final Platform platform;
 
     File lastWorkingDir;
@@ -62,12 +86,12 @@ public abstract class SQLiteConfigDatabase implements ConfigDatabase {
 
     @Override
     public Map<String, String> getAll() {
-        return all(local());
+        return Maps.newLinkedHashMap(snapshot(local()).values);
     }
 
     @Override
     public Map<String, String> getAllGlobal() {
-        return all(global());
+        return Maps.newLinkedHashMap(snapshot(global()).values);
     }
 
     @Override
@@ -103,25 +127,29 @@ public abstract class SQLiteConfigDatabase implements ConfigDatabase {
     @Override
     public void remove(String key) {
         remove(new Entry(key), local());
+        invalidate(local());
     }
 
     @Override
     public void removeGlobal(String key) {
         remove(new Entry(key), global());
+        invalidate(global());
     }
 
     @Override
     public void removeSection(String key) {
         removeAll(key, local());
+        invalidate(local());
     }
 
     @Override
     public void removeSectionGlobal(String key) {
         removeAll(key, global());
+        invalidate(global());
     }
 
     <T> Optional<T> get(Entry entry, Class<T> clazz, Config config) {
-        String raw = get(entry, config);
+        String raw = snapshot(config).values.get(entry.section + "." + entry.key);
         if (raw != null) {
             return Optional.of(convert(raw, clazz));
         }
@@ -135,6 +163,7 @@ public abstract class SQLiteConfigDatabase implements ConfigDatabase {
 
     void put(Entry entry, Object value, Config config) {
         put(entry, (String) (value != null ? value.toString() : null), config);
+        invalidate(config);
     }
 
     Config local() {
@@ -183,6 +212,69 @@ public abstract class SQLiteConfigDatabase implements ConfigDatabase {
         return global;
     }
 
+    /**
+     * @return the snapshot of the config values, re-reading them if the database file changed since
+     *         they were last read
+     */
+    Snapshot snapshot(Config config) {
+        final File key = config.file.getAbsoluteFile();
+        // read before the values, so that a change made while reading them discards the snapshot
+        final long generation = generation(key).get();
+        final long lastModified = config.file.lastModified();
+        final long length = config.file.length();
+        Snapshot snapshot = SNAPSHOTS.getIfPresent(key);
+        if (snapshot == null || snapshot.generation != generation
+                || snapshot.lastModified != lastModified || snapshot.length != length) {
+            snapshot = new Snapshot(generation, lastModified, length, all(config));
+            SNAPSHOTS.put(key, snapshot);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Discards the snapshot of the config values after a change, since it may happen within the
+     * resolution of the file modification time. Bumping the generation also discards the snapshots
+     * being read concurrently, which may have read the values from before the change.
+     */
+    void invalidate(Config config) {
+        final File key = config.file.getAbsoluteFile();
+        generation(key).incrementAndGet();
+        SNAPSHOTS.invalidate(key);
+    }
+
+    private static AtomicLong generation(File key) {
+        AtomicLong generation = GENERATIONS.get(key);
+        if (generation == null) {
+            AtomicLong created = new AtomicLong();
+            generation = GENERATIONS.putIfAbsent(key, created);
+            if (generation == null) {
+                generation = created;
+            }
+        }
+        return generation;
+    }
+
+    /**
+     * Immutable copy of the config values, key'ed by {@code <section>.<key>}
+     */
+    static class Snapshot {
+        final long generation;
+
+        final long lastModified;
+
+        final long length;
+
+        final ImmutableMap<String, String> values;
+
+        Snapshot(long generation, long lastModified, long length, Map<String, String> values) {
+            this.generation = generation;
+            this.lastModified = lastModified;
+            this.length = length;
+            // null values are the same as missing ones for lookups
+            this.values = ImmutableMap.copyOf(Maps.filterValues(values, Predicates.notNull()));
+        }
+    }
+
     protected static class Config {
         final File file;
 
@@ -0,0 +1,79 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+
+package org.geogit.rest.repository;
+
+import static org.geogit.rest.repository.RESTUtils.getGeogit;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.geogit.remote.CommitInfoBatch;
+import org.geogit.repository.Repository;
+import org.restlet.data.MediaType;
+import org.restlet.data.Request;
+import org.restlet.data.Status;
+import org.restlet.resource.OutputRepresentation;
+import org.restlet.resource.Representation;
+import org.restlet.resource.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.Closeables;
+
+/**
+ * Batched version of {@link ParentResource}, {@link DepthResource} and
+ * {@link AffectedFeaturesResource}, answering for a list of commits and optionally a range of
+ * their ancestors in a single request.
+ * <p>
+ * See {@link CommitInfoBatch} for the format of the request and the response.
+ */
+public class BatchCommitInfoResource extends Resource {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchCommitInfoResource.class);
+
+    @Override
+    public boolean allowPost() {
+        return true;
+    }
+
+    @Override
+    public void post(Representation entity) {
+        InputStream input = null;
+        Request request = getRequest();
+        try {
+            input = entity.getStream();
+            final CommitInfoBatch batch = CommitInfoBatch.readRequest(input);
+            final Repository repository = getGeogit(request).get().getRepository();
+            getResponse().setEntity(new CommitInfoRepresentation(repository, batch));
+        } catch (IOException e) {
+            LOGGER.warn("Error reading commit ids from {}", request.getClientInfo().getAddress(),
+                    e);
+            throw new RestletException(e.getMessage(), Status.CLIENT_ERROR_BAD_REQUEST, e);
+        } finally {
+            if (input != null)
+                Closeables.closeQuietly(input);
+        }
+    }
+
+    private static class CommitInfoRepresentation extends OutputRepresentation {
+
+        private final Repository repository;
+
+        private final CommitInfoBatch batch;
+
+        public CommitInfoRepresentation(Repository repository, CommitInfoBatch batch) {
+            super(MediaType.APPLICATION_OCTET_STREAM);
+            this.repository = repository;
+            this.batch = batch;
+        }
+
+        @Override
+        public void write(OutputStream out) throws IOException {
+            batch.writeInfo(repository, out);
+        }
+    }
+}
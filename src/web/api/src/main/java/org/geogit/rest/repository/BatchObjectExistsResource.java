@@ -0,0 +1,86 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+
+package org.geogit.rest.repository;
+
+import static org.geogit.rest.repository.RESTUtils.getGeogit;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.geogit.api.ObjectId;
+import org.geogit.repository.Repository;
+import org.restlet.data.MediaType;
+import org.restlet.data.Request;
+import org.restlet.data.Status;
+import org.restlet.resource.InputRepresentation;
+import org.restlet.resource.Representation;
+import org.restlet.resource.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.Closeables;
+
+/**
+ * Batched version of {@link ObjectExistsResource}.
+ * <p>
+ * The request is the number of objects (int) followed by their raw ids, and the response is a byte
+ * per object, {@code 1} if it exists and {@code 0} otherwise.
+ */
+public class BatchObjectExistsResource extends Resource {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchObjectExistsResource.class);
+
+    /**
+     * Maximum number of objects asked about in a single request
+     */
+    private static final int MAX_OBJECTS = 100 * 1000;
+
+    @Override
+    public boolean allowPost() {
+        return true;
+    }
+
+    @Override
+    public void post(Representation entity) {
+        InputStream input = null;
+        Request request = getRequest();
+        try {
+            input = entity.getStream();
+            DataInputStream data = new DataInputStream(input);
+            final int count = data.readInt();
+            if (count < 0 || count > MAX_OBJECTS) {
+                throw new RestletException("Can't check for " + count + " objects at once",
+                        Status.CLIENT_ERROR_BAD_REQUEST);
+            }
+            List<ObjectId> ids = new ArrayList<ObjectId>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] raw = new byte[ObjectId.NUM_BYTES];
+                data.readFully(raw);
+                ids.add(ObjectId.createNoClone(raw));
+            }
+
+            Repository repository = getGeogit(request).get().getRepository();
+            byte[] exists = new byte[count];
+            for (int i = 0; i < count; i++) {
+                exists[i] = (byte) (repository.blobExists(ids.get(i)) ? 1 : 0);
+            }
+            getResponse().setEntity(
+                    new InputRepresentation(new ByteArrayInputStream(exists),
+                            MediaType.APPLICATION_OCTET_STREAM));
+        } catch (IOException e) {
+            LOGGER.warn("Error reading object ids from {}", request.getClientInfo().getAddress(),
+                    e);
+            throw new RestletException(e.getMessage(), Status.CLIENT_ERROR_BAD_REQUEST, e);
+        } finally {
+            if (input != null)
+                Closeables.closeQuietly(input);
+        }
+    }
+}
@@ -12,13 +12,17 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.Reader;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.annotation.Nullable;
+
 import org.geogit.api.GeoGIT;
 import org.geogit.api.ObjectId;
 import org.geogit.api.plumbing.CreateDeduplicator;
 import org.geogit.remote.BinaryPackedObjects;
+import org.geogit.remote.PackCache;
 import org.geogit.repository.Repository;
 import org.geogit.storage.Deduplicator;
 import org.restlet.Context;
@@ -32,6 +36,7 @@ import org.restlet.resource.Resource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
 import com.google.common.io.CountingOutputStream;
 import com.google.gson.JsonArray;
@@ -79,6 +84,9 @@ public class BatchedObjectResource extends Finder {
             LOGGER.info("Serving request to send objects based on message {}", messageJson);
             final List<ObjectId> want = new ArrayList<ObjectId>();
             final List<ObjectId> have = new ArrayList<ObjectId>();
+            int packVersion = BinaryPackedObjects.VERSION_1;
+            long resumeFrom = 0;
+            ObjectId resumeAfter = null;
 
             if (messageJson.isJsonObject()) {
                 final JsonObject message = messageJson.getAsJsonObject();
@@ -104,6 +112,17 @@ public class BatchedObjectResource extends Finder {
                         have.add(ObjectId.valueOf(e.getAsJsonPrimitive().getAsString()));
                     }
                 }
+                if (message.has("packVersion") && message.get("packVersion").isJsonPrimitive()) {
+                    // clients that don't send it only understand version 1 streams
+                    packVersion = Math.min(BinaryPackedObjects.VERSION_3,
+                            message.get("packVersion").getAsInt());
+                }
+                if (packVersion != BinaryPackedObjects.VERSION_1 && message.has("resumeFrom")
+                        && message.has("resumeAfter")) {
+                    // client resuming an interrupted fetch of the same want and have lists
+                    resumeFrom = message.get("resumeFrom").getAsLong();
+                    resumeAfter = ObjectId.valueOf(message.get("resumeAfter").getAsString());
+                }
             }
 
             Request request = getRequest();
@@ -111,8 +130,11 @@ public class BatchedObjectResource extends Finder {
             final Repository repository = ggit.getRepository();
             final Deduplicator deduplicator = ggit.command(CreateDeduplicator.class).call();
 
-            BinaryPackedObjects packer = new BinaryPackedObjects(repository.stagingDatabase());
-            Representation rep = new RevObjectBinaryRepresentation(packer, want, have, deduplicator);
+            BinaryPackedObjects packer = new BinaryPackedObjects(repository.stagingDatabase(),
+                    repository.executionService());
+            Representation rep = new RevObjectBinaryRepresentation(packer, want, have,
+                    deduplicator, packVersion, resumeFrom, resumeAfter,
+                    PackCache.forRepository(repository));
             Response response = getResponse();
             response.setEntity(rep);
         }
@@ -127,25 +149,60 @@ public class BatchedObjectResource extends Finder {
 
         private Deduplicator deduplicator;
 
+        private final int packVersion;
+
+        private final long resumeFrom;
+
+        @Nullable
+        private final ObjectId resumeAfter;
+
+        private final Optional<PackCache> cache;
+
         public RevObjectBinaryRepresentation( //
                 BinaryPackedObjects packer, //
                 List<ObjectId> want, //
                 List<ObjectId> have, //
-                Deduplicator deduplicator) //
+                Deduplicator deduplicator, //
+                int packVersion, //
+                long resumeFrom, //
+                @Nullable ObjectId resumeAfter, //
+                Optional<PackCache> cache) //
         {
             super(MediaType.APPLICATION_OCTET_STREAM);
             this.packer = packer;
             this.want = want;
             this.have = have;
             this.deduplicator = deduplicator;
+            this.packVersion = packVersion;
+            this.resumeFrom = resumeFrom;
+            this.resumeAfter = resumeAfter;
+            this.cache = cache;
         }
 
         @Override
         public void write(final OutputStream out) throws IOException {
             CountingOutputStream counting = new CountingOutputStream(out);
             OutputStream output = counting;
+            PackCache.CachingOutputStream caching = null;
             try {
-                packer.write(output, want, have, false, deduplicator);
+                // resumed streams skip what the client has, so they're neither cached nor served
+                // from the cache
+                if (cache.isPresent() && resumeFrom == 0) {
+                    Optional<FileChannel> cached = cache.get().find(packVersion, want, have);
+                    if (cached.isPresent()) {
+                        LOGGER.info("Serving cached pack for want {} and have {}", want, have);
+                        PackCache.transfer(cached.get(), output);
+                        return;
+                    }
+                    caching = cache.get().store(packVersion, want, have, output);
+                    output = caching;
+                }
+                packer.write(output, want, have, false, deduplicator, packVersion, resumeFrom,
+                        resumeAfter);
+                if (caching != null) {
+                    caching.commit();
+                    caching = null;
+                }
             } catch (IOException e) {
                 e.printStackTrace();
                 throw e;
@@ -153,6 +210,9 @@ public class BatchedObjectResource extends Finder {
                 e.printStackTrace();
                 throw e;
             } finally {
+                if (caching != null) {
+                    caching.discard();
+                }
                 deduplicator.release();
             }
         }
@@ -0,0 +1,48 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+package org.geogit.rest.repository;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.List;
+
+import org.geogit.remote.BinaryPackedChanges;
+import org.restlet.Context;
+import org.restlet.data.MediaType;
+import org.restlet.data.Request;
+import org.restlet.data.Response;
+import org.restlet.resource.OutputRepresentation;
+import org.restlet.resource.Resource;
+import org.restlet.resource.Variant;
+
+/**
+ * Lists the optional features this server supports, one per line, so that clients only use them
+ * with servers that can handle them.
+ */
+public class CapabilitiesResource extends Resource {
+
+    @Override
+    public void init(Context context, Request request, Response response) {
+        super.init(context, request, response);
+        List<Variant> variants = getVariants();
+        variants.add(new CapabilitiesRepresentation());
+    }
+
+    private static class CapabilitiesRepresentation extends OutputRepresentation {
+
+        public CapabilitiesRepresentation() {
+            super(MediaType.TEXT_PLAIN);
+        }
+
+        @Override
+        public void write(OutputStream out) throws IOException {
+            PrintWriter w = new PrintWriter(out);
+            // ApplyChangesResource reads batched changes
+            w.println(BinaryPackedChanges.BATCHED_CHANGES_CAPABILITY);
+            w.flush();
+        }
+    }
+}
@@ -12,6 +12,7 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.Reader;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
@@ -88,6 +89,10 @@ public class FilteredChangesResource extends Finder {
 
                 ObjectId commitId = ObjectId.NULL;
 
+                boolean deltas = false;
+
+                boolean batched = false;
+
                 if (messageJson.isJsonObject()) {
                     final JsonObject message = messageJson.getAsJsonObject();
                     final JsonArray trackedArray;
@@ -107,6 +112,13 @@ public class FilteredChangesResource extends Finder {
                             tracked.add(ObjectId.valueOf(e.getAsJsonPrimitive().getAsString()));
                         }
                     }
+                    if (message.has("deltas") && message.get("deltas").isJsonPrimitive()) {
+                        deltas = message.get("deltas").getAsBoolean();
+                    }
+                    if (message.has("batched") && message.get("batched").isJsonPrimitive()) {
+                        // the client reads objects sent in batches
+                        batched = message.get("batched").getAsBoolean();
+                    }
 
                     if (message.has("filter") && message.get("filter").isJsonArray()) {
                         JsonArray filterArray = message.get("filter").getAsJsonArray();
@@ -166,9 +178,11 @@ public class FilteredChangesResource extends Finder {
                     }
                 };
 
+                // the client has the tracked features, changed ones can be sent as deltas
+                Set<ObjectId> deltaBases = deltas ? tracked : Collections.<ObjectId> emptySet();
                 getResponse().setEntity(
                         new FilteredDiffIteratorRepresentation(new BinaryPackedChanges(repository),
-                                filteredChanges));
+                                filteredChanges, deltaBases, batched));
 
             } catch (Exception e) {
                 throw new RuntimeException(e);
@@ -183,17 +197,23 @@ public class FilteredChangesResource extends Finder {
 
             private final FilteredDiffIterator changes;
 
+            private final Set<ObjectId> deltaBases;
+
+            private final boolean batched;
+
             public FilteredDiffIteratorRepresentation(BinaryPackedChanges packer,
-                    FilteredDiffIterator changes) {
+                    FilteredDiffIterator changes, Set<ObjectId> deltaBases, boolean batched) {
                 super(PACKED_OBJECTS);
                 this.changes = changes;
                 this.packer = packer;
+                this.deltaBases = deltaBases;
+                this.batched = batched;
             }
 
             @Override
             public void write(OutputStream out) throws IOException {
                 LOGGER.debug("Writing objects to remote...");
-                packer.write(out, changes);
+                packer.write(out, changes, deltaBases, batched);
                 // signal the end of changes
                 out.write(2);
                 if (changes.wasFiltered()) {
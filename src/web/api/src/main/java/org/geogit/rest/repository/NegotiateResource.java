@@ -0,0 +1,86 @@
+/* Copyright (c) 2014 OpenPlans. All rights reserved.
+ * This code is licensed under the BSD New License, available at the root
+ * application directory.
+ */
+
+package org.geogit.rest.repository;
+
+import static org.geogit.rest.repository.RESTUtils.getGeogit;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.geogit.remote.CommitSketch;
+import org.geogit.remote.ParentsNegotiation;
+import org.geogit.storage.GraphDatabase;
+import org.restlet.data.MediaType;
+import org.restlet.data.Request;
+import org.restlet.data.Status;
+import org.restlet.resource.OutputRepresentation;
+import org.restlet.resource.Representation;
+import org.restlet.resource.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+
+/**
+ * Walks the history from a commit until reaching the commits the client has according to the
+ * {@link CommitSketch} it sends, and answers the parents of every commit walked.
+ * <p>
+ * See {@link ParentsNegotiation} for the format of the request and the response. Requests larger
+ * than {@link ParentsNegotiation#MAX_REQUEST_SIZE} are rejected.
+ */
+public class NegotiateResource extends Resource {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NegotiateResource.class);
+
+    @Override
+    public boolean allowPost() {
+        return true;
+    }
+
+    @Override
+    public void post(Representation entity) {
+        if (entity.getSize() > ParentsNegotiation.MAX_REQUEST_SIZE) {
+            throw new RestletException("Negotiation request too large: " + entity.getSize()
+                    + " bytes", Status.CLIENT_ERROR_REQUEST_ENTITY_TOO_LARGE);
+        }
+        InputStream input = null;
+        Request request = getRequest();
+        try {
+            input = ByteStreams.limit(entity.getStream(), ParentsNegotiation.MAX_REQUEST_SIZE);
+            final ParentsNegotiation negotiation = ParentsNegotiation.readRequest(input);
+            final GraphDatabase graph = getGeogit(request).get().getRepository()
+                    .graphDatabase();
+            getResponse().setEntity(new ParentsRepresentation(graph, negotiation));
+        } catch (IOException e) {
+            LOGGER.warn("Error reading negotiation request from {}", request.getClientInfo()
+                    .getAddress(), e);
+            throw new RestletException(e.getMessage(), Status.CLIENT_ERROR_BAD_REQUEST, e);
+        } finally {
+            if (input != null)
+                Closeables.closeQuietly(input);
+        }
+    }
+
+    private static class ParentsRepresentation extends OutputRepresentation {
+
+        private final GraphDatabase graph;
+
+        private final ParentsNegotiation negotiation;
+
+        public ParentsRepresentation(GraphDatabase graph, ParentsNegotiation negotiation) {
+            super(MediaType.APPLICATION_OCTET_STREAM);
+            this.graph = graph;
+            this.negotiation = negotiation;
+        }
+
+        @Override
+        public void write(OutputStream out) throws IOException {
+            negotiation.writeParents(graph, out);
+        }
+    }
+}
@@ -12,14 +12,18 @@ public class RepositoryRouter extends Router {
         attach("/batchobjects", new BatchedObjectResource());
         attach("/sendobject", SendObjectResource.class);
         attach("/exists", ObjectExistsResource.class);
+        attach("/batchexists", BatchObjectExistsResource.class);
+        attach("/negotiate", NegotiateResource.class);
         attach("/beginpush", BeginPush.class);
         attach("/endpush", EndPush.class);
         attach("/getdepth", DepthResource.class);
         attach("/getparents", ParentResource.class);
         attach("/affectedfeatures", AffectedFeaturesResource.class);
+        attach("/commitinfo", BatchCommitInfoResource.class);
         attach("/filteredchanges", new FilteredChangesResource());
         attach("/applychanges", new ApplyChangesResource());
         attach("/mergefeature", MergeFeatureResource.class);
+        attach("/capabilities", CapabilitiesResource.class);
 
         Redirector redirector = new Redirector(getContext(), "console/",
                 Redirector.MODE_CLIENT_PERMANENT);
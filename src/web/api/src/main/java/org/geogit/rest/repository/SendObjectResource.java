@@ -47,7 +47,7 @@ public class SendObjectResource extends Resource {
             input = representation.getStream();
             final GeoGIT ggit = getGeogit(request).get();
             final BinaryPackedObjects unpacker = new BinaryPackedObjects(ggit.getRepository()
-                    .objectDatabase());
+                    .objectDatabase(), ggit.getRepository().executionService());
 
             CountingInputStream countingStream = new CountingInputStream(input);
 